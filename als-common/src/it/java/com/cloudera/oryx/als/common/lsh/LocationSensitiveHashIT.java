@@ -30,6 +30,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.cloudera.oryx.common.OryxTest;
+import com.cloudera.oryx.common.collection.ConcurrentLongFloatArrayMap;
 import com.cloudera.oryx.common.collection.LongObjectMap;
 import com.cloudera.oryx.common.collection.LongSet;
 import com.cloudera.oryx.common.math.SimpleVectorMath;
@@ -61,7 +62,7 @@ public final class LocationSensitiveHashIT extends OryxTest {
 
     for (int iteration = 0; iteration < ITERATIONS; iteration++) {
 
-      LongObjectMap<float[]> Y = new LongObjectMap<float[]>();
+      ConcurrentLongFloatArrayMap Y = new ConcurrentLongFloatArrayMap();
       for (int i = 0; i < NUM_ITEMS; i++) {
         Y.put(i, RandomUtils.randomUnitVector(NUM_FEATURES, random));
       }
@@ -91,7 +92,7 @@ public final class LocationSensitiveHashIT extends OryxTest {
     assertTrue(avgPercentAllItemsConsidered.getResult() < 0.09);
   }
 
-  private static double[] doTestRandomVecs(LongObjectMap<float[]> Y, float[] userVec) {
+  private static double[] doTestRandomVecs(ConcurrentLongFloatArrayMap Y, float[] userVec) {
 
     LocationSensitiveHash lsh = new LocationSensitiveHash(Y, 0.1, 20);
 
@@ -125,9 +126,11 @@ public final class LocationSensitiveHashIT extends OryxTest {
     return new double[] {percentTopRecsConsidered, ndcg, percentAllItemsConsidered};
   }
 
-  private static List<Long> findTopRecommendations(LongObjectMap<float[]> Y, float[] userVec) {
+  private static List<Long> findTopRecommendations(ConcurrentLongFloatArrayMap Y, float[] userVec) {
     SortedMap<Double,Long> allScores = Maps.newTreeMap(Collections.reverseOrder());
-    for (LongObjectMap.MapEntry<float[]> entry : Y.entrySet()) {
+    Iterator<LongObjectMap.MapEntry<float[]>> it = Y.entryIterator();
+    while (it.hasNext()) {
+      LongObjectMap.MapEntry<float[]> entry = it.next();
       double dot = SimpleVectorMath.dot(entry.getValue(), userVec);
       allScores.put(dot, entry.getKey());
     }
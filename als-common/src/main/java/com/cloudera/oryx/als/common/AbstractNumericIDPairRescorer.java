@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.common;
+
+/**
+ * Convenience superclass of {@link NumericIDPairRescorer}s. Subclasses implement only the methods
+ * taking numeric IDs; the {@link String} methods translate their arguments to numeric IDs and call these.
+ *
+ * @author Sean Owen
+ * @see AbstractNumericIDRescorer
+ */
+public abstract class AbstractNumericIDPairRescorer implements NumericIDPairRescorer {
+
+  @Override
+  public final double rescore(String a, String b, double originalScore) {
+    return rescore(StringLongMapping.toLong(a), StringLongMapping.toLong(b), originalScore);
+  }
+
+  @Override
+  public final boolean isFiltered(String a, String b) {
+    return isFiltered(StringLongMapping.toLong(a), StringLongMapping.toLong(b));
+  }
+
+}
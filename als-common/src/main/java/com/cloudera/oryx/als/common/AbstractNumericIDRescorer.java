@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.common;
+
+/**
+ * Convenience superclass of {@link NumericIDRescorer}s. Subclasses implement only the methods
+ * taking numeric IDs; the {@link String} methods translate their arguments to numeric IDs and call these,
+ * and the batch method calls {@link #rescore(long, double)} on each item not already excluded.
+ *
+ * @author Sean Owen
+ */
+public abstract class AbstractNumericIDRescorer implements NumericIDRescorer {
+
+  @Override
+  public final double rescore(String id, double originalScore) {
+    return rescore(StringLongMapping.toLong(id), originalScore);
+  }
+
+  @Override
+  public final boolean isFiltered(String id) {
+    return isFiltered(StringLongMapping.toLong(id));
+  }
+
+  @Override
+  public void rescore(long[] numericIDs, double[] scores, int size) {
+    for (int i = 0; i < size; i++) {
+      if (!Double.isNaN(scores[i])) {
+        scores[i] = rescore(numericIDs[i], scores[i]);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.common;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+import org.apache.commons.math3.util.FastMath;
+
+import com.cloudera.oryx.common.collection.LongArraySet;
+import com.cloudera.oryx.common.collection.LongFloatArrayMap;
+import com.cloudera.oryx.common.collection.LongObjectMap;
+import com.cloudera.oryx.common.collection.LongSet;
+import com.cloudera.oryx.common.iterator.LongPrimitiveIterator;
+
+/**
+ * <p>Reads and writes model data in a binary format. Unlike text, nothing has to be parsed to load it:
+ * files are memory-mapped and values are copied out in bulk. All values are little-endian.</p>
+ *
+ * <p>A feature matrix file, like for X or Y, starts with 4 {@code int}s: a magic number, format version,
+ * number of features, and number of rows. Then follow the rows' IDs as {@code long}s in ascending order, and
+ * then the rows' features as {@code float}s, row by row in the same order.</p>
+ *
+ * <p>A known items file starts with 3 {@code int}s: a magic number, format version, and number of users.
+ * Then follow the user IDs as {@code long}s in ascending order, the number of items for each user as
+ * {@code int}s, and then each user's item IDs as {@code long}s in ascending order.</p>
+ *
+ * @author Sean Owen
+ */
+public final class BinaryModelFiles {
+
+  /** Conventional suffix for files in this format. */
+  public static final String SUFFIX = ".bin";
+
+  private static final int FEATURES_MAGIC = 0x4F525846; // "ORXF"
+  private static final int KNOWN_ITEMS_MAGIC = 0x4F52584B; // "ORXK"
+  private static final int VERSION = 1;
+  /** Files are mapped at most this many bytes at a time. */
+  private static final int MAX_MAPPED_BYTES = 1 << 30;
+  /** Rows are read, and put into a map, this many at a time. */
+  private static final int ROWS_PER_BATCH = 4096;
+
+  private BinaryModelFiles() {
+  }
+
+  /**
+   * @param M feature matrix, as a map from row ID to features
+   * @param file file to write
+   * @throws IOException if an error occurs while writing
+   */
+  public static void writeFeatures(LongObjectMap<float[]> M, File file) throws IOException {
+    long[] ids = sortedKeys(M);
+    int features = ids.length == 0 ? 0 : M.get(ids[0]).length;
+    LittleEndianWriter out = new LittleEndianWriter(file);
+    try {
+      out.putInt(FEATURES_MAGIC);
+      out.putInt(VERSION);
+      out.putInt(features);
+      out.putInt(ids.length);
+      for (long id : ids) {
+        out.putLong(id);
+      }
+      for (long id : ids) {
+        float[] row = M.get(id);
+        Preconditions.checkArgument(row.length == features,
+                                    "Expected %s features but row %s has %s", features, id, row.length);
+        for (float f : row) {
+          out.putFloat(f);
+        }
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Reads rows in batches, and puts each batch into the map at once while holding the map's lock, so
+   * several files can be read into one map in parallel.
+   *
+   * @param file file to read
+   * @param M map to put the file's rows into
+   * @return number of rows read
+   * @throws IOException if an error occurs while reading
+   */
+  public static int readFeatures(File file, LongFloatArrayMap M) throws IOException {
+    RandomAccessFile in = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = in.getChannel();
+      IntBuffer header = map(channel, 0L, 4 * 4).asIntBuffer();
+      checkHeader(file, header, FEATURES_MAGIC);
+      int features = header.get();
+      int numRows = header.get();
+      if (numRows == 0) {
+        return 0;
+      }
+      long idsStart = 4 * 4;
+      LongBuffer ids = map(channel, idsStart, 8L * numRows).asLongBuffer();
+      long rowsStart = idsStart + 8L * numRows;
+      int rowsPerChunk = FastMath.max(1, MAX_MAPPED_BYTES / (4 * features));
+      long[] batchIDs = new long[FastMath.min(ROWS_PER_BATCH, numRows)];
+      float[] batchRows = new float[batchIDs.length * features];
+      for (int chunkStart = 0; chunkStart < numRows; chunkStart += rowsPerChunk) {
+        int chunkRows = FastMath.min(rowsPerChunk, numRows - chunkStart);
+        FloatBuffer rows =
+            map(channel, rowsStart + 4L * features * chunkStart, 4L * features * chunkRows).asFloatBuffer();
+        for (int batchStart = 0; batchStart < chunkRows; batchStart += ROWS_PER_BATCH) {
+          int batchSize = FastMath.min(ROWS_PER_BATCH, chunkRows - batchStart);
+          if (batchSize != batchIDs.length) {
+            batchIDs = new long[batchSize];
+            batchRows = new float[batchSize * features];
+          }
+          ids.get(batchIDs);
+          rows.get(batchRows);
+          synchronized (M) {
+            M.putAll(batchIDs, batchRows);
+          }
+        }
+      }
+      return numRows;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * @param knownItemIDs map from user IDs to the item IDs they're associated to
+   * @param file file to write
+   * @throws IOException if an error occurs while writing
+   */
+  public static void writeKnownItems(LongObjectMap<LongSet> knownItemIDs, File file) throws IOException {
+    long[] userIDs = sortedKeys(knownItemIDs);
+    LittleEndianWriter out = new LittleEndianWriter(file);
+    try {
+      out.putInt(KNOWN_ITEMS_MAGIC);
+      out.putInt(VERSION);
+      out.putInt(userIDs.length);
+      for (long userID : userIDs) {
+        out.putLong(userID);
+      }
+      for (long userID : userIDs) {
+        out.putInt(knownItemIDs.get(userID).size());
+      }
+      for (long userID : userIDs) {
+        LongSet itemIDs = knownItemIDs.get(userID);
+        long[] sortedItemIDs = new long[itemIDs.size()];
+        LongPrimitiveIterator it = itemIDs.iterator();
+        int i = 0;
+        while (it.hasNext()) {
+          sortedItemIDs[i++] = it.nextLong();
+        }
+        Arrays.sort(sortedItemIDs);
+        for (long itemID : sortedItemIDs) {
+          out.putLong(itemID);
+        }
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * @param file file to read
+   * @param knownItemIDs map to put each user's item IDs into
+   * @throws IOException if an error occurs while reading
+   */
+  public static void readKnownItems(File file, LongObjectMap<LongArraySet> knownItemIDs) throws IOException {
+    RandomAccessFile in = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = in.getChannel();
+      IntBuffer header = map(channel, 0L, 3 * 4).asIntBuffer();
+      checkHeader(file, header, KNOWN_ITEMS_MAGIC);
+      int numUsers = header.get();
+      if (numUsers == 0) {
+        return;
+      }
+      long userIDsStart = 3 * 4;
+      LongBuffer userIDs = map(channel, userIDsStart, 8L * numUsers).asLongBuffer();
+      long countsStart = userIDsStart + 8L * numUsers;
+      IntBuffer counts = map(channel, countsStart, 4L * numUsers).asIntBuffer();
+      long itemIDsStart = countsStart + 4L * numUsers;
+      long itemIDsEnd = channel.size();
+      LongBuffer itemIDs = null;
+      long mappedUntil = itemIDsStart;
+      for (int i = 0; i < numUsers; i++) {
+        long[] userItemIDs = new long[counts.get()];
+        if (itemIDs == null || itemIDs.remaining() < userItemIDs.length) {
+          // Map the next part of the file, starting from the first item not yet read
+          long mapStart = mappedUntil - (itemIDs == null ? 0L : 8L * itemIDs.remaining());
+          long mapSize = FastMath.min(itemIDsEnd - mapStart, MAX_MAPPED_BYTES);
+          Preconditions.checkState(mapSize >= 8L * userItemIDs.length, "Truncated file: %s", file);
+          itemIDs = map(channel, mapStart, mapSize).asLongBuffer();
+          mappedUntil = mapStart + mapSize;
+        }
+        itemIDs.get(userItemIDs);
+        knownItemIDs.put(userIDs.get(), LongArraySet.of(userItemIDs));
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private static long[] sortedKeys(LongObjectMap<?> map) {
+    long[] keys = new long[map.size()];
+    LongPrimitiveIterator it = map.keySetIterator();
+    int i = 0;
+    while (it.hasNext()) {
+      keys[i++] = it.nextLong();
+    }
+    Arrays.sort(keys);
+    return keys;
+  }
+
+  private static ByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+    return channel.map(FileChannel.MapMode.READ_ONLY, position, size).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private static void checkHeader(File file, IntBuffer header, int expectedMagic) {
+    int magic = header.get();
+    Preconditions.checkArgument(magic == expectedMagic, "Not a model file of the expected type: %s", file);
+    int version = header.get();
+    Preconditions.checkArgument(version == VERSION, "Unsupported version %s: %s", version, file);
+  }
+
+  /**
+   * Writes values little-endian, through a buffer.
+   */
+  private static final class LittleEndianWriter implements Closeable {
+
+    private final FileOutputStream out;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+
+    private LittleEndianWriter(File file) throws IOException {
+      out = new FileOutputStream(file);
+      channel = out.getChannel();
+      buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    void putInt(int value) throws IOException {
+      ensureRemaining(4);
+      buffer.putInt(value);
+    }
+
+    void putLong(long value) throws IOException {
+      ensureRemaining(8);
+      buffer.putLong(value);
+    }
+
+    void putFloat(float value) throws IOException {
+      ensureRemaining(4);
+      buffer.putFloat(value);
+    }
+
+    private void ensureRemaining(int bytes) throws IOException {
+      if (buffer.remaining() < bytes) {
+        flush();
+      }
+    }
+
+    private void flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        flush();
+      } finally {
+        out.close();
+      }
+    }
+
+  }
+
+}
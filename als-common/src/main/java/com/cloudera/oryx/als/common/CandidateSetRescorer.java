@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.common;
+
+import com.cloudera.oryx.common.collection.LongSet;
+
+/**
+ * <p>A {@link Rescorer} that only allows recommending items in a precomputed set, like items in stock, or
+ * in a category. The serving layer then skips other items before fetching or scoring them, rather than
+ * asking {@link #isFiltered(String)} about each, which makes filters that exclude most items cheap.</p>
+ *
+ * <p>Typically, a {@code RescorerProvider} computes the sets it needs up front,
+ * and refreshes them as it sees fit, and the rescorers it returns refer to one of them. The serving layer
+ * caches, for each set, a bitmap over the current model's items, and rebuilds these for each new model,
+ * so the same set object should be returned as long as its contents have not changed.</p>
+ *
+ * <p>The set applies wherever a {@link Rescorer} is used: recommendations for users and anonymous users,
+ * and most popular items. Similar-item queries use a {@link PairRescorer}, which has no candidate set,
+ * so {@link #isFiltered(String)} should still filter items outside the set if they must never be
+ * returned from those either.</p>
+ *
+ * @author Sean Owen
+ */
+public interface CandidateSetRescorer extends Rescorer {
+
+  /**
+   * @return numeric IDs (see {@link StringLongMapping#toLong(String)}) of the only items that may be
+   *  recommended, or {@code null} if all may be. Other items are treated as if filtered. The set must not be
+   *  modified after it is returned.
+   */
+  LongSet getCandidateItemIDs();
+
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.common;
+
+/**
+ * A {@link PairRescorer} that can work directly on numeric item IDs, as produced by
+ * {@link StringLongMapping#toLong(String)}. This is the analog of {@link NumericIDRescorer} for pairs.
+ *
+ * @author Sean Owen
+ * @see NumericIDRescorer
+ */
+public interface NumericIDPairRescorer extends PairRescorer {
+
+  /**
+   * @param a numeric ID of first item in pair to rescore
+   * @param b numeric ID of second item in pair to rescore
+   * @param originalScore original score from the recommender
+   * @return new score; return {@link Double#NaN} to exclude the pair from recommendation
+   */
+  double rescore(long a, long b, double originalScore);
+
+  /**
+   * @param a numeric ID of first item in pair to rescore
+   * @param b numeric ID of second item in pair to rescore
+   * @return true iff the pair should be removed from consideration
+   */
+  boolean isFiltered(long a, long b);
+
+}
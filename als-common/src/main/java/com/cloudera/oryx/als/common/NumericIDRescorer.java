@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.common;
+
+/**
+ * <p>A {@link Rescorer} that can work directly on numeric item IDs, as produced by
+ * {@link StringLongMapping#toLong(String)}. The serving layer uses these methods in preference to those
+ * taking {@link String} IDs when a {@link Rescorer} implements this interface, which saves looking up
+ * and creating a {@link String} for each candidate item.</p>
+ *
+ * <p>Implementations should still implement the {@link String} methods consistently. Extending
+ * {@link AbstractNumericIDRescorer} takes care of this.</p>
+ *
+ * @author Sean Owen
+ * @see NumericIDPairRescorer
+ */
+public interface NumericIDRescorer extends Rescorer {
+
+  /**
+   * @param numericID numeric ID of item to rescore
+   * @param originalScore original score from the recommender
+   * @return new score; return {@link Double#NaN} to exclude the item from recommendation
+   */
+  double rescore(long numericID, double originalScore);
+
+  /**
+   * Rescores a block of candidate items at once, which are known to not be filtered.
+   *
+   * @param numericIDs numeric IDs of items to rescore
+   * @param scores original scores from the recommender, in the same order, which are replaced with new scores.
+   *  Set a score to {@link Double#NaN} to exclude the item from recommendation. Scores that are already
+   *  {@link Double#NaN} must be left as is.
+   * @param size number of items to rescore, from the start of the arrays
+   */
+  void rescore(long[] numericIDs, double[] scores, int size);
+
+  /**
+   * @param numericID numeric ID of item to consider for filtering
+   * @return true iff the item should be removed from consideration
+   */
+  boolean isFiltered(long numericID);
+
+}
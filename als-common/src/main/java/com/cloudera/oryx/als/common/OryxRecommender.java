@@ -192,6 +192,21 @@ public interface OryxRecommender {
                                 boolean considerKnownItems,
                                 Rescorer rescorer) throws NoSuchUserException, NotReadyException;
 
+  /**
+   * Recommends to each of many users separately, as if by calling {@link #recommend(String, int, boolean, Rescorer)}
+   * for each, but in one pass over the items.
+   *
+   * @param rescorer rescoring function applied to all users' recommendations
+   * @return a {@link List} of recommendations for each user, in the same order as {@code userIDs}. The list
+   *  for a user that does not exist in the model is empty.
+   * @see #recommend(String, int, boolean, Rescorer)
+   * @throws NoSuchUserException if <em>none</em> of {@code userIDs} exist in the model
+   */
+  List<List<IDValue>> recommendToEach(String[] userIDs,
+                                      int howMany,
+                                      boolean considerKnownItems,
+                                      Rescorer rescorer) throws NoSuchUserException, NotReadyException;
+
   /**
    * Computes recommendations for a user that is not known to the model yet; instead, the user's
    * associated items are supplied to the method and it proceeds as if a user with these associated
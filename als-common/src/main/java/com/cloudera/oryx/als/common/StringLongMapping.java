@@ -15,19 +15,29 @@
 
 package com.cloudera.oryx.als.common;
 
+import java.util.Iterator;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Pattern;
 
+import com.google.common.base.Charsets;
+import com.google.common.collect.AbstractIterator;
+
 import com.cloudera.oryx.common.collection.LongObjectMap;
 import com.cloudera.oryx.common.random.RandomUtils;
 
 /**
- * Encapsulates a mapping from {@link String} to {@code long} and back. Given {@link String}s, it hashes
+ * <p>Encapsulates a mapping from {@link String} to {@code long} and back. Given {@link String}s, it hashes
  * them to {@code long} and stores the mapping, so that the original {@link String} can be recovered from the
  * {@code long}. In the rare case that two hash to the same value, the more recent mapping "wins" and overwrites
- * a previous value.
+ * a previous value.</p>
+ *
+ * <p>The mapping is split into stripes by numeric ID, each with its own lock, so that concurrent lookups and
+ * additions rarely contend. IDs are stored as UTF-8 bytes rather than {@link String}s, which takes about
+ * half the memory or less for typical IDs. Each stripe also keeps a small cache of the {@link String}s
+ * most recently looked up, so that IDs which are looked up often, like popular items, aren't decoded
+ * again each time.</p>
  *
  * @author Sean Owen
  */
@@ -43,12 +53,25 @@ public final class StringLongMapping {
   // long matching this will definitely be parseable)
   private static final Pattern MOST_LONGS_PATTERN = Pattern.compile("^-?\\d{1,18}$");
 
-  private final LongObjectMap<String> reverseMapping;
-  private final ReadWriteLock lock;
+  private static final int STRIPE_BITS = 6;
+  private static final int NUM_STRIPES = 1 << STRIPE_BITS;
+  /** Must be a power of 2. */
+  private static final int CACHE_SIZE_PER_STRIPE = 1024;
+
+  private final LongObjectMap<byte[]>[] reverseMappings;
+  private final ReadWriteLock[] locks;
+  /** Recently looked up IDs in each stripe, in a slot determined by numeric ID. Entries may be null. */
+  private final CachedID[][] caches;
 
+  @SuppressWarnings("unchecked")
   public StringLongMapping() {
-    reverseMapping = new LongObjectMap<String>();
-    lock = new ReentrantReadWriteLock();
+    reverseMappings = (LongObjectMap<byte[]>[]) new LongObjectMap<?>[NUM_STRIPES];
+    locks = new ReadWriteLock[NUM_STRIPES];
+    caches = new CachedID[NUM_STRIPES][CACHE_SIZE_PER_STRIPE];
+    for (int i = 0; i < NUM_STRIPES; i++) {
+      reverseMappings[i] = new LongObjectMap<byte[]>();
+      locks[i] = new ReentrantReadWriteLock();
+    }
   }
 
   public static long toLong(String id) {
@@ -74,10 +97,20 @@ public final class StringLongMapping {
    *  stored in the mapping
    */
   public void addMapping(String id, long numericID) {
-    Lock writeLock = lock.writeLock();
+    // Encode outside the lock
+    byte[] idBytes = id.getBytes(Charsets.UTF_8);
+    int hash = hash(numericID);
+    int stripe = stripe(hash);
+    Lock writeLock = locks[stripe].writeLock();
     writeLock.lock();
     try {
-      reverseMapping.put(numericID, id);
+      reverseMappings[stripe].put(numericID, idBytes);
+      CachedID[] cache = caches[stripe];
+      int slot = cacheSlot(hash);
+      CachedID cached = cache[slot];
+      if (cached != null && cached.numericID == numericID) {
+        cache[slot] = null;
+      }
     } finally {
       writeLock.unlock();
     }
@@ -89,25 +122,145 @@ public final class StringLongMapping {
    *   the argument as a {@link String}
    */
   public String toString(long numericID) {
-    String id = null;
-    Lock readLock = lock.readLock();
+    int hash = hash(numericID);
+    int stripe = stripe(hash);
+    CachedID[] cache = caches[stripe];
+    int slot = cacheSlot(hash);
+    Lock readLock = locks[stripe].readLock();
     readLock.lock();
     try {
-      id = reverseMapping.get(numericID);
+      CachedID cached = cache[slot];
+      if (cached != null && cached.numericID == numericID) {
+        return cached.id;
+      }
+      byte[] idBytes = reverseMappings[stripe].get(numericID);
+      String id = idBytes == null ? Long.toString(numericID) : new String(idBytes, Charsets.UTF_8);
+      // Readers may race to fill the slot, but entries are immutable, so whichever wins is fine
+      cache[slot] = new CachedID(numericID, id);
+      return id;
     } finally {
       readLock.unlock();
     }
-    return id == null ? Long.toString(numericID) : id;
   }
 
-  // Careful, this is controlled by the lock
-
+  /**
+   * @return a copy of the mapping from numeric IDs back to {@link String} IDs, as of when it was made.
+   *  Later changes to the mapping are not reflected in it.
+   * @see #reverseMappingIterator()
+   */
   public LongObjectMap<String> getReverseMapping() {
-    return reverseMapping;
+    LongObjectMap<String> copy = new LongObjectMap<String>();
+    Iterator<LongObjectMap.MapEntry<String>> it = reverseMappingIterator();
+    while (it.hasNext()) {
+      LongObjectMap.MapEntry<String> entry = it.next();
+      copy.put(entry.getKey(), entry.getValue());
+    }
+    return copy;
+  }
+
+  /**
+   * @return iterator over the mapping from numeric IDs back to {@link String} IDs. It copies one stripe of
+   *  the mapping at a time, as of when it reaches that stripe, rather than all of it at once. The entry it
+   *  returns is reused on each call to {@code next()}.
+   */
+  public Iterator<LongObjectMap.MapEntry<String>> reverseMappingIterator() {
+    return new ReverseMappingIterator();
+  }
+
+  private static int hash(long numericID) {
+    // Mix high bits in too, since numeric IDs that aren't hashes may differ only in those
+    int hash = (int) (numericID ^ (numericID >>> 32));
+    return hash ^ (hash >>> 16);
+  }
+
+  private static int stripe(int hash) {
+    return hash & (NUM_STRIPES - 1);
+  }
+
+  private static int cacheSlot(int hash) {
+    // Bits not already used to choose the stripe
+    return (hash >>> STRIPE_BITS) & (CACHE_SIZE_PER_STRIPE - 1);
+  }
+
+  private static final class CachedID {
+
+    private final long numericID;
+    private final String id;
+
+    private CachedID(long numericID, String id) {
+      this.numericID = numericID;
+      this.id = id;
+    }
+
   }
 
-  public ReadWriteLock getLock() {
-    return lock;
+  private final class ReverseMappingIterator extends AbstractIterator<LongObjectMap.MapEntry<String>> {
+
+    private int nextStripe;
+    private long[] stripeKeys;
+    private byte[][] stripeValues;
+    private int position;
+    private final MutableEntry entry;
+
+    private ReverseMappingIterator() {
+      stripeKeys = new long[0];
+      entry = new MutableEntry();
+    }
+
+    @Override
+    protected LongObjectMap.MapEntry<String> computeNext() {
+      while (position == stripeKeys.length) {
+        if (nextStripe == NUM_STRIPES) {
+          return endOfData();
+        }
+        copyStripe(nextStripe++);
+      }
+      entry.set(stripeKeys[position], new String(stripeValues[position], Charsets.UTF_8));
+      position++;
+      return entry;
+    }
+
+    private void copyStripe(int stripe) {
+      Lock readLock = locks[stripe].readLock();
+      readLock.lock();
+      try {
+        LongObjectMap<byte[]> reverseMapping = reverseMappings[stripe];
+        stripeKeys = new long[reverseMapping.size()];
+        stripeValues = new byte[stripeKeys.length][];
+        int i = 0;
+        for (LongObjectMap.MapEntry<byte[]> mapEntry : reverseMapping.entrySet()) {
+          stripeKeys[i] = mapEntry.getKey();
+          stripeValues[i] = mapEntry.getValue();
+          i++;
+        }
+      } finally {
+        readLock.unlock();
+      }
+      position = 0;
+    }
+
+  }
+
+  private static final class MutableEntry implements LongObjectMap.MapEntry<String> {
+
+    private long key;
+    private String value;
+
+    void set(long key, String value) {
+      this.key = key;
+      this.value = value;
+    }
+
+    @Override
+    public long getKey() {
+      return key;
+    }
+
+    @Override
+    public String getValue() {
+      return value;
+    }
+
   }
 
 }
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.common;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * <p>Keeps the top N IDs by value among those offered to it, in a min-heap stored as parallel primitive arrays.
+ * Nothing is allocated per offered value.</p>
+ *
+ * <p>This is not thread-safe. To find the top N across several threads, each can fill its own instance,
+ * and these can be combined at the end with {@link #addAll(TopNHeap)}. Values are ordered as in
+ * {@link ByValueAscComparator}, so the result does not depend on the order in which values are offered.</p>
+ *
+ * @author Sean Owen
+ * @see TopN
+ */
+public final class TopNHeap {
+
+  private final int n;
+  private final long[] ids;
+  private final float[] values;
+  private int size;
+
+  /**
+   * @param n how many top values to keep
+   */
+  public TopNHeap(int n) {
+    Preconditions.checkArgument(n > 0, "n must be positive");
+    this.n = n;
+    ids = new long[n];
+    values = new float[n];
+  }
+
+  /**
+   * @return number of values currently kept, at most n
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @param values stream of values from which to choose; {@code null} elements are skipped
+   */
+  public void offerAll(Iterator<NumericIDValue> values) {
+    while (values.hasNext()) {
+      NumericIDValue value = values.next();
+      if (value != null) {
+        offer(value.getID(), value.getValue());
+      }
+    }
+  }
+
+  /**
+   * @param id ID to consider
+   * @param value value associated with the ID
+   * @return true iff the ID was kept, because it's among the top n so far
+   */
+  public boolean offer(long id, float value) {
+    if (size < n) {
+      int i = size++;
+      // Sift up
+      while (i > 0) {
+        int parent = (i - 1) >>> 1;
+        if (!isLess(id, value, ids[parent], values[parent])) {
+          break;
+        }
+        ids[i] = ids[parent];
+        values[i] = values[parent];
+        i = parent;
+      }
+      ids[i] = id;
+      values[i] = value;
+      return true;
+    }
+    if (!isLess(ids[0], values[0], id, value)) {
+      return false;
+    }
+    // Replace least value at root and sift down
+    int i = 0;
+    int half = size >>> 1;
+    while (i < half) {
+      int child = 2 * i + 1;
+      int right = child + 1;
+      if (right < size && isLess(ids[right], values[right], ids[child], values[child])) {
+        child = right;
+      }
+      if (!isLess(ids[child], values[child], id, value)) {
+        break;
+      }
+      ids[i] = ids[child];
+      values[i] = values[child];
+      i = child;
+    }
+    ids[i] = id;
+    values[i] = value;
+    return true;
+  }
+
+  /**
+   * @param other heap whose values should be offered to this one
+   */
+  public void addAll(TopNHeap other) {
+    for (int i = 0; i < other.size; i++) {
+      offer(other.ids[i], other.values[i]);
+    }
+  }
+
+  /**
+   * @return top values, ordered by value descending
+   */
+  public List<NumericIDValue> toList() {
+    List<NumericIDValue> result = Lists.newArrayListWithCapacity(size);
+    for (int i = 0; i < size; i++) {
+      result.add(new NumericIDValue(ids[i], values[i]));
+    }
+    Collections.sort(result, Collections.reverseOrder(ByValueAscComparator.INSTANCE));
+    return result;
+  }
+
+  /**
+   * Like {@link #toList()}, but copies top values into arrays rather than creating an object for each.
+   *
+   * @param toIDs receives top IDs, ordered by value descending. Its length must be at least {@link #size()}.
+   * @param toValues receives the corresponding values
+   * @return number of values copied, which is {@link #size()}
+   */
+  public int toArrays(long[] toIDs, float[] toValues) {
+    System.arraycopy(ids, 0, toIDs, 0, size);
+    System.arraycopy(values, 0, toValues, 0, size);
+    // Heap sort the copy: repeatedly swap the least value at the root to the end, and restore the heap before it
+    for (int end = size - 1; end > 0; end--) {
+      long endID = toIDs[end];
+      float endValue = toValues[end];
+      toIDs[end] = toIDs[0];
+      toValues[end] = toValues[0];
+      int i = 0;
+      int half = end >>> 1;
+      while (i < half) {
+        int child = 2 * i + 1;
+        int right = child + 1;
+        if (right < end && isLess(toIDs[right], toValues[right], toIDs[child], toValues[child])) {
+          child = right;
+        }
+        if (!isLess(toIDs[child], toValues[child], endID, endValue)) {
+          break;
+        }
+        toIDs[i] = toIDs[child];
+        toValues[i] = toValues[child];
+        i = child;
+      }
+      toIDs[i] = endID;
+      toValues[i] = endValue;
+    }
+    return size;
+  }
+
+  /**
+   * Same ordering as {@link ByValueAscComparator}: by value ascending, then by ID descending.
+   */
+  private static boolean isLess(long aID, float aValue, long bID, float bValue) {
+    return aValue < bValue || (aValue == bValue && aID > bID);
+  }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.common.candidate;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.cloudera.oryx.common.collection.ConcurrentLongFloatArrayMap;
+import com.cloudera.oryx.common.collection.LongObjectMap;
+import com.cloudera.oryx.common.collection.LongSet;
+import com.cloudera.oryx.common.iterator.LongPrimitiveIterator;
+
+/**
+ * Iterators over candidate items, as item ID and feature vector entries, used by the indexes
+ * ({@link com.cloudera.oryx.als.common.lsh.LocationSensitiveHash},
+ * {@link com.cloudera.oryx.als.common.ivf.InvertedFileIndex}) that choose candidates.
+ *
+ * @author Sean Owen
+ */
+public final class CandidateIterators {
+
+  private CandidateIterators() {
+  }
+
+  /**
+   * @param ids IDs of candidate items
+   * @param Y item-feature matrix
+   * @return iterator over the items and their feature vectors. The same entry object is returned each time.
+   */
+  public static Iterator<LongObjectMap.MapEntry<float[]>> forIDs(long[] ids, ConcurrentLongFloatArrayMap Y) {
+    return new IDArrayToEntryIterator(ids, Y);
+  }
+
+  /**
+   * Adds an iterator over items added since the index was built, if there are any.
+   *
+   * @param inputs iterators over candidates, to add to
+   * @param newItems IDs of items added since the index was built, which is synchronized on while read
+   * @param Y item-feature matrix
+   */
+  public static void addNewItems(Collection<Iterator<LongObjectMap.MapEntry<float[]>>> inputs,
+                                 LongSet newItems,
+                                 ConcurrentLongFloatArrayMap Y) {
+    synchronized (newItems) {
+      if (!newItems.isEmpty()) {
+        // Have to clone because it's being written to
+        inputs.add(new IDToEntryIterator(newItems.clone().iterator(), Y));
+      }
+    }
+  }
+
+  /**
+   * @see IDArrayToEntryIterator
+   */
+  private static final class IDToEntryIterator implements Iterator<LongObjectMap.MapEntry<float[]>> {
+
+    private final LongPrimitiveIterator input;
+    private final ConcurrentLongFloatArrayMap Y;
+    private final MutableMapEntry delegate;
+
+    private IDToEntryIterator(LongPrimitiveIterator input, ConcurrentLongFloatArrayMap Y) {
+      this.input = input;
+      this.Y = Y;
+      this.delegate = new MutableMapEntry();
+    }
+
+    @Override
+    public boolean hasNext() {
+      return input.hasNext();
+    }
+
+    @Override
+    public LongObjectMap.MapEntry<float[]> next() {
+      // Will throw NoSuchElementException if needed:
+      long itemID = input.nextLong();
+      delegate.set(itemID, Y.get(itemID));
+      return delegate;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+  }
+
+  /**
+   * @see IDToEntryIterator
+   */
+  private static final class IDArrayToEntryIterator implements Iterator<LongObjectMap.MapEntry<float[]>> {
+
+    private int offset;
+    private final long[] input;
+    private final ConcurrentLongFloatArrayMap Y;
+    private final MutableMapEntry delegate;
+
+    private IDArrayToEntryIterator(long[] input, ConcurrentLongFloatArrayMap Y) {
+      this.input = input;
+      this.Y = Y;
+      this.delegate = new MutableMapEntry();
+    }
+
+    @Override
+    public boolean hasNext() {
+      return offset < input.length;
+    }
+
+    @Override
+    public LongObjectMap.MapEntry<float[]> next() {
+      if (offset >= input.length) {
+        throw new NoSuchElementException();
+      }
+      long itemID = input[offset++];
+      delegate.set(itemID, Y.get(itemID));
+      return delegate;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+  }
+
+  private static final class MutableMapEntry implements LongObjectMap.MapEntry<float[]> {
+
+    private long key;
+    private float[] value;
+
+    @Override
+    public long getKey() {
+      return key;
+    }
+
+    @Override
+    public float[] getValue() {
+      return value;
+    }
+
+    public void set(long key, float[] value) {
+      this.key = key;
+      this.value = value;
+    }
+  }
+
+}
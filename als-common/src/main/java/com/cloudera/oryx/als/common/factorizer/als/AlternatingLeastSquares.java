@@ -22,17 +22,18 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.primitives.Doubles;
+import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.typesafe.config.Config;
-import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.random.RandomGenerator;
 import org.apache.commons.math3.util.FastMath;
-import org.apache.commons.math3.util.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -47,6 +48,7 @@ import com.cloudera.oryx.common.settings.ConfigUtils;
 import com.cloudera.oryx.common.stats.DoubleWeightedMean;
 import com.cloudera.oryx.common.stats.JVMEnvironment;
 import com.cloudera.oryx.common.math.MatrixUtils;
+import com.cloudera.oryx.common.math.NormalEquations;
 import com.cloudera.oryx.als.common.factorizer.MatrixFactorizer;
 
 /**
@@ -126,7 +128,8 @@ public final class AlternatingLeastSquares implements MatrixFactorizer {
 
   private static final Logger log = LoggerFactory.getLogger(AlternatingLeastSquares.class);
 
-  private static final int WORK_UNIT_SIZE = 100;
+  /** Rows are divided into about this many chunks of work per thread */
+  private static final int CHUNKS_PER_THREAD = 16;
   private static final int NUM_USER_ITEMS_TO_TEST_CONVERGENCE = 100;
   
   private static final long LOG_INTERVAL = 100000;
@@ -137,6 +140,13 @@ public final class AlternatingLeastSquares implements MatrixFactorizer {
   private final int features;
   private final double estimateErrorConvergenceThreshold;
   private final int maxIterations;
+  private final Config config;
+  private final double alpha;
+  private final double lambda;
+  private final boolean reconstructRMatrix;
+  private final boolean lossIgnoresUnspecified;
+  private final RowSolverType solverType;
+  private final int heavyRowValues;
   private LongObjectMap<float[]> X;
   private LongObjectMap<float[]> Y;
   private LongObjectMap<float[]> previousY;
@@ -164,6 +174,19 @@ public final class AlternatingLeastSquares implements MatrixFactorizer {
     this.features = features;
     this.estimateErrorConvergenceThreshold = estimateErrorConvergenceThreshold;
     this.maxIterations = maxIterations;
+
+    config = ConfigUtils.getDefaultConfig();
+    alpha = config.getDouble("model.alpha");
+    lambda = config.getDouble("model.lambda") * alpha;
+    // This will cause the ALS algorithm to reconstruction the input matrix R, rather than the
+    // matrix P = R > 0 . Don't use this unless you understand it!
+    reconstructRMatrix = config.getBoolean("model.reconstruct-r-matrix");
+    // Causes the loss function to exclude entries for any input pairs that do not appear in the
+    // input and are implicitly 0
+    // Likewise, don't touch this for now unless you know what it does.
+    lossIgnoresUnspecified = config.getBoolean("model.loss-ignores-unspecified");
+    solverType = RowSolverType.fromConfig(config);
+    heavyRowValues = config.getInt("model.heavy-row-values");
   }
 
   @Override
@@ -202,6 +225,12 @@ public final class AlternatingLeastSquares implements MatrixFactorizer {
 
     log.info("Iterating using {} threads", numThreads);
 
+    int numChunks = numThreads * CHUNKS_PER_THREAD;
+    // Splitting rows among threads only helps if there's more than one, and if the solver can use it
+    int minValuesToSplit = numThreads > 1 && solverType.splitsHeavyRows() ? heavyRowValues : Integer.MAX_VALUE;
+    Rows rows = new Rows(RbyRow, X, features, numChunks, minValuesToSplit);
+    Rows columns = new Rows(RbyColumn, Y, features, numChunks, minValuesToSplit);
+
     RandomGenerator random = RandomManager.getRandom();
     long[] testUserIDs = RandomUtils.chooseAboutNFromStream(NUM_USER_ITEMS_TO_TEST_CONVERGENCE, 
                                                             RbyRow.keySetIterator(), 
@@ -224,8 +253,8 @@ public final class AlternatingLeastSquares implements MatrixFactorizer {
     try {
       int iterationNumber = 0;
       while (true) {
-        iterateXFromY(executor);
-        iterateYFromX(executor);
+        iterate(executor, numThreads, rows, Y, X, "X");
+        iterate(executor, numThreads, columns, X, Y, "Y");
         DoubleWeightedMean averageAbsoluteEstimateDiff = new DoubleWeightedMean();
         for (int i = 0; i < testUserIDs.length; i++) {
           for (int j = 0; j < testItemIDs.length; j++) {
@@ -338,206 +367,276 @@ public final class AlternatingLeastSquares implements MatrixFactorizer {
   }
 
   /**
-   * Runs one iteration to compute X from Y.
+   * Runs one half-iteration: computes each row of X (or Y) from the fixed Y (or X), then publishes the
+   * new rows to X (or Y).
+   *
+   * @param rows rows of R to solve for, and their current values
+   * @param M fixed matrix, Y or X
+   * @param MTags matrix being computed, X or Y
+   * @param name name of the matrix being computed, for logging
    */
-  private void iterateXFromY(ExecutorService executor) throws ExecutionException, InterruptedException {
-
-    RealMatrix YTY = MatrixUtils.transposeTimesSelf(Y);
-    Collection<Future<?>> futures = Lists.newArrayList();
-    addWorkers(RbyRow, Y, YTY, X, executor, futures);
-
-    int count = 0;
-    long total = 0;
+  private void iterate(ExecutorService executor,
+                       int numThreads,
+                       Rows rows,
+                       LongObjectMap<float[]> M,
+                       LongObjectMap<float[]> MTags,
+                       String name) throws ExecutionException, InterruptedException {
+    RealMatrix MTM = MatrixUtils.transposeTimesSelf(M);
+    AtomicLong rowsDone = new AtomicLong();
+    if (rows.heavyRows.length > 0) {
+      solveHeavyRows(executor, numThreads, rows, M, MTM);
+      long after = rowsDone.addAndGet(rows.heavyRows.length);
+      logProgress(0, after, name);
+    }
+    AtomicInteger nextChunk = new AtomicInteger();
+    Collection<Future<?>> futures = Lists.newArrayListWithCapacity(numThreads);
+    for (int i = 0; i < numThreads; i++) {
+      futures.add(executor.submit(new Worker(rows, M, MTM, nextChunk, rowsDone, name)));
+    }
     for (Future<?> f : futures) {
       f.get();
-      count += WORK_UNIT_SIZE;
-      if (count >= LOG_INTERVAL) {
-        total += count;
-        JVMEnvironment env = new JVMEnvironment();
-        log.info("{} X/tag rows computed ({}MB heap)", total, env.getUsedMemoryMB());
-        if (env.getPercentUsedMemory() > 95) {
-          log.warn("Memory is low. Increase heap size with -Xmx, decrease new generation size with larger " +
-                   "-XX:NewRatio value, and/or use -XX:+UseCompressedOops");
-        }
-        count = 0;
+    }
+    // Only now that all workers are done, publish the new rows; nothing reads MTags meanwhile
+    long[] ids = rows.ids;
+    float[][] solutions = rows.solutions;
+    for (int i = 0; i < ids.length; i++) {
+      MTags.put(ids[i], solutions[i]);
+    }
+  }
+
+  /**
+   * Solves rows that are too costly to be solved by one thread without holding up the rest. The terms for
+   * each row's values are split among all threads, and then added together and solved.
+   */
+  private void solveHeavyRows(ExecutorService executor,
+                              int numThreads,
+                              Rows rows,
+                              final LongObjectMap<float[]> M,
+                              RealMatrix MTM) throws ExecutionException, InterruptedException {
+    final NormalEquations[] partials = new NormalEquations[numThreads];
+    for (int slice = 0; slice < numThreads; slice++) {
+      partials[slice] = solverType.newNormalEquations(features, config);
+    }
+    NormalEquations equations = solverType.newNormalEquations(features, config);
+    final int numSlices = numThreads;
+    for (int i : rows.heavyRows) {
+      final LongFloatMap ru = rows.values[i];
+      log.debug("Splitting row {} with {} values over {} threads", rows.ids[i], ru.size(), numSlices);
+      Collection<Future<?>> futures = Lists.newArrayListWithCapacity(numSlices);
+      for (int slice = 0; slice < numSlices; slice++) {
+        final int theSlice = slice;
+        futures.add(executor.submit(new Callable<Object>() {
+          @Override
+          public Void call() {
+            NormalEquations partial = partials[theSlice];
+            partial.reset(null);
+            addRowTerms(partial, ru, M, theSlice, numSlices);
+            return null;
+          }
+        }));
+      }
+      for (Future<?> f : futures) {
+        f.get();
       }
+      equations.reset(lossIgnoresUnspecified ? null : MTM);
+      for (NormalEquations partial : partials) {
+        equations.add(partial);
+      }
+      equations.addToDiagonal(lambda * ru.size());
+      rows.solutions[i] = equations.solve(solverType.usesPreviousValue() ? rows.solutions[i] : null);
     }
   }
 
   /**
-   * Runs one iteration to compute Y from X.
+   * Adds to Wu and YTCupu the terms for one row's values. Only every {@code numSlices}-th value,
+   * starting from the {@code slice}-th, is added, so that the work for one row can be split.
    */
-  private void iterateYFromX(ExecutorService executor) throws ExecutionException, InterruptedException {
+  private void addRowTerms(NormalEquations equations,
+                           LongFloatMap ru,
+                           LongObjectMap<float[]> Y,
+                           int slice,
+                           int numSlices) {
+    int index = 0;
+    for (LongFloatMap.MapEntry entry : ru.entrySet()) {
+      if (index++ % numSlices != slice) {
+        continue;
+      }
 
-    RealMatrix XTX = MatrixUtils.transposeTimesSelf(X);
-    Collection<Future<?>> futures = Lists.newArrayList();
-    addWorkers(RbyColumn, X, XTX, Y, executor, futures);
+      double xu = entry.getValue();
 
-    int count = 0;
-    long total = 0;
-    for (Future<?> f : futures) {
-      f.get();
-      count += WORK_UNIT_SIZE;
-      if (count >= LOG_INTERVAL) {
-        total += count;
-        JVMEnvironment env = new JVMEnvironment();
-        log.info("{} Y/tag rows computed ({}MB heap)", total, env.getUsedMemoryMB());
-        if (env.getPercentUsedMemory() > 95) {
-          log.warn("Memory is low. Increase heap size with -Xmx, decrease new generation size with larger " +
-                   "-XX:NewRatio value, and/or use -XX:+UseCompressedOops");
+      float[] vector = Y.get(entry.getKey());
+      if (vector == null) {
+        log.warn("No vector for {}. This should not happen. Continuing...", entry.getKey());
+        continue;
+      }
+
+      // Wu and YTCupu
+      double weight = lossIgnoresUnspecified ? 1.0 : 0.0;
+      if (reconstructRMatrix) {
+        equations.addToB(vector, xu);
+      } else {
+        double cu = 1.0 + alpha * FastMath.abs(xu);
+        weight += cu - 1.0;
+        if (xu > 0.0) {
+          equations.addToB(vector, cu);
         }
-        count = 0;
       }
+      equations.addOuterProduct(vector, weight);
+
     }
   }
 
-  private void addWorkers(LongObjectMap<LongFloatMap> R,
-                          LongObjectMap<float[]> M,
-                          RealMatrix MTM, 
-                          LongObjectMap<float[]> MTags,
-                          ExecutorService executor,                          
-                          Collection<Future<?>> futures) {
-    if (R != null) {
-      List<Pair<Long, LongFloatMap>> workUnit = Lists.newArrayListWithCapacity(WORK_UNIT_SIZE);
+  private static void logProgress(long before, long after, String name) {
+    if (before / LOG_INTERVAL == after / LOG_INTERVAL) {
+      return;
+    }
+    JVMEnvironment env = new JVMEnvironment();
+    log.info("{} {}/tag rows computed ({}MB heap)", after, name, env.getUsedMemoryMB());
+    if (env.getPercentUsedMemory() > 95) {
+      log.warn("Memory is low. Increase heap size with -Xmx, decrease new generation size with larger " +
+               "-XX:NewRatio value, and/or use -XX:+UseCompressedOops");
+    }
+  }
+
+  /**
+   * Rows of R, by row or column, indexed densely so that each row's solution has its own slot, which its
+   * worker writes without locking. Rows are divided into chunks of about equal cost, which is taken to be
+   * proportional to a row's number of values plus the number of features. Rows that cost more than a
+   * chunk by themselves, and have enough values, are heavy; they're put at the end and not in any chunk.
+   */
+  private static final class Rows {
+
+    private final long[] ids;
+    private final LongFloatMap[] values;
+    /** Current value of each row. This is the previous iteration's value until a worker solves it. */
+    private final float[][] solutions;
+    /** Index of first row in each chunk, followed by number of rows that aren't heavy */
+    private final int[] chunkStarts;
+    /** Indices of heavy rows */
+    private final int[] heavyRows;
+
+    private Rows(LongObjectMap<LongFloatMap> R,
+                 LongObjectMap<float[]> current,
+                 int features,
+                 int numChunks,
+                 int minValuesToSplit) {
+      long totalCost = 0;
       for (LongObjectMap.MapEntry<LongFloatMap> entry : R.entrySet()) {
-        workUnit.add(new Pair<Long,LongFloatMap>(entry.getKey(), entry.getValue()));
-        if (workUnit.size() == WORK_UNIT_SIZE) {
-          futures.add(executor.submit(new Worker(features, M, MTM, MTags, workUnit)));
-          workUnit = Lists.newArrayListWithCapacity(WORK_UNIT_SIZE);
+        totalCost += entry.getValue().size() + features;
+      }
+      long chunkCost = FastMath.max(1L, totalCost / numChunks);
+
+      int numRows = R.size();
+      ids = new long[numRows];
+      values = new LongFloatMap[numRows];
+      solutions = new float[numRows][];
+      // Fill rows that aren't heavy from the front, and heavy rows from the back
+      int numLight = 0;
+      int firstHeavy = numRows;
+      for (LongObjectMap.MapEntry<LongFloatMap> entry : R.entrySet()) {
+        LongFloatMap rowValues = entry.getValue();
+        int size = rowValues.size();
+        boolean heavy = size >= minValuesToSplit && size + features > chunkCost;
+        int i = heavy ? --firstHeavy : numLight++;
+        long id = entry.getKey();
+        ids[i] = id;
+        values[i] = rowValues;
+        solutions[i] = current.get(id);
+      }
+
+      List<Integer> starts = Lists.newArrayListWithCapacity(numChunks + 1);
+      long cost = 0;
+      for (int row = 0; row < numLight; row++) {
+        if (cost == 0) {
+          starts.add(row);
+        }
+        cost += values[row].size() + features;
+        if (cost >= chunkCost) {
+          cost = 0;
         }
       }
-      if (!workUnit.isEmpty()) {
-        futures.add(executor.submit(new Worker(features, M, MTM, MTags, workUnit)));
+      starts.add(numLight);
+      chunkStarts = Ints.toArray(starts);
+
+      heavyRows = new int[numRows - firstHeavy];
+      for (int i = 0; i < heavyRows.length; i++) {
+        heavyRows[i] = firstHeavy + i;
       }
     }
+
+    private int getNumChunks() {
+      return chunkStarts.length - 1;
+    }
+
   }
 
-  private static final class Worker implements Callable<Object> {
+  /**
+   * Solves chunks of rows until none are left. One is run per thread; since each takes the next chunk as
+   * it finishes the last one, threads stay busy until the very end even if chunks vary in cost.
+   */
+  private final class Worker implements Callable<Object> {
 
-    private final int features;
+    private final Rows rows;
     private final LongObjectMap<float[]> Y;
     private final RealMatrix YTY;
-    private final LongObjectMap<float[]> X;
-    private final Iterable<Pair<Long, LongFloatMap>> workUnit;
+    private final AtomicInteger nextChunk;
+    private final AtomicLong rowsDone;
+    private final String name;
 
-    private Worker(int features,
+    private Worker(Rows rows,
                    LongObjectMap<float[]> Y,
                    RealMatrix YTY,
-                   LongObjectMap<float[]> X,
-                   Iterable<Pair<Long, LongFloatMap>> workUnit) {
-      this.features = features;
+                   AtomicInteger nextChunk,
+                   AtomicLong rowsDone,
+                   String name) {
+      this.rows = rows;
       this.Y = Y;
       this.YTY = YTY;
-      this.X = X;
-      this.workUnit = workUnit;
+      this.nextChunk = nextChunk;
+      this.rowsDone = rowsDone;
+      this.name = name;
     }
 
     @Override
     public Void call() {
 
-      Config config = ConfigUtils.getDefaultConfig();
-      double alpha = config.getDouble("model.alpha");
-      double lambda = config.getDouble("model.lambda") * alpha;
-      // This will cause the ALS algorithm to reconstruction the input matrix R, rather than the
-      // matrix P = R > 0 . Don't use this unless you understand it!
-      boolean reconstructRMatrix = config.getBoolean("model.reconstruct-r-matrix");
-      // Causes the loss function to exclude entries for any input pairs that do not appear in the
-      // input and are implicitly 0
-      // Likewise, don't touch this for now unless you know what it does.
-      boolean lossIgnoresUnspecified = config.getBoolean("model.loss-ignores-unspecified");
-
-      int features = this.features;
-      // Each worker has a batch of rows to compute:
-      for (Pair<Long,LongFloatMap> work : workUnit) {
-
-        // Row (column) in original R matrix containing total association value. For simplicity we will
-        // talk about users and rows only in the comments and variables. It's symmetric for columns / items.
-        // This is Ru:
-        LongFloatMap ru = work.getSecond();
-
-        // Start computing Wu = (YT*Cu*Y + lambda*I) = (YT*Y + YT*(Cu-I)*Y + lambda*I),
-        // by first starting with a copy of YT * Y. Or, a variant on YT * Y, if LOSS_IGNORES_UNSPECIFIED is set
-        RealMatrix Wu =
-            lossIgnoresUnspecified ?
-            partialTransposeTimesSelf(Y, YTY.getRowDimension(), ru.keySetIterator()) : 
-            YTY.copy();
-
-        double[][] WuData = MatrixUtils.accessMatrixDataDirectly(Wu);
-        double[] YTCupu = new double[features];
-
-        for (LongFloatMap.MapEntry entry : ru.entrySet()) {
-
-          double xu = entry.getValue();
-
-          float[] vector = Y.get(entry.getKey());
-          if (vector == null) {
-            log.warn("No vector for {}. This should not happen. Continuing...", entry.getKey());
-            continue;
-          }
+      // Scratch space for the normal equations, reused for every row this worker solves
+      NormalEquations equations = solverType.newNormalEquations(features, config);
+      LongFloatMap[] values = rows.values;
+      float[][] solutions = rows.solutions;
+      int[] chunkStarts = rows.chunkStarts;
+      int numChunks = rows.getNumChunks();
 
-          // Wu and YTCupu
-          if (reconstructRMatrix) {
-            for (int row = 0; row < features; row++) {
-              YTCupu[row] += xu * vector[row];
-            }
-          } else {
-            double cu = 1.0 + alpha * FastMath.abs(xu);            
-            for (int row = 0; row < features; row++) {
-              float vectorAtRow = vector[row];
-              double rowValue = vectorAtRow * (cu - 1.0);
-              double[] WuDataRow = WuData[row];              
-              for (int col = 0; col < features; col++) {
-                WuDataRow[col] += rowValue * vector[col];
-                //Wu.addToEntry(row, col, rowValue * vector[col]);
-              }
-              if (xu > 0.0) {
-                YTCupu[row] += vectorAtRow * cu;
-              }
-            }
-          }
+      int chunk;
+      while ((chunk = nextChunk.getAndIncrement()) < numChunks) {
+        int chunkStart = chunkStarts[chunk];
+        int chunkEnd = chunkStarts[chunk + 1];
+        for (int i = chunkStart; i < chunkEnd; i++) {
 
-        }
+          // Row (column) in original R matrix containing total association value. For simplicity we will
+          // talk about users and rows only in the comments and variables. It's symmetric for columns / items.
+          // This is Ru:
+          LongFloatMap ru = values[i];
 
-        double lambdaTimesCount = lambda * ru.size();
-        for (int x = 0; x < features; x++) {
-          WuData[x][x] += lambdaTimesCount;          
-          //Wu.addToEntry(x, x, lambdaTimesCount);
-        }
+          // Start computing Wu = (YT*Cu*Y + lambda*I) = (YT*Y + YT*(Cu-I)*Y + lambda*I),
+          // by first starting with YT * Y. Or, if LOSS_IGNORES_UNSPECIFIED is set, a variant on YT * Y
+          // that only includes rows of Y in Ru, which is added below along with YT*(Cu-I)*Y
+          equations.reset(lossIgnoresUnspecified ? null : YTY);
 
-        float[] xu = MatrixUtils.getSolver(Wu).solveDToF(YTCupu);
+          addRowTerms(equations, ru, Y, 0, 1);
 
-        // Store result:
-        synchronized (X) {
-          X.put(work.getFirst(), xu);
-        }
+          equations.addToDiagonal(lambda * ru.size());
 
-        // Process is identical for computing Y from X. Swap X in for Y, Y for X, i for u, etc.
-      }
-      return null;
-    }
+          // Store result, in this row's own slot. It starts from the previous value if the solver uses it
+          solutions[i] = equations.solve(solverType.usesPreviousValue() ? solutions[i] : null);
 
-    /**
-     * Like {@link MatrixUtils#transposeTimesSelf(com.cloudera.oryx.common.collection.LongObjectMap)}, but instead of computing MT * M,
-     * it computes MT * C * M, where C is a diagonal matrix of 1s and 0s. This is like pretending some
-     * rows of M are 0.
-     * 
-     * @see MatrixUtils#transposeTimesSelf(com.cloudera.oryx.common.collection.LongObjectMap)
-     */
-    private static RealMatrix partialTransposeTimesSelf(LongObjectMap<float[]> M,
-                                                        int dimension, 
-                                                        LongPrimitiveIterator keys) {
-      RealMatrix result = new Array2DRowRealMatrix(dimension, dimension);
-      while (keys.hasNext()) {
-        long key = keys.next();
-        float[] vector = M.get(key);
-        for (int row = 0; row < dimension; row++) {
-          float rowValue = vector[row];
-          for (int col = 0; col < dimension; col++) {
-            result.addToEntry(row, col, rowValue * vector[col]);
-          }
+          // Process is identical for computing Y from X. Swap X in for Y, Y for X, i for u, etc.
         }
+        int chunkRows = chunkEnd - chunkStart;
+        long after = rowsDone.addAndGet(chunkRows);
+        logProgress(after - chunkRows, after, name);
       }
-      return result;
+      return null;
     }
 
   }
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+
+package com.cloudera.oryx.als.common.factorizer.als;
+
+import com.typesafe.config.Config;
+
+import com.cloudera.oryx.common.math.CholeskyNormalEquations;
+import com.cloudera.oryx.common.math.ConjugateGradientNormalEquations;
+import com.cloudera.oryx.common.math.NormalEquations;
+
+/**
+ * How each row of X and Y is solved for in an iteration of ALS, as configured by {@code model.solver}.
+ *
+ * @author Sean Owen
+ */
+public enum RowSolverType {
+
+  /** Solve each row's system exactly. See {@link CholeskyNormalEquations}. */
+  EXACT,
+  /**
+   * Take a few steps toward each row's solution, from its last value.
+   * See {@link ConjugateGradientNormalEquations}.
+   */
+  CONJUGATE_GRADIENT;
+
+  /**
+   * @return type configured by {@code model.solver.type}
+   */
+  public static RowSolverType fromConfig(Config config) {
+    return valueOf(config.getString("model.solver.type"));
+  }
+
+  /**
+   * @return {@code true} iff solving a row starts from its value in the previous iteration
+   */
+  public boolean usesPreviousValue() {
+    return this == CONJUGATE_GRADIENT;
+  }
+
+  /**
+   * @return {@code true} iff the work for one row can usefully be split among threads, each building part
+   *  of its {@link NormalEquations}, which are then {@linkplain NormalEquations#add(NormalEquations) added}.
+   *  Conjugate gradient does most of its work while solving, which one thread does, so it gains nothing.
+   */
+  public boolean splitsHeavyRows() {
+    return this == EXACT;
+  }
+
+  /**
+   * @param features number of features
+   * @param config configuration, under which {@code model.solver} is read
+   * @return new {@link NormalEquations} of this type, for use by one thread
+   */
+  public NormalEquations newNormalEquations(int features, Config config) {
+    switch (this) {
+      case EXACT:
+        return new CholeskyNormalEquations(features);
+      case CONJUGATE_GRADIENT:
+        return new ConjugateGradientNormalEquations(features, config.getInt("model.solver.steps"));
+      default:
+        throw new IllegalStateException("Unknown type " + this);
+    }
+  }
+
+}
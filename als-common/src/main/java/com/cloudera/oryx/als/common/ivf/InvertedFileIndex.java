@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.common.ivf;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.util.FastMath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.oryx.als.common.NumericIDValue;
+import com.cloudera.oryx.als.common.StringLongMapping;
+import com.cloudera.oryx.als.common.TopNHeap;
+import com.cloudera.oryx.als.common.candidate.CandidateIterators;
+import com.cloudera.oryx.common.collection.ConcurrentLongFloatArrayMap;
+import com.cloudera.oryx.common.collection.LongObjectMap;
+import com.cloudera.oryx.common.collection.LongSet;
+import com.cloudera.oryx.common.iterator.LongPrimitiveIterator;
+import com.cloudera.oryx.common.parallel.ExecutorUtils;
+import com.cloudera.oryx.common.random.RandomManager;
+
+/**
+ * <p>An inverted file index over item vectors, for approximate maximum inner product search. It finds
+ * item vectors whose dot product with a given vector is likely to be largest, without computing it for
+ * all items. This is useful in making recommendations, where the best recommendations are the item vectors
+ * with largest dot product with the user vector.</p>
+ *
+ * <p>Items are clustered with k-means, and each item is listed under its cluster. To answer a query, the
+ * clusters are ranked by how close their centroid is to the query vector, and only the items in the
+ * closest few clusters are candidates. Considering more clusters finds more of the true top items,
+ * but is slower.</p>
+ *
+ * <p>Largest dot product is not the same as smallest distance, which is what k-means clusters by. So,
+ * as in Bachrach et al., "Speeding Up the Xbox Recommender System Using a Euclidean Transformation
+ * for Inner-Product Spaces", every item vector {@code y} is given one more dimension, with value
+ * {@code sqrt(M^2 - |y|^2)} where {@code M} is the largest item vector norm. All item vectors then have
+ * norm {@code M}. The query vector {@code q} is given an extra dimension with value 0. Now
+ * {@code |q - y|^2 = |q|^2 + M^2 - 2 q·y}, so the closest item vectors are those with largest dot product.</p>
+ *
+ * <p><em>This is experimental, and is disabled unless "model.ivf.num-clusters" is set to a positive value.</em></p>
+ *
+ * @author Sean Owen
+ */
+public final class InvertedFileIndex {
+
+  private static final Logger log = LoggerFactory.getLogger(InvertedFileIndex.class);
+
+  /** Centroids are learned from a sample of at most this many items per cluster. */
+  private static final int SAMPLE_PER_CLUSTER = 64;
+  private static final int KMEANS_ITERATIONS = 10;
+
+  private final ConcurrentLongFloatArrayMap Y;
+  private final int features;
+  private final int numProbes;
+  /** Centroids, in the space of item vectors plus one extra dimension, stored one after the other */
+  private final float[] centroids;
+  /** Half the squared norm of each centroid */
+  private final double[] centroidHalfNormSquared;
+  private final int numClusters;
+  private final long[][] clusterItemIDs;
+  private final LongSet newItems;
+
+  /**
+   * @param Y item vectors to index
+   * @param numClusters number of clusters to partition items into
+   * @param numProbes number of clusters, closest to the query, whose items are candidates
+   */
+  public InvertedFileIndex(ConcurrentLongFloatArrayMap Y, int numClusters, int numProbes) {
+    Preconditions.checkNotNull(Y);
+    Preconditions.checkArgument(!Y.isEmpty(), "Y is empty");
+    Preconditions.checkArgument(numClusters > 0, "Bad # clusters: %s", numClusters);
+    Preconditions.checkArgument(numProbes > 0, "Bad # probes: %s", numProbes);
+
+    this.Y = Y;
+    features = Y.getDimension();
+
+    // Read the max norm, and a sample of items on which to learn centroids
+    int sampleSize = (int) FastMath.min((long) numClusters * SAMPLE_PER_CLUSTER, Integer.MAX_VALUE);
+    RandomGenerator random = RandomManager.getRandom();
+    List<float[]> sample = Lists.newArrayList();
+    double maxNormSquared = 0.0;
+    int count = 0;
+    Iterator<LongObjectMap.MapEntry<float[]>> it = Y.entryIterator();
+    while (it.hasNext()) {
+      float[] vector = it.next().getValue();
+      maxNormSquared = FastMath.max(maxNormSquared, normSquared(vector));
+      // Reservoir sampling
+      if (count < sampleSize) {
+        sample.add(vector.clone());
+      } else {
+        int replace = random.nextInt(count + 1);
+        if (replace < sampleSize) {
+          sample.set(replace, vector.clone());
+        }
+      }
+      count++;
+    }
+
+    this.numClusters = FastMath.min(numClusters, sample.size());
+    this.numProbes = FastMath.min(numProbes, this.numClusters);
+    log.info("Clustering {} items into {} clusters, and searching {} per query",
+             count, this.numClusters, this.numProbes);
+
+    int augmentedFeatures = features + 1;
+    float[] augmentedSample = new float[sample.size() * augmentedFeatures];
+    for (int i = 0; i < sample.size(); i++) {
+      augment(sample.get(i), maxNormSquared, augmentedSample, i * augmentedFeatures);
+    }
+    sample = null; // Allow GC
+
+    centroids = new float[this.numClusters * augmentedFeatures];
+    centroidHalfNormSquared = new double[this.numClusters];
+    learnCentroids(augmentedSample, random);
+
+    clusterItemIDs = assignItems(maxNormSquared);
+
+    int maxClusterSize = 0;
+    for (long[] itemIDs : clusterItemIDs) {
+      maxClusterSize = FastMath.max(maxClusterSize, itemIDs.length);
+    }
+    log.info("Max cluster size {}", maxClusterSize);
+
+    // A separate bucket for new items, which will always be considered
+    newItems = new LongSet();
+  }
+
+  private static double normSquared(float[] vector) {
+    double total = 0.0;
+    for (float f : vector) {
+      total += f * f;
+    }
+    return total;
+  }
+
+  /**
+   * Copies a vector into {@code target} along with the extra dimension that gives it norm sqrt(maxNormSquared).
+   */
+  private static void augment(float[] vector, double maxNormSquared, float[] target, int offset) {
+    System.arraycopy(vector, 0, target, offset, vector.length);
+    target[offset + vector.length] = (float) FastMath.sqrt(FastMath.max(0.0, maxNormSquared - normSquared(vector)));
+  }
+
+  /**
+   * Learns centroids from a sample with Lloyd's algorithm, starting from randomly chosen sample vectors.
+   */
+  private void learnCentroids(float[] augmentedSample, RandomGenerator random) {
+    int augmentedFeatures = features + 1;
+    int sampleSize = augmentedSample.length / augmentedFeatures;
+    for (int c = 0; c < numClusters; c++) {
+      int chosen = random.nextInt(sampleSize);
+      System.arraycopy(augmentedSample, chosen * augmentedFeatures,
+                       centroids, c * augmentedFeatures,
+                       augmentedFeatures);
+    }
+    updateHalfNormsSquared();
+
+    double[] sums = new double[numClusters * augmentedFeatures];
+    int[] counts = new int[numClusters];
+    for (int iteration = 0; iteration < KMEANS_ITERATIONS; iteration++) {
+      Arrays.fill(sums, 0.0);
+      Arrays.fill(counts, 0);
+      for (int i = 0; i < sampleSize; i++) {
+        int offset = i * augmentedFeatures;
+        int closest = closestCentroid(augmentedSample, offset);
+        counts[closest]++;
+        int sumOffset = closest * augmentedFeatures;
+        for (int j = 0; j < augmentedFeatures; j++) {
+          sums[sumOffset + j] += augmentedSample[offset + j];
+        }
+      }
+      for (int c = 0; c < numClusters; c++) {
+        int centroidOffset = c * augmentedFeatures;
+        if (counts[c] == 0) {
+          // Empty cluster; start it again from a random sample vector
+          int chosen = random.nextInt(sampleSize);
+          System.arraycopy(augmentedSample, chosen * augmentedFeatures, centroids, centroidOffset, augmentedFeatures);
+        } else {
+          for (int j = 0; j < augmentedFeatures; j++) {
+            centroids[centroidOffset + j] = (float) (sums[centroidOffset + j] / counts[c]);
+          }
+        }
+      }
+      updateHalfNormsSquared();
+    }
+  }
+
+  private void updateHalfNormsSquared() {
+    int augmentedFeatures = features + 1;
+    for (int c = 0; c < numClusters; c++) {
+      double total = 0.0;
+      int offset = c * augmentedFeatures;
+      for (int j = 0; j < augmentedFeatures; j++) {
+        float value = centroids[offset + j];
+        total += value * value;
+      }
+      centroidHalfNormSquared[c] = total / 2.0;
+    }
+  }
+
+  /**
+   * @return index of centroid closest to the augmented vector at {@code offset} in {@code vectors}.
+   *  This is the one maximizing (vector · centroid - |centroid|^2 / 2).
+   */
+  private int closestCentroid(float[] vectors, int offset) {
+    int augmentedFeatures = features + 1;
+    int closest = 0;
+    double closestScore = Double.NEGATIVE_INFINITY;
+    for (int c = 0; c < numClusters; c++) {
+      int centroidOffset = c * augmentedFeatures;
+      double dot = 0.0;
+      for (int j = 0; j < augmentedFeatures; j++) {
+        dot += vectors[offset + j] * centroids[centroidOffset + j];
+      }
+      double score = dot - centroidHalfNormSquared[c];
+      if (score > closestScore) {
+        closestScore = score;
+        closest = c;
+      }
+    }
+    return closest;
+  }
+
+  /**
+   * Assigns all items to their closest cluster, in parallel.
+   */
+  private long[][] assignItems(final double maxNormSquared) {
+    int parallelism = ExecutorUtils.getParallelism();
+    Collection<Iterator<LongObjectMap.MapEntry<float[]>>> iterators = Y.entryIterators(parallelism);
+    ExecutorService executor = Executors.newFixedThreadPool(
+        parallelism,
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("InvertedFileIndex-%d").build());
+    final LongSet[] clusters = new LongSet[numClusters];
+    for (int c = 0; c < numClusters; c++) {
+      clusters[c] = new LongSet();
+    }
+    try {
+      Collection<Future<Object>> futures = Lists.newArrayListWithCapacity(iterators.size());
+      for (final Iterator<LongObjectMap.MapEntry<float[]>> it : iterators) {
+        futures.add(executor.submit(new Callable<Object>() {
+          @Override
+          public Void call() {
+            float[] augmented = new float[features + 1];
+            while (it.hasNext()) {
+              LongObjectMap.MapEntry<float[]> entry = it.next();
+              augment(entry.getValue(), maxNormSquared, augmented, 0);
+              LongSet cluster = clusters[closestCentroid(augmented, 0)];
+              synchronized (cluster) {
+                cluster.add(entry.getKey());
+              }
+            }
+            return null;
+          }
+        }));
+      }
+      ExecutorUtils.checkExceptions(futures);
+    } finally {
+      ExecutorUtils.shutdownNowAndAwait(executor);
+    }
+
+    long[][] result = new long[numClusters][];
+    for (int c = 0; c < numClusters; c++) {
+      LongSet cluster = clusters[c];
+      long[] itemIDs = new long[cluster.size()];
+      LongPrimitiveIterator it = cluster.iterator();
+      int i = 0;
+      while (it.hasNext()) {
+        itemIDs[i++] = it.nextLong();
+      }
+      result[c] = itemIDs;
+      clusters[c] = null; // Allow GC
+    }
+    return result;
+  }
+
+  /**
+   * @param userVectors query vectors
+   * @return iterators over the candidate items: those in the clusters closest to any of the query vectors,
+   *  and any items added since the index was built
+   */
+  public Collection<Iterator<LongObjectMap.MapEntry<float[]>>> getCandidateIterator(float[][] userVectors) {
+    boolean[] probed = new boolean[numClusters];
+    int augmentedFeatures = features + 1;
+    for (float[] userVector : userVectors) {
+      // Query has 0 in the extra dimension, so it doesn't participate in the dot product
+      TopNHeap closest = new TopNHeap(numProbes);
+      for (int c = 0; c < numClusters; c++) {
+        int centroidOffset = c * augmentedFeatures;
+        double dot = 0.0;
+        for (int j = 0; j < features; j++) {
+          dot += userVector[j] * centroids[centroidOffset + j];
+        }
+        closest.offer(c, (float) (dot - centroidHalfNormSquared[c]));
+      }
+      for (NumericIDValue cluster : closest.toList()) {
+        probed[(int) cluster.getID()] = true;
+      }
+    }
+
+    Collection<Iterator<LongObjectMap.MapEntry<float[]>>> inputs = Lists.newArrayList();
+    for (int c = 0; c < numClusters; c++) {
+      if (probed[c] && clusterItemIDs[c].length > 0) {
+        inputs.add(CandidateIterators.forIDs(clusterItemIDs[c], Y));
+      }
+    }
+
+    CandidateIterators.addNewItems(inputs, newItems, Y);
+
+    return inputs;
+  }
+
+  public void addItem(String itemID) {
+    long longItemID = StringLongMapping.toLong(itemID);
+    synchronized (newItems) {
+      newItems.add(longItemID);
+    }
+  }
+
+}
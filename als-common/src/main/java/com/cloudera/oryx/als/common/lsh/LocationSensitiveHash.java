@@ -17,7 +17,6 @@ package com.cloudera.oryx.als.common.lsh;
 
 import java.util.Collection;
 import java.util.Iterator;
-import java.util.NoSuchElementException;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
@@ -28,9 +27,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.cloudera.oryx.als.common.StringLongMapping;
+import com.cloudera.oryx.als.common.candidate.CandidateIterators;
+import com.cloudera.oryx.common.collection.ConcurrentLongFloatArrayMap;
 import com.cloudera.oryx.common.collection.LongObjectMap;
 import com.cloudera.oryx.common.collection.LongSet;
-import com.cloudera.oryx.common.iterator.LongPrimitiveIterator;
 import com.cloudera.oryx.common.random.RandomManager;
 
 /**
@@ -59,6 +59,11 @@ import com.cloudera.oryx.common.random.RandomManager;
  * computed. All buckets whose signature matches in "most" bits are matches, and all item vectors inside
  * are candidates.</p>
  *
+ * <p>These buckets are found by enumerating all signatures that differ from the user vector's signature in
+ * few enough bits, and looking each up directly ("multi-probe"). The bit patterns by which these differ
+ * are computed once, ahead of time. If there are more of these than buckets, then it's faster to just
+ * check every bucket's signature, and that's done instead.</p>
+ *
  * <p><em>This is experimental, and is disabled unless "model.lsh.sample-ratio" is set to a value less than 1.</em></p>
  *
  * @author Sean Owen
@@ -67,17 +72,19 @@ public final class LocationSensitiveHash {
 
   private static final Logger log = LoggerFactory.getLogger(LocationSensitiveHash.class);
 
-  private final LongObjectMap<float[]> Y;
+  private final ConcurrentLongFloatArrayMap Y;
   private final boolean[][] randomVectors;
   private final double[] meanVector;
   private final LongObjectMap<long[]> buckets;
   private final LongSet newItems;
   private final int maxBitsDiffering;
+  /** Signatures differing by these masks are close enough to a query; {@code null} if not probing */
+  private final long[] probeMasks;
 
   /**
    * @param Y item vectors to hash
    */
-  public LocationSensitiveHash(LongObjectMap<float[]> Y, double lshSampleRatio, int numHashes) {
+  public LocationSensitiveHash(ConcurrentLongFloatArrayMap Y, double lshSampleRatio, int numHashes) {
     Preconditions.checkNotNull(Y);
     Preconditions.checkArgument(!Y.isEmpty(), "Y is empty");
 
@@ -101,7 +108,7 @@ public final class LocationSensitiveHash {
     maxBitsDiffering = bitsDiffering - 1;
     log.info("Max bits differing: {}", maxBitsDiffering);
 
-    int features = Y.entrySet().iterator().next().getValue().length;
+    int features = Y.getDimension();
 
     RandomGenerator random = RandomManager.getRandom();
     randomVectors = new boolean[numHashes][features];
@@ -116,7 +123,9 @@ public final class LocationSensitiveHash {
     buckets = new LongObjectMap<long[]>();
     int count = 0;
     int maxBucketSize = 0;
-    for (LongObjectMap.MapEntry<float[]> entry : Y.entrySet()) {
+    Iterator<LongObjectMap.MapEntry<float[]>> it = Y.entryIterator();
+    while (it.hasNext()) {
+      LongObjectMap.MapEntry<float[]> entry = it.next();
       long signature = toBitSignature(entry.getValue());
       long[] ids = buckets.get(signature);
       if (ids == null) {
@@ -139,20 +148,36 @@ public final class LocationSensitiveHash {
     }
 
     log.info("Max bucket size {}", maxBucketSize);
-    log.info("Put {} items into {} buckets", Y.size(), buckets.size());
+    log.info("Put {} items into {} buckets", count, buckets.size());
+
+    double numProbes = 0.0;
+    for (int bits = 0; bits <= maxBitsDiffering; bits++) {
+      numProbes += ArithmeticUtils.binomialCoefficientDouble(numHashes, bits);
+    }
+    if (numProbes <= buckets.size()) {
+      log.info("Probing {} signatures within {} bits per query signature, of {} non-empty buckets",
+               (long) numProbes, maxBitsDiffering, buckets.size());
+      probeMasks = buildProbeMasks(numHashes, maxBitsDiffering, (int) numProbes);
+    } else {
+      log.info("Scanning all {} buckets per query, fewer than the {} signatures within {} bits",
+               buckets.size(), (long) numProbes, maxBitsDiffering);
+      probeMasks = null;
+    }
     // A separate bucket for new items, which will always be considered
     newItems = new LongSet();
   }
 
-  private static double[] findMean(LongObjectMap<float[]> Y, int features) {
+  private static double[] findMean(ConcurrentLongFloatArrayMap Y, int features) {
     double[] theMeanVector = new double[features];
-    for (LongObjectMap.MapEntry<float[]> entry : Y.entrySet()) {
-      float[] vec = entry.getValue();
+    int size = 0;
+    Iterator<LongObjectMap.MapEntry<float[]>> it = Y.entryIterator();
+    while (it.hasNext()) {
+      float[] vec = it.next().getValue();
       for (int i = 0; i < features; i++) {
         theMeanVector[i] += vec[i];
       }
+      size++;
     }
-    int size = Y.size();
     for (int i = 0; i < features; i++) {
       theMeanVector[i] /= size;
     }
@@ -182,27 +207,79 @@ public final class LocationSensitiveHash {
     return l;
   }
 
+  /**
+   * @param numHashes number of bits in signatures
+   * @param maxBitsDiffering maximum number of bits set in a mask
+   * @param numMasks number of masks with at most {@code maxBitsDiffering} bits set
+   * @return all masks of {@code numHashes} bits with at most {@code maxBitsDiffering} bits set, in order
+   *  of number of bits set
+   */
+  static long[] buildProbeMasks(int numHashes, int maxBitsDiffering, int numMasks) {
+    long[] masks = new long[numMasks];
+    int i = 0;
+    for (int bits = 0; bits <= maxBitsDiffering; bits++) {
+      if (bits == 0) {
+        masks[i++] = 0L;
+        continue;
+      }
+      long mask = bits == 64 ? -1L : (1L << bits) - 1L;
+      while (true) {
+        masks[i++] = mask;
+        // Next larger value with the same number of bits set (Gosper's hack)
+        long lowest = mask & -mask;
+        long ripple = mask + lowest;
+        if (ripple == 0L) {
+          break; // Overflowed 64 bits
+        }
+        long next = (((ripple ^ mask) >>> 2) / lowest) | ripple;
+        if (numHashes < 64 && (next >>> numHashes) != 0L) {
+          break;
+        }
+        mask = next;
+      }
+    }
+    Preconditions.checkState(i == numMasks, "Expected %s masks but made %s", numMasks, i);
+    return masks;
+  }
+
   public Collection<Iterator<LongObjectMap.MapEntry<float[]>>> getCandidateIterator(float[][] userVectors) {
     long[] bitSignatures = new long[userVectors.length];
     for (int i = 0; i < userVectors.length; i++) {
       bitSignatures[i] = toBitSignature(userVectors[i]);
     }
     Collection<Iterator<LongObjectMap.MapEntry<float[]>>> inputs = Lists.newArrayList();
-    for (LongObjectMap.MapEntry<long[]> entry : buckets.entrySet()) {
+    int numCandidates = 0;
+    if (probeMasks == null) {
+      for (LongObjectMap.MapEntry<long[]> entry : buckets.entrySet()) {
+        for (long bitSignature : bitSignatures) {
+          if (Long.bitCount(bitSignature ^ entry.getKey()) <= maxBitsDiffering) { // # bits differing
+            long[] ids = entry.getValue();
+            inputs.add(CandidateIterators.forIDs(ids, Y));
+            numCandidates += ids.length;
+            break;
+          }
+        }
+      }
+    } else {
+      // Several users' signatures may be close to the same buckets
+      LongSet probed = bitSignatures.length > 1 ? new LongSet() : null;
       for (long bitSignature : bitSignatures) {
-        if (Long.bitCount(bitSignature ^ entry.getKey()) <= maxBitsDiffering) { // # bits differing
-          inputs.add(new IDArrayToEntryIterator(entry.getValue()));
-          break;
+        for (long probeMask : probeMasks) {
+          long signature = bitSignature ^ probeMask;
+          if (probed != null && !probed.add(signature)) {
+            continue;
+          }
+          long[] ids = buckets.get(signature);
+          if (ids != null) {
+            inputs.add(CandidateIterators.forIDs(ids, Y));
+            numCandidates += ids.length;
+          }
         }
       }
     }
+    log.debug("{} buckets with {} candidate items", inputs.size(), numCandidates);
 
-    synchronized (newItems) {
-      if (!newItems.isEmpty()) {
-        // Have to clone because it's being written to
-        inputs.add(new IDToEntryIterator(newItems.clone().iterator()));
-      }
-    }
+    CandidateIterators.addNewItems(inputs, newItems, Y);
 
     return inputs;
   }
@@ -216,94 +293,4 @@ public final class LocationSensitiveHash {
     }
   }
 
-  /**
-   * @see IDArrayToEntryIterator
-   */
-  private final class IDToEntryIterator implements Iterator<LongObjectMap.MapEntry<float[]>> {
-
-    private final LongPrimitiveIterator input;
-    private final MutableMapEntry delegate;
-
-    private IDToEntryIterator(LongPrimitiveIterator input) {
-      this.input = input;
-      this.delegate = new MutableMapEntry();
-    }
-
-    @Override
-    public boolean hasNext() {
-      return input.hasNext();
-    }
-
-    @Override
-    public LongObjectMap.MapEntry<float[]> next() {
-      // Will throw NoSuchElementException if needed:
-      long itemID = input.nextLong();
-      delegate.set(itemID, Y.get(itemID));
-      return delegate;
-    }
-
-    @Override
-    public void remove() {
-      throw new UnsupportedOperationException();
-    }
-
-  }
-
-  /**
-   * @see IDToEntryIterator
-   */
-  private final class IDArrayToEntryIterator implements Iterator<LongObjectMap.MapEntry<float[]>> {
-
-    private int offset;
-    private final long[] input;
-    private final MutableMapEntry delegate;
-
-    private IDArrayToEntryIterator(long[] input) {
-      this.input = input;
-      this.delegate = new MutableMapEntry();
-    }
-
-    @Override
-    public boolean hasNext() {
-      return offset < input.length;
-    }
-
-    @Override
-    public LongObjectMap.MapEntry<float[]> next() {
-      if (offset >= input.length) {
-        throw new NoSuchElementException();
-      }
-      long itemID = input[offset++];
-      delegate.set(itemID, Y.get(itemID));
-      return delegate;
-    }
-
-    @Override
-    public void remove() {
-      throw new UnsupportedOperationException();
-    }
-
-  }
-
-  private static final class MutableMapEntry implements LongObjectMap.MapEntry<float[]> {
-
-    private long key;
-    private float[] value;
-
-    @Override
-    public long getKey() {
-      return key;
-    }
-
-    @Override
-    public float[] getValue() {
-      return value;
-    }
-
-    public void set(long key, float[] value) {
-      this.key = key;
-      this.value = value;
-    }
-  }
-
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.common;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.cloudera.oryx.common.OryxTest;
+import com.cloudera.oryx.common.collection.LongArraySet;
+import com.cloudera.oryx.common.collection.LongFloatArrayMap;
+import com.cloudera.oryx.common.collection.LongObjectMap;
+import com.cloudera.oryx.common.collection.LongSet;
+
+/**
+ * Tests {@link BinaryModelFiles}.
+ *
+ * @author Sean Owen
+ */
+public final class BinaryModelFilesTest extends OryxTest {
+
+  @Test
+  public void testFeatures() throws IOException {
+    LongObjectMap<float[]> M = new LongObjectMap<float[]>();
+    M.put(5L, new float[] {1.0f, -2.5f, 3.0f});
+    M.put(-1L, new float[] {0.0f, 1.0e-6f, Float.MAX_VALUE});
+    M.put(100L, new float[] {-4.0f, 5.0f, 6.5f});
+    File file = new File(TEST_TEMP_BASE_DIR, "X" + BinaryModelFiles.SUFFIX);
+    BinaryModelFiles.writeFeatures(M, file);
+    assertEquals(4 * 4 + 3 * 8 + 3 * 3 * 4, file.length());
+
+    LongFloatArrayMap read = new LongFloatArrayMap();
+    assertEquals(3, BinaryModelFiles.readFeatures(file, read));
+    assertEquals(3, read.size());
+    for (LongObjectMap.MapEntry<float[]> entry : M.entrySet()) {
+      assertArrayEquals(entry.getValue(), read.get(entry.getKey()));
+    }
+  }
+
+  @Test
+  public void testManyFeatures() throws IOException {
+    LongObjectMap<float[]> M = new LongObjectMap<float[]>();
+    for (long i = 0; i < 10000; i++) {
+      M.put(i, new float[] {i, -i});
+    }
+    File file = new File(TEST_TEMP_BASE_DIR, "X" + BinaryModelFiles.SUFFIX);
+    BinaryModelFiles.writeFeatures(M, file);
+
+    LongFloatArrayMap read = new LongFloatArrayMap();
+    assertEquals(10000, BinaryModelFiles.readFeatures(file, read));
+    assertEquals(10000, read.size());
+    for (long i = 0; i < 10000; i++) {
+      assertArrayEquals(new float[] {i, -i}, read.get(i));
+    }
+  }
+
+  @Test
+  public void testNoFeatures() throws IOException {
+    File file = new File(TEST_TEMP_BASE_DIR, "X" + BinaryModelFiles.SUFFIX);
+    BinaryModelFiles.writeFeatures(new LongObjectMap<float[]>(), file);
+    LongFloatArrayMap read = new LongFloatArrayMap();
+    BinaryModelFiles.readFeatures(file, read);
+    assertTrue(read.isEmpty());
+  }
+
+  @Test
+  public void testKnownItems() throws IOException {
+    LongObjectMap<LongSet> knownItemIDs = new LongObjectMap<LongSet>();
+    LongSet user1 = new LongSet();
+    user1.add(3L);
+    user1.add(-7L);
+    user1.add(12L);
+    knownItemIDs.put(1L, user1);
+    knownItemIDs.put(2L, new LongSet());
+    LongSet user3 = new LongSet();
+    user3.add(12L);
+    knownItemIDs.put(3L, user3);
+    File file = new File(TEST_TEMP_BASE_DIR, "knownItems" + BinaryModelFiles.SUFFIX);
+    BinaryModelFiles.writeKnownItems(knownItemIDs, file);
+
+    LongObjectMap<LongArraySet> read = new LongObjectMap<LongArraySet>();
+    BinaryModelFiles.readKnownItems(file, read);
+    assertEquals(3, read.size());
+    assertEquals(LongArraySet.of(-7L, 3L, 12L), read.get(1L));
+    assertTrue(read.get(2L).isEmpty());
+    assertEquals(LongArraySet.of(12L), read.get(3L));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWrongType() throws IOException {
+    LongObjectMap<float[]> M = new LongObjectMap<float[]>();
+    M.put(1L, new float[] {1.0f});
+    File file = new File(TEST_TEMP_BASE_DIR, "X" + BinaryModelFiles.SUFFIX);
+    BinaryModelFiles.writeFeatures(M, file);
+    BinaryModelFiles.readKnownItems(file, new LongObjectMap<LongArraySet>());
+  }
+
+}
@@ -15,6 +15,8 @@
 
 package com.cloudera.oryx.als.common;
 
+import java.util.Iterator;
+
 import org.junit.Test;
 
 import com.cloudera.oryx.common.OryxTest;
@@ -59,4 +61,51 @@ public final class StringLongMappingTest extends OryxTest {
     assertEquals("foo", reverse.get(hash));
   }
 
+  @Test
+  public void testManyMappings() {
+    StringLongMapping mapping = new StringLongMapping();
+    long[] hashes = new long[1000];
+    for (int i = 0; i < hashes.length; i++) {
+      hashes[i] = mapping.add("\u00E9l\u00E9ment-" + i);
+    }
+    for (int i = 0; i < hashes.length; i++) {
+      assertEquals("\u00E9l\u00E9ment-" + i, mapping.toString(hashes[i]));
+    }
+    assertEquals(hashes.length, mapping.getReverseMapping().size());
+    assertEquals("123", mapping.toString(123L));
+  }
+
+  @Test
+  public void testCachedToString() {
+    StringLongMapping mapping = new StringLongMapping();
+    mapping.addMapping("foo", 123L);
+    String id = mapping.toString(123L);
+    assertEquals("foo", id);
+    assertSame(id, mapping.toString(123L));
+    // Overwriting a mapping replaces the cached value too
+    mapping.addMapping("bar", 123L);
+    assertEquals("bar", mapping.toString(123L));
+    assertEquals("456", mapping.toString(456L));
+    mapping.addMapping("baz", 456L);
+    assertEquals("baz", mapping.toString(456L));
+  }
+
+  @Test
+  public void testReverseMappingIterator() {
+    StringLongMapping mapping = new StringLongMapping();
+    LongObjectMap<String> expected = new LongObjectMap<String>();
+    for (int i = 0; i < 1000; i++) {
+      String id = "id-" + i;
+      expected.put(mapping.add(id), id);
+    }
+    Iterator<LongObjectMap.MapEntry<String>> it = mapping.reverseMappingIterator();
+    int count = 0;
+    while (it.hasNext()) {
+      LongObjectMap.MapEntry<String> entry = it.next();
+      assertEquals(expected.get(entry.getKey()), entry.getValue());
+      count++;
+    }
+    assertEquals(expected.size(), count);
+  }
+
 }
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.common;
+
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.junit.Test;
+
+import com.cloudera.oryx.common.OryxTest;
+import com.cloudera.oryx.common.random.RandomManager;
+
+/**
+ * Tests {@link TopNHeap}.
+ *
+ * @author Sean Owen
+ */
+public final class TopNHeapTest extends OryxTest {
+
+  @Test
+  public void testEmpty() {
+    TopNHeap heap = new TopNHeap(2);
+    assertEquals(0, heap.size());
+    assertTrue(heap.toList().isEmpty());
+  }
+
+  @Test
+  public void testTopOfMany() {
+    TopNHeap heap = new TopNHeap(3);
+    for (int i = 20; i >= 1; i--) {
+      heap.offer(i, i);
+    }
+    List<NumericIDValue> top3 = heap.toList();
+    assertEquals(3, top3.size());
+    assertEquals(20L, top3.get(0).getID());
+    assertEquals(19L, top3.get(1).getID());
+    assertEquals(18L, top3.get(2).getID());
+    assertEquals(18.0f, top3.get(2).getValue());
+  }
+
+  @Test
+  public void testTies() {
+    TopNHeap heap = new TopNHeap(2);
+    heap.offer(3L, 1.0f);
+    heap.offer(1L, 1.0f);
+    heap.offer(2L, 1.0f);
+    List<NumericIDValue> top2 = heap.toList();
+    assertEquals(1L, top2.get(0).getID());
+    assertEquals(2L, top2.get(1).getID());
+  }
+
+  @Test
+  public void testMergeMatchesTopN() {
+    RandomGenerator random = RandomManager.getRandom();
+    List<NumericIDValue> candidates = Lists.newArrayList();
+    TopNHeap heap1 = new TopNHeap(50);
+    TopNHeap heap2 = new TopNHeap(50);
+    for (int i = 0; i < 10000; i++) {
+      float value = random.nextFloat();
+      candidates.add(new NumericIDValue(i, value));
+      (i % 2 == 0 ? heap1 : heap2).offer(i, value);
+    }
+    heap1.addAll(heap2);
+    assertEquals(TopN.selectTopN(candidates.iterator(), 50), heap1.toList());
+  }
+
+  @Test
+  public void testToArraysMatchesToList() {
+    RandomGenerator random = RandomManager.getRandom();
+    TopNHeap heap = new TopNHeap(20);
+    for (int i = 0; i < 1000; i++) {
+      // Few distinct values, to exercise ties
+      heap.offer(i, random.nextInt(30));
+    }
+    long[] ids = new long[25];
+    float[] values = new float[25];
+    assertEquals(20, heap.toArrays(ids, values));
+    List<NumericIDValue> top = heap.toList();
+    for (int i = 0; i < 20; i++) {
+      assertEquals(top.get(i).getID(), ids[i]);
+      assertEquals(top.get(i).getValue(), values[i]);
+    }
+  }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.common.lsh;
+
+import org.junit.Test;
+
+import com.cloudera.oryx.common.OryxTest;
+import com.cloudera.oryx.common.collection.LongSet;
+
+/**
+ * Tests {@link LocationSensitiveHash}.
+ *
+ * @author Sean Owen
+ */
+public final class LocationSensitiveHashTest extends OryxTest {
+
+  @Test
+  public void testProbeMasks() {
+    // 1 + 10 + 45 + 120
+    long[] masks = LocationSensitiveHash.buildProbeMasks(10, 3, 176);
+    LongSet seen = new LongSet();
+    int lastBitCount = 0;
+    for (long mask : masks) {
+      assertTrue(seen.add(mask));
+      assertEquals(0L, mask >>> 10);
+      int bitCount = Long.bitCount(mask);
+      assertTrue(bitCount <= 3);
+      assertTrue(bitCount >= lastBitCount);
+      lastBitCount = bitCount;
+    }
+    assertEquals(0L, masks[0]);
+  }
+
+  @Test
+  public void testProbeMasks64() {
+    long[] masks = LocationSensitiveHash.buildProbeMasks(64, 1, 65);
+    assertEquals(0L, masks[0]);
+    for (int i = 0; i < 64; i++) {
+      assertEquals(1L << i, masks[i + 1]);
+    }
+  }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.computation;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.cloudera.oryx.als.common.IDValue;
+import com.cloudera.oryx.als.common.PairRescorer;
+import com.cloudera.oryx.als.serving.ServerRecommender;
+
+/**
+ * Tests that most similar items served from those computed with the model agree with those computed
+ * from all of Y, even when a rescorer filters them or an update changes the item.
+ *
+ * @author Sean Owen
+ */
+public final class ComputedSimilarItemsIT extends AbstractComputationIT {
+
+  @Override
+  protected File getTestDataPath() {
+    return getResourceAsFile("tiny");
+  }
+
+  @Test
+  public void testComputed() throws Exception {
+    ServerRecommender client = getRecommender();
+    assertSameResults(client.mostSimilarItems(new String[] {"2"}, 2), client.mostSimilarItems("2", 2));
+  }
+
+  @Test
+  public void testRescorerFiltersComputed() throws Exception {
+    ServerRecommender client = getRecommender();
+    String mostSimilarID = client.mostSimilarItems("2", 1).get(0).getID();
+    PairRescorer rescorer = new FilterItemRescorer(mostSimilarID);
+    // Only one computed item is left after filtering, so the rest must come from Y
+    List<IDValue> similar = client.mostSimilarItems("2", 2, rescorer);
+    assertEquals(2, similar.size());
+    assertSameResults(client.mostSimilarItems(new String[] {"2"}, 2, rescorer), similar);
+  }
+
+  @Test
+  public void testUpdateInvalidatesComputed() throws Exception {
+    ServerRecommender client = getRecommender();
+    client.setPreference("4", "2", 5.0f);
+    assertSameResults(client.mostSimilarItems(new String[] {"2"}, 2), client.mostSimilarItems("2", 2));
+  }
+
+  private static void assertSameResults(List<IDValue> expected, List<IDValue> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).getID(), actual.get(i).getID());
+      assertEquals(expected.get(i).getValue(), actual.get(i).getValue());
+    }
+  }
+
+  private static final class FilterItemRescorer implements PairRescorer {
+
+    private final String filteredID;
+
+    private FilterItemRescorer(String filteredID) {
+      this.filteredID = filteredID;
+    }
+
+    @Override
+    public double rescore(String a, String b, double originalScore) {
+      return originalScore;
+    }
+
+    @Override
+    public boolean isFiltered(String a, String b) {
+      return filteredID.equals(a) || filteredID.equals(b);
+    }
+
+  }
+
+}
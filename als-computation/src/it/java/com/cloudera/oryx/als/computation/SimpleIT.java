@@ -57,6 +57,22 @@ public final class SimpleIT extends AbstractComputationIT {
     assertEquals("117", recs.get(0).getID());
   }
 
+  @Test
+  public void testIngestBadLine() throws Exception {
+    ServerRecommender client = getRecommender();
+    try {
+      client.ingest(new StringReader("0,1\n0,2,3.0\n0\n"));
+      fail();
+    } catch (IllegalArgumentException iae) {
+      // good
+    }
+
+    // Lines before the bad one are still ingested
+    List<IDValue> recs = client.recommend("0", 3);
+    log.info("{}", recs);
+    assertEquals("117", recs.get(0).getID());
+  }
+
   @Test
   public void testRecommend() throws Exception {
 
@@ -142,6 +158,21 @@ public final class SimpleIT extends AbstractComputationIT {
     assertEquals(recs, recs2);
   }
 
+  @Test
+  public void testRecommendVersusToEach() throws Exception {
+    ServerRecommender client = getRecommender();
+    List<List<IDValue>> recs = client.recommendToEach(new String[] {"1", "ABC", "4"}, 3, false, null);
+    assertEquals(3, recs.size());
+    assertEquals(client.recommend("1", 3), recs.get(0));
+    assertTrue(recs.get(1).isEmpty());
+    assertEquals(client.recommend("4", 3), recs.get(2));
+  }
+
+  @Test(expected = NoSuchUserException.class)
+  public void testRecommendToEachNonexistent() throws Exception {
+    getRecommender().recommendToEach(new String[] {"ABC", "DEF"}, 3, false, null);
+  }
+
   @Test(expected = NoSuchUserException.class)
   public void testRecommendToManyNonexistent1() throws Exception {
     getRecommender().recommendToMany(new String[] {"ABC"}, 3, false, null);
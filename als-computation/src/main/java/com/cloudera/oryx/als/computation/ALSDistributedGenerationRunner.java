@@ -40,6 +40,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.cloudera.oryx.als.computation.initialy.InitialYStep;
+import com.cloudera.oryx.als.computation.iterate.row.GramianStep;
 import com.cloudera.oryx.als.computation.iterate.row.RowStep;
 import com.cloudera.oryx.als.computation.known.CollectKnownItemsStep;
 import com.cloudera.oryx.als.computation.merge.MergeNewOldStep;
@@ -127,6 +128,11 @@ import com.cloudera.oryx.computation.common.JobStepConfig;
  * used later to cleverly side-load only the part of the X or Y matrix that will actually be used by
  * a reducer.</p>
  *
+ * <h3>GramianStep</h3>
+ *
+ * <p>Computes Y' * Y, or X' * X, from the matrix that the following {@code RowStep} holds fixed, once for all
+ * of its reducers. Output goes next to that matrix, like {@code tmp/iterations/[i]/XTX}.</p>
+ *
  * <h3>RowStep</h3>
  *
  * <p>The heart of the ALS iteration, and the most important step in the flow. This is the one that is
@@ -204,7 +210,7 @@ public final class ALSDistributedGenerationRunner extends DistributedGenerationR
   @Override
   protected List<DependsOn<Class<? extends JobStep>>> getIterationDependencies() {
     List<DependsOn<Class<? extends JobStep>>> iterationsDeps = Lists.newArrayList();
-    iterationsDeps.add(DependsOn.<Class<? extends JobStep>>first(RowStep.class));
+    iterationsDeps.add(DependsOn.<Class<? extends JobStep>>nextAfterFirst(RowStep.class, GramianStep.class));
     return iterationsDeps;
   }
 
@@ -352,14 +358,23 @@ public final class ALSDistributedGenerationRunner extends DistributedGenerationR
       store.recursiveDelete(yPrefix);
       store.recursiveDelete(generationPrefix + "recommend/");
       store.recursiveDelete(generationPrefix + "similarItems/");
+      store.recursiveDelete(generationPrefix + "binary/");
     } else {
       log.info("X and Y have sufficient rank");
       File tempModelDescriptionFile = File.createTempFile("model-", ".pmml.gz");
       tempModelDescriptionFile.deleteOnExit();
       ALSModelDescription modelDescription = new ALSModelDescription();
-      modelDescription.setKnownItemsPath("knownItems");
-      modelDescription.setXPath("X");
-      modelDescription.setYPath("Y");
+      if (ConfigUtils.getDefaultConfig().getBoolean("model.binary-format")) {
+        // Binary parts were already written alongside the text output, by PublishXStep,
+        // PublishYStep and CollectKnownItemsStep
+        modelDescription.setKnownItemsPath("binary/knownItems");
+        modelDescription.setXPath("binary/X");
+        modelDescription.setYPath("binary/Y");
+      } else {
+        modelDescription.setKnownItemsPath("knownItems");
+        modelDescription.setXPath("X");
+        modelDescription.setYPath("Y");
+      }
       modelDescription.setIDMappingPath("idMapping");
       ALSModelDescription.write(tempModelDescriptionFile, modelDescription);
       store.upload(generationPrefix + "model.pmml.gz", tempModelDescriptionFile, false);
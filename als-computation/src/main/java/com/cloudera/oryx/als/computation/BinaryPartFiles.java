@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.computation;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.oryx.als.common.BinaryModelFiles;
+import com.cloudera.oryx.common.servcomp.Store;
+
+/**
+ * Manages binary model part files that map tasks write directly, outside of any Crunch output. Each task
+ * attempt uploads its part under a temporary name of its own, so speculative and failed attempts can't
+ * overwrite or truncate another attempt's part. After the job succeeds, one complete part per task is moved
+ * into place, and the rest are deleted.
+ *
+ * @author Sean Owen
+ */
+public final class BinaryPartFiles {
+
+  private static final Logger log = LoggerFactory.getLogger(BinaryPartFiles.class);
+
+  private static final String TEMP_DIR = "_temporary/";
+
+  private BinaryPartFiles() {
+  }
+
+  /**
+   * Called by a task to upload its part.
+   *
+   * @param partFile local file holding the task's part
+   * @param binaryPrefix directory under which parts are written
+   * @param conf the task's configuration
+   */
+  public static void upload(File partFile, String binaryPrefix, Configuration conf) throws IOException {
+    int part = conf.getInt(MRJobConfig.TASK_PARTITION, -1);
+    String attemptID = conf.get(MRJobConfig.TASK_ATTEMPT_ID);
+    String tempKey = binaryPrefix + TEMP_DIR + attemptID;
+    Store store = Store.get();
+    store.upload(tempKey, partFile, true);
+    // Only given its part number once completely uploaded
+    store.move(tempKey, binaryPrefix + TEMP_DIR + part + '-' + attemptID + BinaryModelFiles.SUFFIX);
+  }
+
+  /**
+   * Called after the job succeeds to move one complete part per task into place.
+   *
+   * @param binaryPrefix directory under which parts were written
+   * @param numParts number of tasks in the job, each of which wrote a part
+   * @throws IOException if any task's part is missing
+   */
+  public static void commit(String binaryPrefix, int numParts) throws IOException {
+    Store store = Store.get();
+    String tempPrefix = binaryPrefix + TEMP_DIR;
+    String[] partKeys = new String[numParts];
+    for (String key : store.list(tempPrefix, true)) {
+      String name = key.substring(key.lastIndexOf('/') + 1);
+      int dash = name.indexOf('-');
+      if (dash > 0 && name.endsWith(BinaryModelFiles.SUFFIX)) {
+        int part = Integer.parseInt(name.substring(0, dash));
+        // Attempts at the same task read the same input, so any complete one will do
+        if (part >= 0 && part < numParts && partKeys[part] == null) {
+          partKeys[part] = key;
+        }
+      }
+    }
+    for (int part = 0; part < numParts; part++) {
+      if (partKeys[part] == null) {
+        throw new IOException("No complete binary part " + part + " of " + numParts + " under " + tempPrefix);
+      }
+    }
+    for (int part = 0; part < numParts; part++) {
+      store.move(partKeys[part], binaryPrefix + part + BinaryModelFiles.SUFFIX);
+    }
+    store.recursiveDelete(tempPrefix);
+    log.info("Committed {} binary parts under {}", numParts, binaryPrefix);
+  }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.computation;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import org.apache.avro.mapred.AvroWrapper;
+import org.apache.crunch.Pair;
+import org.apache.crunch.io.avro.AvroFileSource;
+import org.apache.crunch.types.avro.AvroType;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.oryx.als.computation.types.ALSTypes;
+import com.cloudera.oryx.common.collection.LongObjectMap;
+import com.cloudera.oryx.common.servcomp.Namespaces;
+import com.cloudera.oryx.common.servcomp.Store;
+
+/**
+ * <p>Partitions rows of a matrix by their ID. Most rows are assigned by hash, exactly as
+ * {@link org.apache.hadoop.mapreduce.lib.partition.HashPartitioner} would. Heavy rows, those with very many
+ * values, are instead spread so that each partition gets about the same number of their values: in order of
+ * decreasing size, each goes to the partition with the fewest so far. This keeps one reducer from getting
+ * several of the most popular items, and running long after the others finish.</p>
+ *
+ * <p>The heavy rows and their sizes are read from the location set in {@link #HEAVY_ROWS_KEY}. If it's not
+ * set or doesn't exist, all rows are assigned by hash. Steps that need to agree on which partition a row
+ * goes to must read the same heavy rows.</p>
+ *
+ * @author Sean Owen
+ */
+public final class RowPartitioner extends Partitioner<Object,Object> implements Configurable {
+
+  private static final Logger log = LoggerFactory.getLogger(RowPartitioner.class);
+
+  public static final String HEAVY_ROWS_KEY = "HEAVY_ROWS";
+
+  private Configuration conf;
+  private List<Pair<Long,Integer>> heavyRows;
+  private int heavyRowsNumPartitions;
+  private LongObjectMap<Integer> heavyRowPartitions;
+
+  /**
+   * @param tempPrefix temp directory for the generation
+   * @param vectorsDir directory of the row vectors whose heavy rows are wanted, like "userVectors/"
+   * @return location where the heavy rows among those vectors are written
+   */
+  public static String heavyRowsKey(String tempPrefix, String vectorsDir) {
+    return tempPrefix + "heavyRows/" + vectorsDir;
+  }
+
+  @Override
+  public Configuration getConf() {
+    return conf;
+  }
+
+  @Override
+  public void setConf(Configuration conf) {
+    this.conf = conf;
+    List<Pair<Long,Integer>> heavyRows = Lists.newArrayList();
+    String heavyRowsKey = conf.get(HEAVY_ROWS_KEY);
+    if (heavyRowsKey != null) {
+      try {
+        if (Store.get().exists(heavyRowsKey, false)) {
+          AvroFileSource<Pair<Long,Integer>> source = new AvroFileSource<Pair<Long,Integer>>(
+              Namespaces.toPath(heavyRowsKey),
+              (AvroType<Pair<Long,Integer>>) ALSTypes.ID_COUNT);
+          for (Pair<Long,Integer> heavyRow : source.read(conf)) {
+            heavyRows.add(Pair.of(heavyRow.first(), heavyRow.second()));
+          }
+          log.info("Read {} heavy rows from {}", heavyRows.size(), heavyRowsKey);
+        } else {
+          log.info("No heavy rows in {}", heavyRowsKey);
+        }
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    setHeavyRows(heavyRows);
+  }
+
+  /**
+   * @param heavyRows IDs of heavy rows, paired with their number of values, in any order
+   */
+  void setHeavyRows(List<Pair<Long,Integer>> heavyRows) {
+    // Sort so that every task assigns heavy rows the same way, regardless of the order they were read
+    Collections.sort(heavyRows, new Comparator<Pair<Long,Integer>>() {
+      @Override
+      public int compare(Pair<Long,Integer> a, Pair<Long,Integer> b) {
+        int bySize = b.second().compareTo(a.second());
+        return bySize == 0 ? a.first().compareTo(b.first()) : bySize;
+      }
+    });
+    this.heavyRows = heavyRows;
+    heavyRowsNumPartitions = 0;
+    heavyRowPartitions = null;
+  }
+
+  @Override
+  public int getPartition(Object key, Object value, int numPartitions) {
+    Object datum = key instanceof AvroWrapper ? ((AvroWrapper<?>) key).datum() : key;
+    long id = (Long) datum;
+    if (!heavyRows.isEmpty()) {
+      if (heavyRowsNumPartitions != numPartitions) {
+        assignHeavyRows(numPartitions);
+      }
+      Integer partition = heavyRowPartitions.get(id);
+      if (partition != null) {
+        return partition;
+      }
+    }
+    return (Long.valueOf(id).hashCode() & Integer.MAX_VALUE) % numPartitions;
+  }
+
+  private void assignHeavyRows(int numPartitions) {
+    long[] partitionValues = new long[numPartitions];
+    heavyRowPartitions = new LongObjectMap<Integer>(heavyRows.size());
+    for (Pair<Long,Integer> heavyRow : heavyRows) {
+      int leastLoaded = 0;
+      for (int partition = 1; partition < numPartitions; partition++) {
+        if (partitionValues[partition] < partitionValues[leastLoaded]) {
+          leastLoaded = partition;
+        }
+      }
+      partitionValues[leastLoaded] += heavyRow.second();
+      heavyRowPartitions.put(heavyRow.first(), leastLoaded);
+    }
+    heavyRowsNumPartitions = numPartitions;
+  }
+
+}
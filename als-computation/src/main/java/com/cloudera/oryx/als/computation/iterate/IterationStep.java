@@ -43,6 +43,30 @@ public abstract class IterationStep extends ALSJobStep {
     return name.toString();
   }
 
+  /**
+   * @return key of the matrix that is fixed in this half-iteration, and from which the other is computed:
+   *  Y from the previous iteration when computing X, or else X from this iteration
+   */
+  protected final String getFixedMatrixKey() {
+    IterationState iterationState = getIterationState();
+    if (iterationState.isComputingX()) {
+      ALSJobStepConfig config = getConfig();
+      return Namespaces.getIterationsPrefix(config.getInstanceDir(), config.getGenerationID()) +
+          (iterationState.getIteration() - 1) + "/Y/";
+    }
+    return iterationState.getIterationKey() + "X/";
+  }
+
+  /**
+   * @param matrixKey key of a matrix M, like {@code .../Y/}
+   * @return key of M' * M, computed from it, like {@code .../YTY/}
+   */
+  protected static String gramianKey(String matrixKey) {
+    int nameStart = matrixKey.length() - 2;
+    char name = matrixKey.charAt(nameStart);
+    return matrixKey.substring(0, nameStart) + name + 'T' + name + '/';
+  }
+
   protected final IterationState getIterationState() {
     if (iterationState != null) {
       return iterationState;
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.computation.iterate.row;
+
+import java.io.IOException;
+
+import org.apache.crunch.impl.mr.MRPipeline;
+import org.apache.crunch.types.avro.Avros;
+
+import com.cloudera.oryx.als.computation.iterate.IterationStep;
+import com.cloudera.oryx.als.computation.types.ALSTypes;
+import com.cloudera.oryx.computation.common.JobStepConfig;
+import com.cloudera.oryx.common.servcomp.Namespaces;
+import com.cloudera.oryx.common.servcomp.Store;
+
+/**
+ * <p>Computes M' * M, where M is the matrix that {@link RowStep} will hold fixed next: Y when computing
+ * X, or X when computing Y. Every reducer in {@link RowStep} needs this, and it is far cheaper to compute
+ * it once here than in each of them.</p>
+ *
+ * <p>Each mapper sums the products for the rows it sees, and emits only that partial sum at the end.
+ * These are summed by a combiner and then one reducer. The output goes next to M, like
+ * {@code tmp/iterations/[i]/XTX}, as the upper triangle of the matrix, row by row, in one array.</p>
+ *
+ * @author Sean Owen
+ */
+public final class GramianStep extends IterationStep {
+
+  @Override
+  protected MRPipeline createPipeline() throws IOException {
+
+    JobStepConfig config = getConfig();
+    String instanceDir = config.getInstanceDir();
+    long generationID = config.getGenerationID();
+
+    if (Store.get().exists(Namespaces.getInstanceGenerationPrefix(instanceDir, generationID) + "X/", false)) {
+      // Actually, looks like whole computation of X/Y finished -- just proceed
+      return null;
+    }
+
+    String matrixKey = getFixedMatrixKey();
+    String gramianKey = gramianKey(matrixKey);
+    if (!validOutputPath(gramianKey)) {
+      return null;
+    }
+
+    MRPipeline p = createBasicPipeline(PartialGramianFn.class);
+    p.read(input(matrixKey, ALSTypes.DENSE_ROW_MATRIX))
+        .parallelDo("partialGramian", new PartialGramianFn(), Avros.tableOf(ALSTypes.INTS, ALSTypes.DOUBLE_ARRAY))
+        .groupByKey(1)
+        .combineValues(new SumDoubleArraysAggregator())
+        .values()
+        .write(output(gramianKey));
+    return p;
+  }
+
+  public static void main(String[] args) throws Exception {
+    run(new GramianStep(), args);
+  }
+
+}
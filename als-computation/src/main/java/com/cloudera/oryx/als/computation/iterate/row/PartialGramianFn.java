@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.computation.iterate.row;
+
+import org.apache.commons.math3.util.FastMath;
+import org.apache.crunch.Emitter;
+import org.apache.crunch.Pair;
+
+import com.cloudera.oryx.als.computation.types.MatrixRow;
+import com.cloudera.oryx.computation.common.fn.OryxDoFn;
+
+/**
+ * Sums the outer product of each row of a matrix M with itself, over all rows this mapper sees, and emits
+ * the sum once, when done. The sums from all mappers add up to M' * M. Only the upper triangle is computed,
+ * as it's symmetric; it is packed row by row into one array.
+ *
+ * @author Sean Owen
+ * @see GramianStep
+ */
+public final class PartialGramianFn extends OryxDoFn<MatrixRow, Pair<Integer,double[]>> {
+
+  private double[] partialGramian;
+  private int dimension;
+  private long count;
+
+  @Override
+  public void process(MatrixRow input, Emitter<Pair<Integer,double[]>> emitter) {
+    float[] vector = input.getValues();
+    if (partialGramian == null) {
+      dimension = vector.length;
+      partialGramian = new double[dimension * (dimension + 1) / 2];
+    }
+    double[] thePartialGramian = partialGramian;
+    int offset = 0;
+    for (int row = 0; row < dimension; row++) {
+      double rowValue = vector[row];
+      for (int col = row; col < dimension; col++) {
+        thePartialGramian[offset++] += rowValue * vector[col];
+      }
+    }
+    if (++count % 10000 == 0) {
+      progress();
+    }
+  }
+
+  @Override
+  public void cleanup(Emitter<Pair<Integer,double[]>> emitter) {
+    if (partialGramian != null) {
+      emitter.emit(Pair.of(0, partialGramian));
+    }
+    super.cleanup(emitter);
+  }
+
+  /**
+   * @param packed upper triangle of a symmetric matrix, packed row by row
+   * @return the matrix, as a square array
+   */
+  static double[][] unpack(double[] packed) {
+    // packed.length = n * (n + 1) / 2
+    int dimension = (int) ((FastMath.sqrt(8.0 * packed.length + 1.0) - 1.0) / 2.0);
+    double[][] result = new double[dimension][dimension];
+    int offset = 0;
+    for (int row = 0; row < dimension; row++) {
+      for (int col = row; col < dimension; col++) {
+        double value = packed[offset++];
+        result[row][col] = value;
+        result[col][row] = value;
+      }
+    }
+    return result;
+  }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.computation.iterate.row;
+
+import com.cloudera.oryx.als.computation.types.MatrixRow;
+import com.cloudera.oryx.common.collection.LongFloatMap;
+import com.cloudera.oryx.computation.common.fn.OryxReduceDoFn;
+import com.google.common.base.Preconditions;
+import org.apache.crunch.Emitter;
+import org.apache.crunch.Pair;
+
+/**
+ * Like {@link RowReduceFn}, but the input for a row may also include its value from the previous
+ * iteration, which iterative solvers start from. Input is tagged by {@link FlagRowValuesFn}
+ * and {@link FlagPreviousRowFn}.
+ *
+ * @author Sean Owen
+ */
+public final class PreviousRowReduceFn
+    extends OryxReduceDoFn<Long, Iterable<Pair<LongFloatMap, float[]>>, MatrixRow> {
+
+  private final RowSolver rowSolver;
+
+  public PreviousRowReduceFn(YState yState) {
+    this.rowSolver = new RowSolver(yState);
+  }
+
+  @Override
+  public void initialize() {
+    super.initialize();
+    rowSolver.initialize(getContext(), getPartition(), getNumPartitions());
+  }
+
+  @Override
+  public void process(Pair<Long, Iterable<Pair<LongFloatMap, float[]>>> input, Emitter<MatrixRow> emitter) {
+    LongFloatMap values = null;
+    float[] previous = null;
+    for (Pair<LongFloatMap, float[]> valuesAndPrevious : input.second()) {
+      float[] previousValue = valuesAndPrevious.second();
+      if (previousValue.length == 0) {
+        // From FlagRowValuesFn
+        Preconditions.checkState(values == null, "More than one set of values for %s", input.first());
+        values = valuesAndPrevious.first();
+      } else {
+        // From FlagPreviousRowFn; copied since values may be reused while iterating
+        previous = previousValue.clone();
+      }
+    }
+    if (values == null) {
+      // Only a previous value, for a row that no longer has any input, like an item from a past generation
+      return;
+    }
+    emitter.emit(rowSolver.solve(input.first(), values, previous));
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.computation.iterate.row;
+
+import com.cloudera.oryx.als.common.factorizer.als.RowSolverType;
+import com.cloudera.oryx.als.computation.types.MatrixRow;
+import com.cloudera.oryx.common.collection.LongFloatMap;
+import com.cloudera.oryx.common.collection.LongObjectMap;
+import com.cloudera.oryx.common.math.NormalEquations;
+import com.cloudera.oryx.common.settings.ConfigUtils;
+import com.google.common.base.Preconditions;
+import com.typesafe.config.Config;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.util.FastMath;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Serializable;
+
+/**
+ * Solves for one row of X (or Y) at a time, from its input values and the fixed Y (or X).
+ * Shared by {@link RowReduceFn} and {@link PreviousRowReduceFn}.
+ *
+ * @author Sean Owen
+ */
+final class RowSolver implements Serializable {
+
+  private static final Logger log = LoggerFactory.getLogger(RowSolver.class);
+
+  private final YState yState;
+  private double alpha;
+  private double lambda;
+  private boolean reconstructRMatrix;
+  private boolean lossIgnoresUnspecified;
+  private RowSolverType solverType;
+  /** Reused for every row; created on first use, once the number of features is known */
+  private transient NormalEquations equations;
+
+  RowSolver(YState yState) {
+    this.yState = yState;
+  }
+
+  void initialize(TaskInputOutputContext<?,?,?,?> context, int currentPartition, int numPartitions) {
+    Config config = ConfigUtils.getDefaultConfig();
+    alpha = config.getDouble("model.alpha");
+    lambda = alpha * config.getDouble("model.lambda");
+
+    // This will cause the ALS algorithm to reconstruction the input matrix R, rather than the
+    // matrix P = R > 0 . Don't use this unless you understand it!
+    reconstructRMatrix = config.getBoolean("model.reconstruct-r-matrix");
+    // Causes the loss function to exclude entries for any input pairs that do not appear in the
+    // input and are implicitly 0
+    // Likewise, don't touch this for now unless you know what it does.
+    lossIgnoresUnspecified = config.getBoolean("model.loss-ignores-unspecified");
+    solverType = RowSolverType.fromConfig(config);
+
+    log.info("alpha = {}, lambda = {}", alpha, lambda);
+
+    yState.initialize(context, currentPartition, numPartitions);
+  }
+
+  /**
+   * @param rowID ID of row to solve for
+   * @param values row's input values
+   * @param previous row's value in the previous iteration, or {@code null} if unknown
+   * @return the row's new value
+   */
+  MatrixRow solve(long rowID, LongFloatMap values, float[] previous) {
+    LongObjectMap<float[]> Y = yState.getY();
+    RealMatrix YTY = yState.getYTY();
+
+    if (equations == null) {
+      equations = solverType.newNormalEquations(YTY.getRowDimension(), ConfigUtils.getDefaultConfig());
+    }
+
+    // Start computing Wu = (YT*Cu*Y + lambda*I) = (YT*Y + YT*(Cu-I)*Y + lambda*I),
+    // by first starting with YT * Y. Or, if LOSS_IGNORES_UNSPECIFIED is set, a variant on YT * Y
+    // that only includes rows of Y in Ru, which is added below along with YT*(Cu-I)*Y
+    equations.reset(lossIgnoresUnspecified ? null : YTY);
+
+    for (LongFloatMap.MapEntry entry : values.entrySet()) {
+
+      double xu = entry.getValue();
+      long itemID = entry.getKey();
+      float[] vector = Y.get(itemID);
+      Preconditions.checkNotNull(vector, "No feature vector for %s", itemID);
+
+      // Wu and YTCupu
+      double weight = lossIgnoresUnspecified ? 1.0 : 0.0;
+      if (reconstructRMatrix) {
+        equations.addToB(vector, xu);
+      } else {
+        double cu = 1.0 + alpha * FastMath.abs(xu);
+        weight += cu - 1.0;
+        if (xu > 0.0) {
+          equations.addToB(vector, cu);
+        }
+      }
+      equations.addOuterProduct(vector, weight);
+
+    }
+
+    Preconditions.checkState(!values.isEmpty(), "No values for user {}?", rowID);
+
+    equations.addToDiagonal(lambda * values.size());
+
+    float[] xu = equations.solve(previous);
+    return new MatrixRow(rowID, xu);
+  }
+
+}
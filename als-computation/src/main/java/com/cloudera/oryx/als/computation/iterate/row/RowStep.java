@@ -17,17 +17,24 @@ package com.cloudera.oryx.als.computation.iterate.row;
 
 import java.io.IOException;
 
+import com.cloudera.oryx.als.computation.RowPartitioner;
 import com.cloudera.oryx.als.computation.types.ALSTypes;
 import com.cloudera.oryx.als.computation.types.MatrixRow;
 import org.apache.crunch.GroupingOptions;
 import org.apache.crunch.PCollection;
+import org.apache.crunch.PTable;
+import org.apache.crunch.Pair;
 import org.apache.crunch.impl.mr.MRPipeline;
 import org.apache.crunch.lib.PTables;
+import org.apache.crunch.types.PTableType;
 import org.apache.crunch.types.avro.Avros;
 import org.apache.hadoop.conf.Configuration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.cloudera.oryx.als.common.factorizer.als.RowSolverType;
+import com.cloudera.oryx.common.collection.LongFloatMap;
+import com.cloudera.oryx.common.settings.ConfigUtils;
 import com.cloudera.oryx.computation.common.JobStepConfig;
 import com.cloudera.oryx.als.computation.iterate.IterationState;
 import com.cloudera.oryx.als.computation.iterate.IterationStep;
@@ -43,6 +50,7 @@ public final class RowStep extends IterationStep {
   private static final Logger log = LoggerFactory.getLogger(RowStep.class);
 
   public static final String Y_KEY_KEY = "Y_KEY";
+  public static final String YTY_KEY_KEY = "YTY_KEY";
   public static final String POPULAR_KEY = "POPULAR";
   public static final String CONVERGENCE_SAMPLING_MODULUS_KEY = "CONVERGENCE_SAMPLING_MODULUS";
 
@@ -74,12 +82,7 @@ public final class RowStep extends IterationStep {
       }
     }
 
-    String yKey;
-    if (x) {
-      yKey = Namespaces.getIterationsPrefix(instanceDir, generationID) + lastIteration + "/Y/";
-    } else {
-      yKey = iterationKey + "X/";
-    }
+    String yKey = getFixedMatrixKey();
 
     String xKey = iterationKey + (x ? "X/" : "Y/");
     String rKey = Namespaces.getTempPrefix(instanceDir, generationID) + (x ? "userVectors/" : "itemVectors/");
@@ -91,18 +94,42 @@ public final class RowStep extends IterationStep {
     MRPipeline p = createBasicPipeline(RowReduceFn.class);
     Configuration conf = p.getConfiguration();
     conf.set(Y_KEY_KEY, yKey);
+    // Computed by GramianStep just before
+    conf.set(YTY_KEY_KEY, gramianKey(yKey));
 
     String tempKey = Namespaces.getTempPrefix(instanceDir, generationID);
     String popularKey = tempKey + (x ? "popularItemsByUserPartition/" : "popularUsersByItemPartition/");
     conf.set(POPULAR_KEY, popularKey);
+    // Spread heavy rows evenly, and send each row to the partition that PopularMapFn expected
+    conf.set(RowPartitioner.HEAVY_ROWS_KEY,
+             RowPartitioner.heavyRowsKey(tempKey, x ? "userVectors/" : "itemVectors/"));
 
     YState yState = new YState(ALSTypes.DENSE_ROW_MATRIX); // Shared Y-Matrix state
 
-    GroupingOptions opts = groupingOptions();
-    PCollection<MatrixRow> matrix = PTables.asPTable(p.read(input(rKey, ALSTypes.SPARSE_ROW_MATRIX)))
-        .groupByKey(opts)
-        .parallelDo("rowReduce", new RowReduceFn(yState), ALSTypes.DENSE_ROW_MATRIX)
-        .write(output(xKey));
+    GroupingOptions opts = groupingOptions(RowPartitioner.class, null);
+    PCollection<MatrixRow> matrix;
+    if (RowSolverType.fromConfig(ConfigUtils.getDefaultConfig()).usesPreviousValue()) {
+      // Iterative solvers start from each row's value in the last iteration, if there was one
+      PTableType<Long, Pair<LongFloatMap, float[]>> rowsType =
+          Avros.tableOf(Avros.longs(), ALSTypes.VALUES_AND_PREVIOUS_ROW);
+      PTable<Long, Pair<LongFloatMap, float[]>> rows = p.read(input(rKey, ALSTypes.SPARSE_ROW_MATRIX))
+          .parallelDo("flagRowValues", new FlagRowValuesFn(), rowsType);
+      String previousKey =
+          Namespaces.getIterationsPrefix(instanceDir, generationID) + lastIteration + (x ? "/X/" : "/Y/");
+      if (store.exists(previousKey, false)) {
+        rows = rows.union(p.read(input(previousKey, ALSTypes.DENSE_ROW_MATRIX))
+            .parallelDo("flagPreviousRow", new FlagPreviousRowFn(), rowsType));
+      }
+      matrix = rows
+          .groupByKey(opts)
+          .parallelDo("rowReduce", new PreviousRowReduceFn(yState), ALSTypes.DENSE_ROW_MATRIX)
+          .write(output(xKey));
+    } else {
+      matrix = PTables.asPTable(p.read(input(rKey, ALSTypes.SPARSE_ROW_MATRIX)))
+          .groupByKey(opts)
+          .parallelDo("rowReduce", new RowReduceFn(yState), ALSTypes.DENSE_ROW_MATRIX)
+          .write(output(xKey));
+    }
 
     if (!x) {
       // Configure and perform convergence sampling
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.computation.iterate.row;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.crunch.fn.Aggregators;
+
+/**
+ * Sums arrays of the same length, element-wise.
+ *
+ * @author Sean Owen
+ * @see GramianStep
+ */
+public final class SumDoubleArraysAggregator extends Aggregators.SimpleAggregator<double[]> {
+
+  private double[] sum;
+
+  @Override
+  public void reset() {
+    sum = null;
+  }
+
+  @Override
+  public void update(double[] value) {
+    if (sum == null) {
+      sum = value.clone();
+    } else {
+      for (int i = 0; i < sum.length; i++) {
+        sum[i] += value[i];
+      }
+    }
+  }
+
+  @Override
+  public Iterable<double[]> results() {
+    return sum == null ? ImmutableList.<double[]>of() : ImmutableList.of(sum);
+  }
+
+}
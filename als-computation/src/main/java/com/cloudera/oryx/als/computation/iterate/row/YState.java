@@ -16,11 +16,13 @@
 package com.cloudera.oryx.als.computation.iterate.row;
 
 import com.cloudera.oryx.als.computation.ComputationDataUtils;
+import com.cloudera.oryx.als.computation.types.ALSTypes;
 import com.cloudera.oryx.als.computation.types.MatrixRow;
 import com.cloudera.oryx.common.collection.LongObjectMap;
 import com.cloudera.oryx.common.collection.LongSet;
 import com.cloudera.oryx.common.servcomp.Namespaces;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
 import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.crunch.io.avro.AvroFileSource;
@@ -76,36 +78,33 @@ final class YState implements Serializable {
       throw new IllegalStateException(e);
     }
 
-    RealMatrix theYTY = null;
-    int dimension = 0;
     long count = 0;
     for (MatrixRow record : in) {
       long keyID = record.getRowId();
-      float[] vector = record.getValues();
-      Preconditions.checkNotNull(vector, "Vector was null for %s?", keyID);
-
-      if (theYTY == null) {
-        dimension = vector.length;
-        theYTY = new Array2DRowRealMatrix(dimension, dimension);
-      }
-      for (int row = 0; row < dimension; row++) {
-        double rowValue = vector[row];
-        for (int col = 0; col < dimension; col++) {
-          theYTY.addToEntry(row, col, rowValue * vector[col]);
-        }
-      }
-
       if (expectedIDs == null || expectedIDs.contains(keyID)) {
+        float[] vector = record.getValues();
+        Preconditions.checkNotNull(vector, "Vector was null for %s?", keyID);
         Y.put(keyID, vector);
       }
-
       if (++count % 1000 == 0) {
         context.progress();
       }
     }
 
-    Preconditions.checkNotNull(theYTY);
-    YTY = theYTY;
+    YTY = readGramian(conf.get(RowStep.YTY_KEY_KEY), conf);
+  }
+
+  private static RealMatrix readGramian(String yTYKey, Configuration conf) {
+    log.info("Reading X'*X or Y'*Y from {}", yTYKey);
+    Iterable<double[]> in;
+    try {
+      in = new AvroFileSource<double[]>(Namespaces.toPath(yTYKey), (AvroType<double[]>) ALSTypes.DOUBLE_ARRAY)
+          .read(conf);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    double[] packed = Iterables.getOnlyElement(in);
+    return new Array2DRowRealMatrix(PartialGramianFn.unpack(packed), false);
   }
 
   public LongObjectMap<float[]> getY() {
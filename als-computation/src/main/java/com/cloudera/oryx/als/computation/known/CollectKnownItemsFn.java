@@ -15,22 +15,89 @@
 
 package com.cloudera.oryx.als.computation.known;
 
+import com.cloudera.oryx.als.common.BinaryModelFiles;
+import com.cloudera.oryx.als.computation.BinaryPartFiles;
 import com.cloudera.oryx.common.collection.LongFloatMap;
+import com.cloudera.oryx.common.collection.LongObjectMap;
+import com.cloudera.oryx.common.collection.LongSet;
 import com.cloudera.oryx.common.iterator.LongPrimitiveIterator;
 import com.cloudera.oryx.common.io.DelimitedDataUtils;
+import com.cloudera.oryx.common.io.IOUtils;
 import com.cloudera.oryx.computation.common.fn.OryxMapFn;
 
 import com.google.common.collect.Lists;
+import org.apache.crunch.CrunchRuntimeException;
+import org.apache.crunch.Emitter;
 import org.apache.crunch.Pair;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Collection;
 
+/**
+ * Outputs each user's known items as text. If given a prefix for binary output, each task also collects
+ * its users' items and writes them as one binary part file under that prefix when done. Parts are moved into
+ * place after the job, by {@link BinaryPartFiles#commit(String, int)}.
+ *
+ * @see BinaryModelFiles#writeKnownItems(LongObjectMap, File)
+ */
 public final class CollectKnownItemsFn extends OryxMapFn<Pair<Long, LongFloatMap>, String> {
+
+  private final String binaryPrefix;
+  private LongObjectMap<LongSet> binaryKnownItemIDs;
+
+  public CollectKnownItemsFn() {
+    this(null);
+  }
+
+  /**
+   * @param binaryPrefix if not {@code null}, known items are also written in binary format under this prefix
+   */
+  public CollectKnownItemsFn(String binaryPrefix) {
+    this.binaryPrefix = binaryPrefix;
+  }
+
+  @Override
+  public void initialize() {
+    super.initialize();
+    if (binaryPrefix != null) {
+      binaryKnownItemIDs = new LongObjectMap<LongSet>();
+    }
+  }
+
   @Override
   public String map(Pair<Long, LongFloatMap> input) {
+    if (binaryKnownItemIDs != null) {
+      LongSet itemIDs = new LongSet(input.second().size());
+      LongPrimitiveIterator it = input.second().keySetIterator();
+      while (it.hasNext()) {
+        itemIDs.add(it.nextLong());
+      }
+      binaryKnownItemIDs.put(input.first(), itemIDs);
+    }
     return input.first().toString() + '\t' + setToString(input.second());
   }
 
+  @Override
+  public void cleanup(Emitter<String> emitter) {
+    if (binaryKnownItemIDs != null) {
+      try {
+        File tempFile = File.createTempFile("binary-", BinaryModelFiles.SUFFIX);
+        tempFile.deleteOnExit();
+        try {
+          BinaryModelFiles.writeKnownItems(binaryKnownItemIDs, tempFile);
+          BinaryPartFiles.upload(tempFile, binaryPrefix, getConfiguration());
+        } finally {
+          IOUtils.delete(tempFile);
+        }
+      } catch (IOException e) {
+        throw new CrunchRuntimeException(e);
+      }
+      binaryKnownItemIDs = null;
+    }
+    super.cleanup(emitter);
+  }
+
   private static String setToString(LongFloatMap map) {
     LongPrimitiveIterator it = map.keySetIterator();
     Collection<String> keyStrings = Lists.newArrayListWithCapacity(map.size());
@@ -39,4 +106,5 @@ public final class CollectKnownItemsFn extends OryxMapFn<Pair<Long, LongFloatMap
     }
     return DelimitedDataUtils.encode(keyStrings);
   }
+
 }
@@ -18,8 +18,11 @@ package com.cloudera.oryx.als.computation.known;
 import java.io.IOException;
 
 import com.cloudera.oryx.als.computation.ALSJobStep;
+import com.cloudera.oryx.als.computation.BinaryPartFiles;
 import com.cloudera.oryx.als.computation.types.ALSTypes;
 import com.cloudera.oryx.common.servcomp.Namespaces;
+import com.cloudera.oryx.common.servcomp.Store;
+import com.cloudera.oryx.common.settings.ConfigUtils;
 import com.cloudera.oryx.computation.common.JobStepConfig;
 
 import org.apache.crunch.impl.mr.MRPipeline;
@@ -30,6 +33,11 @@ import org.apache.crunch.types.avro.Avros;
  */
 public final class CollectKnownItemsStep extends ALSJobStep {
 
+  /** Text output of the job; its {@code _SUCCESS} marker is removed if binary parts can't be committed */
+  private String outputKey;
+  /** Prefix under which tasks write binary parts, or {@code null} if not writing binary output */
+  private String binaryPrefix;
+
   @Override
   protected MRPipeline createPipeline() throws IOException {
 
@@ -37,20 +45,46 @@ public final class CollectKnownItemsStep extends ALSJobStep {
     String instanceDir = config.getInstanceDir();
     long generationID = config.getGenerationID();
 
-    String outputKey = Namespaces.getInstanceGenerationPrefix(instanceDir, generationID) + "knownItems/";
+    String generationPrefix = Namespaces.getInstanceGenerationPrefix(instanceDir, generationID);
+    outputKey = generationPrefix + "knownItems/";
 
     if (!validOutputPath(outputKey)) {
       return null;
     }
 
+    // Binary parts are written by each task, rather than converted from the text output afterwards
+    binaryPrefix = null;
+    if (ConfigUtils.getDefaultConfig().getBoolean("model.binary-format")) {
+      binaryPrefix = generationPrefix + "binary/knownItems/";
+      // Parts left by an earlier, failed run would otherwise be mixed with this run's
+      Store.get().recursiveDelete(binaryPrefix);
+    }
+
     MRPipeline p = createBasicPipeline(CollectKnownItemsFn.class);
     // Really should read in and exclude tag IDs but doesn't really hurt much
     p.read(input(Namespaces.getTempPrefix(instanceDir, generationID) + "userVectors/", ALSTypes.SPARSE_ROW_MATRIX))
-        .parallelDo("collectKnownItems", new CollectKnownItemsFn(), Avros.strings())
+        .parallelDo("collectKnownItems", new CollectKnownItemsFn(binaryPrefix), Avros.strings())
         .write(compressedTextOutput(p.getConfiguration(), outputKey));
     return p;
   }
 
+  @Override
+  protected void postRun() throws IOException {
+    if (binaryPrefix == null) {
+      return;
+    }
+    boolean succeeded = false;
+    try {
+      BinaryPartFiles.commit(binaryPrefix, getNumMapTasks());
+      succeeded = true;
+    } finally {
+      if (!succeeded) {
+        // This causes a re-run of the M/R next time if failed
+        Store.get().delete(outputKey + "_SUCCESS");
+      }
+    }
+  }
+
   public static void main(String[] args) throws Exception {
     run(new CollectKnownItemsStep(), args);
   }
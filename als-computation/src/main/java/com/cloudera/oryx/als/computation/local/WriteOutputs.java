@@ -24,9 +24,10 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.concurrent.Callable;
-import java.util.concurrent.locks.Lock;
 
+import com.cloudera.oryx.als.common.BinaryModelFiles;
 import com.cloudera.oryx.als.common.StringLongMapping;
 import com.cloudera.oryx.als.common.pmml.ALSModelDescription;
 import com.cloudera.oryx.common.collection.LongFloatMap;
@@ -35,6 +36,7 @@ import com.cloudera.oryx.common.collection.LongSet;
 import com.cloudera.oryx.common.io.IOUtils;
 import com.cloudera.oryx.common.iterator.LongPrimitiveIterator;
 import com.cloudera.oryx.common.io.DelimitedDataUtils;
+import com.cloudera.oryx.common.settings.ConfigUtils;
 
 final class WriteOutputs implements Callable<Object> {
 
@@ -42,6 +44,7 @@ final class WriteOutputs implements Callable<Object> {
 
   private static final char KEY_VALUE_DELIMITER = '\t'; // Matches Hadoop TextOutputFormat
   private static final String SINGLE_OUT_FILENAME = "0.csv.gz";
+  private static final String SINGLE_BINARY_OUT_FILENAME = "0" + BinaryModelFiles.SUFFIX;
 
   private final File modelDir;
   private final LongObjectMap<LongFloatMap> RbyRow;
@@ -79,9 +82,20 @@ final class WriteOutputs implements Callable<Object> {
     log.info("Writing model");
     File modelDescriptionFile = new File(modelDir, "model.pmml.gz");
     ALSModelDescription modelDescription = new ALSModelDescription();
-    modelDescription.setKnownItemsPath("knownItems");
-    modelDescription.setXPath("X");
-    modelDescription.setYPath("Y");
+    if (ConfigUtils.getDefaultConfig().getBoolean("model.binary-format")) {
+      log.info("Writing X, Y and known items in binary format");
+      File binaryDir = new File(modelDir, "binary");
+      writeBinaryKnownItems(knownItemIDs, new File(binaryDir, "knownItems"));
+      writeBinaryFeatures(X, new File(binaryDir, "X"));
+      writeBinaryFeatures(Y, new File(binaryDir, "Y"));
+      modelDescription.setKnownItemsPath("binary/knownItems");
+      modelDescription.setXPath("binary/X");
+      modelDescription.setYPath("binary/Y");
+    } else {
+      modelDescription.setKnownItemsPath("knownItems");
+      modelDescription.setXPath("X");
+      modelDescription.setYPath("Y");
+    }
     modelDescription.setIDMappingPath("idMapping");
     ALSModelDescription.write(modelDescriptionFile, modelDescription);
     return null;
@@ -155,20 +169,35 @@ final class WriteOutputs implements Callable<Object> {
     }
   }
 
+  private static void writeBinaryKnownItems(LongObjectMap<LongSet> knownItemIDs, File knownItemsDir)
+      throws IOException {
+    if (knownItemIDs.isEmpty()) {
+      return;
+    }
+    File outFile = new File(knownItemsDir, SINGLE_BINARY_OUT_FILENAME);
+    Files.createParentDirs(outFile);
+    BinaryModelFiles.writeKnownItems(knownItemIDs, outFile);
+  }
+
+  private static void writeBinaryFeatures(LongObjectMap<float[]> idFloatMap, File idFloatDir) throws IOException {
+    if (idFloatMap.isEmpty()) {
+      return;
+    }
+    File outFile = new File(idFloatDir, SINGLE_BINARY_OUT_FILENAME);
+    Files.createParentDirs(outFile);
+    BinaryModelFiles.writeFeatures(idFloatMap, outFile);
+  }
+
   private static void writeMapping(StringLongMapping idMapping, File idMappingDir) throws IOException {
     File outFile = new File(idMappingDir, SINGLE_OUT_FILENAME);
     Files.createParentDirs(outFile);
     Writer out = IOUtils.buildGZIPWriter(outFile);
     try {
-      Lock lock = idMapping.getLock().readLock();
-      lock.lock();
-      try {
-        for (LongObjectMap.MapEntry<String> entry : idMapping.getReverseMapping().entrySet()) {
-          out.write(DelimitedDataUtils.encode(Long.toString(entry.getKey()), entry.getValue()));
-          out.write('\n');
-        }
-      } finally {
-        lock.unlock();
+      Iterator<LongObjectMap.MapEntry<String>> it = idMapping.reverseMappingIterator();
+      while (it.hasNext()) {
+        LongObjectMap.MapEntry<String> entry = it.next();
+        out.write(DelimitedDataUtils.encode(Long.toString(entry.getKey()), entry.getValue()));
+        out.write('\n');
       }
     } finally {
       out.close();
@@ -18,8 +18,12 @@ package com.cloudera.oryx.als.computation.merge;
 import java.io.IOException;
 
 import com.cloudera.oryx.als.common.NumericIDValue;
+import com.cloudera.oryx.als.computation.RowPartitioner;
 import com.cloudera.oryx.als.computation.types.ALSTypes;
+import com.cloudera.oryx.common.collection.LongFloatMap;
+import org.apache.crunch.PCollection;
 import org.apache.crunch.PTable;
+import org.apache.crunch.Pair;
 import org.apache.crunch.impl.mr.MRPipeline;
 
 import com.cloudera.oryx.als.computation.ALSJobStep;
@@ -39,16 +43,21 @@ abstract class AbstractToVectorsStep extends ALSJobStep {
     long generationID = config.getGenerationID();
 
     String inputKey = Namespaces.getInstanceGenerationPrefix(instanceDir, generationID) + "input/";
-    String outputKey = Namespaces.getTempPrefix(instanceDir, generationID) + getSuffix();
+    String tempPrefix = Namespaces.getTempPrefix(instanceDir, generationID);
+    String outputKey = tempPrefix + getSuffix();
     if (!validOutputPath(outputKey)) {
       return null;
     }
 
     MRPipeline p = createBasicPipeline(ToVectorReduceFn.class);
-    getMatrix(p, inputKey)
+    PCollection<Pair<Long, LongFloatMap>> vectors = getMatrix(p, inputKey)
         .groupByKey(groupingOptions())
         .parallelDo("toVectors", new ToVectorReduceFn(), ALSTypes.SPARSE_ROW_MATRIX)
         .write(output(outputKey));
+    // Later steps partition these rows so that the heavy ones are spread evenly
+    vectors
+        .parallelDo("heavyRows", new HeavyRowFn(), ALSTypes.ID_COUNT)
+        .write(output(RowPartitioner.heavyRowsKey(tempPrefix, getSuffix())));
     return p;
  }
   
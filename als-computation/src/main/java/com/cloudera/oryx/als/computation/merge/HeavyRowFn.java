@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.computation.merge;
+
+import com.cloudera.oryx.common.collection.LongFloatMap;
+import com.cloudera.oryx.common.settings.ConfigUtils;
+import com.cloudera.oryx.computation.common.fn.OryxDoFn;
+import org.apache.crunch.Emitter;
+import org.apache.crunch.Pair;
+
+/**
+ * Emits the ID and number of values of each row with at least {@code model.heavy-row-values} values.
+ *
+ * @author Sean Owen
+ * @see com.cloudera.oryx.als.computation.RowPartitioner
+ */
+public final class HeavyRowFn extends OryxDoFn<Pair<Long, LongFloatMap>, Pair<Long, Integer>> {
+
+  private int heavyRowValues;
+
+  @Override
+  public void initialize() {
+    super.initialize();
+    heavyRowValues = ConfigUtils.getDefaultConfig().getInt("model.heavy-row-values");
+  }
+
+  @Override
+  public void process(Pair<Long, LongFloatMap> input, Emitter<Pair<Long, Integer>> emitter) {
+    int size = input.second().size();
+    if (size >= heavyRowValues) {
+      emitter.emit(Pair.of(input.first(), size));
+    }
+  }
+
+}
@@ -17,6 +17,7 @@ package com.cloudera.oryx.als.computation.popular;
 
 import java.io.IOException;
 
+import com.cloudera.oryx.als.computation.RowPartitioner;
 import com.cloudera.oryx.als.computation.types.ALSTypes;
 import org.apache.crunch.impl.mr.MRPipeline;
 import org.apache.crunch.types.avro.Avros;
@@ -40,6 +41,9 @@ abstract class AbstractPopularStep extends ALSJobStep {
     }
 
     MRPipeline p = createBasicPipeline(PopularMapFn.class);
+    // Must partition rows exactly as RowStep will
+    p.getConfiguration().set(RowPartitioner.HEAVY_ROWS_KEY,
+                             RowPartitioner.heavyRowsKey(tempPrefix, getSourceDir() + '/'));
     p.read(input(tempPrefix + getSourceDir() + '/', ALSTypes.SPARSE_ROW_MATRIX))
         .parallelDo("popularMap", new PopularMapFn(), Avros.tableOf(ALSTypes.INTS, ALSTypes.ID_SET))
         .groupByKey(groupingOptions())
@@ -15,23 +15,23 @@
 
 package com.cloudera.oryx.als.computation.popular;
 
+import com.cloudera.oryx.als.computation.RowPartitioner;
 import com.cloudera.oryx.common.collection.LongFloatMap;
 import com.cloudera.oryx.common.collection.LongSet;
 import com.cloudera.oryx.common.iterator.LongPrimitiveIterator;
 import com.cloudera.oryx.computation.common.fn.OryxMapFn;
 import org.apache.crunch.Pair;
-import org.apache.hadoop.mapreduce.Partitioner;
-import org.apache.hadoop.mapreduce.lib.partition.HashPartitioner;
 
 public final class PopularMapFn extends OryxMapFn<Pair<Long, LongFloatMap>, Pair<Integer, LongSet>> {
 
-  private static final Partitioner<Long,?> HASHER = new HashPartitioner<Long, Object>();
-
+  private RowPartitioner partitioner;
   private int numReducers;
 
   @Override
   public void initialize() {
     super.initialize();
+    partitioner = new RowPartitioner();
+    partitioner.setConf(getConfiguration());
     this.numReducers = getContext().getNumReduceTasks();
   }
 
@@ -43,8 +43,8 @@ public final class PopularMapFn extends OryxMapFn<Pair<Long, LongFloatMap>, Pair
     while (it.hasNext()) {
       targetIDs.add(it.nextLong());
     }
-    // Make sure we use exactly the same hash:
-    int partition = HASHER.getPartition(input.first(), null, numReducers);
+    // Make sure we use exactly the same partitioning as RowStep:
+    int partition = partitioner.getPartition(input.first(), null, numReducers);
     return Pair.of(partition, targetIDs);
   }
 }
@@ -15,14 +15,79 @@
 
 package com.cloudera.oryx.als.computation.publish;
 
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.crunch.CrunchRuntimeException;
+import org.apache.crunch.Emitter;
+
+import com.cloudera.oryx.als.common.BinaryModelFiles;
+import com.cloudera.oryx.als.computation.BinaryPartFiles;
 import com.cloudera.oryx.als.computation.types.MatrixRow;
+import com.cloudera.oryx.common.collection.LongObjectMap;
 import com.cloudera.oryx.common.io.DelimitedDataUtils;
+import com.cloudera.oryx.common.io.IOUtils;
 import com.cloudera.oryx.computation.common.fn.OryxMapFn;
 
+/**
+ * Outputs each row as text. If given a prefix for binary output, each task also collects its rows and
+ * writes them as one binary part file under that prefix when done. Parts are moved into place after the job,
+ * by {@link BinaryPartFiles#commit(String, int)}.
+ *
+ * @see BinaryModelFiles#writeFeatures(LongObjectMap, File)
+ */
 public final class PublishMapFn extends OryxMapFn<MatrixRow, String> {
+
+  private final String binaryPrefix;
+  private LongObjectMap<float[]> binaryRows;
+
+  public PublishMapFn() {
+    this(null);
+  }
+
+  /**
+   * @param binaryPrefix if not {@code null}, rows are also written in binary format under this prefix
+   */
+  public PublishMapFn(String binaryPrefix) {
+    this.binaryPrefix = binaryPrefix;
+  }
+
+  @Override
+  public void initialize() {
+    super.initialize();
+    if (binaryPrefix != null) {
+      binaryRows = new LongObjectMap<float[]>();
+    }
+  }
+
   @Override
   public String map(MatrixRow input) {
-    return String.valueOf(input.getRowId()) + '\t' + vectorToString(input.getValues());
+    float[] values = input.getValues();
+    if (binaryRows != null) {
+      // Copied, in case the input object is reused
+      binaryRows.put(input.getRowId(), values.clone());
+    }
+    return String.valueOf(input.getRowId()) + '\t' + vectorToString(values);
+  }
+
+  @Override
+  public void cleanup(Emitter<String> emitter) {
+    if (binaryRows != null) {
+      try {
+        File tempFile = File.createTempFile("binary-", BinaryModelFiles.SUFFIX);
+        tempFile.deleteOnExit();
+        try {
+          BinaryModelFiles.writeFeatures(binaryRows, tempFile);
+          BinaryPartFiles.upload(tempFile, binaryPrefix, getConfiguration());
+        } finally {
+          IOUtils.delete(tempFile);
+        }
+      } catch (IOException e) {
+        throw new CrunchRuntimeException(e);
+      }
+      binaryRows = null;
+    }
+    super.cleanup(emitter);
   }
 
   private static String vectorToString(float[] vector) {
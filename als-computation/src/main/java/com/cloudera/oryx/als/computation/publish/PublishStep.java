@@ -17,17 +17,25 @@ package com.cloudera.oryx.als.computation.publish;
 
 import java.io.IOException;
 
+import com.cloudera.oryx.als.computation.BinaryPartFiles;
 import com.cloudera.oryx.als.computation.types.ALSTypes;
 import org.apache.crunch.impl.mr.MRPipeline;
 
 import com.cloudera.oryx.als.computation.iterate.IterationState;
 import com.cloudera.oryx.als.computation.iterate.IterationStep;
 import com.cloudera.oryx.common.servcomp.Namespaces;
+import com.cloudera.oryx.common.servcomp.Store;
+import com.cloudera.oryx.common.settings.ConfigUtils;
 import com.cloudera.oryx.computation.common.JobStepConfig;
 import org.apache.crunch.types.avro.Avros;
 
 abstract class PublishStep extends IterationStep {
 
+  /** Text output of the job; its {@code _SUCCESS} marker is removed if binary parts can't be committed */
+  private String outputKey;
+  /** Prefix under which tasks write binary parts, or {@code null} if not writing binary output */
+  private String binaryPrefix;
+
   @Override
   protected final MRPipeline createPipeline() throws IOException {
 
@@ -36,20 +44,46 @@ abstract class PublishStep extends IterationStep {
     IterationState iterationState = getIterationState();
     String iterationKey = iterationState.getIterationKey();
     String xOrY = isX() ? "X/" : "Y/";
-    String outputKeyPath =
-        Namespaces.getInstanceGenerationPrefix(config.getInstanceDir(), config.getGenerationID()) + xOrY;
+    String generationPrefix =
+        Namespaces.getInstanceGenerationPrefix(config.getInstanceDir(), config.getGenerationID());
+    outputKey = generationPrefix + xOrY;
 
-    if (!validOutputPath(outputKeyPath)) {
+    if (!validOutputPath(outputKey)) {
       return null;
     }
 
+    // Binary parts are written by each task, rather than converted from the text output afterwards
+    binaryPrefix = null;
+    if (ConfigUtils.getDefaultConfig().getBoolean("model.binary-format")) {
+      binaryPrefix = generationPrefix + "binary/" + xOrY;
+      // Parts left by an earlier, failed run would otherwise be mixed with this run's
+      Store.get().recursiveDelete(binaryPrefix);
+    }
+
     MRPipeline p = createBasicPipeline(PublishMapFn.class);
     p.read(input(iterationKey + xOrY, ALSTypes.DENSE_ROW_MATRIX))
-        .parallelDo("publish", new PublishMapFn(), Avros.strings())
-        .write(compressedTextOutput(p.getConfiguration(), outputKeyPath));
+        .parallelDo("publish", new PublishMapFn(binaryPrefix), Avros.strings())
+        .write(compressedTextOutput(p.getConfiguration(), outputKey));
     return p;
   }
 
+  @Override
+  protected final void postRun() throws IOException {
+    if (binaryPrefix == null) {
+      return;
+    }
+    boolean succeeded = false;
+    try {
+      BinaryPartFiles.commit(binaryPrefix, getNumMapTasks());
+      succeeded = true;
+    } finally {
+      if (!succeeded) {
+        // This causes a re-run of the M/R next time if failed
+        Store.get().delete(outputKey + "_SUCCESS");
+      }
+    }
+  }
+
   abstract boolean isX();
 
   @Override
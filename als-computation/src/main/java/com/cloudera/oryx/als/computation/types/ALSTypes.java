@@ -60,6 +60,33 @@ public final class ALSTypes {
     }
   }
 
+  public static final PType<double[]> DOUBLE_ARRAY = Avros.derived(double[].class,
+       new MapFn<DoubleArray, double[]>() {
+         @Override
+         public double[] map(DoubleArray input) {
+           return input.getValues();
+         }
+       },
+       new MapFn<double[], DoubleArray>() {
+         @Override
+         public DoubleArray map(double[] input) {
+           return new DoubleArray(input);
+         }
+       }, Avros.reflects(DoubleArray.class));
+
+  static final class DoubleArray {
+    private final double[] values;
+    DoubleArray() {
+      this(null);
+    }
+    DoubleArray(double[] values) {
+      this.values = values;
+    }
+    double[] getValues() {
+      return values;
+    }
+  }
+
   public static final PType<NumericIDValue> IDVALUE = Avros.reflects(NumericIDValue.class);
 
   public static final PType<LongSet> ID_SET = Avros.derived(LongSet.class,
@@ -125,6 +152,13 @@ public final class ALSTypes {
 
   public static final PType<Pair<Long, LongFloatMap>> SPARSE_ROW_MATRIX = Avros.pairs(LONGS, ID_FLOAT_MAP);
 
+  /** A row's input values, and its value in the previous iteration. Either may be empty. */
+  public static final PType<Pair<LongFloatMap, float[]>> VALUES_AND_PREVIOUS_ROW =
+      Avros.pairs(ID_FLOAT_MAP, FLOAT_ARRAY);
+
+  /** A row's ID, and its number of values. */
+  public static final PType<Pair<Long, Integer>> ID_COUNT = Avros.pairs(LONGS, INTS);
+
   public static final PType<Pair<Integer, Pair<Long, Pair<float[], LongSet>>>> REC_TYPE =
       Avros.pairs(INTS, Avros.pairs(LONGS, Avros.pairs(FLOAT_ARRAY, ID_SET)));
 
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.computation;
+
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import org.apache.avro.mapred.AvroKey;
+import org.apache.crunch.Pair;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.lib.partition.HashPartitioner;
+import org.junit.Test;
+
+import com.cloudera.oryx.common.OryxTest;
+
+/**
+ * Tests {@link RowPartitioner}.
+ *
+ * @author Sean Owen
+ */
+public final class RowPartitionerTest extends OryxTest {
+
+  @Test
+  public void testHashFallback() {
+    RowPartitioner partitioner = new RowPartitioner();
+    partitioner.setConf(new Configuration(false));
+    HashPartitioner<Long,Object> hashPartitioner = new HashPartitioner<Long,Object>();
+    for (long id = -100L; id < 100L; id++) {
+      int expected = hashPartitioner.getPartition(id, null, 7);
+      assertEquals(expected, partitioner.getPartition(id, null, 7));
+      assertEquals(expected, partitioner.getPartition(new AvroKey<Long>(id), null, 7));
+    }
+  }
+
+  @Test
+  public void testHeavyRows() {
+    RowPartitioner partitioner = new RowPartitioner();
+    partitioner.setConf(new Configuration(false));
+    partitioner.setHeavyRows(heavyRows(new long[] {10L, 20L, 30L, 40L}, new int[] {80, 100, 10, 90}));
+    // Largest first, each to the partition with the fewest values so far
+    assertEquals(0, partitioner.getPartition(20L, null, 3));
+    assertEquals(1, partitioner.getPartition(40L, null, 3));
+    assertEquals(2, partitioner.getPartition(10L, null, 3));
+    assertEquals(2, partitioner.getPartition(30L, null, 3));
+    // Others still by hash
+    HashPartitioner<Long,Object> hashPartitioner = new HashPartitioner<Long,Object>();
+    assertEquals(hashPartitioner.getPartition(50L, null, 3), partitioner.getPartition(50L, null, 3));
+    // Reassigned for a different number of partitions
+    assertEquals(0, partitioner.getPartition(20L, null, 2));
+    assertEquals(1, partitioner.getPartition(40L, null, 2));
+    assertEquals(1, partitioner.getPartition(10L, null, 2));
+    assertEquals(0, partitioner.getPartition(30L, null, 2));
+  }
+
+  @Test
+  public void testConsistentAcrossInstances() {
+    // PopularMapFn and RowStep's shuffle use separate instances, which read heavy rows in any order,
+    // but must agree on every row's partition
+    RowPartitioner popularPartitioner = new RowPartitioner();
+    popularPartitioner.setConf(new Configuration(false));
+    popularPartitioner.setHeavyRows(
+        heavyRows(new long[] {1L, 2L, 3L, 4L, 5L, 6L}, new int[] {50, 50, 40, 40, 30, 30}));
+    RowPartitioner rowPartitioner = new RowPartitioner();
+    rowPartitioner.setConf(new Configuration(false));
+    rowPartitioner.setHeavyRows(
+        heavyRows(new long[] {6L, 4L, 2L, 5L, 3L, 1L}, new int[] {30, 40, 50, 30, 40, 50}));
+    for (int numPartitions = 1; numPartitions <= 8; numPartitions++) {
+      for (long id = 0L; id < 20L; id++) {
+        assertEquals(popularPartitioner.getPartition(id, null, numPartitions),
+                     rowPartitioner.getPartition(new AvroKey<Long>(id), null, numPartitions));
+      }
+    }
+  }
+
+  private static List<Pair<Long,Integer>> heavyRows(long[] ids, int[] sizes) {
+    List<Pair<Long,Integer>> heavyRows = Lists.newArrayList();
+    for (int i = 0; i < ids.length; i++) {
+      heavyRows.add(Pair.of(ids[i], sizes[i]));
+    }
+    return heavyRows;
+  }
+
+}
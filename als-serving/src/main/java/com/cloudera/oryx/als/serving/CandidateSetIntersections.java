@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.serving;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.MapMaker;
+
+import com.cloudera.oryx.common.collection.LongSet;
+import com.cloudera.oryx.common.iterator.LongPrimitiveIterator;
+
+/**
+ * Intersections of candidate sets, cached by the identities of the sets. Combined rescorers are built
+ * per request, but the sets they combine usually aren't, so this returns the same intersection for the same
+ * sets. The serving layer can then reuse what it cached for the intersection, as it would for one set.
+ * Entries go away once any of their sets is no longer used.
+ *
+ * @author Sean Owen
+ * @see MultiRescorer
+ */
+final class CandidateSetIntersections {
+
+  /**
+   * For the first set, a node whose children are keyed by the second set, and so on. Keys are weak and
+   * compared by identity.
+   */
+  private static final ConcurrentMap<LongSet,Node> ROOTS = new MapMaker().weakKeys().makeMap();
+
+  private CandidateSetIntersections() {
+  }
+
+  /**
+   * @param sets candidate sets, none of which may be modified
+   * @return intersection of the sets, or the set itself if there is only one, or {@code null} if none
+   */
+  static LongSet intersect(List<LongSet> sets) {
+    switch (sets.size()) {
+      case 0:
+        return null;
+      case 1:
+        return sets.get(0);
+      default:
+        ConcurrentMap<LongSet,Node> level = ROOTS;
+        Node node = null;
+        for (LongSet set : sets) {
+          node = level.get(set);
+          if (node == null) {
+            Node newNode = new Node();
+            node = level.putIfAbsent(set, newNode);
+            if (node == null) {
+              node = newNode;
+            }
+          }
+          level = node.children;
+        }
+        return node.getIntersection(sets);
+    }
+  }
+
+  private static LongSet doIntersect(List<LongSet> sets) {
+    LongSet smallest = null;
+    for (LongSet set : sets) {
+      if (smallest == null || set.size() < smallest.size()) {
+        smallest = set;
+      }
+    }
+    LongSet intersection = new LongSet(smallest.size());
+    LongPrimitiveIterator it = smallest.iterator();
+    while (it.hasNext()) {
+      long itemID = it.nextLong();
+      boolean inAll = true;
+      for (LongSet set : sets) {
+        if (set != smallest && !set.contains(itemID)) {
+          inAll = false;
+          break;
+        }
+      }
+      if (inAll) {
+        intersection.add(itemID);
+      }
+    }
+    return intersection;
+  }
+
+  private static final class Node {
+
+    private final ConcurrentMap<LongSet,Node> children = new MapMaker().weakKeys().makeMap();
+    /** Intersection of the sets on the path to this node; must not refer to any of them */
+    private LongSet intersection;
+
+    synchronized LongSet getIntersection(List<LongSet> sets) {
+      if (intersection == null) {
+        intersection = doIntersect(sets);
+      }
+      return intersection;
+    }
+
+  }
+
+}
@@ -17,6 +17,7 @@ package com.cloudera.oryx.als.serving;
 
 import java.util.Iterator;
 
+import com.cloudera.oryx.als.common.NumericIDRescorer;
 import com.cloudera.oryx.als.common.NumericIDValue;
 import com.cloudera.oryx.als.common.Rescorer;
 import com.cloudera.oryx.als.common.StringLongMapping;
@@ -34,6 +35,7 @@ final class MostPopularItemsIterator implements Iterator<NumericIDValue> {
   private final NumericIDValue delegate;
   private final Iterator<LongFloatMap.MapEntry> countsIterator;
   private final Rescorer rescorer;
+  private final NumericIDRescorer numericRescorer;
   private final StringLongMapping idMapping;
 
   MostPopularItemsIterator(Iterator<LongFloatMap.MapEntry> countsIterator,
@@ -42,6 +44,7 @@ final class MostPopularItemsIterator implements Iterator<NumericIDValue> {
     delegate = new NumericIDValue();
     this.countsIterator = countsIterator;
     this.rescorer = rescorer;
+    numericRescorer = rescorer instanceof NumericIDRescorer ? (NumericIDRescorer) rescorer : null;
     this.idMapping = idMapping;
   }
 
@@ -55,8 +58,17 @@ final class MostPopularItemsIterator implements Iterator<NumericIDValue> {
     LongFloatMap.MapEntry entry = countsIterator.next();
     long id = entry.getKey();
     double value = entry.getValue();
+    NumericIDRescorer theNumericRescorer = numericRescorer;
     Rescorer theRescorer = rescorer;
-    if (theRescorer != null) {
+    if (theNumericRescorer != null) {
+      if (theNumericRescorer.isFiltered(id)) {
+        return null;
+      }
+      value = (float) theNumericRescorer.rescore(id, value);
+      if (!Doubles.isFinite(value)) {
+        return null;
+      }
+    } else if (theRescorer != null) {
       String stringID = idMapping.toString(id);
       if (theRescorer.isFiltered(stringID)) {
         return null;
@@ -19,6 +19,7 @@ import java.util.Iterator;
 
 import com.google.common.base.Preconditions;
 
+import com.cloudera.oryx.als.common.NumericIDPairRescorer;
 import com.cloudera.oryx.als.common.NumericIDValue;
 import com.cloudera.oryx.als.common.PairRescorer;
 import com.cloudera.oryx.als.common.StringLongMapping;
@@ -43,6 +44,7 @@ final class MostSimilarItemIterator implements Iterator<NumericIDValue> {
   private final Iterator<LongObjectMap.MapEntry<float[]>> Yiterator;
   private final long[] toItemIDs;
   private final PairRescorer rescorer;
+  private final NumericIDPairRescorer numericRescorer;
   private final StringLongMapping idMapping;
 
   MostSimilarItemIterator(Iterator<LongObjectMap.MapEntry<float[]>> Yiterator,
@@ -55,6 +57,7 @@ final class MostSimilarItemIterator implements Iterator<NumericIDValue> {
     this.itemFeatures = itemFeatures;
     this.Yiterator = Yiterator;
     this.rescorer = rescorer;
+    numericRescorer = rescorer instanceof NumericIDPairRescorer ? (NumericIDPairRescorer) rescorer : null;
     itemFeatureNorms = new double[itemFeatures.length];
     for (int i = 0; i < itemFeatures.length; i++) {
       itemFeatureNorms[i] = SimpleVectorMath.norm(itemFeatures[i]);
@@ -79,6 +82,7 @@ final class MostSimilarItemIterator implements Iterator<NumericIDValue> {
     }
 
     PairRescorer rescorer1 = this.rescorer;
+    NumericIDPairRescorer numericRescorer1 = this.numericRescorer;
     float[] candidateFeatures = entry.getValue();
     double candidateFeaturesNorm = SimpleVectorMath.norm(candidateFeatures);
     double total = 0.0;
@@ -86,7 +90,12 @@ final class MostSimilarItemIterator implements Iterator<NumericIDValue> {
     int length = itemFeatures.length;
     for (int i = 0; i < length; i++) {
       long toItemID = toItemIDs[i];
-      if (rescorer1 != null && rescorer1.isFiltered(idMapping.toString(itemID), idMapping.toString(toItemID))) {
+      if (numericRescorer1 != null) {
+        if (numericRescorer1.isFiltered(itemID, toItemID)) {
+          return null;
+        }
+      } else if (rescorer1 != null &&
+                 rescorer1.isFiltered(idMapping.toString(itemID), idMapping.toString(toItemID))) {
         return null;
       }
       double similarity = SimpleVectorMath.dot(candidateFeatures, itemFeatures[i]) / 
@@ -94,7 +103,12 @@ final class MostSimilarItemIterator implements Iterator<NumericIDValue> {
       if (!Doubles.isFinite(similarity)) {
         return null;
       }
-      if (rescorer1 != null) {
+      if (numericRescorer1 != null) {
+        similarity = numericRescorer1.rescore(itemID, toItemID, similarity);
+        if (!Doubles.isFinite(similarity)) {
+          return null;
+        }
+      } else if (rescorer1 != null) {
         similarity = rescorer1.rescore(idMapping.toString(itemID), idMapping.toString(toItemID), similarity);
         if (!Doubles.isFinite(similarity)) {
           return null;
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.serving;
+
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+
+import com.cloudera.oryx.als.common.AbstractNumericIDPairRescorer;
+import com.cloudera.oryx.als.common.NumericIDPairRescorer;
+
+/**
+ * Like {@link MultiLongPairRescorer}, but aggregates {@link NumericIDPairRescorer}s, and so is one itself.
+ *
+ * @author Sean Owen
+ * @see MultiLongPairRescorer
+ * @see MultiRescorerProvider
+ */
+public final class MultiNumericIDPairRescorer extends AbstractNumericIDPairRescorer {
+
+  private final NumericIDPairRescorer[] rescorers;
+
+  public MultiNumericIDPairRescorer(List<NumericIDPairRescorer> rescorers) {
+    Preconditions.checkNotNull(rescorers);
+    Preconditions.checkState(!rescorers.isEmpty());
+    this.rescorers = rescorers.toArray(new NumericIDPairRescorer[rescorers.size()]);
+  }
+
+  @Override
+  public double rescore(long a, long b, double value) {
+    for (NumericIDPairRescorer rescorer : rescorers) {
+      value = rescorer.rescore(a, b, value);
+      if (Double.isNaN(value)) {
+        return Double.NaN;
+      }
+    }
+    return value;
+  }
+
+  @Override
+  public boolean isFiltered(long a, long b) {
+    for (NumericIDPairRescorer rescorer : rescorers) {
+      if (rescorer.isFiltered(a, b)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.serving;
+
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+
+import com.cloudera.oryx.als.common.AbstractNumericIDRescorer;
+import com.cloudera.oryx.als.common.CandidateSetRescorer;
+import com.cloudera.oryx.als.common.NumericIDRescorer;
+import com.cloudera.oryx.common.collection.LongSet;
+
+/**
+ * Like {@link MultiRescorer}, but aggregates {@link NumericIDRescorer}s, and so is one itself. Like
+ * {@link MultiRescorer}, it restricts candidates to the intersection of any of their candidate sets.
+ *
+ * @author Sean Owen
+ * @see MultiRescorer
+ * @see MultiRescorerProvider
+ */
+public final class MultiNumericIDRescorer extends AbstractNumericIDRescorer
+    implements CandidateSetRescorer {
+
+  private final NumericIDRescorer[] rescorers;
+  private LongSet candidateItemIDs;
+  private boolean candidateItemIDsComputed;
+
+  /**
+   * @param rescorers {@link NumericIDRescorer} objects to delegate to
+   */
+  public MultiNumericIDRescorer(List<NumericIDRescorer> rescorers) {
+    Preconditions.checkNotNull(rescorers);
+    Preconditions.checkState(!rescorers.isEmpty(), "rescorers is empty");
+    this.rescorers = rescorers.toArray(new NumericIDRescorer[rescorers.size()]);
+  }
+
+  @Override
+  public double rescore(long numericID, double value) {
+    for (NumericIDRescorer rescorer : rescorers) {
+      value = rescorer.rescore(numericID, value);
+      if (Double.isNaN(value)) {
+        return Double.NaN;
+      }
+    }
+    return value;
+  }
+
+  @Override
+  public void rescore(long[] numericIDs, double[] scores, int size) {
+    for (NumericIDRescorer rescorer : rescorers) {
+      rescorer.rescore(numericIDs, scores, size);
+    }
+  }
+
+  @Override
+  public boolean isFiltered(long numericID) {
+    for (NumericIDRescorer rescorer : rescorers) {
+      if (rescorer.isFiltered(numericID)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public synchronized LongSet getCandidateItemIDs() {
+    if (!candidateItemIDsComputed) {
+      candidateItemIDs = MultiRescorer.intersectCandidateItemIDs(rescorers);
+      candidateItemIDsComputed = true;
+    }
+    return candidateItemIDs;
+  }
+
+}
@@ -18,21 +18,27 @@ package com.cloudera.oryx.als.serving;
 import java.util.List;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 
+import com.cloudera.oryx.als.common.CandidateSetRescorer;
 import com.cloudera.oryx.als.common.Rescorer;
+import com.cloudera.oryx.common.collection.LongSet;
 
 /**
  * Convenience implementation that will aggregate the behavior of multiple {@link com.cloudera.oryx.als.common.Rescorer}s.
  * It will filter an item if any of the given instances filter it, and will rescore by applying
- * the rescorings in the given order.
+ * the rescorings in the given order. Items are candidates only if they are in the candidate set of
+ * each instance that is a {@link CandidateSetRescorer}.
  *
  * @author Sean Owen
  * @see MultiLongPairRescorer
  * @see MultiRescorerProvider
  */
-public final class MultiRescorer implements Rescorer {
+public final class MultiRescorer implements CandidateSetRescorer {
 
   private final Rescorer[] rescorers;
+  private LongSet candidateItemIDs;
+  private boolean candidateItemIDsComputed;
 
   /**
    * @param rescorers {@link com.cloudera.oryx.als.common.Rescorer} objects to delegate to
@@ -64,4 +70,36 @@ public final class MultiRescorer implements Rescorer {
     return false;
   }
 
+  @Override
+  public synchronized LongSet getCandidateItemIDs() {
+    if (!candidateItemIDsComputed) {
+      candidateItemIDs = intersectCandidateItemIDs(rescorers);
+      candidateItemIDsComputed = true;
+    }
+    return candidateItemIDs;
+  }
+
+  /**
+   * @return intersection of the candidate sets of those {@code rescorers} that are
+   *  {@link CandidateSetRescorer}s, or {@code null} if none have one. The same sets give the same
+   *  intersection object, and one set is returned as is, so that the serving layer can reuse what it
+   *  cached for it.
+   * @see CandidateSetIntersections
+   */
+  static LongSet intersectCandidateItemIDs(Rescorer[] rescorers) {
+    List<LongSet> sets = Lists.newArrayListWithCapacity(rescorers.length);
+    for (Rescorer rescorer : rescorers) {
+      LongSet candidateItemIDs = getCandidateItemIDs(rescorer);
+      if (candidateItemIDs != null) {
+        sets.add(candidateItemIDs);
+      }
+    }
+    return CandidateSetIntersections.intersect(sets);
+  }
+
+  private static LongSet getCandidateItemIDs(Rescorer rescorer) {
+    return rescorer instanceof CandidateSetRescorer ?
+        ((CandidateSetRescorer) rescorer).getCandidateItemIDs() : null;
+  }
+
 }
@@ -20,6 +20,8 @@ import java.util.List;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 
+import com.cloudera.oryx.als.common.NumericIDPairRescorer;
+import com.cloudera.oryx.als.common.NumericIDRescorer;
 import com.cloudera.oryx.als.common.Rescorer;
 import com.cloudera.oryx.als.common.OryxRecommender;
 import com.cloudera.oryx.als.common.PairRescorer;
@@ -27,7 +29,8 @@ import com.cloudera.oryx.als.common.PairRescorer;
 /**
  * Convenience implementation that will aggregate the behavior of multiple {@link RescorerProvider}s.
  * It will filter an item if any of the given instances filter it, and will rescore by applying
- * the rescorings in the given order.
+ * the rescorings in the given order. If all of the rescorers are {@link NumericIDRescorer}s
+ * (or {@link NumericIDPairRescorer}s), so is the aggregate.
  *
  * @author Sean Owen
  * @see MultiRescorer
@@ -93,7 +96,14 @@ public final class MultiRescorerProvider extends AbstractRescorerProvider {
     if (numRescorers == 1) {
       return rescorers.get(0);
     }
-    return new MultiRescorer(rescorers);
+    List<NumericIDRescorer> numericRescorers = Lists.newArrayListWithCapacity(numRescorers);
+    for (Rescorer rescorer : rescorers) {
+      if (!(rescorer instanceof NumericIDRescorer)) {
+        return new MultiRescorer(rescorers);
+      }
+      numericRescorers.add((NumericIDRescorer) rescorer);
+    }
+    return new MultiNumericIDRescorer(numericRescorers);
   }
 
   @Override
@@ -112,7 +122,14 @@ public final class MultiRescorerProvider extends AbstractRescorerProvider {
     if (numRescorers == 1) {
       return rescorers.get(0);
     }
-    return new MultiLongPairRescorer(rescorers);
+    List<NumericIDPairRescorer> numericRescorers = Lists.newArrayListWithCapacity(numRescorers);
+    for (PairRescorer rescorer : rescorers) {
+      if (!(rescorer instanceof NumericIDPairRescorer)) {
+        return new MultiLongPairRescorer(rescorers);
+      }
+      numericRescorers.add((NumericIDPairRescorer) rescorer);
+    }
+    return new MultiNumericIDPairRescorer(numericRescorers);
   }
 
 }
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.serving;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+import com.google.common.base.Preconditions;
+
+import com.cloudera.oryx.als.common.IDValue;
+import com.cloudera.oryx.als.common.StringLongMapping;
+
+/**
+ * <p>An unmodifiable list of {@link IDValue}s, backed by parallel arrays of numeric IDs and values. An
+ * {@link IDValue} is created, and its ID translated, only when an element is accessed with {@link #get(int)}.
+ * Callers that just write out results can use {@link #getID(int)} and {@link #getValue(int)} instead, and
+ * skip creating an {@link IDValue} per element.</p>
+ *
+ * @author Sean Owen
+ */
+public final class NumericIDValueList extends AbstractList<IDValue> implements RandomAccess {
+
+  private final long[] ids;
+  private final float[] values;
+  private final int size;
+  private final StringLongMapping idMapping;
+
+  /**
+   * @param ids numeric IDs. This list takes ownership of the array.
+   * @param values values corresponding to IDs. This list takes ownership of the array.
+   * @param size number of elements from the arrays that are in the list
+   * @param idMapping translates numeric IDs to string IDs
+   */
+  NumericIDValueList(long[] ids, float[] values, int size, StringLongMapping idMapping) {
+    Preconditions.checkArgument(size <= ids.length && size <= values.length, "Bad size: %s", size);
+    this.ids = ids;
+    this.values = values;
+    this.size = size;
+    this.idMapping = idMapping;
+  }
+
+  /**
+   * @return ID of element at given index
+   */
+  public String getID(int index) {
+    checkIndex(index);
+    return idMapping.toString(ids[index]);
+  }
+
+  /**
+   * @return value of element at given index
+   */
+  public float getValue(int index) {
+    checkIndex(index);
+    return values[index];
+  }
+
+  @Override
+  public IDValue get(int index) {
+    return new IDValue(getID(index), getValue(index));
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException(String.valueOf(index));
+    }
+  }
+
+}
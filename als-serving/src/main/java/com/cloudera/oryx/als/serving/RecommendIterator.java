@@ -16,22 +16,28 @@
 package com.cloudera.oryx.als.serving;
 
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 import com.google.common.base.Preconditions;
 
+import com.cloudera.oryx.als.common.NumericIDRescorer;
 import com.cloudera.oryx.als.common.NumericIDValue;
 import com.cloudera.oryx.als.common.Rescorer;
 import com.cloudera.oryx.als.common.StringLongMapping;
 import com.cloudera.oryx.common.collection.LongObjectMap;
-import com.cloudera.oryx.common.collection.LongSet;
+import com.cloudera.oryx.common.collection.LongArraySet;
 import com.cloudera.oryx.common.math.SimpleVectorMath;
 
 import com.google.common.primitives.Doubles;
 import com.google.common.primitives.Floats;
 
 /**
- * An {@link Iterator} that generates and iterates over all possible candidate items to recommend.
- * It is used to generate recommendations. The items with top values are taken as recommendations.
+ * <p>An {@link Iterator} that generates and iterates over all possible candidate items to recommend.
+ * It is used to generate recommendations. The items with top values are taken as recommendations.</p>
+ *
+ * <p>Candidates are scored a block at a time: item vectors are copied into one array, which is then
+ * multiplied by the user vector(s) in one tight loop. When there are several user vectors, they are summed
+ * first, since the sum of an item's dot products with each is the dot product with their sum.</p>
  *
  * @author Sean Owen
  * @see MostSimilarItemIterator
@@ -39,72 +45,148 @@ import com.google.common.primitives.Floats;
  */
 final class RecommendIterator implements Iterator<NumericIDValue> {
 
+  /** Number of items to score at once. */
+  private static final int BLOCK_SIZE = 256;
+
   private final NumericIDValue delegate;
-  private final float[][] features;
+  private final float[] userFeaturesSum;
+  private final int numUserFeatures;
   private final Iterator<LongObjectMap.MapEntry<float[]>> Yiterator;
-  private final LongSet knownItemIDs;
+  private final LongArraySet knownItemIDs;
   private final Rescorer rescorer;
+  private final NumericIDRescorer numericRescorer;
   private final StringLongMapping idMapping;
+  private final long[] blockItemIDs;
+  private final float[] blockItemFeatures;
+  private final double[] blockDots;
+  private int blockSize;
+  private int blockPosition;
+  private boolean hasNext;
 
   RecommendIterator(float[][] features,
                     Iterator<LongObjectMap.MapEntry<float[]>> Yiterator,
-                    LongSet knownItemIDs,
+                    LongArraySet knownItemIDs,
                     Rescorer rescorer,
                     StringLongMapping idMapping) {
     Preconditions.checkArgument(features.length > 0, "features must not be empty");
     delegate = new NumericIDValue();
-    this.features = features;
+    userFeaturesSum = sum(features);
+    numUserFeatures = features.length;
     this.Yiterator = Yiterator;
     this.knownItemIDs = knownItemIDs;
     this.rescorer = rescorer;
+    numericRescorer = rescorer instanceof NumericIDRescorer ? (NumericIDRescorer) rescorer : null;
     this.idMapping = idMapping;
+    blockItemIDs = new long[BLOCK_SIZE];
+    blockItemFeatures = new float[BLOCK_SIZE * userFeaturesSum.length];
+    blockDots = new double[BLOCK_SIZE];
+    hasNext = findNext();
+  }
+
+  private static float[] sum(float[][] features) {
+    if (features.length == 1) {
+      return features[0];
+    }
+    double[] sum = new double[features[0].length];
+    for (float[] oneFeatures : features) {
+      for (int i = 0; i < sum.length; i++) {
+        sum[i] += oneFeatures[i];
+      }
+    }
+    float[] result = new float[sum.length];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = (float) sum[i];
+    }
+    return result;
   }
 
   @Override
   public boolean hasNext() {
-    return Yiterator.hasNext();
+    return hasNext;
   }
 
   @Override
   public NumericIDValue next() {
-    LongObjectMap.MapEntry<float[]> entry = Yiterator.next();
-    long itemID = entry.getKey();
-    
-    LongSet theKnownItemIDs = knownItemIDs;
-    if (theKnownItemIDs != null) {
-      synchronized (theKnownItemIDs) {
-        if (theKnownItemIDs.contains(itemID)) {
-          return null;
-        }
-      }
+    if (!hasNext) {
+      throw new NoSuchElementException();
     }
+    int position = blockPosition++;
+    long itemID = blockItemIDs[position];
+    double sum = blockDots[position];
 
-    Rescorer rescorer = this.rescorer;
-    if (rescorer != null&& rescorer.isFiltered(idMapping.toString(itemID))) {
-      return null;
-    }
-
-    float[] itemFeatures = entry.getValue();
-    double sum = 0.0;
-    int count = 0;
-    for (float[] oneUserFeatures : features) {
-      sum += SimpleVectorMath.dot(itemFeatures, oneUserFeatures);
-      count++;
-    }
-    
-    if (rescorer != null) {
+    NumericIDValue result;
+    if (numericRescorer != null) {
+      // Already rescored with the rest of the block
+      result = Doubles.isFinite(sum) ? setDelegate(itemID, sum) : null;
+    } else if (rescorer != null) {
       sum = rescorer.rescore(idMapping.toString(itemID), sum);
       if (!Doubles.isFinite(sum)) {
-        return null;
+        result = null;
+      } else {
+        result = setDelegate(itemID, sum);
       }
+    } else {
+      result = setDelegate(itemID, sum);
     }
 
-    float result = (float) (sum / count);
-    Preconditions.checkState(Floats.isFinite(result), "Bad recommendation value");
-    delegate.set(itemID, result);
+    hasNext = findNext();
+    return result;
+  }
+
+  private NumericIDValue setDelegate(long itemID, double sum) {
+    float value = (float) (sum / numUserFeatures);
+    Preconditions.checkState(Floats.isFinite(value), "Bad recommendation value");
+    delegate.set(itemID, value);
     return delegate;
   }
 
+  private boolean findNext() {
+    if (blockPosition < blockSize) {
+      return true;
+    }
+    fillBlock();
+    return blockSize > 0;
+  }
+
+  /**
+   * Copies the next block of candidate items, skipping those that are known or filtered, and scores them.
+   */
+  private void fillBlock() {
+    LongArraySet theKnownItemIDs = knownItemIDs;
+    Rescorer theRescorer = rescorer;
+    NumericIDRescorer theNumericRescorer = numericRescorer;
+    int numFeatures = userFeaturesSum.length;
+    int size = 0;
+    while (size < BLOCK_SIZE && Yiterator.hasNext()) {
+      LongObjectMap.MapEntry<float[]> entry = Yiterator.next();
+      long itemID = entry.getKey();
+      if (theKnownItemIDs != null && theKnownItemIDs.contains(itemID)) {
+        continue;
+      }
+      if (theNumericRescorer != null) {
+        if (theNumericRescorer.isFiltered(itemID)) {
+          continue;
+        }
+      } else if (theRescorer != null && theRescorer.isFiltered(idMapping.toString(itemID))) {
+        continue;
+      }
+      float[] itemFeatures = entry.getValue();
+      if (itemFeatures == null) {
+        // Removed since the candidate was chosen
+        continue;
+      }
+      blockItemIDs[size] = itemID;
+      System.arraycopy(itemFeatures, 0, blockItemFeatures, size * numFeatures, numFeatures);
+      size++;
+    }
+    SimpleVectorMath.dots(blockItemFeatures, size, userFeaturesSum, blockDots);
+    if (theNumericRescorer != null) {
+      theNumericRescorer.rescore(blockItemIDs, blockDots, size);
+    }
+    blockSize = size;
+    blockPosition = 0;
+  }
+
   /**
    * @throws UnsupportedOperationException
    */
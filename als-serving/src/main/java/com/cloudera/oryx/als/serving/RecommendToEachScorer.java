@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.serving;
+
+import java.util.Iterator;
+
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Doubles;
+
+import com.cloudera.oryx.als.common.NumericIDRescorer;
+import com.cloudera.oryx.als.common.Rescorer;
+import com.cloudera.oryx.als.common.StringLongMapping;
+import com.cloudera.oryx.als.common.TopNHeap;
+import com.cloudera.oryx.common.collection.LongArraySet;
+import com.cloudera.oryx.common.collection.LongObjectMap;
+import com.cloudera.oryx.common.math.SimpleVectorMath;
+
+/**
+ * <p>Finds top recommendations for each of several users separately, in one pass over candidate items.
+ * Like {@link RecommendIterator}, candidates are copied and scored a block at a time; each block is
+ * then scored against every user while it is still in cache.</p>
+ *
+ * <p>Instances are not thread-safe. Each thread should score its own candidates, and then merge results.</p>
+ *
+ * @author Sean Owen
+ * @see RecommendIterator
+ */
+final class RecommendToEachScorer {
+
+  /** Number of items to score at once. */
+  private static final int BLOCK_SIZE = 256;
+
+  private final float[][] userFeatures;
+  private final LongArraySet[] knownItemIDs;
+  private final Rescorer rescorer;
+  private final NumericIDRescorer numericRescorer;
+  private final StringLongMapping idMapping;
+  private final TopNHeap[] topN;
+  private final long[] blockItemIDs;
+  private final String[] blockItemStringIDs;
+  private final float[] blockItemFeatures;
+  private final double[] blockDots;
+
+  /**
+   * @param userFeatures each user's feature vector
+   * @param knownItemIDs each user's known items, which are not recommended to that user; the array or any
+   *  element may be {@code null}
+   * @param rescorer rescorer applied to all users' recommendations, or {@code null}
+   * @param idMapping mapping used to translate item IDs for the rescorer
+   * @param howMany number of recommendations to find for each user
+   */
+  RecommendToEachScorer(float[][] userFeatures,
+                        LongArraySet[] knownItemIDs,
+                        Rescorer rescorer,
+                        StringLongMapping idMapping,
+                        int howMany) {
+    Preconditions.checkArgument(userFeatures.length > 0, "userFeatures must not be empty");
+    Preconditions.checkArgument(knownItemIDs == null || knownItemIDs.length == userFeatures.length,
+                                "Number of known item sets doesn't match number of users");
+    this.userFeatures = userFeatures;
+    this.knownItemIDs = knownItemIDs;
+    this.rescorer = rescorer;
+    numericRescorer = rescorer instanceof NumericIDRescorer ? (NumericIDRescorer) rescorer : null;
+    this.idMapping = idMapping;
+    topN = new TopNHeap[userFeatures.length];
+    for (int u = 0; u < topN.length; u++) {
+      topN[u] = new TopNHeap(howMany);
+    }
+    blockItemIDs = new long[BLOCK_SIZE];
+    blockItemStringIDs = rescorer == null || numericRescorer != null ? null : new String[BLOCK_SIZE];
+    blockItemFeatures = new float[BLOCK_SIZE * userFeatures[0].length];
+    blockDots = new double[BLOCK_SIZE];
+  }
+
+  /**
+   * @param candidates candidate items to score for all users
+   */
+  void score(Iterator<LongObjectMap.MapEntry<float[]>> candidates) {
+    int size;
+    while ((size = fillBlock(candidates)) > 0) {
+      for (int u = 0; u < userFeatures.length; u++) {
+        SimpleVectorMath.dots(blockItemFeatures, size, userFeatures[u], blockDots);
+        if (numericRescorer != null) {
+          numericRescorer.rescore(blockItemIDs, blockDots, size);
+        }
+        LongArraySet userKnownItemIDs = knownItemIDs == null ? null : knownItemIDs[u];
+        TopNHeap userTopN = topN[u];
+        for (int i = 0; i < size; i++) {
+          long itemID = blockItemIDs[i];
+          if (userKnownItemIDs != null && userKnownItemIDs.contains(itemID)) {
+            continue;
+          }
+          double value = blockDots[i];
+          if (numericRescorer != null) {
+            if (!Doubles.isFinite(value)) {
+              continue;
+            }
+          } else if (rescorer != null) {
+            value = rescorer.rescore(blockItemStringIDs[i], value);
+            if (!Doubles.isFinite(value)) {
+              continue;
+            }
+          }
+          userTopN.offer(itemID, (float) value);
+        }
+      }
+    }
+  }
+
+  /**
+   * Copies the next block of candidate items that are not filtered, for all users.
+   *
+   * @return number of items in the block; 0 if there are no more candidates
+   */
+  private int fillBlock(Iterator<LongObjectMap.MapEntry<float[]>> candidates) {
+    int numFeatures = userFeatures[0].length;
+    int size = 0;
+    while (size < BLOCK_SIZE && candidates.hasNext()) {
+      LongObjectMap.MapEntry<float[]> entry = candidates.next();
+      long itemID = entry.getKey();
+      float[] itemFeatures = entry.getValue();
+      if (itemFeatures == null) {
+        // Removed since the candidate was chosen
+        continue;
+      }
+      if (numericRescorer != null) {
+        if (numericRescorer.isFiltered(itemID)) {
+          continue;
+        }
+      } else if (rescorer != null) {
+        String itemStringID = idMapping.toString(itemID);
+        if (rescorer.isFiltered(itemStringID)) {
+          continue;
+        }
+        blockItemStringIDs[size] = itemStringID;
+      }
+      blockItemIDs[size] = itemID;
+      System.arraycopy(itemFeatures, 0, blockItemFeatures, size * numFeatures, numFeatures);
+      size++;
+    }
+    return size;
+  }
+
+  /**
+   * @return each user's top recommendations so far, in the same order as users were given
+   */
+  TopNHeap[] getTopN() {
+    return topN;
+  }
+
+}
@@ -52,6 +52,11 @@ import com.cloudera.oryx.als.common.PairRescorer;
  * {@code ...?rescorerParams=xxx&...rescorerParams=yyy&...rescorerParams=zzz...} will result in an
  * {@code args} parameter with 3 elements, {@code xxx}, {@code yyy}, {@code zzz}.</p>
  *
+ * <p>Rescorers may also implement {@link com.cloudera.oryx.als.common.NumericIDRescorer}, to avoid translating
+ * item IDs to strings, or {@link com.cloudera.oryx.als.common.CandidateSetRescorer}, to restrict recommendations
+ * to a precomputed set of items, like those in stock. These are much faster for filters that exclude
+ * most items.</p>
+ *
  * @author Sean Owen
  * @see MultiRescorer
  * @see com.cloudera.oryx.als.serving.candidate.CandidateFilter
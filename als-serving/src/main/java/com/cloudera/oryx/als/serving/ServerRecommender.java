@@ -21,15 +21,16 @@ import java.io.IOException;
 import java.io.Reader;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
@@ -40,7 +41,9 @@ import org.apache.commons.math3.util.FastMath;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.cloudera.oryx.als.common.CandidateSetRescorer;
 import com.cloudera.oryx.als.common.IDValue;
+import com.cloudera.oryx.als.common.NumericIDPairRescorer;
 import com.cloudera.oryx.als.common.NumericIDValue;
 import com.cloudera.oryx.als.common.Rescorer;
 import com.cloudera.oryx.als.common.StringLongMapping;
@@ -53,17 +56,22 @@ import com.cloudera.oryx.als.common.OryxRecommender;
 import com.cloudera.oryx.common.ReloadingReference;
 import com.cloudera.oryx.als.common.PairRescorer;
 import com.cloudera.oryx.als.common.TopN;
+import com.cloudera.oryx.als.common.TopNHeap;
+import com.cloudera.oryx.common.collection.ConcurrentLongFloatArrayMap;
+import com.cloudera.oryx.common.collection.ConcurrentLongObjectMap;
+import com.cloudera.oryx.common.collection.LongArraySet;
 import com.cloudera.oryx.common.collection.LongFloatMap;
 import com.cloudera.oryx.common.collection.LongObjectMap;
 import com.cloudera.oryx.common.collection.LongSet;
 import com.cloudera.oryx.common.iterator.FileLineIterable;
-import com.cloudera.oryx.common.iterator.LongPrimitiveIterator;
+import com.cloudera.oryx.common.math.IncrementalGramian;
 import com.cloudera.oryx.common.math.Solver;
 import com.cloudera.oryx.common.parallel.ExecutorUtils;
 import com.cloudera.oryx.common.io.IOUtils;
-import com.cloudera.oryx.als.serving.candidate.CandidateFilter;
 import com.cloudera.oryx.common.math.SimpleVectorMath;
 import com.cloudera.oryx.als.serving.generation.Generation;
+import com.cloudera.oryx.als.serving.generation.ResultCache;
+import com.cloudera.oryx.als.serving.generation.SimilarItemsTable;
 import com.cloudera.oryx.common.io.DelimitedDataUtils;
 
 /**
@@ -75,6 +83,8 @@ public final class ServerRecommender implements OryxRecommender, Closeable {
   
   private static final Logger log = LoggerFactory.getLogger(ServerRecommender.class);
 
+  private static final int INGEST_BATCH_SIZE = 10000;
+
   private final ALSGenerationManager generationManager;
   private final int numCores;
   private final ReloadingReference<ExecutorService> executor;
@@ -114,24 +124,403 @@ public final class ServerRecommender implements OryxRecommender, Closeable {
     }
   }
 
+  /**
+   * Ingests lines in batches. Within a batch, lines are decoded in parallel and then applied as in
+   * {@link #setPreference(String, String, float)} and {@link #removePreference(String, String)}, except that
+   * there is one fold-in per user and per item rather than per line. All lines for one user are applied by
+   * the same thread, in order, and the changes they make to each item are summed and then applied per item.
+   * Fold-ins within a batch are all computed from the user and item vectors as of the start of the batch.
+   * As when lines are ingested one by one, lines before a bad line are applied before it causes a failure.
+   */
   @Override
   public void ingest(Reader reader) {
+    long start = System.currentTimeMillis();
+    long lines = 0;
+    List<CharSequence> batch = Lists.newArrayListWithCapacity(INGEST_BATCH_SIZE);
     for (CharSequence line : new FileLineIterable(reader)) {
+      batch.add(line);
+      if (batch.size() == INGEST_BATCH_SIZE) {
+        ingestBatch(batch);
+        lines += batch.size();
+        batch.clear();
+      }
+    }
+    if (!batch.isEmpty()) {
+      ingestBatch(batch);
+      lines += batch.size();
+    }
+    double seconds = FastMath.max(0.001, (System.currentTimeMillis() - start) / 1000.0);
+    log.info("Ingested {} lines in {}s ({} lines/s)",
+             lines, String.format("%.1f", seconds), (long) (lines / seconds));
+  }
+
+  /**
+   * Decodes and applies a batch of lines. If a line can't be decoded, the lines before it are still applied.
+   *
+   * @throws IllegalArgumentException for the first line that can't be decoded, after applying the lines before it
+   */
+  private void ingestBatch(List<CharSequence> lines) {
+    int numPartitions = numCores;
+
+    // Decode contiguous chunks of lines in parallel, each up to its first bad line
+    Collection<Callable<DecodedChunk>> decodeTasks = Lists.newArrayListWithCapacity(numPartitions);
+    int chunkSize = (lines.size() + numPartitions - 1) / numPartitions;
+    for (int chunkStart = 0; chunkStart < lines.size(); chunkStart += chunkSize) {
+      final List<CharSequence> chunk = lines.subList(chunkStart, FastMath.min(lines.size(), chunkStart + chunkSize));
+      decodeTasks.add(new Callable<DecodedChunk>() {
+        @Override
+        public DecodedChunk call() {
+          return new DecodedChunk(chunk);
+        }
+      });
+    }
+    // Chunks are concatenated in order, so each user's data stays in input order
+    List<List<IngestDatum>> byUser = newPartitions(numPartitions);
+    IllegalArgumentException badLine = null;
+    for (DecodedChunk decodedChunk : runAll(decodeTasks)) {
+      for (IngestDatum datum : decodedChunk.data) {
+        byUser.get(ingestPartition(datum.longUserID, numPartitions)).add(datum);
+      }
+      if (decodedChunk.badLine != null) {
+        badLine = decodedChunk.badLine;
+        break;
+      }
+    }
+
+    applyBatch(byUser);
+    if (badLine != null) {
+      throw badLine;
+    }
+  }
+
+  /**
+   * @param byUser decoded data, divided into partitions by user
+   */
+  private void applyBatch(List<List<IngestDatum>> byUser) {
+    final int numPartitions = byUser.size();
+
+    Generation generation;
+    try {
+      generation = getCurrentGeneration();
+    } catch (NotReadyException nre) {
+      // Corner case -- no model ready so all we can do is record, below
+      generation = null;
+    }
+
+    // Record and apply each user's data, and collect changes to items
+    final Generation theGeneration = generation;
+    Collection<Callable<LongObjectMap<ItemFoldIn>>> userTasks = Lists.newArrayListWithCapacity(numPartitions);
+    for (final List<IngestDatum> partition : byUser) {
+      if (!partition.isEmpty()) {
+        userTasks.add(new Callable<LongObjectMap<ItemFoldIn>>() {
+          @Override
+          public LongObjectMap<ItemFoldIn> call() {
+            return ingestUsers(partition, theGeneration);
+          }
+        });
+      }
+    }
+    final List<LongObjectMap<ItemFoldIn>> itemFoldIns = runAll(userTasks);
+    if (generation == null) {
+      return;
+    }
+
+    // Sum and apply changes to each item
+    Collection<Callable<Object>> itemTasks = Lists.newArrayListWithCapacity(numPartitions);
+    for (int i = 0; i < numPartitions; i++) {
+      final int partition = i;
+      itemTasks.add(new Callable<Object>() {
+        @Override
+        public Void call() {
+          ingestItems(partition, numPartitions, itemFoldIns, theGeneration);
+          return null;
+        }
+      });
+    }
+    runAll(itemTasks);
+
+    maybeMergeUpdates(generation);
+  }
+
+  /**
+   * Records and applies data for users in one partition. Each user's vector is updated once, with the sum of
+   * the fold-ins from each of its items.
+   *
+   * @return changes to make to each item's vector; not yet applied
+   */
+  private LongObjectMap<ItemFoldIn> ingestUsers(List<IngestDatum> partition, Generation generation) {
+    LongObjectMap<List<IngestDatum>> byUser = new LongObjectMap<List<IngestDatum>>();
+    for (IngestDatum datum : partition) {
+      List<IngestDatum> userData = byUser.get(datum.longUserID);
+      if (userData == null) {
+        userData = Lists.newArrayList();
+        byUser.put(datum.longUserID, userData);
+      }
+      userData.add(datum);
+    }
+
+    LongObjectMap<ItemFoldIn> itemFoldIns = new LongObjectMap<ItemFoldIn>();
+    for (LongObjectMap.MapEntry<List<IngestDatum>> entry : byUser.entrySet()) {
+      long longUserID = entry.getKey();
+      List<IngestDatum> userData = entry.getValue();
+
+      for (IngestDatum datum : userData) {
+        try {
+          if (datum.isRemove()) {
+            generationManager.remove(datum.userID, datum.itemID);
+          } else {
+            generationManager.append(datum.userID, datum.itemID, datum.value);
+          }
+        } catch (IOException ioe) {
+          log.warn("Could not append datum; continuing", ioe);
+        }
+      }
+      if (generation == null) {
+        continue;
+      }
+
+      Solver xtxSolver = generation.getXTXSolver();
+      Solver ytySolver = generation.getYTYSolver();
+      float[] userFeatures = null;
+      double[] itemFoldIn = null;
+      double[] userFoldInSum = null;
+
+      for (IngestDatum datum : userData) {
+        long longItemID = datum.longItemID;
+
+        if (datum.isRemove()) {
+          if (applyRemovePreference(longUserID, longItemID, generation)) {
+            // The user's vector is gone, so are changes to it so far, and a new one may be started
+            userFeatures = null;
+            itemFoldIn = null;
+            userFoldInSum = null;
+          }
+          continue;
+        }
+
+        if (userFeatures == null) {
+          userFeatures = getFeatures(longUserID, generation.getX());
+        }
+        if (!generation.getY().containsKey(longItemID)) {
+          generation.getCandidateFilter().addItem(datum.itemID);
+        }
+        float[] itemFeatures = getFeatures(longItemID, generation.getY());
+        addKnownItem(longUserID, longItemID, generation);
+
+        if (userFeatures == null || itemFeatures == null) {
+          continue;
+        }
+        double signedFoldInWeight =
+            foldInWeight(SimpleVectorMath.dot(userFeatures, itemFeatures), datum.value);
+        if (signedFoldInWeight == 0.0) {
+          continue;
+        }
+        // See updateFeatures(). The item fold-in depends only on the user, so is computed once per user.
+        if (xtxSolver != null) {
+          if (itemFoldIn == null) {
+            itemFoldIn = xtxSolver.solveFToD(userFeatures);
+          }
+          // Only items with a fold-in are registered, so that unchanged items keep their cached similarities
+          ItemFoldIn itemChange = itemFoldIns.get(longItemID);
+          if (itemChange == null) {
+            itemChange = new ItemFoldIn();
+            itemFoldIns.put(longItemID, itemChange);
+          }
+          itemChange.add(signedFoldInWeight, itemFoldIn);
+        }
+        if (ytySolver != null) {
+          userFoldInSum = addScaled(userFoldInSum, signedFoldInWeight, ytySolver.solveFToD(itemFeatures));
+        }
+      }
+
+      if (userFoldInSum != null) {
+        addToFeatures(longUserID, scaledDelta(1.0, userFoldInSum), generation.getX(), generation.getXTX());
+      }
+      ResultCache recommendCache = generation.getRecommendCache();
+      if (recommendCache != null) {
+        recommendCache.invalidate(longUserID);
+      }
+    }
+    return itemFoldIns;
+  }
+
+  /**
+   * Sums the changes to items in one partition that were collected from all users, and applies them to each
+   * item's vector once.
+   */
+  private static void ingestItems(int partition,
+                                  int numPartitions,
+                                  Iterable<LongObjectMap<ItemFoldIn>> allItemFoldIns,
+                                  Generation generation) {
+    LongObjectMap<ItemFoldIn> partitionItemFoldIns = new LongObjectMap<ItemFoldIn>();
+    for (LongObjectMap<ItemFoldIn> itemFoldIns : allItemFoldIns) {
+      for (LongObjectMap.MapEntry<ItemFoldIn> entry : itemFoldIns.entrySet()) {
+        long longItemID = entry.getKey();
+        if (ingestPartition(longItemID, numPartitions) == partition) {
+          ItemFoldIn itemChange = partitionItemFoldIns.get(longItemID);
+          if (itemChange == null) {
+            partitionItemFoldIns.put(longItemID, entry.getValue());
+          } else {
+            itemChange.add(entry.getValue());
+          }
+        }
+      }
+    }
+
+    ResultCache mostSimilarItemsCache = generation.getMostSimilarItemsCache();
+    SimilarItemsTable similarItemsTable = generation.getSimilarItems();
+    for (LongObjectMap.MapEntry<ItemFoldIn> entry : partitionItemFoldIns.entrySet()) {
+      long longItemID = entry.getKey();
+      double[] foldInSum = entry.getValue().foldInSum;
+      if (foldInSum != null) {
+        addToFeatures(longItemID, scaledDelta(1.0, foldInSum), generation.getY(), generation.getYTY());
+      }
+      if (mostSimilarItemsCache != null) {
+        mostSimilarItemsCache.invalidate(longItemID);
+      }
+      if (similarItemsTable != null) {
+        similarItemsTable.invalidate(longItemID);
+      }
+    }
+  }
+
+  /**
+   * @return partition for a user or item ID, out of {@code numPartitions}
+   */
+  private static int ingestPartition(long longID, int numPartitions) {
+    return (Long.valueOf(longID).hashCode() & Integer.MAX_VALUE) % numPartitions;
+  }
+
+  private static <T> List<List<T>> newPartitions(int numPartitions) {
+    List<List<T>> partitions = Lists.newArrayListWithCapacity(numPartitions);
+    for (int i = 0; i < numPartitions; i++) {
+      partitions.add(Lists.<T>newArrayList());
+    }
+    return partitions;
+  }
+
+  /**
+   * Runs tasks in parallel and waits for all of them to finish, even if some fail.
+   *
+   * @return results of tasks, in order
+   * @throws RuntimeException the first failure, after all tasks have finished. Others are logged.
+   */
+  private <T> List<T> runAll(Collection<? extends Callable<T>> tasks) {
+    ExecutorService executorService = executor.get();
+    Collection<Future<T>> futures = Lists.newArrayListWithCapacity(tasks.size());
+    for (Callable<T> task : tasks) {
+      futures.add(executorService.submit(task));
+    }
+    List<T> results = Lists.newArrayListWithCapacity(futures.size());
+    RuntimeException firstFailure = null;
+    for (Future<T> future : futures) {
+      RuntimeException failure;
+      try {
+        results.add(future.get());
+        continue;
+      } catch (InterruptedException e) {
+        failure = new IllegalStateException(e);
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        // Rethrown as is, so that callers can still tell bad input, like IllegalArgumentException, apart
+        failure = cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+      }
+      if (firstFailure == null) {
+        firstFailure = failure;
+      } else {
+        log.warn("Additional failure while ingesting", failure);
+      }
+    }
+    if (firstFailure != null) {
+      throw firstFailure;
+    }
+    return results;
+  }
+
+  private static double[] addScaled(double[] sum, double scale, double[] values) {
+    double[] result = sum == null ? new double[values.length] : sum;
+    for (int i = 0; i < result.length; i++) {
+      result[i] += scale * values[i];
+    }
+    return result;
+  }
+
+  /**
+   * One decoded line of ingested data.
+   */
+  /**
+   * Data decoded from a chunk of lines, up to the first line that couldn't be decoded.
+   */
+  private static final class DecodedChunk {
+
+    final List<IngestDatum> data;
+    /** Failure for the first bad line, or {@code null} if all lines were decoded */
+    final IllegalArgumentException badLine;
+
+    DecodedChunk(List<CharSequence> lines) {
+      data = Lists.newArrayListWithCapacity(lines.size());
+      IllegalArgumentException failure = null;
+      for (CharSequence line : lines) {
+        try {
+          data.add(new IngestDatum(line));
+        } catch (IllegalArgumentException iae) {
+          failure = iae;
+          break;
+        }
+      }
+      badLine = failure;
+    }
+
+  }
+
+  private static final class IngestDatum {
+
+    final String userID;
+    final String itemID;
+    final long longUserID;
+    final long longItemID;
+    /** {@link Float#NaN} if the association is to be removed */
+    final float value;
+
+    IngestDatum(CharSequence line) {
       String[] columns = DelimitedDataUtils.decode(line);
-      String userID = columns[0];
-      String itemID = columns[1];
+      Preconditions.checkArgument(columns.length >= 2, "Bad line: %s", line);
+      userID = columns[0];
+      itemID = columns[1];
+      longUserID = StringLongMapping.toLong(userID);
+      longItemID = StringLongMapping.toLong(itemID);
       if (columns.length > 2) {
         String valueToken = columns[2];
-        float value = valueToken.isEmpty() ? Float.NaN : LangUtils.parseFloat(valueToken);
-        if (Float.isNaN(value)) {
-          removePreference(userID, itemID);
-        } else {
-          setPreference(userID, itemID, value);
-        }
+        value = valueToken.isEmpty() ? Float.NaN : LangUtils.parseFloat(valueToken);
       } else {
-        setPreference(userID, itemID);
+        value = 1.0f;
+      }
+    }
+
+    boolean isRemove() {
+      return Float.isNaN(value);
+    }
+
+  }
+
+  /**
+   * Changes to make to one item's vector.
+   */
+  private static final class ItemFoldIn {
+
+    /** Weighted sum of fold-ins; {@code null} if there are none yet */
+    double[] foldInSum;
+
+    void add(double signedFoldInWeight, double[] foldIn) {
+      foldInSum = addScaled(foldInSum, signedFoldInWeight, foldIn);
+    }
+
+    void add(ItemFoldIn other) {
+      if (other.foldInSum != null) {
+        foldInSum = addScaled(foldInSum, 1.0, other.foldInSum);
       }
     }
+
   }
 
   @Override
@@ -186,7 +575,20 @@ public final class ServerRecommender implements OryxRecommender, Closeable {
                                  int howMany,
                                  boolean considerKnownItems,
                                  Rescorer rescorer) throws NoSuchUserException, NotReadyException {
-    return recommendToMany(new String[] { userID }, howMany,  considerKnownItems, rescorer);
+    ResultCache.Results cachedResults = null;
+    if (rescorer == null) {
+      ResultCache recommendCache = getCurrentGeneration().getRecommendCache();
+      if (recommendCache != null) {
+        // Get these before reading the model, so that updates from here on invalidate them
+        cachedResults = recommendCache.getResults(StringLongMapping.toLong(userID));
+        List<IDValue> cached = cachedResults.get(howMany, considerKnownItems);
+        if (cached != null) {
+          return cached;
+        }
+      }
+    }
+    List<IDValue> result = recommendToMany(new String[] { userID }, howMany,  considerKnownItems, rescorer);
+    return cachedResults == null ? result : cachedResults.put(howMany, considerKnownItems, result);
   }
 
   @Override
@@ -198,121 +600,192 @@ public final class ServerRecommender implements OryxRecommender, Closeable {
     Preconditions.checkArgument(howMany > 0, "howMany must be positive");
 
     Generation generation = getCurrentGeneration();
-    LongObjectMap<float[]> X = generation.getX();
+    ConcurrentLongFloatArrayMap X = generation.getX();
 
-    Lock xLock = generation.getXLock().readLock();
     List<float[]> userFeatures = Lists.newArrayListWithCapacity(userIDs.length);
-    xLock.lock();
-    try {
-      for (String userID : userIDs) {
-        float[] theUserFeatures = X.get(StringLongMapping.toLong(userID));
-        if (theUserFeatures != null) {
-          userFeatures.add(theUserFeatures);
-        }
+    for (String userID : userIDs) {
+      float[] theUserFeatures = X.get(StringLongMapping.toLong(userID));
+      if (theUserFeatures != null) {
+        userFeatures.add(theUserFeatures);
       }
-    } finally {
-      xLock.unlock();
     }
     if (userFeatures.isEmpty()) {
       throw new NoSuchUserException(Arrays.toString(userIDs));
     }
 
-    LongObjectMap<LongSet> knownItemIDs = generation.getKnownItemIDs();
+    ConcurrentLongObjectMap<LongArraySet> knownItemIDs = generation.getKnownItemIDs();
     if (knownItemIDs == null && !considerKnownItems) {
       throw new UnsupportedOperationException("Can't ignore known items because no known items available");
     }
-    LongSet usersKnownItemIDs = null;
+    LongArraySet usersKnownItemIDs = null;
     if (!considerKnownItems) {
-      Lock knownItemLock = generation.getKnownItemLock().readLock();
-      knownItemLock.lock();
-      try {
-        for (String userID : userIDs) {
-          LongSet theKnownItemIDs = knownItemIDs.get(StringLongMapping.toLong(userID));
-          if (theKnownItemIDs == null) {
-            continue;
-          }
-          if (usersKnownItemIDs == null) {
-            usersKnownItemIDs = theKnownItemIDs;
-          } else {
-            LongPrimitiveIterator it = usersKnownItemIDs.iterator();
-            while (it.hasNext()) {
-              if (!theKnownItemIDs.contains(it.nextLong())) {
-                it.remove();
-              }
-            }
-          }
-          if (usersKnownItemIDs.isEmpty()) {
-            break;
-          }
+      for (String userID : userIDs) {
+        LongArraySet theKnownItemIDs = knownItemIDs.get(StringLongMapping.toLong(userID));
+        if (theKnownItemIDs == null) {
+          continue;
+        }
+        if (usersKnownItemIDs == null) {
+          usersKnownItemIDs = theKnownItemIDs;
+        } else {
+          usersKnownItemIDs = usersKnownItemIDs.intersect(theKnownItemIDs);
+        }
+        if (usersKnownItemIDs.isEmpty()) {
+          break;
         }
-      } finally {
-        knownItemLock.unlock();
       }
     }
 
     float[][] userFeaturesArray = userFeatures.toArray(new float[userFeatures.size()][]);
-    Lock yLock = generation.getYLock().readLock();
-    yLock.lock();
-    try {
-      return multithreadedTopN(userFeaturesArray,
-                               usersKnownItemIDs,
-                               rescorer,
-                               howMany,
-                               generation.getCandidateFilter());
-    } finally {
-      yLock.unlock();
+    return multithreadedTopN(userFeaturesArray,
+                             usersKnownItemIDs,
+                             rescorer,
+                             howMany,
+                             generation.getCandidateIterators(userFeaturesArray, getCandidateItemIDs(rescorer)),
+                             generation.getIDMapping());
+  }
+
+  @Override
+  public List<List<IDValue>> recommendToEach(String[] userIDs,
+                                             final int howMany,
+                                             boolean considerKnownItems,
+                                             final Rescorer rescorer) throws NoSuchUserException, NotReadyException {
+
+    Preconditions.checkArgument(howMany > 0, "howMany must be positive");
+
+    Generation generation = getCurrentGeneration();
+    ConcurrentLongFloatArrayMap X = generation.getX();
+    ConcurrentLongObjectMap<LongArraySet> knownItemIDs = generation.getKnownItemIDs();
+    if (knownItemIDs == null && !considerKnownItems) {
+      throw new UnsupportedOperationException("Can't ignore known items because no known items available");
+    }
+
+    // Positions in userIDs of the users that are known
+    int[] knownUserIndices = new int[userIDs.length];
+    List<float[]> userFeatures = Lists.newArrayListWithCapacity(userIDs.length);
+    List<LongArraySet> usersKnownItemIDs = considerKnownItems ? null : Lists.<LongArraySet>newArrayList();
+    for (int i = 0; i < userIDs.length; i++) {
+      long longUserID = StringLongMapping.toLong(userIDs[i]);
+      float[] theUserFeatures = X.get(longUserID);
+      if (theUserFeatures != null) {
+        knownUserIndices[userFeatures.size()] = i;
+        userFeatures.add(theUserFeatures);
+        if (usersKnownItemIDs != null) {
+          usersKnownItemIDs.add(knownItemIDs.get(longUserID));
+        }
+      }
+    }
+    if (userFeatures.isEmpty()) {
+      throw new NoSuchUserException(Arrays.toString(userIDs));
+    }
+
+    final float[][] userFeaturesArray = userFeatures.toArray(new float[userFeatures.size()][]);
+    final LongArraySet[] knownItemIDsArray =
+        usersKnownItemIDs == null ? null : usersKnownItemIDs.toArray(new LongArraySet[usersKnownItemIDs.size()]);
+    final StringLongMapping idMapping = generation.getIDMapping();
+
+    Collection<Iterator<LongObjectMap.MapEntry<float[]>>> candidateIterators =
+        generation.getCandidateIterators(userFeaturesArray, getCandidateItemIDs(rescorer));
+    final Queue<Iterator<LongObjectMap.MapEntry<float[]>>> candidateIteratorsQueue =
+        new ConcurrentLinkedQueue<Iterator<LongObjectMap.MapEntry<float[]>>>(candidateIterators);
+    int parallelism = FastMath.max(1, FastMath.min(numCores, candidateIterators.size()));
+
+    TopNHeap[] topN = new TopNHeap[userFeaturesArray.length];
+    for (int u = 0; u < topN.length; u++) {
+      topN[u] = new TopNHeap(howMany);
     }
 
+    // Each worker scores its candidates for all users, and results are merged at the end
+    ExecutorService executorService = executor.get();
+    Collection<Future<TopNHeap[]>> futures = Lists.newArrayListWithCapacity(parallelism);
+    for (int i = 0; i < parallelism; i++) {
+      futures.add(executorService.submit(new Callable<TopNHeap[]>() {
+        @Override
+        public TopNHeap[] call() {
+          RecommendToEachScorer scorer =
+              new RecommendToEachScorer(userFeaturesArray, knownItemIDsArray, rescorer, idMapping, howMany);
+          Iterator<LongObjectMap.MapEntry<float[]>> candidateIterator;
+          while ((candidateIterator = candidateIteratorsQueue.poll()) != null) {
+            scorer.score(candidateIterator);
+          }
+          return scorer.getTopN();
+        }
+      }));
+    }
+    for (Future<TopNHeap[]> future : futures) {
+      try {
+        TopNHeap[] partialTopN = future.get();
+        for (int u = 0; u < topN.length; u++) {
+          topN[u].addAll(partialTopN[u]);
+        }
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      } catch (ExecutionException e) {
+        throw new IllegalStateException(e.getCause());
+      }
+    }
+
+    List<List<IDValue>> result = Lists.newArrayListWithCapacity(userIDs.length);
+    for (int i = 0; i < userIDs.length; i++) {
+      result.add(Collections.<IDValue>emptyList());
+    }
+    for (int u = 0; u < topN.length; u++) {
+      result.set(knownUserIndices[u], toIDValueList(topN[u], parallelism > 1, idMapping));
+    }
+    return result;
   }
 
+  /**
+   * @param idMapping ID mapping of the {@link Generation} that candidates come from
+   */
   private List<IDValue> multithreadedTopN(final float[][] userFeatures,
-                                          final LongSet userKnownItemIDs,
+                                          final LongArraySet userKnownItemIDs,
                                           final Rescorer rescorer,
                                           final int howMany,
-                                          CandidateFilter candidateFilter) throws NotReadyException {
-
-    Collection<Iterator<LongObjectMap.MapEntry<float[]>>> candidateIterators =
-        candidateFilter.getCandidateIterator(userFeatures);
+                                          Collection<Iterator<LongObjectMap.MapEntry<float[]>>> candidateIterators,
+                                          final StringLongMapping idMapping) {
 
     int numIterators = candidateIterators.size();
     int parallelism = FastMath.min(numCores, numIterators);
 
-    final Queue<NumericIDValue> topN = TopN.initialQueue(howMany);
+    TopNHeap topN = new TopNHeap(howMany);
 
     if (parallelism > 1) {
 
       ExecutorService executorService = executor.get();
 
-      final Iterator<Iterator<LongObjectMap.MapEntry<float[]>>> candidateIteratorsIterator =
-          candidateIterators.iterator();
+      final Queue<Iterator<LongObjectMap.MapEntry<float[]>>> candidateIteratorsQueue =
+          new ConcurrentLinkedQueue<Iterator<LongObjectMap.MapEntry<float[]>>>(candidateIterators);
 
-      Collection<Future<Object>> futures = Lists.newArrayList();
-      for (int i = 0; i < numCores; i++) {
-        futures.add(executorService.submit(new Callable<Object>() {
+      // Each worker finds its own top N, which are merged at the end
+      Collection<Future<TopNHeap>> futures = Lists.newArrayListWithCapacity(parallelism);
+      for (int i = 0; i < parallelism; i++) {
+        futures.add(executorService.submit(new Callable<TopNHeap>() {
           @Override
-          public Void call() throws NotReadyException {
-            float[] queueLeastValue = { Float.NEGATIVE_INFINITY };
-            while (true) {
-              Iterator<LongObjectMap.MapEntry<float[]>> candidateIterator;
-              synchronized (candidateIteratorsIterator) {
-                if (!candidateIteratorsIterator.hasNext()) {
-                  break;
-                }
-                candidateIterator = candidateIteratorsIterator.next();
-              }
+          public TopNHeap call() {
+            TopNHeap partialTopN = new TopNHeap(howMany);
+            Iterator<LongObjectMap.MapEntry<float[]>> candidateIterator;
+            while ((candidateIterator = candidateIteratorsQueue.poll()) != null) {
               Iterator<NumericIDValue> partialIterator =
                   new RecommendIterator(userFeatures,
                                         candidateIterator,
                                         userKnownItemIDs,
                                         rescorer,
-                                        getCurrentGeneration().getIDMapping());
-              TopN.selectTopNIntoQueueMultithreaded(topN, queueLeastValue, partialIterator, howMany);
+                                        idMapping);
+              partialTopN.offerAll(partialIterator);
             }
-            return null;
+            return partialTopN;
           }
         }));
       }
-      ExecutorUtils.checkExceptions(futures);
+      for (Future<TopNHeap> future : futures) {
+        try {
+          topN.addAll(future.get());
+        } catch (InterruptedException e) {
+          throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+          throw new IllegalStateException(e.getCause());
+        }
+      }
 
     } else {
 
@@ -322,17 +795,42 @@ public final class ServerRecommender implements OryxRecommender, Closeable {
                                   candidateIterator,
                                   userKnownItemIDs,
                                   rescorer,
-                                  getCurrentGeneration().getIDMapping());
-        TopN.selectTopNIntoQueue(topN, partialIterator, howMany);
+                                  idMapping);
+        topN.offerAll(partialIterator);
       }
 
     }
 
-    return translateToStringIDs(TopN.selectTopNFromQueue(topN, howMany));
+    return toIDValueList(topN, parallelism > 1, idMapping);
+  }
+
+  /**
+   * Keeps top values in arrays, rather than objects, until they're used.
+   *
+   * @param removeDuplicates if true, keep only the first occurrence of each ID. Parallel scans may return
+   *  an item twice if it's updated meanwhile.
+   */
+  private static List<IDValue> toIDValueList(TopNHeap topN, boolean removeDuplicates, StringLongMapping idMapping) {
+    long[] ids = new long[topN.size()];
+    float[] values = new float[ids.length];
+    int size = topN.toArrays(ids, values);
+    if (removeDuplicates) {
+      LongSet seen = new LongSet(size);
+      int newSize = 0;
+      for (int i = 0; i < size; i++) {
+        if (seen.add(ids[i])) {
+          ids[newSize] = ids[i];
+          values[newSize] = values[i];
+          newSize++;
+        }
+      }
+      size = newSize;
+    }
+    return new NumericIDValueList(ids, values, size, idMapping);
   }
 
-  private List<IDValue> translateToStringIDs(Collection<NumericIDValue> numericIDValues) throws NotReadyException {
-    StringLongMapping mapping = getCurrentGeneration().getIDMapping();
+  private static List<IDValue> translateToStringIDs(StringLongMapping mapping,
+                                                    Collection<NumericIDValue> numericIDValues) {
     List<IDValue> translated = Lists.newArrayListWithCapacity(numericIDValues.size());
     for (NumericIDValue numericIDValue : numericIDValues) {
       translated.add(new IDValue(mapping.toString(numericIDValue.getID()), numericIDValue.getValue()));
@@ -367,75 +865,73 @@ public final class ServerRecommender implements OryxRecommender, Closeable {
 
     Preconditions.checkArgument(howMany > 0, "howMany must be positive");
 
-    float[] anonymousUserFeatures = buildAnonymousUserFeatures(itemIDs, values);
+    Generation generation = getCurrentGeneration();
+    float[] anonymousUserFeatures = buildAnonymousUserFeatures(itemIDs, values, generation);
 
-    LongSet userKnownItemIDs = new LongSet(itemIDs.length);
-    for (String itemID : itemIDs) {
-      userKnownItemIDs.add(StringLongMapping.toLong(itemID));
+    long[] longItemIDs = new long[itemIDs.length];
+    for (int i = 0; i < longItemIDs.length; i++) {
+      longItemIDs[i] = StringLongMapping.toLong(itemIDs[i]);
     }
+    LongArraySet userKnownItemIDs = LongArraySet.of(longItemIDs);
 
     float[][] anonymousFeaturesAsArray = { anonymousUserFeatures };
+    Collection<Iterator<LongObjectMap.MapEntry<float[]>>> candidateIterators =
+        generation.getCandidateIterators(anonymousFeaturesAsArray, getCandidateItemIDs(rescorer));
+
+    return multithreadedTopN(anonymousFeaturesAsArray,
+                             userKnownItemIDs,
+                             rescorer,
+                             howMany,
+                             candidateIterators,
+                             generation.getIDMapping());
+  }
 
-    Generation generation = getCurrentGeneration();    
-    Lock yLock = generation.getYLock().readLock();    
-    yLock.lock();
-    try {
-      return multithreadedTopN(anonymousFeaturesAsArray,
-                               userKnownItemIDs,
-                               rescorer,
-                               howMany,
-                               generation.getCandidateFilter());
-    } finally {
-      yLock.unlock();
-    }
+  /**
+   * @return items that the {@link Rescorer} restricts recommendations to, if it is a
+   *  {@link CandidateSetRescorer}, or {@code null}
+   */
+  private static LongSet getCandidateItemIDs(Rescorer rescorer) {
+    return rescorer instanceof CandidateSetRescorer ?
+        ((CandidateSetRescorer) rescorer).getCandidateItemIDs() : null;
   }
   
-  private float[] buildAnonymousUserFeatures(String[] itemIDs, float[] values)
+  private static float[] buildAnonymousUserFeatures(String[] itemIDs, float[] values, Generation generation)
       throws NotReadyException, NoSuchItemException {
 
     Preconditions.checkArgument(values == null || values.length == itemIDs.length,
                                 "Number of values doesn't match number of items");
-    
-    Generation generation = getCurrentGeneration();
 
-    LongObjectMap<float[]> Y = generation.getY();
+    ConcurrentLongFloatArrayMap Y = generation.getY();
     Solver ytySolver = generation.getYTYSolver();
     if (ytySolver == null) {
       throw new NotReadyException();
     }
 
-    float[] anonymousUserFeatures = null;
-    Lock yLock = generation.getYLock().readLock();
+    // Folding in is linear, so rather than solve for each item's fold-in and add them, add the weighted
+    // item vectors and solve once
+    double[] weightedItemFeatures = null;
 
-    boolean anyItemIDFound = false;
     for (int j = 0; j < itemIDs.length; j++) {
       String itemID = itemIDs[j];
-      float[] itemFeatures;
-      yLock.lock();
-      try {
-        itemFeatures = Y.get(StringLongMapping.toLong(itemID));
-      } finally {
-        yLock.unlock();
-      }
+      float[] itemFeatures = Y.get(StringLongMapping.toLong(itemID));
       if (itemFeatures == null) {
         continue;
       }
-      anyItemIDFound = true;
-      double[] userFoldIn = ytySolver.solveFToD(itemFeatures);
-      if (anonymousUserFeatures == null) {
-        anonymousUserFeatures = new float[userFoldIn.length];
+      if (weightedItemFeatures == null) {
+        weightedItemFeatures = new double[itemFeatures.length];
       }
       double signedFoldInWeight = foldInWeight(0.0, values == null ? 1.0f : values[j]);
       if (signedFoldInWeight != 0.0) {
-        for (int i = 0; i < anonymousUserFeatures.length; i++) {
-          anonymousUserFeatures[i] += (float) (signedFoldInWeight * userFoldIn[i]);
+        for (int i = 0; i < weightedItemFeatures.length; i++) {
+          weightedItemFeatures[i] += signedFoldInWeight * itemFeatures[i];
         }
       }
     }
-    if (!anyItemIDFound) {
+    if (weightedItemFeatures == null) {
       throw new NoSuchItemException(Arrays.toString(itemIDs));
     }
 
+    float[] anonymousUserFeatures = ytySolver.solveDToF(weightedItemFeatures);
     return anonymousUserFeatures;
   }
 
@@ -450,38 +946,26 @@ public final class ServerRecommender implements OryxRecommender, Closeable {
     Preconditions.checkArgument(howMany > 0, "howMany must be positive");
 
     Generation generation = getCurrentGeneration();
-    LongObjectMap<LongSet> knownItemIDs = generation.getKnownItemIDs();
+    ConcurrentLongObjectMap<LongArraySet> knownItemIDs = generation.getKnownItemIDs();
     if (knownItemIDs == null) {
       throw new UnsupportedOperationException();
     }
 
+    LongSet candidateItemIDs = getCandidateItemIDs(rescorer);
     LongFloatMap itemCounts = new LongFloatMap();
-    Lock knownItemReadLock = generation.getKnownItemLock().readLock();
-    knownItemReadLock.lock();
-    try {
-        Lock xReadLock = generation.getXLock().readLock();
-        xReadLock.lock();
-        try {
-          
-          for (LongObjectMap.MapEntry<LongSet> entry : generation.getKnownItemIDs().entrySet()) {
-            LongSet itemIDs = entry.getValue();
-            synchronized (itemIDs) {
-              LongPrimitiveIterator it = itemIDs.iterator();
-              while (it.hasNext()) {
-                long itemID = it.nextLong();
-                itemCounts.increment(itemID, 1.0f);
-              }
-            }
-          }
-          
-        } finally {
-          xReadLock.unlock();
+    Iterator<LongObjectMap.MapEntry<LongArraySet>> entries = knownItemIDs.entryIterator();
+    while (entries.hasNext()) {
+      LongArraySet userKnownItemIDs = entries.next().getValue();
+      for (int i = 0; i < userKnownItemIDs.size(); i++) {
+        long itemID = userKnownItemIDs.get(i);
+        if (candidateItemIDs == null || candidateItemIDs.contains(itemID)) {
+          itemCounts.increment(itemID, 1.0f);
         }
-    } finally {
-      knownItemReadLock.unlock();
+      }
     }
 
     return translateToStringIDs(
+        generation.getIDMapping(),
         TopN.selectTopN(new MostPopularItemsIterator(itemCounts.entrySet().iterator(),
                                                      rescorer,
                                                      generation.getIDMapping()),
@@ -506,39 +990,26 @@ public final class ServerRecommender implements OryxRecommender, Closeable {
   public float[] estimatePreferences(String userID, String... itemIDs) throws NotReadyException {
     
     Generation generation = getCurrentGeneration();
-    LongObjectMap<float[]> X = generation.getX();
+    ConcurrentLongFloatArrayMap X = generation.getX();
     
-    float[] userFeatures;
-    Lock xLock = generation.getXLock().readLock();
-    xLock.lock();
-    try {
-      userFeatures = X.get(StringLongMapping.toLong(userID));
-    } finally {
-      xLock.unlock();
-    }
+    float[] userFeatures = X.get(StringLongMapping.toLong(userID));
     if (userFeatures == null) {
       return new float[itemIDs.length]; // All 0.0f
     }
     
-    LongObjectMap<float[]> Y = generation.getY();
-
-    Lock yLock = generation.getYLock().readLock();
-    yLock.lock();
-    try {
-      float[] result = new float[itemIDs.length];
-      for (int i = 0; i < itemIDs.length; i++) {
-        String itemID = itemIDs[i];
-        float[] itemFeatures = Y.get(StringLongMapping.toLong(itemID));
-        if (itemFeatures != null) {
-          float value = (float) SimpleVectorMath.dot(itemFeatures, userFeatures);
-          Preconditions.checkState(Floats.isFinite(value), "Bad estimate");
-          result[i] = value;
-        } // else leave value at 0.0f
-      }
-      return result;
-    } finally {
-      yLock.unlock();
+    ConcurrentLongFloatArrayMap Y = generation.getY();
+
+    float[] result = new float[itemIDs.length];
+    for (int i = 0; i < itemIDs.length; i++) {
+      String itemID = itemIDs[i];
+      float[] itemFeatures = Y.get(StringLongMapping.toLong(itemID));
+      if (itemFeatures != null) {
+        float value = (float) SimpleVectorMath.dot(itemFeatures, userFeatures);
+        Preconditions.checkState(Floats.isFinite(value), "Bad estimate");
+        result[i] = value;
+      } // else leave value at 0.0f
     }
+    return result;
   }
   
   @Override
@@ -551,21 +1022,14 @@ public final class ServerRecommender implements OryxRecommender, Closeable {
       throws NotReadyException, NoSuchItemException {
 
     Generation generation = getCurrentGeneration();    
-    LongObjectMap<float[]> Y = generation.getY();
-    Lock yLock = generation.getYLock().readLock();
-    float[] toItemFeatures;    
-    yLock.lock();
-    try {
-      toItemFeatures = Y.get(StringLongMapping.toLong(toItemID));
-    } finally {
-      yLock.unlock();
-    }
+    ConcurrentLongFloatArrayMap Y = generation.getY();
+    float[] toItemFeatures = Y.get(StringLongMapping.toLong(toItemID));
     
     if (toItemFeatures == null) {
       throw new NoSuchItemException(toItemID);
     }
     
-    float[] anonymousUserFeatures = buildAnonymousUserFeatures(itemIDs, values);    
+    float[] anonymousUserFeatures = buildAnonymousUserFeatures(itemIDs, values, generation);
     
     return (float) SimpleVectorMath.dot(anonymousUserFeatures, toItemFeatures);
   }
@@ -599,82 +1063,84 @@ public final class ServerRecommender implements OryxRecommender, Closeable {
     long longUserID = StringLongMapping.toLong(userID);
     long longItemID = StringLongMapping.toLong(itemID);
 
-    float[] userFeatures = getFeatures(longUserID, generation.getX(), generation.getXLock());
+    float[] userFeatures = getFeatures(longUserID, generation.getX());
 
-    boolean newItem;
-    Lock yReadLock = generation.getYLock().readLock();
-    yReadLock.lock();
-    try {
-      newItem = generation.getY().get(longItemID) == null;
-    } finally {
-      yReadLock.unlock();
-    }
+    boolean newItem = !generation.getY().containsKey(longItemID);
     if (newItem) {
       generation.getCandidateFilter().addItem(itemID);
     }
     
-    float[] itemFeatures = getFeatures(longItemID, generation.getY(), generation.getYLock());
+    float[] itemFeatures = getFeatures(longItemID, generation.getY());
+
+    updateFeatures(longUserID, userFeatures, longItemID, itemFeatures, value, generation);
 
-    updateFeatures(userFeatures, itemFeatures, value, generation);
+    addKnownItem(longUserID, longItemID, generation);
 
-    LongObjectMap<LongSet> knownItemIDs = generation.getKnownItemIDs();
+    // Other users' recommendations, and other items' similar items, changed too since the item's vector
+    // moved. They are knowingly left stale until the next model; see model.result-cache-size
+    ResultCache recommendCache = generation.getRecommendCache();
+    if (recommendCache != null) {
+      recommendCache.invalidate(longUserID);
+    }
+    ResultCache mostSimilarItemsCache = generation.getMostSimilarItemsCache();
+    if (mostSimilarItemsCache != null) {
+      mostSimilarItemsCache.invalidate(longItemID);
+    }
+    SimilarItemsTable similarItemsTable = generation.getSimilarItems();
+    if (similarItemsTable != null) {
+      // Computed similar items no longer match the item's new vector
+      similarItemsTable.invalidate(longItemID);
+    }
+
+    maybeMergeUpdates(generation);
+  }
+
+  private static void addKnownItem(long longUserID, long longItemID, Generation generation) {
+    ConcurrentLongObjectMap<LongArraySet> knownItemIDs = generation.getKnownItemIDs();
     if (knownItemIDs != null) {
-      LongSet userKnownItemIDs;
-      ReadWriteLock knownItemLock = generation.getKnownItemLock();
-      Lock knownItemReadLock = knownItemLock.readLock();
-      knownItemReadLock.lock();
-      try {
-        userKnownItemIDs = knownItemIDs.get(longUserID);
+      // Known item sets are immutable; they are replaced with an updated copy
+      while (true) {
+        LongArraySet userKnownItemIDs = knownItemIDs.get(longUserID);
         if (userKnownItemIDs == null) {
-          userKnownItemIDs = new LongSet();
-          Lock knownItemWriteLock = knownItemLock.writeLock();
-          knownItemReadLock.unlock();
-          knownItemWriteLock.lock();
-          try {
-            knownItemIDs.put(longUserID, userKnownItemIDs);
-          } finally {
-            knownItemReadLock.lock();
-            knownItemWriteLock.unlock();
+          if (knownItemIDs.putIfAbsent(longUserID, LongArraySet.of(longItemID))) {
+            break;
+          }
+        } else {
+          if (userKnownItemIDs.contains(longItemID)) {
+            break;
+          }
+          LongArraySet newKnownItemIDs = userKnownItemIDs.with(longItemID);
+          if (knownItemIDs.replace(longUserID, userKnownItemIDs, newKnownItemIDs)) {
+            break;
           }
         }
-      } finally {
-        knownItemReadLock.unlock();
-      }
-
-      synchronized (userKnownItemIDs) {
-        userKnownItemIDs.add(longItemID);
       }
     }
   }
   
-  private static float[] getFeatures(long longID, LongObjectMap<float[]> matrix, ReadWriteLock lock) {
-    float[] features;
-    Lock readLock = lock.readLock();
-    readLock.lock();
-    try {
-      features = matrix.get(longID);
-      if (features == null) {
-        int numFeatures = countFeatures(matrix);
-        if (numFeatures > 0) {
-          features = new float[numFeatures];
-          Lock writeLock = lock.writeLock();
-          readLock.unlock();
-          writeLock.lock();
-          try {
-            matrix.put(longID, features);
-          } finally {
-            readLock.lock();
-            writeLock.unlock();
-          }
-        }
+  /**
+   * @return the feature vector for the given ID, after adding an all-zero vector to
+   *  {@code matrix} for it if it didn't exist already; {@code null} if no dimension is yet known.
+   *  It must not be modified.
+   */
+  private static float[] getFeatures(long longID, ConcurrentLongFloatArrayMap matrix) {
+    float[] features = matrix.get(longID);
+    if (features == null) {
+      int numFeatures = matrix.getDimension();
+      if (numFeatures > 0) {
+        matrix.putIfAbsent(longID, new float[numFeatures]);
+        features = matrix.get(longID);
       }
-    } finally {
-      readLock.unlock();
     }
     return features;
   }
-  
-  private static void updateFeatures(float[] userFeatures, float[] itemFeatures, float value, Generation generation) {
+
+  private static void updateFeatures(long longUserID,
+                                     float[] userFeatures,
+                                     long longItemID,
+                                     float[] itemFeatures,
+                                     float value,
+                                     Generation generation) {
     if (userFeatures == null || itemFeatures == null) {
       return;
     }
@@ -697,24 +1163,54 @@ public final class ServerRecommender implements OryxRecommender, Closeable {
     double[] userFoldIn = ytySolver == null ? null : ytySolver.solveFToD(itemFeatures);
 
     if (itemFoldIn != null) {
-      for (int i = 0; i < itemFeatures.length; i++) {
-        double delta = signedFoldInWeight * itemFoldIn[i];
-        Preconditions.checkState(Doubles.isFinite(delta));
-        itemFeatures[i] += (float) delta;
-      }
+      addToFeatures(longItemID, scaledDelta(signedFoldInWeight, itemFoldIn), generation.getY(), generation.getYTY());
     }
     if (userFoldIn != null) {
-      for (int i = 0; i < userFeatures.length; i++) {
-        double delta = signedFoldInWeight * userFoldIn[i];
-        Preconditions.checkState(Doubles.isFinite(delta));
-        userFeatures[i] += (float) delta;
+      addToFeatures(longUserID, scaledDelta(signedFoldInWeight, userFoldIn), generation.getX(), generation.getXTX());
+    }
+  }
+
+  private static float[] scaledDelta(double signedFoldInWeight, double[] foldIn) {
+    float[] delta = new float[foldIn.length];
+    for (int i = 0; i < delta.length; i++) {
+      double scaled = signedFoldInWeight * foldIn[i];
+      Preconditions.checkState(Doubles.isFinite(scaled));
+      delta[i] = (float) scaled;
+    }
+    return delta;
+  }
+
+  private static void addToFeatures(long longID,
+                                    float[] delta,
+                                    ConcurrentLongFloatArrayMap matrix,
+                                    IncrementalGramian gramian) {
+    if (matrix.containsKey(longID)) {
+      float[] oldFeatures = matrix.increment(longID, delta);
+      if (gramian != null) {
+        float[] newFeatures = delta.clone();
+        if (oldFeatures != null) {
+          for (int i = 0; i < newFeatures.length; i++) {
+            newFeatures[i] += oldFeatures[i];
+          }
+        }
+        gramian.update(oldFeatures, newFeatures);
       }
     }
   }
 
-  private static int countFeatures(LongObjectMap<float[]> M) {
-    // assumes the read lock is held
-    return M.isEmpty() ? 0 : M.entrySet().iterator().next().getValue().length;
+  /**
+   * Merges accumulated updates into the model in the background, if enough have accumulated.
+   */
+  private void maybeMergeUpdates(final Generation generation) {
+    if (generation.isMergeNeeded()) {
+      executor.get().submit(new Callable<Object>() {
+        @Override
+        public Void call() {
+          generation.mergeUpdates();
+          return null;
+        }
+      });
+    }
   }
 
   /**
@@ -758,64 +1254,53 @@ public final class ServerRecommender implements OryxRecommender, Closeable {
       return;
     }
 
-    long longUserID = StringLongMapping.toLong(userID);
-    long longItemID = StringLongMapping.toLong(itemID);
-
-    ReadWriteLock knownItemLock = generation.getKnownItemLock();
+    applyRemovePreference(StringLongMapping.toLong(userID), StringLongMapping.toLong(itemID), generation);
+    maybeMergeUpdates(generation);
+  }
 
+  /**
+   * @return true iff the user's last known item was removed, and with it, the user's vector
+   */
+  private static boolean applyRemovePreference(long longUserID, long longItemID, Generation generation) {
     boolean removeUser = false;
-    LongObjectMap<LongSet> knownItemIDs = generation.getKnownItemIDs();
+    ConcurrentLongObjectMap<LongArraySet> knownItemIDs = generation.getKnownItemIDs();
     if (knownItemIDs != null) {
 
-      Lock knownItemReadLock = knownItemLock.readLock();
-      LongSet userKnownItemIDs;
-      knownItemReadLock.lock();
-      try {
-        userKnownItemIDs = knownItemIDs.get(longUserID);
-      } finally {
-        knownItemReadLock.unlock();
-      }
-
-      if (userKnownItemIDs == null) {
-        // Doesn't exist? So ignore this request
-        return;
-      }
-
-      synchronized (userKnownItemIDs) {
-        if (!userKnownItemIDs.remove(longItemID)) {
-          // Item unknown, so ignore this request
-          return;
+      while (true) {
+        LongArraySet userKnownItemIDs = knownItemIDs.get(longUserID);
+        if (userKnownItemIDs == null || !userKnownItemIDs.contains(longItemID)) {
+          // User or item unknown, so ignore this request
+          return false;
+        }
+        if (userKnownItemIDs.size() == 1) {
+          if (knownItemIDs.remove(longUserID, userKnownItemIDs)) {
+            removeUser = true;
+            break;
+          }
+        } else {
+          LongArraySet newKnownItemIDs = userKnownItemIDs.without(longItemID);
+          if (knownItemIDs.replace(longUserID, userKnownItemIDs, newKnownItemIDs)) {
+            break;
+          }
         }
-        removeUser = userKnownItemIDs.isEmpty();
       }
     }
 
     // We can proceed with the request
 
-    LongObjectMap<float[]> X = generation.getX();
-
-    ReadWriteLock xLock = generation.getXLock();
-
     if (removeUser) {
-
-      Lock knownItemWriteLock = knownItemLock.writeLock();
-      knownItemWriteLock.lock();
-      try {
-        knownItemIDs.remove(longUserID);
-      } finally {
-        knownItemWriteLock.unlock();
-      }
-
-      Lock xWriteLock = xLock.writeLock();
-      xWriteLock.lock();
-      try {
-        X.remove(longUserID);
-      } finally {
-        xWriteLock.unlock();
+      float[] removedFeatures = generation.getX().remove(longUserID);
+      IncrementalGramian xtx = generation.getXTX();
+      if (xtx != null) {
+        xtx.update(removedFeatures, null);
       }
-
     }
 
+    ResultCache recommendCache = generation.getRecommendCache();
+    if (recommendCache != null) {
+      recommendCache.invalidate(longUserID);
+    }
+    return removeUser;
   }
 
   /**
@@ -839,28 +1324,92 @@ public final class ServerRecommender implements OryxRecommender, Closeable {
     long longItemID = StringLongMapping.toLong(itemID);
 
     Generation generation = getCurrentGeneration();
-    LongObjectMap<float[]> Y = generation.getY();
 
-    Lock yLock = generation.getYLock().readLock();
-    yLock.lock();
-    try {
+    SimilarItemsTable similarItemsTable = generation.getSimilarItems();
+    if (similarItemsTable != null) {
+      SimilarItemsTable.SimilarItems similarItems = similarItemsTable.get(longItemID);
+      if (similarItems != null && similarItems.size() >= howMany) {
+        List<NumericIDValue> computed =
+            selectComputedSimilarItems(longItemID, similarItems, howMany, rescorer, generation.getIDMapping());
+        // A rescorer may filter out so many computed items that too few are left; then look at all items
+        if (computed.size() >= howMany) {
+          return translateToStringIDs(generation.getIDMapping(), computed);
+        }
+      }
+    }
 
-      float[] itemFeatures = Y.get(longItemID);
-      if (itemFeatures == null) {
-        throw new NoSuchItemException(itemID);
+    ResultCache.Results cachedResults = null;
+    if (rescorer == null) {
+      ResultCache mostSimilarItemsCache = generation.getMostSimilarItemsCache();
+      if (mostSimilarItemsCache != null) {
+        // Get these before reading the model, so that updates from here on invalidate them
+        cachedResults = mostSimilarItemsCache.getResults(longItemID);
+        List<IDValue> cached = cachedResults.get(howMany, false);
+        if (cached != null) {
+          return cached;
+        }
       }
+    }
 
-      return translateToStringIDs(
-          TopN.selectTopN(new MostSimilarItemIterator(Y.entrySet().iterator(),
-                                                      new long[]{longItemID},
-                                                      new float[][]{itemFeatures},
-                                                      rescorer,
-                                                      generation.getIDMapping()),
-                          howMany));
-    } finally {
-      yLock.unlock();
+    ConcurrentLongFloatArrayMap Y = generation.getY();
+
+    float[] itemFeatures = Y.get(longItemID);
+    if (itemFeatures == null) {
+      throw new NoSuchItemException(itemID);
     }
 
+    List<IDValue> result = translateToStringIDs(
+        generation.getIDMapping(),
+        TopN.selectTopN(new MostSimilarItemIterator(Y.entryIterator(),
+                                                    new long[]{longItemID},
+                                                    new float[][]{itemFeatures},
+                                                    rescorer,
+                                                    generation.getIDMapping()),
+                        howMany));
+    return cachedResults == null ? result : cachedResults.put(howMany, false, Collections.unmodifiableList(result));
+  }
+
+  /**
+   * @return top {@code howMany} of the most similar items computed with the model, after rescoring
+   */
+  private static List<NumericIDValue> selectComputedSimilarItems(long toItemID,
+                                                                 SimilarItemsTable.SimilarItems similarItems,
+                                                                 int howMany,
+                                                                 PairRescorer rescorer,
+                                                                 StringLongMapping idMapping) {
+    TopNHeap topN = new TopNHeap(howMany);
+    NumericIDPairRescorer numericRescorer =
+        rescorer instanceof NumericIDPairRescorer ? (NumericIDPairRescorer) rescorer : null;
+    String toItemIDString = rescorer == null || numericRescorer != null ? null : idMapping.toString(toItemID);
+    for (int i = 0; i < similarItems.size(); i++) {
+      long itemID = similarItems.getItemID(i);
+      double similarity = similarItems.getSimilarity(i);
+      if (rescorer == null) {
+        if (i >= howMany) {
+          // Already ordered by similarity
+          break;
+        }
+      } else if (numericRescorer != null) {
+        if (numericRescorer.isFiltered(itemID, toItemID)) {
+          continue;
+        }
+        similarity = numericRescorer.rescore(itemID, toItemID, similarity);
+        if (!Doubles.isFinite(similarity)) {
+          continue;
+        }
+      } else {
+        String itemIDString = idMapping.toString(itemID);
+        if (rescorer.isFiltered(itemIDString, toItemIDString)) {
+          continue;
+        }
+        similarity = rescorer.rescore(itemIDString, toItemIDString, similarity);
+        if (!Doubles.isFinite(similarity)) {
+          continue;
+        }
+      }
+      topN.offer(itemID, (float) similarity);
+    }
+    return topN.toList();
   }
 
   /**
@@ -897,70 +1446,57 @@ public final class ServerRecommender implements OryxRecommender, Closeable {
     }
 
     Generation generation = getCurrentGeneration();
-    LongObjectMap<float[]> Y = generation.getY();
-
-    Lock yLock = generation.getYLock().readLock();
-    yLock.lock();
-    try {
+    ConcurrentLongFloatArrayMap Y = generation.getY();
 
-      List<float[]> itemFeatures = Lists.newArrayListWithCapacity(itemIDs.length);
-      for (long longItemID : longItemIDs) {
-        float[] features = Y.get(longItemID);
-        if (features != null) {
-          itemFeatures.add(features);
-        }
-      }
-      if (itemFeatures.isEmpty()) {
-        throw new NoSuchItemException(Arrays.toString(itemIDs));
+    List<float[]> itemFeatures = Lists.newArrayListWithCapacity(itemIDs.length);
+    for (long longItemID : longItemIDs) {
+      float[] features = Y.get(longItemID);
+      if (features != null) {
+        itemFeatures.add(features);
       }
-      float[][] itemFeaturesArray = itemFeatures.toArray(new float[itemFeatures.size()][]);
-
-      return translateToStringIDs(
-          TopN.selectTopN(new MostSimilarItemIterator(Y.entrySet().iterator(),
-                                                      longItemIDs,
-                                                      itemFeaturesArray,
-                                                      rescorer,
-                                                      generation.getIDMapping()),
-                          howMany));
-    } finally {
-      yLock.unlock();
     }
+    if (itemFeatures.isEmpty()) {
+      throw new NoSuchItemException(Arrays.toString(itemIDs));
+    }
+    float[][] itemFeaturesArray = itemFeatures.toArray(new float[itemFeatures.size()][]);
+
+    return translateToStringIDs(
+        generation.getIDMapping(),
+        TopN.selectTopN(new MostSimilarItemIterator(Y.entryIterator(),
+                                                    longItemIDs,
+                                                    itemFeaturesArray,
+                                                    rescorer,
+                                                    generation.getIDMapping()),
+                        howMany));
   }
 
   @Override
   public float[] similarityToItem(String toItemID, String... itemIDs) throws NotReadyException, NoSuchItemException {
 
     Generation generation = getCurrentGeneration();
-    LongObjectMap<float[]> Y = generation.getY();
+    ConcurrentLongFloatArrayMap Y = generation.getY();
 
     float[] similarities = new float[itemIDs.length];
-    Lock yLock = generation.getYLock().readLock();
-    yLock.lock();
-    try {
 
-      float[] toFeatures = Y.get(StringLongMapping.toLong(toItemID));
-      if (toFeatures == null) {
-        throw new NoSuchItemException(toItemID);
-      }
-      double toFeaturesNorm = SimpleVectorMath.norm(toFeatures);
+    float[] toFeatures = Y.get(StringLongMapping.toLong(toItemID));
+    if (toFeatures == null) {
+      throw new NoSuchItemException(toItemID);
+    }
+    double toFeaturesNorm = SimpleVectorMath.norm(toFeatures);
 
-      boolean anyFound = false;
-      for (int i = 0; i < similarities.length; i++) {
-        float[] features = Y.get(StringLongMapping.toLong(itemIDs[i]));
-        if (features == null) {
-          similarities[i] = Float.NaN;
-        } else {
-          anyFound = true;
-          double featuresNorm = SimpleVectorMath.norm(features);
-          similarities[i] = (float) (SimpleVectorMath.dot(features, toFeatures) / (featuresNorm * toFeaturesNorm));
-        }
-      }
-      if (!anyFound) {
-        throw new NoSuchItemException(Arrays.toString(itemIDs));
+    boolean anyFound = false;
+    for (int i = 0; i < similarities.length; i++) {
+      float[] features = Y.get(StringLongMapping.toLong(itemIDs[i]));
+      if (features == null) {
+        similarities[i] = Float.NaN;
+      } else {
+        anyFound = true;
+        double featuresNorm = SimpleVectorMath.norm(features);
+        similarities[i] = (float) (SimpleVectorMath.dot(features, toFeatures) / (featuresNorm * toFeaturesNorm));
       }
-
-    } finally {
-      yLock.unlock();
+    }
+    if (!anyFound) {
+      throw new NoSuchItemException(Arrays.toString(itemIDs));
     }
 
     return similarities;
@@ -990,51 +1526,34 @@ public final class ServerRecommender implements OryxRecommender, Closeable {
     Preconditions.checkArgument(howMany > 0, "howMany must be positive");
 
     Generation generation = getCurrentGeneration();
-    LongObjectMap<LongSet> knownItemIDs = generation.getKnownItemIDs();
+    ConcurrentLongObjectMap<LongArraySet> knownItemIDs = generation.getKnownItemIDs();
     if (knownItemIDs == null) {
       throw new UnsupportedOperationException("No known item IDs available");
     }
 
-    Lock knownItemLock = generation.getKnownItemLock().readLock();
-    LongSet userKnownItemIDs;
-    knownItemLock.lock();
-    try {
-      userKnownItemIDs = knownItemIDs.get(StringLongMapping.toLong(userID));
-    } finally {
-      knownItemLock.unlock();
-    }
+    LongArraySet userKnownItemIDs = knownItemIDs.get(StringLongMapping.toLong(userID));
     if (userKnownItemIDs == null) {
       throw new NoSuchUserException(userID);
     }
 
-    LongObjectMap<float[]> Y = generation.getY();
+    ConcurrentLongFloatArrayMap Y = generation.getY();
 
-    Lock yLock = generation.getYLock().readLock();
-    yLock.lock();
-    try {
-
-      float[] features = Y.get(StringLongMapping.toLong(itemID));
-      if (features == null) {
-        throw new NoSuchItemException(itemID);
-      }
-      LongObjectMap<float[]> toFeatures;
-      synchronized (userKnownItemIDs) {
-        toFeatures = new LongObjectMap<float[]>(userKnownItemIDs.size());
-        LongPrimitiveIterator it = userKnownItemIDs.iterator();
-        while (it.hasNext()) {
-          long fromItemID = it.nextLong();
-          float[] fromFeatures = Y.get(fromItemID);
-          toFeatures.put(fromItemID, fromFeatures);
-        }
-      }
-
-      return translateToStringIDs(
-          TopN.selectTopN(new RecommendedBecauseIterator(toFeatures.entrySet().iterator(),
-                                                         features),
-                          howMany));
-    } finally {
-      yLock.unlock();
+    float[] features = Y.get(StringLongMapping.toLong(itemID));
+    if (features == null) {
+      throw new NoSuchItemException(itemID);
+    }
+    LongObjectMap<float[]> toFeatures = new LongObjectMap<float[]>(userKnownItemIDs.size());
+    for (int i = 0; i < userKnownItemIDs.size(); i++) {
+      long fromItemID = userKnownItemIDs.get(i);
+      float[] fromFeatures = Y.get(fromItemID);
+      toFeatures.put(fromItemID, fromFeatures);
     }
+
+    return translateToStringIDs(
+        generation.getIDMapping(),
+        TopN.selectTopN(new RecommendedBecauseIterator(toFeatures.entrySet().iterator(),
+                                                       features),
+                        howMany));
   }
 
   @Override
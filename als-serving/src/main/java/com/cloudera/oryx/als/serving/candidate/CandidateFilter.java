@@ -32,13 +32,11 @@ import com.cloudera.oryx.common.collection.LongObjectMap;
  * {@link com.cloudera.oryx.als.serving.RescorerProvider}. That is a run-time, per-request filter; this class represents
  * a more global, precomputed filtering that is not parameterized by the request.</p>
  *
- * <p>Implementations should define a constructor that accepts a parameter of type {@link com.cloudera.oryx.common.collection.LongObjectMap}.
+ * <p>Implementations should define a constructor that accepts a parameter of type
+ * {@link com.cloudera.oryx.common.collection.ConcurrentLongFloatArrayMap}.
  * This is a reference to the "Y" matrix in the model -- item-feature matrix.
- * Access to Y is protected by a lock, but, the implementation can assume that it is locked for
- * reading (not writing) during the constructor call, and is locked for reading (not writing) during
- * a call to {@link #getCandidateIterator(float[][])} and while the result of that method is used.
- * So, implementations may save and use a reference to Y if it is only used in the context of these
- * methods and only for reading.</p>
+ * Y may be read at any time without locking, and may be updated concurrently. Implementations may save
+ * and use a reference to Y, but must only read it.</p>
  * 
  * @author Sean Owen
  * @see com.cloudera.oryx.als.serving.RescorerProvider
@@ -48,9 +46,12 @@ public interface CandidateFilter {
   // Note that your implementation will need a constructor matching the following, which is how it
   // gets a reference to the set of items:
   
-  // public YourCandidateFilter(FastByIDMap<float[]> Y) {
+  // public YourCandidateFilter(ConcurrentLongFloatArrayMap Y) {
   //   ...
   // }
+  //
+  // Earlier versions passed a LongObjectMap<float[]> instead. Implementations with only that constructor
+  // still work, but receive a copy of Y that isn't updated, and should move to the constructor above.
 
   /**
    * @param userVectors user feature vector(s) for which recommendations are being made. This may or may not
@@ -58,7 +59,9 @@ public interface CandidateFilter {
    * @return a set of items most likely to be a good recommendation for the given users. These are returned
    *  as item ID / vector pairs ({@link com.cloudera.oryx.common.collection.LongObjectMap}'s {@code MapEntry}). They are returned as an {@link Iterator} --
    *  and not just one, but potentially many. If several are returned, then the caller will process the
-   *  {@link Iterator}s in parallel for speed.
+   *  {@link Iterator}s in parallel for speed. An {@link Iterator} may reuse the same entry, and the same
+   *  {@code float[]} value, for every element it returns, so callers should not hold on to either after
+   *  calling {@code next()} again.
    */
   Collection<Iterator<LongObjectMap.MapEntry<float[]>>> getCandidateIterator(float[][] userVectors);
 
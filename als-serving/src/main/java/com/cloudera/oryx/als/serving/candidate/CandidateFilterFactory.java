@@ -15,22 +15,29 @@
 
 package com.cloudera.oryx.als.serving.candidate;
 
-import java.util.concurrent.locks.Lock;
+import java.util.Iterator;
 
 import com.cloudera.oryx.common.ClassUtils;
 import com.google.common.base.Preconditions;
 import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.cloudera.oryx.common.collection.ConcurrentLongFloatArrayMap;
 import com.cloudera.oryx.common.collection.LongObjectMap;
 import com.cloudera.oryx.common.settings.ConfigUtils;
 
 /**
  * <p>This class helps choose which {@link CandidateFilter} to apply to the recommendation process.
  * If the "model.candidateFilter.customClass" system property is set, then this class will be loaded and used.
- * See notes in {@link CandidateFilter} about how the class must be implemented.</p>
+ * See notes in {@link CandidateFilter} about how the class must be implemented. Classes written for earlier
+ * versions, whose constructor takes a {@code LongObjectMap<float[]>}, still load, but are given a copy of the
+ * item-feature matrix that does not reflect later updates.</p>
  * 
- * <p>Otherwise, if "model.lsh.sample-ratio" is set to a value less than 1, then {@link LocationSensitiveHashFilter}
- * will be used. It is a somewhat special case, a built-in type of filter.</p>
+ * <p>Otherwise, if "model.ivf.num-clusters" is set to a positive value, then {@link InvertedFileIndexFilter}
+ * will be used. Otherwise, if "model.lsh.sample-ratio" is set to a value less than 1, then
+ * {@link LocationSensitiveHashFilter} will be used. These are somewhat special cases, built-in types of
+ * filter.</p>
  * 
  * <p>Otherwise an implementation that does no filtering will be returned.</p>
  * 
@@ -38,12 +45,18 @@ import com.cloudera.oryx.common.settings.ConfigUtils;
  */
 public final class CandidateFilterFactory {
 
+  private static final Logger log = LoggerFactory.getLogger(CandidateFilterFactory.class);
+
+  private final int ivfNumClusters;
+  private final int ivfNumProbes;
   private final double lshSampleRatio;
   private final int numHashes;
   private final String candidateFilterClassName;
 
   public CandidateFilterFactory() {
     Config config = ConfigUtils.getDefaultConfig();
+    ivfNumClusters = config.getInt("model.ivf.num-clusters");
+    ivfNumProbes = config.getInt("model.ivf.num-probes");
     lshSampleRatio = config.getDouble("model.lsh.sample-ratio");
     numHashes = config.getInt("model.lsh.num-hashes");
     candidateFilterClassName =
@@ -55,28 +68,61 @@ public final class CandidateFilterFactory {
    * @return an implementation of {@link CandidateFilter} chosen per above. It will be non-null.
    * 
    * @param Y item-feature matrix
-   * @param yReadLock read lock that should be acquired to access {@code Y}
    */
-  public CandidateFilter buildCandidateFilter(LongObjectMap<float[]> Y, Lock yReadLock) {
+  public CandidateFilter buildCandidateFilter(ConcurrentLongFloatArrayMap Y) {
     Preconditions.checkNotNull(Y);
     if (!Y.isEmpty()) {
-      yReadLock.lock();
-      try {
-        if (candidateFilterClassName != null) {
-          return ClassUtils.loadInstanceOf(candidateFilterClassName,
-                                           CandidateFilter.class,
-                                           new Class<?>[]{LongObjectMap.class},
-                                           new Object[]{Y});
-        }
-        // LSH is a bit of a special case, handled here
-        if (lshSampleRatio < 1.0) {
-          return new LocationSensitiveHashFilter(Y, lshSampleRatio, numHashes);
-        }
-      } finally {
-        yReadLock.unlock();
+      if (candidateFilterClassName != null) {
+        return buildCustomCandidateFilter(Y);
+      }
+      // IVF and LSH are a bit of a special case, handled here
+      if (ivfNumClusters > 0) {
+        return new InvertedFileIndexFilter(Y, ivfNumClusters, ivfNumProbes);
+      }
+      if (lshSampleRatio < 1.0) {
+        return new LocationSensitiveHashFilter(Y, lshSampleRatio, numHashes);
       }
     }
     return new IdentityCandidateFilter(Y);    
   }
+
+  private CandidateFilter buildCustomCandidateFilter(ConcurrentLongFloatArrayMap Y) {
+    Class<? extends CandidateFilter> filterClass;
+    try {
+      filterClass = Class.forName(candidateFilterClassName).asSubclass(CandidateFilter.class);
+    } catch (ClassNotFoundException cnfe) {
+      throw new IllegalStateException("No valid " + CandidateFilter.class + " binding exists", cnfe);
+    }
+    try {
+      filterClass.getConstructor(ConcurrentLongFloatArrayMap.class);
+    } catch (NoSuchMethodException ignored) {
+      // Filters written for earlier versions take a LongObjectMap<float[]>. Give them a copy of Y as one.
+      // It isn't updated as Y changes, so such filters should move to the new constructor.
+      log.warn("{} has no constructor taking a ConcurrentLongFloatArrayMap; passing a copy of Y as a " +
+               "LongObjectMap instead, which won't reflect updates", candidateFilterClassName);
+      return ClassUtils.loadInstanceOf(candidateFilterClassName,
+                                       CandidateFilter.class,
+                                       new Class<?>[]{LongObjectMap.class},
+                                       new Object[]{copyToLongObjectMap(Y)});
+    }
+    return ClassUtils.loadInstanceOf(candidateFilterClassName,
+                                     CandidateFilter.class,
+                                     new Class<?>[]{ConcurrentLongFloatArrayMap.class},
+                                     new Object[]{Y});
+  }
+
+  private static LongObjectMap<float[]> copyToLongObjectMap(ConcurrentLongFloatArrayMap Y) {
+    LongObjectMap<float[]> copy = new LongObjectMap<float[]>(Y.size());
+    Iterator<LongObjectMap.MapEntry<float[]>> it = Y.entryIterator();
+    while (it.hasNext()) {
+      // Entries may reuse their value array, so don't keep it
+      long itemID = it.next().getKey();
+      float[] vector = Y.get(itemID);
+      if (vector != null) {
+        copy.put(itemID, vector);
+      }
+    }
+    return copy;
+  }
   
 }
@@ -16,30 +16,48 @@
 package com.cloudera.oryx.als.serving.candidate;
 
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Iterator;
 
+import org.apache.commons.math3.util.FastMath;
+
+import com.cloudera.oryx.common.collection.ConcurrentLongFloatArrayMap;
 import com.cloudera.oryx.common.collection.LongObjectMap;
+import com.cloudera.oryx.common.parallel.ExecutorUtils;
 
 /**
- * Does no filtering.
+ * Does no filtering. All items are returned, or all in a given subset, but divided into several parts
+ * of {@code Y}, so that they may be scanned in parallel.
  * 
  * @author Sean Owen
  */
-final class IdentityCandidateFilter implements CandidateFilter {
-  
-  private final LongObjectMap<float[]> Y;
+final class IdentityCandidateFilter implements SubsetCandidateFilter {
+
+  /** Don't bother splitting up scans over fewer rows than this. */
+  private static final int MIN_ROWS_PER_PARTITION = 10000;
+
+  private final ConcurrentLongFloatArrayMap Y;
+  private final int numPartitions;
 
   /**
    * @param Y item vectors to hash
    */
-  IdentityCandidateFilter(LongObjectMap<float[]> Y) {
+  IdentityCandidateFilter(ConcurrentLongFloatArrayMap Y) {
     this.Y = Y;
+    this.numPartitions = ExecutorUtils.getParallelism();
   }
 
   @Override
   public Collection<Iterator<LongObjectMap.MapEntry<float[]>>> getCandidateIterator(float[][] userVectors) {
-    return Collections.singleton(Y.entrySet().iterator());
+    return getCandidateIterator(userVectors, null);
+  }
+
+  @Override
+  public Collection<Iterator<LongObjectMap.MapEntry<float[]>>> getCandidateIterator(
+      float[][] userVectors,
+      ConcurrentLongFloatArrayMap.KeySubset subset) {
+    // Partition by how many rows there are to scan, not how many are selected, since skipping takes time too
+    int partitions = FastMath.max(1, FastMath.min(numPartitions, Y.size() / MIN_ROWS_PER_PARTITION));
+    return Y.entryIterators(partitions, subset);
   }
 
   @Override
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.serving.candidate;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+import com.cloudera.oryx.als.common.ivf.InvertedFileIndex;
+import com.cloudera.oryx.common.collection.ConcurrentLongFloatArrayMap;
+import com.cloudera.oryx.common.collection.LongObjectMap;
+
+/**
+ * A {@link CandidateFilter} based on an inverted file index for maximum inner product search, which chooses
+ * as candidates the items in the clusters of items closest to the user.
+ *
+ * @author Sean Owen
+ */
+public final class InvertedFileIndexFilter implements CandidateFilter {
+
+  private final InvertedFileIndex delegate;
+
+  public InvertedFileIndexFilter(ConcurrentLongFloatArrayMap Y, int numClusters, int numProbes) {
+    delegate = new InvertedFileIndex(Y, numClusters, numProbes);
+  }
+
+  @Override
+  public Collection<Iterator<LongObjectMap.MapEntry<float[]>>> getCandidateIterator(float[][] userVectors) {
+    return delegate.getCandidateIterator(userVectors);
+  }
+
+  @Override
+  public void addItem(String itemID) {
+    delegate.addItem(itemID);
+  }
+
+}
@@ -19,6 +19,7 @@ import java.util.Collection;
 import java.util.Iterator;
 
 import com.cloudera.oryx.als.common.lsh.LocationSensitiveHash;
+import com.cloudera.oryx.common.collection.ConcurrentLongFloatArrayMap;
 import com.cloudera.oryx.common.collection.LongObjectMap;
 
 /**
@@ -31,7 +32,7 @@ public final class LocationSensitiveHashFilter implements CandidateFilter {
 
   private final LocationSensitiveHash delegate;
 
-  public LocationSensitiveHashFilter(LongObjectMap<float[]> Y, double lshSampleRatio, int numHashes) {
+  public LocationSensitiveHashFilter(ConcurrentLongFloatArrayMap Y, double lshSampleRatio, int numHashes) {
     delegate = new LocationSensitiveHash(Y, lshSampleRatio, numHashes);
   }
 
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.serving.candidate;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+import com.cloudera.oryx.common.collection.ConcurrentLongFloatArrayMap;
+import com.cloudera.oryx.common.collection.LongObjectMap;
+
+/**
+ * A {@link CandidateFilter} that can also restrict its candidates to a given subset of items, efficiently.
+ * For other {@link CandidateFilter}s, candidates outside the subset are skipped as they are returned.
+ *
+ * @author Sean Owen
+ * @see com.cloudera.oryx.als.common.CandidateSetRescorer
+ */
+public interface SubsetCandidateFilter extends CandidateFilter {
+
+  /**
+   * @param userVectors user feature vector(s) for which recommendations are being made
+   * @param subset items that may be returned, as built from the same "Y" matrix the filter was given
+   * @return as {@link #getCandidateIterator(float[][])}, but only over items in {@code subset}
+   */
+  Collection<Iterator<LongObjectMap.MapEntry<float[]>>> getCandidateIterator(
+      float[][] userVectors,
+      ConcurrentLongFloatArrayMap.KeySubset subset);
+
+}
@@ -17,7 +17,6 @@ package com.cloudera.oryx.als.serving.generation;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.Writer;
 
 import com.typesafe.config.Config;
 import org.slf4j.Logger;
@@ -42,9 +41,11 @@ public final class ALSGenerationManager extends GenerationManager {
   private static final Logger log = LoggerFactory.getLogger(ALSGenerationManager.class);
 
   private long modelGeneration;
-  private Generation currentGeneration;
+  private volatile Generation currentGeneration;
   private final LongSet recentlyActiveUsers;
   private final LongSet recentlyActiveItems;
+  /** Guards the 'recent' fields above. */
+  private final Object lockForRecent;
   private final GenerationLoader loader;
 
   public ALSGenerationManager(File appendTempDir) throws IOException {
@@ -52,15 +53,19 @@ public final class ALSGenerationManager extends GenerationManager {
     modelGeneration = NO_GENERATION;
     recentlyActiveUsers = new LongSet();
     recentlyActiveItems = new LongSet();
+    lockForRecent = new Object();
     Config config = ConfigUtils.getDefaultConfig();
-    loader = new GenerationLoader(config.getString("model.instance-dir"), recentlyActiveUsers, recentlyActiveItems, this);
+    loader = new GenerationLoader(config.getString("model.instance-dir"),
+                                  recentlyActiveUsers,
+                                  recentlyActiveItems,
+                                  lockForRecent);
   }
 
   /**
    * @return an instance of the latest {@link Generation} that has been made available by the
    * implementation.
    */
-  public synchronized Generation getCurrentGeneration() {
+  public Generation getCurrentGeneration() {
     return currentGeneration;
   }
 
@@ -93,22 +98,21 @@ public final class ALSGenerationManager extends GenerationManager {
     doAppend(line, userID, itemID);
   }
 
-  private synchronized void doAppend(CharSequence line, String userID, String itemID) throws IOException {
-    Writer appender = getAppender();
-    if (appender != null) {
-      appender.append(line);
-    }
+  private void doAppend(CharSequence line, String userID, String itemID) throws IOException {
+    appendLine(line);
     // User ID reverse mapping is not important to serving layer
     long numericUserID = StringLongMapping.toLong(userID);
     long numericItemID;
-    if (currentGeneration == null) {
+    Generation theCurrentGeneration = currentGeneration;
+    if (theCurrentGeneration == null) {
       numericItemID = StringLongMapping.toLong(itemID);
     } else {
-      numericItemID = currentGeneration.getIDMapping().add(itemID);
+      numericItemID = theCurrentGeneration.getIDMapping().add(itemID);
+    }
+    synchronized (lockForRecent) {
+      recentlyActiveUsers.add(numericUserID);
+      recentlyActiveItems.add(numericItemID);
     }
-    recentlyActiveUsers.add(numericUserID);
-    recentlyActiveItems.add(numericItemID);
-    decrementCountdownToUpload();
   }
 
   @Override
@@ -130,6 +134,7 @@ public final class ALSGenerationManager extends GenerationManager {
       }
 
       loader.loadModel(mostRecentModelGeneration, theCurrentGeneration);
+      theCurrentGeneration.invalidateResultCaches();
 
       modelGeneration = mostRecentModelGeneration;
       currentGeneration = theCurrentGeneration;
@@ -15,29 +15,43 @@
 
 package com.cloudera.oryx.als.serving.generation;
 
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import com.google.common.base.Predicate;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.typesafe.config.Config;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.cloudera.oryx.als.common.StringLongMapping;
+import com.cloudera.oryx.common.collection.ConcurrentLongFloatArrayMap;
+import com.cloudera.oryx.common.collection.ConcurrentLongObjectMap;
+import com.cloudera.oryx.common.collection.LongArraySet;
 import com.cloudera.oryx.common.collection.LongObjectMap;
 import com.cloudera.oryx.common.collection.LongSet;
 import com.cloudera.oryx.common.math.IllConditionedSolverException;
+import com.cloudera.oryx.common.math.IncrementalGramian;
 import com.cloudera.oryx.common.math.MatrixUtils;
 import com.cloudera.oryx.common.math.Solver;
 import com.cloudera.oryx.als.serving.candidate.CandidateFilter;
 import com.cloudera.oryx.als.serving.candidate.CandidateFilterFactory;
+import com.cloudera.oryx.als.serving.candidate.SubsetCandidateFilter;
 import com.cloudera.oryx.common.settings.ConfigUtils;
 
 /**
- * Encapsulates a "generation" of output in the Oryx recommender implementation. This is essentially the output
+ * <p>Encapsulates a "generation" of output in the Oryx recommender implementation. This is essentially the output
  * from one run of the Computation Layer. It includes the generated model data -- at heart, the factored
  * {@code X} and {@code Y} matrices, but also things like the configured {@link CandidateFilter}, derived values,
- * and the set of known item IDs for each user.
+ * and the set of known item IDs for each user.</p>
+ *
+ * <p>All of these may be read concurrently without locking. Updates made at run-time accumulate in a "delta"
+ * over the loaded model data, and are periodically merged into it by {@link #mergeUpdates()}.</p>
  *
  * @author Sean Owen
  * @see GenerationLoader
@@ -46,53 +60,114 @@ public final class Generation {
 
   private static final Logger log = LoggerFactory.getLogger(Generation.class);
 
-  private final LongObjectMap<float[]> X;
-  private Solver XTXsolver;
-  private final LongObjectMap<float[]> Y;
-  private Solver YTYsolver;
+  /** At most this many candidate sets' bitmaps are kept. */
+  private static final int MAX_CANDIDATE_SUBSETS = 100;
+  /** Updates are merged once they number at least this many ... */
+  private static final int MIN_UPDATES_TO_MERGE = 10000;
+  /** ... and at least 1/this of the size of the data they update. */
+  private static final int MIN_UPDATES_FRACTION_INVERSE = 20;
+  /** Solvers for X'*X and Y'*Y are recomputed after this many updates to X or Y, respectively. */
+  private static final int UPDATES_BETWEEN_SOLVER_REFRESH = 1000;
+
+  private final ConcurrentLongFloatArrayMap X;
+  private volatile IncrementalGramian XTX;
+  private final ConcurrentLongFloatArrayMap Y;
+  private volatile IncrementalGramian YTY;
   private final StringLongMapping idMapping;
-  private final LongObjectMap<LongSet> knownItemIDs;
-  private CandidateFilter candidateFilter;
-  private final ReadWriteLock xLock;
-  private final ReadWriteLock yLock;
-  private final ReadWriteLock knownItemLock;
+  private final ConcurrentLongObjectMap<LongArraySet> knownItemIDs;
+  private volatile CandidateFilter candidateFilter;
+  /**
+   * Bitmaps of sets of candidate items that have been requested; sets are compared by identity. Each bitmap
+   * refers to its set, so weak keys alone would never let entries go; the size is bounded instead.
+   */
+  private final ConcurrentMap<LongSet,ConcurrentLongFloatArrayMap.KeySubset> candidateSubsets;
+  private volatile SimilarItemsTable similarItems;
+  private final AtomicBoolean merging;
+  private final ResultCache recommendCache;
+  private final ResultCache mostSimilarItemsCache;
 
   public Generation() {
-    boolean noKnownItems = ConfigUtils.getDefaultConfig().getBoolean("model.no-known-items");
-    this.X = new LongObjectMap<float[]>();
-    this.XTXsolver = null;
-    this.Y = new LongObjectMap<float[]>();
-    this.YTYsolver = null;
+    Config config = ConfigUtils.getDefaultConfig();
+    boolean noKnownItems = config.getBoolean("model.no-known-items");
+    int resultCacheSize = config.getInt("model.result-cache-size");
+    this.X = new ConcurrentLongFloatArrayMap();
+    this.XTX = null;
+    this.Y = new ConcurrentLongFloatArrayMap();
+    this.YTY = null;
     this.idMapping = new StringLongMapping();
-    this.knownItemIDs = noKnownItems ? null : new LongObjectMap<LongSet>();
+    this.knownItemIDs = noKnownItems ? null : new ConcurrentLongObjectMap<LongArraySet>();
     this.candidateFilter = null;
-    this.xLock = new ReentrantReadWriteLock();
-    this.yLock = new ReentrantReadWriteLock();
-    this.knownItemLock = new ReentrantReadWriteLock();
+    this.candidateSubsets = CacheBuilder.newBuilder()
+        .weakKeys()
+        .maximumSize(MAX_CANDIDATE_SUBSETS)
+        .<LongSet,ConcurrentLongFloatArrayMap.KeySubset>build()
+        .asMap();
+    this.similarItems = null;
+    this.merging = new AtomicBoolean();
+    if (resultCacheSize > 0) {
+      this.recommendCache = new ResultCache("Recommendations", resultCacheSize);
+      this.mostSimilarItemsCache = new ResultCache("Most similar items", resultCacheSize);
+    } else {
+      this.recommendCache = null;
+      this.mostSimilarItemsCache = null;
+    }
     recomputeState();
   }
 
+  /**
+   * Recomputes all state derived from the model data from scratch, like X'*X and Y'*Y.
+   * Afterwards, these are kept up to date incrementally as the model is updated.
+   */
   public void recomputeState() {
-    XTXsolver = recomputeSolver(X, xLock.readLock());
-    YTYsolver = recomputeSolver(Y, yLock.readLock());
-    candidateFilter = new CandidateFilterFactory().buildCandidateFilter(Y, yLock.readLock());
+    XTX = recomputeGramian(X);
+    YTY = recomputeGramian(Y);
+    candidateFilter = new CandidateFilterFactory().buildCandidateFilter(Y);
   }
 
-  private static Solver recomputeSolver(LongObjectMap<float[]> M, Lock readLock) {
-    readLock.lock();
+  private static IncrementalGramian recomputeGramian(ConcurrentLongFloatArrayMap M) {
+    if (M == null || M.isEmpty()) {
+      return null;
+    }
+    RealMatrix MTM = MatrixUtils.transposeTimesSelf(M);
+    double infNorm = MTM.getNorm();
+    if (infNorm < 1.0) {
+      log.warn("X'*X or Y'*Y has small inf norm ({}); try decreasing model.lambda", infNorm);
+      throw new IllConditionedSolverException("infNorm: " + infNorm);
+    }
+    return new IncrementalGramian(MTM, UPDATES_BETWEEN_SOLVER_REFRESH);
+  }
+
+  /**
+   * @return true if enough updates have accumulated that {@link #mergeUpdates()} should be called
+   */
+  public boolean isMergeNeeded() {
+    return isMergeNeeded(X.getDeltaSize(), X.size()) ||
+        isMergeNeeded(Y.getDeltaSize(), Y.size()) ||
+        (knownItemIDs != null && isMergeNeeded(knownItemIDs.getDeltaSize(), X.size()));
+  }
+
+  private static boolean isMergeNeeded(int deltaSize, int size) {
+    return deltaSize >= MIN_UPDATES_TO_MERGE && deltaSize >= size / MIN_UPDATES_FRACTION_INVERSE;
+  }
+
+  /**
+   * Merges updates made so far into the model data. This may take a while, but does not block readers,
+   * and only blocks writers briefly. Does nothing if a merge is already in progress.
+   */
+  public void mergeUpdates() {
+    if (!merging.compareAndSet(false, true)) {
+      return;
+    }
     try {
-      if (M == null || M.isEmpty()) {
-        return null;
-      }
-      RealMatrix MTM = MatrixUtils.transposeTimesSelf(M);
-      double infNorm = MTM.getNorm();
-      if (infNorm < 1.0) {
-        log.warn("X'*X or Y'*Y has small inf norm ({}); try decreasing model.lambda", infNorm);
-        throw new IllConditionedSolverException("infNorm: " + infNorm);
+      log.info("Merging updates...");
+      X.merge();
+      Y.merge();
+      if (knownItemIDs != null) {
+        knownItemIDs.merge();
       }
-      return MatrixUtils.getSolver(MTM);
+      log.info("Merged updates");
     } finally {
-      readLock.unlock();
+      merging.set(false);
     }
   }
 
@@ -113,29 +188,45 @@ public final class Generation {
   /**
    * @return the user-feature matrix, implemented as a map from row number (user ID) to feature array
    */
-  public LongObjectMap<float[]> getX() {
+  public ConcurrentLongFloatArrayMap getX() {
     return X;
   }
 
+  /**
+   * @return X' * X, which must be updated as rows of {@link #getX()} change; {@code null} if X is empty
+   */
+  public IncrementalGramian getXTX() {
+    return XTX;
+  }
+
   /**
    * @return {@link Solver} for the matrix X' * X
    */
   public Solver getXTXSolver() {
-    return XTXsolver;
+    IncrementalGramian theXTX = XTX;
+    return theXTX == null ? null : theXTX.getSolver();
   }
 
   /**
    * @return the item-feature matrix, implemented as a map from row number (item ID) to feature array
    */
-  public LongObjectMap<float[]> getY() {
+  public ConcurrentLongFloatArrayMap getY() {
     return Y;
   }
 
+  /**
+   * @return Y' * Y, which must be updated as rows of {@link #getY()} change; {@code null} if Y is empty
+   */
+  public IncrementalGramian getYTY() {
+    return YTY;
+  }
+
   /**
    * @return {@link Solver} for the matrix Y' * Y
-   */  
+   */
   public Solver getYTYSolver() {
-    return YTYsolver;
+    IncrementalGramian theYTY = YTY;
+    return theYTY == null ? null : theYTY.getSolver();
   }
 
   public StringLongMapping getIDMapping() {
@@ -143,9 +234,10 @@ public final class Generation {
   }
 
   /**
-   * @return the item IDs already associated to each user, as a map from user IDs to a set of item IDs
+   * @return the item IDs already associated to each user, as a map from user IDs to a set of item IDs.
+   *  The sets are immutable; update a user's set by replacing it, like with {@link LongArraySet#with(long)}.
    */
-  public LongObjectMap<LongSet> getKnownItemIDs() {
+  public ConcurrentLongObjectMap<LongArraySet> getKnownItemIDs() {
     return knownItemIDs;
   }
 
@@ -154,24 +246,83 @@ public final class Generation {
   }
 
   /**
-   * Acquire this read/write lock before using {@link #getX()}.
+   * @param userVectors user feature vector(s) for which recommendations are being made
+   * @param candidateItemIDs if not {@code null}, the only items that may be returned
+   * @return candidate items from the {@link CandidateFilter}, restricted to {@code candidateItemIDs}
+   * @see CandidateFilter#getCandidateIterator(float[][])
+   */
+  public Collection<Iterator<LongObjectMap.MapEntry<float[]>>> getCandidateIterators(
+      float[][] userVectors,
+      final LongSet candidateItemIDs) {
+    CandidateFilter theCandidateFilter = candidateFilter;
+    if (candidateItemIDs == null) {
+      return theCandidateFilter.getCandidateIterator(userVectors);
+    }
+    if (theCandidateFilter instanceof SubsetCandidateFilter) {
+      return ((SubsetCandidateFilter) theCandidateFilter).getCandidateIterator(
+          userVectors, getCandidateSubset(candidateItemIDs));
+    }
+    Collection<Iterator<LongObjectMap.MapEntry<float[]>>> iterators =
+        theCandidateFilter.getCandidateIterator(userVectors);
+    Collection<Iterator<LongObjectMap.MapEntry<float[]>>> filteredIterators =
+        Lists.newArrayListWithCapacity(iterators.size());
+    Predicate<LongObjectMap.MapEntry<float[]>> isCandidate = new Predicate<LongObjectMap.MapEntry<float[]>>() {
+      @Override
+      public boolean apply(LongObjectMap.MapEntry<float[]> entry) {
+        return candidateItemIDs.contains(entry.getKey());
+      }
+    };
+    for (Iterator<LongObjectMap.MapEntry<float[]>> iterator : iterators) {
+      filteredIterators.add(Iterators.filter(iterator, isCandidate));
+    }
+    return filteredIterators;
+  }
+
+  private ConcurrentLongFloatArrayMap.KeySubset getCandidateSubset(LongSet candidateItemIDs) {
+    ConcurrentLongFloatArrayMap.KeySubset subset = candidateSubsets.get(candidateItemIDs);
+    if (subset == null || !Y.isCurrent(subset)) {
+      // Threads may race to rebuild this, but any of their results will do
+      subset = Y.subset(candidateItemIDs);
+      candidateSubsets.put(candidateItemIDs, subset);
+    }
+    return subset;
+  }
+
+  /**
+   * @return most similar items to each item, as computed with the model, or {@code null} if not available
+   */
+  public SimilarItemsTable getSimilarItems() {
+    return similarItems;
+  }
+
+  void setSimilarItems(SimilarItemsTable similarItems) {
+    this.similarItems = similarItems;
+  }
+
+  /**
+   * @return cached recommendations for each user, or {@code null} if not caching
    */
-  public ReadWriteLock getXLock() {
-    return xLock;
+  public ResultCache getRecommendCache() {
+    return recommendCache;
   }
 
   /**
-   * Acquire this read/write lock before using {@link #getY()}.
+   * @return cached most similar items for each item, or {@code null} if not caching
    */
-  public ReadWriteLock getYLock() {
-    return yLock;
+  public ResultCache getMostSimilarItemsCache() {
+    return mostSimilarItemsCache;
   }
 
   /**
-   * Acquire this read/write lock before using {@link #getKnownItemIDs()}.
+   * Discards all cached results, which are computed from model data that has since been replaced.
    */
-  public ReadWriteLock getKnownItemLock() {
-    return knownItemLock;
+  public void invalidateResultCaches() {
+    if (recommendCache != null) {
+      recommendCache.invalidateAll();
+    }
+    if (mostSimilarItemsCache != null) {
+      mostSimilarItemsCache.invalidateAll();
+    }
   }
 
 }
@@ -17,31 +17,29 @@ package com.cloudera.oryx.als.serving.generation;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Collection;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.locks.Lock;
+import java.util.List;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.typesafe.config.Config;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.cloudera.oryx.als.common.BinaryModelFiles;
 import com.cloudera.oryx.als.common.DataUtils;
+import com.cloudera.oryx.als.common.NumericIDValue;
 import com.cloudera.oryx.als.common.StringLongMapping;
 import com.cloudera.oryx.als.common.pmml.ALSModelDescription;
+import com.cloudera.oryx.common.LangUtils;
+import com.cloudera.oryx.common.collection.LongArraySet;
+import com.cloudera.oryx.common.collection.LongFloatArrayMap;
 import com.cloudera.oryx.common.collection.LongSet;
 import com.cloudera.oryx.common.io.IOUtils;
-import com.cloudera.oryx.common.iterator.FileLineIterable;
-import com.cloudera.oryx.common.iterator.LongPrimitiveIterator;
-import com.cloudera.oryx.common.parallel.ExecutorUtils;
 import com.cloudera.oryx.common.collection.LongObjectMap;
 import com.cloudera.oryx.common.io.DelimitedDataUtils;
 import com.cloudera.oryx.common.servcomp.Namespaces;
 import com.cloudera.oryx.common.servcomp.Store;
+import com.cloudera.oryx.common.settings.ConfigUtils;
 
 /**
  * @author Sean Owen
@@ -80,60 +78,61 @@ final class GenerationLoader {
     ALSModelDescription modelDescription = ALSModelDescription.read(modelPMMLFile);
     IOUtils.delete(modelPMMLFile);
 
-    Collection<Future<Object>> futures = Lists.newArrayList();
-    // Limit this fairly sharply to 2 so as to not saturate the network link
-    ExecutorService executor = Executors.newFixedThreadPool(
-        2,
-        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("LoadModel-%d").build());
+    Config config = ConfigUtils.getDefaultConfig();
+    ParallelFileLoader fileLoader = new ParallelFileLoader(config.getInt("serving-layer.model-load.read-threads"),
+                                                           getParseThreads(config));
 
-    LongSet loadedUserIDs;
-    LongSet loadedItemIDs;
-    LongSet loadedUserIDsForKnownItems;
+    // Everything is loaded off to the side, and only published to the current generation at the end
+    LongFloatArrayMap loadedX;
+    LongFloatArrayMap loadedY;
+    LongObjectMap<LongArraySet> loadedKnownItemIDs;
+    LongObjectMap<List<NumericIDValue>> loadedSimilarItems;
     try {
-      loadedUserIDs = loadXOrY(generationPrefix, modelDescription, true, currentGeneration, futures, executor);
-      loadedItemIDs = loadXOrY(generationPrefix, modelDescription, false, currentGeneration, futures, executor);
+      loadedX = loadXOrY(generationPrefix, modelDescription, true, fileLoader);
+      loadedY = loadXOrY(generationPrefix, modelDescription, false, fileLoader);
 
       if (currentGeneration.getKnownItemIDs() == null) {
-        loadedUserIDsForKnownItems = null;
+        loadedKnownItemIDs = null;
       } else {
-        loadedUserIDsForKnownItems =
-            loadKnownItemIDs(generationPrefix,
-                             modelDescription,
-                             currentGeneration,
-                             futures,
-                             executor);
+        loadedKnownItemIDs = loadKnownItemIDs(generationPrefix, modelDescription, fileLoader);
       }
 
-      loadIDMapping(generationPrefix, modelDescription, currentGeneration, futures, executor);
+      if (config.getBoolean("model.item-similarity.serve-computed")) {
+        loadedSimilarItems = loadSimilarItems(generationPrefix, fileLoader);
+      } else {
+        loadedSimilarItems = null;
+      }
+
+      loadIDMapping(generationPrefix, modelDescription, currentGeneration, fileLoader);
 
-      ExecutorUtils.checkExceptions(futures);
+      fileLoader.await();
 
       log.info("Finished all load tasks");
-      
+
     } finally {
-      ExecutorUtils.shutdownNowAndAwait(executor);
+      fileLoader.shutdown();
     }
 
     synchronized (lockForRecent) {
-      log.info("Pruning old entries...");
-      removeNotUpdated(currentGeneration.getX().keySetIterator(),
-                       loadedUserIDs,
-                       recentlyActiveUsers,
-                       currentGeneration.getXLock().writeLock());
-      removeNotUpdated(currentGeneration.getY().keySetIterator(),
-                       loadedItemIDs,
-                       recentlyActiveItems,
-                       currentGeneration.getYLock().writeLock());
-      if (loadedUserIDsForKnownItems != null && currentGeneration.getKnownItemIDs() != null) {
-        removeNotUpdated(currentGeneration.getKnownItemIDs().keySetIterator(),
-                         loadedUserIDsForKnownItems,
-                         recentlyActiveUsers,
-                         currentGeneration.getKnownItemLock().writeLock());
+      // Entries not in the new model are dropped, unless updated recently
+      log.info("Publishing new model data...");
+      currentGeneration.getX().replaceBase(loadedX, recentlyActiveUsers);
+      currentGeneration.getY().replaceBase(loadedY, recentlyActiveItems);
+      if (loadedKnownItemIDs != null) {
+        currentGeneration.getKnownItemIDs().replaceBase(loadedKnownItemIDs, recentlyActiveUsers);
       }
       this.recentlyActiveItems.clear();
       this.recentlyActiveUsers.clear();
     }
 
+    if (loadedSimilarItems == null || loadedSimilarItems.isEmpty()) {
+      currentGeneration.setSimilarItems(null);
+    } else {
+      SimilarItemsTable similarItems = new SimilarItemsTable(loadedSimilarItems);
+      log.info("Loaded most similar items for {} items", similarItems.size());
+      currentGeneration.setSimilarItems(similarItems);
+    }
+
     log.info("Recomputing generation state...");
     currentGeneration.recomputeState();
 
@@ -141,135 +140,162 @@ final class GenerationLoader {
              currentGeneration.getNumUsers(), currentGeneration.getNumItems());
   }
 
-  private static LongSet loadXOrY(String generationPrefix,
-                                    ALSModelDescription modelDescription,
-                                    boolean isX,
-                                    Generation generation,
-                                    Collection<Future<Object>> futures,
-                                    ExecutorService executor) throws IOException {
+  private static LongFloatArrayMap loadXOrY(String generationPrefix,
+                                            ALSModelDescription modelDescription,
+                                            boolean isX,
+                                            ParallelFileLoader fileLoader) throws IOException {
 
     String xOrYPrefix = generationPrefix + (isX ? modelDescription.getXPath() : modelDescription.getYPath());
-    final LongSet loadedIDs = new LongSet();
-    
-    final Lock writeLock = isX ? generation.getXLock().writeLock() : generation.getYLock().writeLock();
-    final LongObjectMap<float[]> xOrYMatrix = isX ? generation.getX() : generation.getY();
-
-    for (final String xOrYFilePrefix : Store.get().list(xOrYPrefix, true)) {
-      futures.add(executor.submit(new Callable<Object>() {
-        @Override
-        public Void call() throws IOException {
-          for (String line : new FileLineIterable(Store.get().readFrom(xOrYFilePrefix))) {
-
-            int tab = line.indexOf('\t');
-            Preconditions.checkArgument(tab >= 0, "Bad input line in %s: %s", xOrYFilePrefix, line);
-            long id = Long.parseLong(line.substring(0, tab));
-
-            float[] elements = DataUtils.readFeatureVector(line.substring(tab + 1));
-
-            writeLock.lock();
-            try {
-              xOrYMatrix.put(id, elements);
-              loadedIDs.add(id);
-            } finally {
-              writeLock.unlock();
+    final LongFloatArrayMap xOrYMatrix = new LongFloatArrayMap();
+
+    for (String xOrYFilePrefix : Store.get().list(xOrYPrefix, true)) {
+      if (xOrYFilePrefix.endsWith(BinaryModelFiles.SUFFIX)) {
+        fileLoader.loadFile(xOrYFilePrefix, new ParallelFileLoader.FileParser() {
+          @Override
+          public int parse(String key, File file) throws IOException {
+            // Locks xOrYMatrix only while adding each batch of rows, so other files can be read in parallel
+            return BinaryModelFiles.readFeatures(file, xOrYMatrix);
+          }
+        });
+      } else {
+        fileLoader.loadLines(xOrYFilePrefix, new ParallelFileLoader.LineBatchParser() {
+          @Override
+          public void parse(String key, List<String> lines) {
+            long[] ids = new long[lines.size()];
+            float[][] elements = new float[lines.size()][];
+            for (int i = 0; i < ids.length; i++) {
+              String line = lines.get(i);
+              int tab = line.indexOf('\t');
+              Preconditions.checkArgument(tab >= 0, "Bad input line in %s: %s", key, line);
+              ids[i] = Long.parseLong(line.substring(0, tab));
+              elements[i] = DataUtils.readFeatureVector(line.substring(tab + 1));
+            }
+            synchronized (xOrYMatrix) {
+              for (int i = 0; i < ids.length; i++) {
+                xOrYMatrix.put(ids[i], elements[i]);
+              }
             }
           }
-          log.info("Loaded feature vectors from {}", xOrYFilePrefix);
-          return null;
-        }
-      }));
+        });
+      }
     }
 
-    return loadedIDs;
+    return xOrYMatrix;
   }
 
-
-  private static LongSet loadKnownItemIDs(String generationPrefix,
-                                            ALSModelDescription modelDescription,
-                                            final Generation generation,
-                                            Collection<Future<Object>> futures,
-                                            ExecutorService executor) throws IOException {
-    final LongSet loadedIDs = new LongSet();
+  private static LongObjectMap<LongArraySet> loadKnownItemIDs(String generationPrefix,
+                                                              ALSModelDescription modelDescription,
+                                                              ParallelFileLoader fileLoader) throws IOException {
+    final LongObjectMap<LongArraySet> knownItems = new LongObjectMap<LongArraySet>();
     String knownItemsPrefix = generationPrefix + modelDescription.getKnownItemsPath();
-    for (final String knownItemFilePrefix : Store.get().list(knownItemsPrefix, true)) {
-      futures.add(executor.submit(new Callable<Object>() {
-        @Override
-        public Void call() throws IOException {
-          for (String line : new FileLineIterable(Store.get().readFrom(knownItemFilePrefix))) {
-            int tab = line.indexOf('\t');
-            Preconditions.checkArgument(tab >= 0, "Bad input line in %s: %s", knownItemFilePrefix, line);
-            long userID = Long.parseLong(line.substring(0, tab));
-            LongSet itemIDs = stringToSet(line.substring(tab + 1));
-            Lock writeLock = generation.getKnownItemLock().writeLock();
-            LongObjectMap<LongSet> knownItems = generation.getKnownItemIDs();
-            writeLock.lock();
-            try {
-              knownItems.put(userID, itemIDs);
-              loadedIDs.add(userID);
-            } finally {
-              writeLock.unlock();
+    for (String knownItemFilePrefix : Store.get().list(knownItemsPrefix, true)) {
+      if (knownItemFilePrefix.endsWith(BinaryModelFiles.SUFFIX)) {
+        fileLoader.loadFile(knownItemFilePrefix, new ParallelFileLoader.FileParser() {
+          @Override
+          public int parse(String key, File file) throws IOException {
+            LongObjectMap<LongArraySet> fileKnownItems = new LongObjectMap<LongArraySet>();
+            BinaryModelFiles.readKnownItems(file, fileKnownItems);
+            synchronized (knownItems) {
+              for (LongObjectMap.MapEntry<LongArraySet> entry : fileKnownItems.entrySet()) {
+                knownItems.put(entry.getKey(), entry.getValue());
+              }
             }
+            return fileKnownItems.size();
           }
-          log.info("Loaded known items from {}", knownItemFilePrefix);
-          return null;
-        }
-      }));
+        });
+      } else {
+        fileLoader.loadLines(knownItemFilePrefix, new ParallelFileLoader.LineBatchParser() {
+          @Override
+          public void parse(String key, List<String> lines) {
+            long[] userIDs = new long[lines.size()];
+            LongArraySet[] itemIDs = new LongArraySet[lines.size()];
+            for (int i = 0; i < userIDs.length; i++) {
+              String line = lines.get(i);
+              int tab = line.indexOf('\t');
+              Preconditions.checkArgument(tab >= 0, "Bad input line in %s: %s", key, line);
+              userIDs[i] = Long.parseLong(line.substring(0, tab));
+              itemIDs[i] = stringToSet(line.substring(tab + 1));
+            }
+            synchronized (knownItems) {
+              for (int i = 0; i < userIDs.length; i++) {
+                knownItems.put(userIDs[i], itemIDs[i]);
+              }
+            }
+          }
+        });
+      }
     }
-    return loadedIDs;
+    return knownItems;
   }
 
-  private static LongSet stringToSet(CharSequence values) {
-    LongSet result = new LongSet();
-    for (String valueString : DelimitedDataUtils.decode(values)) {
-      result.add(Long.parseLong(valueString));
+  private static LongObjectMap<List<NumericIDValue>> loadSimilarItems(String generationPrefix,
+                                                                      ParallelFileLoader fileLoader)
+      throws IOException {
+    final LongObjectMap<List<NumericIDValue>> similarItems = new LongObjectMap<List<NumericIDValue>>();
+    for (String similarItemsFilePrefix : Store.get().list(generationPrefix + "similarItems/", true)) {
+      fileLoader.loadLines(similarItemsFilePrefix, new ParallelFileLoader.LineBatchParser() {
+        @Override
+        public void parse(String key, List<String> lines) {
+          long[] itemIDs = new long[lines.size()];
+          NumericIDValue[] similar = new NumericIDValue[lines.size()];
+          for (int i = 0; i < itemIDs.length; i++) {
+            String line = lines.get(i);
+            String[] columns = DelimitedDataUtils.decode(line);
+            Preconditions.checkArgument(columns.length >= 3, "Bad input line in %s: %s", key, line);
+            itemIDs[i] = StringLongMapping.toLong(columns[0]);
+            similar[i] = new NumericIDValue(StringLongMapping.toLong(columns[1]), LangUtils.parseFloat(columns[2]));
+          }
+          synchronized (similarItems) {
+            for (int i = 0; i < itemIDs.length; i++) {
+              List<NumericIDValue> itemSimilarItems = similarItems.get(itemIDs[i]);
+              if (itemSimilarItems == null) {
+                itemSimilarItems = Lists.newArrayList();
+                similarItems.put(itemIDs[i], itemSimilarItems);
+              }
+              itemSimilarItems.add(similar[i]);
+            }
+          }
+        }
+      });
     }
-    return result;
+    return similarItems;
   }
 
-  private static void removeNotUpdated(LongPrimitiveIterator it,
-                                       LongSet updated,
-                                       LongSet recentlyActive,
-                                       Lock writeLock) {
-    writeLock.lock();
-    try {
-      while (it.hasNext()) {
-        long id = it.nextLong();
-        if (!updated.contains(id) && !recentlyActive.contains(id)) {
-          it.remove();
-        }
-      }
-    } finally {
-      writeLock.unlock();
+  private static LongArraySet stringToSet(CharSequence values) {
+    String[] valueStrings = DelimitedDataUtils.decode(values);
+    long[] result = new long[valueStrings.length];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = Long.parseLong(valueStrings[i]);
     }
+    return LongArraySet.of(result);
   }
 
   private static void loadIDMapping(String generationPrefix,
                                     ALSModelDescription modelDescription,
                                     final Generation generation,
-                                    Collection<Future<Object>> futures,
-                                    ExecutorService executor) throws IOException {
+                                    ParallelFileLoader fileLoader) throws IOException {
     String idMappingPrefix = generationPrefix + modelDescription.getIDMappingPath();
-    for (final String prefix : Store.get().list(idMappingPrefix, true)) {
-      futures.add(executor.submit(new Callable<Object>() {
+    for (String prefix : Store.get().list(idMappingPrefix, true)) {
+      fileLoader.loadLines(prefix, new ParallelFileLoader.LineBatchParser() {
         @Override
-        public Void call() throws IOException {
-          for (CharSequence line : new FileLineIterable(Store.get().readFrom(prefix))) {
+        public void parse(String key, List<String> lines) {
+          for (CharSequence line : lines) {
             String[] columns = DelimitedDataUtils.decode(line);
             long numericID = Long.parseLong(columns[0]);
             String id = columns[1];
-            Lock writeLock = generation.getKnownItemLock().writeLock();
-            StringLongMapping idMapping = generation.getIDMapping();
-            writeLock.lock();
-            try {
-              idMapping.addMapping(id, numericID);
-            } finally {
-              writeLock.unlock();
-            }
+            generation.getIDMapping().addMapping(id, numericID);
           }
-          return null;
         }
-      }));
+      });
+    }
+  }
+
+  private static int getParseThreads(Config config) {
+    String parseThreads = config.getString("serving-layer.model-load.parse-threads");
+    if ("auto".equals(parseThreads)) {
+      return Runtime.getRuntime().availableProcessors();
     }
+    return Integer.parseInt(parseThreads);
   }
 
 }
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.serving.generation;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.math3.util.FastMath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.oryx.common.io.IOUtils;
+import com.cloudera.oryx.common.parallel.ExecutorUtils;
+import com.cloudera.oryx.common.servcomp.Store;
+
+/**
+ * <p>Loads the files that make up a model, in parallel. A few threads read files, since reading many
+ * at once only contends for the network link. They hand off lines in batches to other threads, which
+ * parse them. Parsers should collect results off to the side, to be published when all loading
+ * is done.</p>
+ *
+ * <p>Progress and throughput are logged as each file finishes.</p>
+ *
+ * @author Sean Owen
+ */
+final class ParallelFileLoader {
+
+  private static final Logger log = LoggerFactory.getLogger(ParallelFileLoader.class);
+
+  private static final int LINES_PER_BATCH = 10000;
+
+  private final ExecutorService readExecutor;
+  private final ExecutorService parseExecutor;
+  /** Bounds the number of batches that have been read but not parsed, and so the memory they take. */
+  private final Semaphore batchPermits;
+  private final Collection<Future<Object>> readFutures;
+  private final Queue<Future<Object>> parseFutures;
+  private final AtomicInteger filesSubmitted;
+  private final AtomicInteger filesLoaded;
+  private final AtomicLong bytesLoaded;
+  private final AtomicLong rowsLoaded;
+  private final long startTime;
+
+  /**
+   * @param readThreads number of files to read at once
+   * @param parseThreads number of batches of lines to parse at once
+   */
+  ParallelFileLoader(int readThreads, int parseThreads) {
+    Preconditions.checkArgument(readThreads > 0, "readThreads must be positive: %s", readThreads);
+    Preconditions.checkArgument(parseThreads > 0, "parseThreads must be positive: %s", parseThreads);
+    readExecutor = Executors.newFixedThreadPool(
+        readThreads,
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("LoadModel-%d").build());
+    parseExecutor = Executors.newFixedThreadPool(
+        parseThreads,
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ParseModel-%d").build());
+    batchPermits = new Semaphore(2 * parseThreads);
+    readFutures = Lists.newArrayList();
+    parseFutures = new ConcurrentLinkedQueue<Future<Object>>();
+    filesSubmitted = new AtomicInteger();
+    filesLoaded = new AtomicInteger();
+    bytesLoaded = new AtomicLong();
+    rowsLoaded = new AtomicLong();
+    startTime = System.currentTimeMillis();
+  }
+
+  /**
+   * Reads a text file, and parses its lines in batches, possibly several at once.
+   *
+   * @param key file to read
+   * @param parser parses batches of lines from the file
+   */
+  void loadLines(final String key, final LineBatchParser parser) {
+    filesSubmitted.incrementAndGet();
+    readFutures.add(readExecutor.submit(new Callable<Object>() {
+      @Override
+      public Void call() throws IOException, InterruptedException {
+        // One for reading, plus one for each batch to parse; the file is done when all are
+        final AtomicInteger unfinished = new AtomicInteger(1);
+        BufferedReader reader = Store.get().readFrom(key);
+        try {
+          List<String> batch = Lists.newArrayListWithCapacity(LINES_PER_BATCH);
+          String line;
+          while ((line = reader.readLine()) != null) {
+            batch.add(line);
+            if (batch.size() == LINES_PER_BATCH) {
+              submitBatch(key, batch, parser, unfinished);
+              batch = Lists.newArrayListWithCapacity(LINES_PER_BATCH);
+            }
+          }
+          if (!batch.isEmpty()) {
+            submitBatch(key, batch, parser, unfinished);
+          }
+        } finally {
+          reader.close();
+        }
+        if (unfinished.decrementAndGet() == 0) {
+          fileLoaded(key);
+        }
+        return null;
+      }
+    }));
+  }
+
+  private void submitBatch(final String key,
+                           final List<String> batch,
+                           final LineBatchParser parser,
+                           final AtomicInteger unfinished) throws InterruptedException {
+    batchPermits.acquire();
+    unfinished.incrementAndGet();
+    parseFutures.add(parseExecutor.submit(new Callable<Object>() {
+      @Override
+      public Void call() throws IOException {
+        try {
+          parser.parse(key, batch);
+        } finally {
+          batchPermits.release();
+        }
+        rowsLoaded.addAndGet(batch.size());
+        if (unfinished.decrementAndGet() == 0) {
+          fileLoaded(key);
+        }
+        return null;
+      }
+    }));
+  }
+
+  /**
+   * Copies a file locally, and then parses it whole on the reading thread. This suits binary files.
+   *
+   * @param key file to read
+   * @param parser parses the local copy of the file
+   */
+  void loadFile(final String key, final FileParser parser) {
+    filesSubmitted.incrementAndGet();
+    readFutures.add(readExecutor.submit(new Callable<Object>() {
+      @Override
+      public Void call() throws IOException {
+        File localFile = File.createTempFile("oryx-model-", ".tmp");
+        localFile.deleteOnExit();
+        IOUtils.delete(localFile);
+        try {
+          Store.get().download(key, localFile);
+          rowsLoaded.addAndGet(parser.parse(key, localFile));
+        } finally {
+          IOUtils.delete(localFile);
+        }
+        fileLoaded(key);
+        return null;
+      }
+    }));
+  }
+
+  private void fileLoaded(String key) throws IOException {
+    long bytes = bytesLoaded.addAndGet(Store.get().getSize(key));
+    int files = filesLoaded.incrementAndGet();
+    double seconds = FastMath.max(0.001, (System.currentTimeMillis() - startTime) / 1000.0);
+    log.info("Loaded {} ({} of {} files so far; {} MB/s, {} rows/s)",
+             key,
+             files,
+             filesSubmitted.get(),
+             String.format("%.1f", bytes / seconds / 1000000.0),
+             (long) (rowsLoaded.get() / seconds));
+  }
+
+  /**
+   * Waits for all files to load.
+   *
+   * @throws IllegalStateException if any file failed to load
+   */
+  void await() {
+    // Reading finishes first, so all parsing has been submitted once it has
+    ExecutorUtils.checkExceptions(readFutures);
+    ExecutorUtils.checkExceptions(parseFutures);
+    double seconds = (System.currentTimeMillis() - startTime) / 1000.0;
+    log.info("Loaded {} files, {} rows, {} MB in {}s",
+             filesLoaded.get(),
+             rowsLoaded.get(),
+             bytesLoaded.get() / 1000000L,
+             String.format("%.1f", seconds));
+  }
+
+  /**
+   * Stops all threads, including any still loading.
+   */
+  void shutdown() {
+    ExecutorUtils.shutdownNowAndAwait(readExecutor);
+    ExecutorUtils.shutdownNowAndAwait(parseExecutor);
+  }
+
+  /**
+   * Parses a batch of lines from a text file.
+   */
+  interface LineBatchParser {
+    void parse(String key, List<String> lines) throws IOException;
+  }
+
+  /**
+   * Parses a whole, local file.
+   */
+  interface FileParser {
+    /**
+     * @return number of rows parsed
+     */
+    int parse(String key, File file) throws IOException;
+  }
+
+}
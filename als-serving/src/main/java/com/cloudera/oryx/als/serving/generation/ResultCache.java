@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.serving.generation;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.oryx.als.common.IDValue;
+
+/**
+ * <p>A bounded cache of results computed for a user or item, like recommendations or most similar items.
+ * Results are cached for each combination of how many results were requested and whether known items
+ * were considered.</p>
+ *
+ * <p>Callers get a {@link Results} for an ID <em>before</em> reading the model to compute a result, and put
+ * the result there. {@link #invalidate(long)} and {@link #invalidateAll()} discard all {@link Results}
+ * that exist at that point, so that results computed from model data that was current before an update
+ * are never seen after it.</p>
+ *
+ * @author Sean Owen
+ */
+public final class ResultCache {
+
+  private static final Logger log = LoggerFactory.getLogger(ResultCache.class);
+
+  private final String name;
+  private final Cache<Long,Results> cache;
+  private final AtomicLong hits;
+  private final AtomicLong misses;
+
+  /**
+   * @param name name of the cached results, for logging
+   * @param maxSize maximum number of IDs whose results are cached
+   */
+  public ResultCache(String name, int maxSize) {
+    Preconditions.checkArgument(maxSize > 0, "maxSize must be positive");
+    this.name = name;
+    this.cache = CacheBuilder.newBuilder().maximumSize(maxSize).build();
+    this.hits = new AtomicLong();
+    this.misses = new AtomicLong();
+  }
+
+  /**
+   * @param id user or item ID
+   * @return cached results for the ID, which may be empty
+   */
+  public Results getResults(long id) {
+    try {
+      return cache.get(id, new Callable<Results>() {
+        @Override
+        public Results call() {
+          return new Results();
+        }
+      });
+    } catch (ExecutionException ee) {
+      // Can't happen; creating Results doesn't fail
+      throw new IllegalStateException(ee);
+    }
+  }
+
+  /**
+   * Discards results for an ID, when the model data they depend on has changed.
+   *
+   * @param id user or item ID
+   */
+  public void invalidate(long id) {
+    cache.invalidate(id);
+  }
+
+  /**
+   * Discards all results, like when a new model is loaded, and logs the hit rate so far.
+   */
+  public void invalidateAll() {
+    cache.invalidateAll();
+    long theHits = hits.get();
+    long total = theHits + misses.get();
+    if (total > 0) {
+      log.info("{} cache hit rate: {} of {} ({}%)", name, theHits, total, (100 * theHits) / total);
+    }
+  }
+
+  /**
+   * @return number of lookups that found a cached result
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * @return number of lookups that found no cached result
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Results for one user or item.
+   */
+  public final class Results {
+
+    private final ConcurrentMap<Long,List<IDValue>> resultsByRequest;
+
+    private Results() {
+      resultsByRequest = new ConcurrentHashMap<Long,List<IDValue>>();
+    }
+
+    /**
+     * @param howMany number of results requested
+     * @param considerKnownItems whether known items were considered
+     * @return results computed for those arguments, or {@code null} if none are cached
+     */
+    public List<IDValue> get(int howMany, boolean considerKnownItems) {
+      List<IDValue> result = resultsByRequest.get(requestKey(howMany, considerKnownItems));
+      if (result == null) {
+        misses.incrementAndGet();
+      } else {
+        hits.incrementAndGet();
+      }
+      return result;
+    }
+
+    /**
+     * @param howMany number of results requested
+     * @param considerKnownItems whether known items were considered
+     * @param result results computed for those arguments. These are shared with later callers, so must be
+     *  unmodifiable.
+     * @return {@code result}
+     */
+    public List<IDValue> put(int howMany, boolean considerKnownItems, List<IDValue> result) {
+      resultsByRequest.put(requestKey(howMany, considerKnownItems), result);
+      return result;
+    }
+
+    private long requestKey(int howMany, boolean considerKnownItems) {
+      // Flag in its own bit, so that no two requests share a key, even for howMany of 0
+      return ((long) howMany << 1) | (considerKnownItems ? 1L : 0L);
+    }
+
+  }
+
+}
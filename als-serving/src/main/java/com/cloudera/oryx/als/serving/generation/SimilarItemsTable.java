@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.serving.generation;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.cloudera.oryx.als.common.NumericIDValue;
+import com.cloudera.oryx.als.common.TopNHeap;
+import com.cloudera.oryx.common.collection.LongObjectMap;
+
+/**
+ * Most similar items to each item, as computed by the Computation Layer, held as primitive arrays.
+ * This lets most similar items be looked up rather than computed from all of {@code Y}. Once an item's vector
+ * is changed by an update, its similar items no longer match it, and are no longer returned.
+ *
+ * @author Sean Owen
+ */
+public final class SimilarItemsTable {
+
+  private final LongObjectMap<SimilarItems> similarItemsByItem;
+  private final Set<Long> invalidatedItemIDs;
+
+  /**
+   * @param similarItemsByItem similar items and similarities for each item, in any order
+   */
+  SimilarItemsTable(LongObjectMap<List<NumericIDValue>> similarItemsByItem) {
+    this.similarItemsByItem = new LongObjectMap<SimilarItems>(similarItemsByItem.size());
+    for (LongObjectMap.MapEntry<List<NumericIDValue>> entry : similarItemsByItem.entrySet()) {
+      List<NumericIDValue> similar = entry.getValue();
+      if (similar.isEmpty()) {
+        continue;
+      }
+      // Order by similarity, descending
+      TopNHeap heap = new TopNHeap(similar.size());
+      heap.offerAll(similar.iterator());
+      this.similarItemsByItem.put(entry.getKey(), new SimilarItems(heap.toList()));
+    }
+    invalidatedItemIDs = Collections.newSetFromMap(new ConcurrentHashMap<Long,Boolean>());
+  }
+
+  /**
+   * @return number of items with similar items
+   */
+  public int size() {
+    return similarItemsByItem.size();
+  }
+
+  /**
+   * @param itemID item to get similar items for
+   * @return most similar items to the item, or {@code null} if none were computed or they were invalidated
+   */
+  public SimilarItems get(long itemID) {
+    if (!invalidatedItemIDs.isEmpty() && invalidatedItemIDs.contains(itemID)) {
+      return null;
+    }
+    return similarItemsByItem.get(itemID);
+  }
+
+  /**
+   * Stops returning similar items for an item, after its vector has changed since they were computed.
+   * This may be called concurrently with {@link #get(long)}.
+   *
+   * @param itemID item whose vector changed
+   */
+  public void invalidate(long itemID) {
+    if (similarItemsByItem.containsKey(itemID)) {
+      invalidatedItemIDs.add(itemID);
+    }
+  }
+
+  /**
+   * Items most similar to one item.
+   */
+  public static final class SimilarItems {
+
+    private final long[] itemIDs;
+    private final float[] similarities;
+
+    private SimilarItems(List<NumericIDValue> similar) {
+      int size = similar.size();
+      itemIDs = new long[size];
+      similarities = new float[size];
+      for (int i = 0; i < size; i++) {
+        NumericIDValue idValue = similar.get(i);
+        itemIDs[i] = idValue.getID();
+        similarities[i] = idValue.getValue();
+      }
+    }
+
+    /**
+     * @return number of similar items
+     */
+    public int size() {
+      return itemIDs.length;
+    }
+
+    /**
+     * @param i index, from 0 for the most similar item
+     * @return ID of the item
+     */
+    public long getItemID(int i) {
+      return itemIDs[i];
+    }
+
+    /**
+     * @param i index, from 0 for the most similar item
+     * @return similarity of the item
+     */
+    public float getSimilarity(int i) {
+      return similarities[i];
+    }
+
+  }
+
+}
@@ -17,6 +17,7 @@ package com.cloudera.oryx.als.serving.web;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
+import org.apache.commons.math3.util.FastMath;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
@@ -29,6 +30,7 @@ import java.io.Writer;
 
 import com.cloudera.oryx.als.common.IDValue;
 import com.cloudera.oryx.als.common.OryxRecommender;
+import com.cloudera.oryx.als.serving.NumericIDValueList;
 import com.cloudera.oryx.als.serving.RescorerProvider;
 import com.cloudera.oryx.common.io.DelimitedDataUtils;
 import com.cloudera.oryx.serving.web.AbstractOryxServlet;
@@ -47,6 +49,15 @@ public abstract class AbstractALSServlet extends AbstractOryxServlet {
   public static final String RECOMMENDER_KEY = KEY_PREFIX + ".RECOMMENDER";
   private static final String RESCORER_PROVIDER_KEY = KEY_PREFIX + ".RESCORER_PROVIDER";
   private static final String[] NO_PARAMS = new String[0];
+  /** Output is written out in chunks of about this many chars. */
+  private static final int OUTPUT_CHUNK_SIZE = 8192;
+
+  private static final ThreadLocal<OutputBuffer> OUTPUT_BUFFERS = new ThreadLocal<OutputBuffer>() {
+    @Override
+    protected OutputBuffer initialValue() {
+      return new OutputBuffer();
+    }
+  };
 
   private OryxRecommender recommender;
   private RescorerProvider rescorerProvider;
@@ -91,11 +102,83 @@ public abstract class AbstractALSServlet extends AbstractOryxServlet {
    * like {@code "ABC",0.53}. Strength is an opaque indicator of the relative quality of the recommendation.</p>
    */
   final void output(ServletResponse response, Iterable<IDValue> items) throws IOException {
-    Writer writer = response.getWriter();
-    for (IDValue item : items) {
-      writer.write(DelimitedDataUtils.encode(item.getID(), Float.toString(item.getValue())));
-      writer.write('\n');
+    output(response.getWriter(), null, items);
+  }
+
+  /**
+   * Writes items as CSV, as in {@link #output(ServletResponse, Iterable)}, but optionally with
+   * a leading first column. Lines are built in a buffer that is reused by the request thread, and
+   * written out in chunks. The values in a {@link NumericIDValueList} are written out without
+   * creating an {@link IDValue} for each.
+   *
+   * @param writer destination of output
+   * @param firstColumn value of first column on every line, like a user ID, or {@code null} if none
+   * @param items items to write, one per line
+   */
+  static void output(Writer writer, String firstColumn, Iterable<IDValue> items) throws IOException {
+    OutputBuffer buffer = OUTPUT_BUFFERS.get();
+    try {
+      if (items instanceof NumericIDValueList) {
+        NumericIDValueList list = (NumericIDValueList) items;
+        for (int i = 0; i < list.size(); i++) {
+          buffer.appendLine(firstColumn, list.getID(i), list.getValue(i));
+          buffer.maybeFlush(writer);
+        }
+      } else {
+        for (IDValue item : items) {
+          buffer.appendLine(firstColumn, item.getID(), item.getValue());
+          buffer.maybeFlush(writer);
+        }
+      }
+      buffer.flush(writer);
+    } finally {
+      buffer.clear();
+    }
+  }
+
+  /**
+   * Holds lines of output until enough are ready to write in one call.
+   */
+  private static final class OutputBuffer {
+
+    private final StringBuilder lines;
+    private final char[] chunk;
+
+    private OutputBuffer() {
+      lines = new StringBuilder(2 * OUTPUT_CHUNK_SIZE);
+      chunk = new char[OUTPUT_CHUNK_SIZE];
+    }
+
+    void appendLine(String firstColumn, String id, float value) {
+      if (firstColumn != null) {
+        DelimitedDataUtils.appendEncoded(lines, firstColumn);
+        lines.append(DelimitedDataUtils.DELIMITER);
+      }
+      DelimitedDataUtils.appendEncoded(lines, id);
+      // Same representation as Float.toString(), without making a String
+      lines.append(DelimitedDataUtils.DELIMITER).append(value).append('\n');
+    }
+
+    void maybeFlush(Writer writer) throws IOException {
+      if (lines.length() >= OUTPUT_CHUNK_SIZE) {
+        flush(writer);
+      }
     }
+
+    void flush(Writer writer) throws IOException {
+      int length = lines.length();
+      for (int start = 0; start < length; start += chunk.length) {
+        int end = FastMath.min(length, start + chunk.length);
+        lines.getChars(start, end, chunk, 0);
+        writer.write(chunk, 0, end - start);
+      }
+      lines.setLength(0);
+    }
+
+    void clear() {
+      lines.setLength(0);
+    }
+
   }
 
 }
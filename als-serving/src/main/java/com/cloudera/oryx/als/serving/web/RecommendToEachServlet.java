@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.serving.web;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.common.collect.Lists;
+
+import com.cloudera.oryx.als.common.IDValue;
+import com.cloudera.oryx.als.common.NoSuchUserException;
+import com.cloudera.oryx.als.common.NotReadyException;
+import com.cloudera.oryx.als.common.OryxRecommender;
+import com.cloudera.oryx.als.common.Rescorer;
+import com.cloudera.oryx.als.serving.RescorerProvider;
+
+/**
+ * <p>Responds to a GET request to
+ * {@code /recommendToEach/[userID1](/[userID2]/...)(?howMany=n)(&considerKnownItems=true|false)(&rescorerParams=...)}
+ * and in turn calls {@link OryxRecommender#recommendToEach(String[], int, boolean, Rescorer)}.
+ * Also responds to a POST request to {@code /recommendToEach} with the same parameters, whose body
+ * lists one user ID per line; this suits long lists of users. Defaults are as in {@link RecommendServlet}.</p>
+ *
+ * <p>Unknown user IDs get no recommendations, unless all are unknown, in which case a
+ * {@link HttpServletResponse#SC_NOT_FOUND} status is returned.</p>
+ *
+ * <p>CSV output contains one recommendation per line, and each line is of the form {@code userID,itemID,strength},
+ * like {@code 12,325,0.53}. Each user's recommendations are together, and in order.</p>
+ *
+ * @author Sean Owen
+ */
+public final class RecommendToEachServlet extends AbstractALSServlet {
+
+  @Override
+  protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    CharSequence pathInfo = request.getPathInfo();
+    if (pathInfo == null) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "No path");
+      return;
+    }
+    doRecommendToEach(request, response, Lists.newArrayList(SLASH.split(pathInfo)));
+  }
+
+  @Override
+  protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    Collection<String> userIDs = Lists.newArrayList();
+    BufferedReader reader = request.getReader();
+    String line;
+    while ((line = reader.readLine()) != null) {
+      String userID = line.trim();
+      if (!userID.isEmpty()) {
+        userIDs.add(userID);
+      }
+    }
+    doRecommendToEach(request, response, userIDs);
+  }
+
+  private void doRecommendToEach(HttpServletRequest request,
+                                 HttpServletResponse response,
+                                 Collection<String> userIDList) throws IOException {
+    if (userIDList.isEmpty()) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "No users");
+      return;
+    }
+    String[] userIDs = userIDList.toArray(new String[userIDList.size()]);
+
+    OryxRecommender recommender = getRecommender();
+    RescorerProvider rescorerProvider = getRescorerProvider();
+    List<List<IDValue>> recommendations;
+    try {
+      Rescorer rescorer = rescorerProvider == null ? null :
+          rescorerProvider.getRecommendRescorer(userIDs, recommender, getRescorerParams(request));
+      recommendations =
+          recommender.recommendToEach(userIDs, getHowMany(request), getConsiderKnownItems(request), rescorer);
+    } catch (NoSuchUserException nsue) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND, nsue.toString());
+      return;
+    } catch (NotReadyException nre) {
+      response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, nre.toString());
+      return;
+    } catch (IllegalArgumentException iae) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, iae.toString());
+      return;
+    }
+
+    Writer writer = response.getWriter();
+    for (int i = 0; i < userIDs.length; i++) {
+      output(writer, userIDs[i], recommendations.get(i));
+    }
+  }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.serving;
+
+import java.util.Iterator;
+
+import com.cloudera.oryx.als.common.NumericIDPairRescorer;
+import com.cloudera.oryx.als.common.NumericIDRescorer;
+import com.cloudera.oryx.als.common.NumericIDValue;
+import com.cloudera.oryx.common.collection.LongFloatMap;
+
+/**
+ * Numeric ID rescorers that filter odd IDs and double scores, for testing that iterators use the numeric ID
+ * methods. They fail if used with {@link String} IDs.
+ *
+ * @author Sean Owen
+ */
+final class FilterOddRescorers {
+
+  private FilterOddRescorers() {
+  }
+
+  static NumericIDRescorer rescorer() {
+    return new FilterOddRescorer();
+  }
+
+  /**
+   * @return rescorer that filters pairs whose first ID is odd
+   */
+  static NumericIDPairRescorer pairRescorer() {
+    return new FilterOddPairRescorer();
+  }
+
+  /**
+   * @return IDs and values of the non-{@code null} results of {@code it}
+   */
+  static LongFloatMap collect(Iterator<NumericIDValue> it) {
+    LongFloatMap results = new LongFloatMap();
+    while (it.hasNext()) {
+      NumericIDValue value = it.next();
+      if (value != null) {
+        results.put(value.getID(), value.getValue());
+      }
+    }
+    return results;
+  }
+
+  private static final class FilterOddRescorer implements NumericIDRescorer {
+
+    @Override
+    public double rescore(long numericID, double originalScore) {
+      return 2.0 * originalScore;
+    }
+
+    @Override
+    public void rescore(long[] numericIDs, double[] scores, int size) {
+      for (int i = 0; i < size; i++) {
+        scores[i] = rescore(numericIDs[i], scores[i]);
+      }
+    }
+
+    @Override
+    public boolean isFiltered(long numericID) {
+      return numericID % 2 == 1;
+    }
+
+    @Override
+    public double rescore(String id, double originalScore) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isFiltered(String id) {
+      throw new UnsupportedOperationException();
+    }
+
+  }
+
+  private static final class FilterOddPairRescorer implements NumericIDPairRescorer {
+
+    @Override
+    public double rescore(long a, long b, double originalScore) {
+      return 2.0 * originalScore;
+    }
+
+    @Override
+    public boolean isFiltered(long a, long b) {
+      return a % 2 == 1;
+    }
+
+    @Override
+    public double rescore(String a, String b, double originalScore) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isFiltered(String a, String b) {
+      throw new UnsupportedOperationException();
+    }
+
+  }
+
+}
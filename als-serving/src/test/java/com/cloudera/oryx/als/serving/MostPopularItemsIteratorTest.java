@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.serving;
+
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import com.cloudera.oryx.als.common.NumericIDValue;
+import com.cloudera.oryx.als.common.StringLongMapping;
+import com.cloudera.oryx.common.OryxTest;
+import com.cloudera.oryx.common.collection.LongFloatMap;
+
+/**
+ * Tests {@link MostPopularItemsIterator}.
+ *
+ * @author Sean Owen
+ */
+public final class MostPopularItemsIteratorTest extends OryxTest {
+
+  @Test
+  public void testNumericRescorer() {
+    LongFloatMap counts = new LongFloatMap();
+    counts.put(1L, 5.0f);
+    counts.put(2L, 3.0f);
+    counts.put(4L, 1.0f);
+    Iterator<NumericIDValue> it = new MostPopularItemsIterator(counts.entrySet().iterator(),
+                                                               FilterOddRescorers.rescorer(),
+                                                               new StringLongMapping());
+    LongFloatMap results = FilterOddRescorers.collect(it);
+    assertEquals(2, results.size());
+    assertEquals(6.0f, results.get(2L));
+    assertEquals(2.0f, results.get(4L));
+  }
+
+}
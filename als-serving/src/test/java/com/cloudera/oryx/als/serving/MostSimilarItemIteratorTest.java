@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.serving;
+
+import java.util.Iterator;
+
+import org.apache.commons.math3.util.FastMath;
+import org.junit.Test;
+
+import com.cloudera.oryx.als.common.NumericIDValue;
+import com.cloudera.oryx.als.common.StringLongMapping;
+import com.cloudera.oryx.common.OryxTest;
+import com.cloudera.oryx.common.collection.LongFloatMap;
+import com.cloudera.oryx.common.collection.LongObjectMap;
+
+/**
+ * Tests {@link MostSimilarItemIterator}.
+ *
+ * @author Sean Owen
+ */
+public final class MostSimilarItemIteratorTest extends OryxTest {
+
+  @Test
+  public void testNumericRescorer() {
+    LongObjectMap<float[]> Y = new LongObjectMap<float[]>();
+    Y.put(2L, new float[] {1.0f, 0.0f});
+    Y.put(3L, new float[] {1.0f, 0.0f});
+    Y.put(4L, new float[] {1.0f, 1.0f});
+    Y.put(6L, new float[] {1.0f, 0.0f});
+    Iterator<NumericIDValue> it = new MostSimilarItemIterator(Y.entrySet().iterator(),
+                                                              new long[] {2L},
+                                                              new float[][] {{1.0f, 0.0f}},
+                                                              FilterOddRescorers.pairRescorer(),
+                                                              new StringLongMapping());
+    LongFloatMap results = FilterOddRescorers.collect(it);
+    // 2 is the item itself, 3 is filtered, and 4 and 6 are rescored
+    assertEquals(2, results.size());
+    assertEquals((float) FastMath.sqrt(2.0), results.get(4L));
+    assertEquals(2.0f, results.get(6L));
+  }
+
+}
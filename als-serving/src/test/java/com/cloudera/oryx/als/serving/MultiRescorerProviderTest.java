@@ -17,8 +17,13 @@ package com.cloudera.oryx.als.serving;
 
 import org.junit.Test;
 
+import com.cloudera.oryx.als.common.AbstractNumericIDRescorer;
+import com.cloudera.oryx.als.common.CandidateSetRescorer;
+import com.cloudera.oryx.als.common.NumericIDRescorer;
+import com.cloudera.oryx.als.common.OryxRecommender;
 import com.cloudera.oryx.als.common.Rescorer;
 import com.cloudera.oryx.common.OryxTest;
+import com.cloudera.oryx.common.collection.LongSet;
 import com.cloudera.oryx.als.common.PairRescorer;
 
 /**
@@ -95,5 +100,146 @@ public final class MultiRescorerProviderTest extends OryxTest {
     assertTrue(provider.isFiltered("AB", "ABCDEF"));
     assertFalse(provider.isFiltered("ABCDEF", "ABCDEFABCDEF"));
   }
-  
+
+  @Test
+  public void testMultiNumericIDRescorer() {
+    RescorerProvider multi =
+        new MultiRescorerProvider(new NumericModRescorerProvider(2), new NumericModRescorerProvider(3));
+    Rescorer provider = multi.getMostPopularItemsRescorer(null);
+    assertTrue(provider instanceof MultiNumericIDRescorer);
+    NumericIDRescorer numericProvider = (NumericIDRescorer) provider;
+    assertTrue(numericProvider.isFiltered(2L));
+    assertFalse(numericProvider.isFiltered(6L));
+    assertTrue(provider.isFiltered("3"));
+    assertFalse(provider.isFiltered("12"));
+
+    long[] ids = {1L, 6L, 12L};
+    double[] scores = {1.0, 2.0, 3.0};
+    numericProvider.rescore(ids, scores, 2);
+    assertNaN(scores[0]);
+    assertEquals(2.0, scores[1]);
+    assertEquals(3.0, scores[2]);
+  }
+
+  @Test
+  public void testMixedRescorers() {
+    RescorerProvider multi =
+        new MultiRescorerProvider(new NumericModRescorerProvider(2), new SimpleModRescorerProvider(3));
+    Rescorer provider = multi.getMostPopularItemsRescorer(null);
+    assertTrue(provider instanceof MultiRescorer);
+    assertTrue(provider.isFiltered("12"));
+    assertTrue(provider.isFiltered("333"));
+    assertFalse(provider.isFiltered("120"));
+  }
+
+  @Test
+  public void testIntersectCandidateSets() {
+    LongSet candidates1 = new LongSet();
+    candidates1.add(1L);
+    candidates1.add(2L);
+    candidates1.add(3L);
+    LongSet candidates2 = new LongSet();
+    candidates2.add(2L);
+    candidates2.add(3L);
+    candidates2.add(4L);
+    candidates2.add(5L);
+    RescorerProvider multi = new MultiRescorerProvider(new CandidateSetRescorerProvider(candidates1),
+                                                       new CandidateSetRescorerProvider(candidates2));
+    Rescorer provider = multi.getMostPopularItemsRescorer(null);
+    assertTrue(provider instanceof MultiNumericIDRescorer);
+    LongSet intersection = ((CandidateSetRescorer) provider).getCandidateItemIDs();
+    assertEquals(2, intersection.size());
+    assertTrue(intersection.contains(2L));
+    assertTrue(intersection.contains(3L));
+    assertSame(intersection, ((CandidateSetRescorer) provider).getCandidateItemIDs());
+    // A new rescorer over the same sets, as for the next request, gives the same intersection
+    Rescorer nextProvider = multi.getMostPopularItemsRescorer(null);
+    assertNotSame(provider, nextProvider);
+    assertSame(intersection, ((CandidateSetRescorer) nextProvider).getCandidateItemIDs());
+  }
+
+  @Test
+  public void testSingleCandidateSet() {
+    LongSet candidates = new LongSet();
+    candidates.add(1L);
+    RescorerProvider multi =
+        new MultiRescorerProvider(new CandidateSetRescorerProvider(candidates), new SimpleModRescorerProvider(3));
+    Rescorer provider = multi.getMostPopularItemsRescorer(null);
+    assertTrue(provider instanceof MultiRescorer);
+    assertSame(candidates, ((CandidateSetRescorer) provider).getCandidateItemIDs());
+  }
+
+  @Test
+  public void testNoCandidateSets() {
+    RescorerProvider multi =
+        new MultiRescorerProvider(new SimpleModRescorerProvider(2), new SimpleModRescorerProvider(3));
+    Rescorer provider = multi.getMostPopularItemsRescorer(null);
+    assertNull(((CandidateSetRescorer) provider).getCandidateItemIDs());
+  }
+
+  private static final class CandidateSetRescorerProvider extends AbstractRescorerProvider {
+
+    private final LongSet candidateItemIDs;
+
+    CandidateSetRescorerProvider(LongSet candidateItemIDs) {
+      this.candidateItemIDs = candidateItemIDs;
+    }
+
+    @Override
+    public Rescorer getMostPopularItemsRescorer(OryxRecommender recommender, String... args) {
+      return new CandidateSetNumericIDRescorer(candidateItemIDs);
+    }
+
+  }
+
+  private static final class CandidateSetNumericIDRescorer extends AbstractNumericIDRescorer
+      implements CandidateSetRescorer {
+
+    private final LongSet candidateItemIDs;
+
+    CandidateSetNumericIDRescorer(LongSet candidateItemIDs) {
+      this.candidateItemIDs = candidateItemIDs;
+    }
+
+    @Override
+    public LongSet getCandidateItemIDs() {
+      return candidateItemIDs;
+    }
+
+    @Override
+    public double rescore(long numericID, double originalScore) {
+      return isFiltered(numericID) ? Double.NaN : originalScore;
+    }
+
+    @Override
+    public boolean isFiltered(long numericID) {
+      return !candidateItemIDs.contains(numericID);
+    }
+
+  }
+
+  private static final class NumericModRescorerProvider extends AbstractRescorerProvider {
+
+    private final int modulus;
+
+    NumericModRescorerProvider(int modulus) {
+      this.modulus = modulus;
+    }
+
+    @Override
+    public Rescorer getMostPopularItemsRescorer(OryxRecommender recommender, String... args) {
+      return new AbstractNumericIDRescorer() {
+        @Override
+        public double rescore(long numericID, double originalScore) {
+          return isFiltered(numericID) ? Double.NaN : originalScore;
+        }
+        @Override
+        public boolean isFiltered(long numericID) {
+          return numericID % modulus != 0;
+        }
+      };
+    }
+
+  }
+
 }
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.serving;
+
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import com.cloudera.oryx.als.common.NumericIDValue;
+import com.cloudera.oryx.als.common.StringLongMapping;
+import com.cloudera.oryx.common.OryxTest;
+import com.cloudera.oryx.common.collection.LongArraySet;
+import com.cloudera.oryx.common.collection.LongFloatMap;
+import com.cloudera.oryx.common.collection.LongObjectMap;
+
+/**
+ * Tests {@link RecommendIterator}.
+ *
+ * @author Sean Owen
+ */
+public final class RecommendIteratorTest extends OryxTest {
+
+  @Test
+  public void testNumericRescorer() {
+    LongObjectMap<float[]> Y = new LongObjectMap<float[]>();
+    Y.put(1L, new float[] {1.0f, 0.0f});
+    Y.put(2L, new float[] {0.0f, 1.0f});
+    Y.put(3L, new float[] {1.0f, 1.0f});
+    Y.put(4L, new float[] {2.0f, 2.0f});
+    Iterator<NumericIDValue> it = new RecommendIterator(new float[][] {{1.0f, 2.0f}},
+                                                        Y.entrySet().iterator(),
+                                                        LongArraySet.of(4L),
+                                                        FilterOddRescorers.rescorer(),
+                                                        new StringLongMapping());
+    LongFloatMap results = FilterOddRescorers.collect(it);
+    // 1 and 3 are filtered, 4 is known, and 2 is rescored
+    assertEquals(1, results.size());
+    assertEquals(4.0f, results.get(2L));
+  }
+
+}
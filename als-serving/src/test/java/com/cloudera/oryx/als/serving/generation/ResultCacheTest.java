@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.serving.generation;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.cloudera.oryx.als.common.IDValue;
+import com.cloudera.oryx.common.OryxTest;
+
+/**
+ * Tests {@link ResultCache}.
+ *
+ * @author Sean Owen
+ */
+public final class ResultCacheTest extends OryxTest {
+
+  private static final List<IDValue> RESULT = Collections.singletonList(new IDValue("foo", 1.0f));
+
+  @Test
+  public void testGetPut() {
+    ResultCache cache = new ResultCache("test", 10);
+    ResultCache.Results results = cache.getResults(1L);
+    assertNull(results.get(10, false));
+    results.put(10, false, RESULT);
+    assertEquals(RESULT, results.get(10, false));
+    assertNull(results.get(10, true));
+    assertNull(results.get(5, false));
+    assertEquals(RESULT, cache.getResults(1L).get(10, false));
+    assertNull(cache.getResults(2L).get(10, false));
+    assertEquals(2L, cache.getHits());
+    assertEquals(4L, cache.getMisses());
+  }
+
+  @Test
+  public void testConsiderKnownItemsZero() {
+    ResultCache cache = new ResultCache("test", 10);
+    ResultCache.Results results = cache.getResults(1L);
+    results.put(0, false, RESULT);
+    assertNull(results.get(0, true));
+    assertEquals(RESULT, results.get(0, false));
+  }
+
+  @Test
+  public void testInvalidate() {
+    ResultCache cache = new ResultCache("test", 10);
+    cache.getResults(1L).put(10, false, RESULT);
+    cache.getResults(2L).put(10, false, RESULT);
+    cache.invalidate(1L);
+    assertNull(cache.getResults(1L).get(10, false));
+    assertEquals(RESULT, cache.getResults(2L).get(10, false));
+    cache.invalidateAll();
+    assertNull(cache.getResults(2L).get(10, false));
+  }
+
+  @Test
+  public void testPutAfterInvalidate() {
+    ResultCache cache = new ResultCache("test", 10);
+    ResultCache.Results results = cache.getResults(1L);
+    cache.invalidate(1L);
+    // Computed from data that was current before invalidation, so must not be seen
+    results.put(10, false, RESULT);
+    assertNull(cache.getResults(1L).get(10, false));
+  }
+
+}
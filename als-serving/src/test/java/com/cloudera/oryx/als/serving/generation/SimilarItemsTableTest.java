@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.als.serving.generation;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.cloudera.oryx.als.common.NumericIDValue;
+import com.cloudera.oryx.common.OryxTest;
+import com.cloudera.oryx.common.collection.LongObjectMap;
+
+/**
+ * Tests {@link SimilarItemsTable}.
+ *
+ * @author Sean Owen
+ */
+public final class SimilarItemsTableTest extends OryxTest {
+
+  @Test
+  public void testOrdered() {
+    LongObjectMap<List<NumericIDValue>> similarItemsByItem = new LongObjectMap<List<NumericIDValue>>();
+    similarItemsByItem.put(1L, Arrays.asList(new NumericIDValue(2L, 0.5f),
+                                             new NumericIDValue(3L, 0.9f),
+                                             new NumericIDValue(4L, -0.1f)));
+    similarItemsByItem.put(2L, Collections.<NumericIDValue>emptyList());
+    SimilarItemsTable table = new SimilarItemsTable(similarItemsByItem);
+    assertEquals(1, table.size());
+    assertNull(table.get(2L));
+    SimilarItemsTable.SimilarItems similarItems = table.get(1L);
+    assertEquals(3, similarItems.size());
+    assertEquals(3L, similarItems.getItemID(0));
+    assertEquals(0.9f, similarItems.getSimilarity(0));
+    assertEquals(2L, similarItems.getItemID(1));
+    assertEquals(0.5f, similarItems.getSimilarity(1));
+    assertEquals(4L, similarItems.getItemID(2));
+    assertEquals(-0.1f, similarItems.getSimilarity(2));
+  }
+
+  @Test
+  public void testInvalidate() {
+    LongObjectMap<List<NumericIDValue>> similarItemsByItem = new LongObjectMap<List<NumericIDValue>>();
+    similarItemsByItem.put(1L, Arrays.asList(new NumericIDValue(2L, 0.5f)));
+    similarItemsByItem.put(2L, Arrays.asList(new NumericIDValue(1L, 0.5f)));
+    SimilarItemsTable table = new SimilarItemsTable(similarItemsByItem);
+    table.invalidate(1L);
+    table.invalidate(3L);
+    assertNull(table.get(1L));
+    assertNull(table.get(3L));
+    assertNotNull(table.get(2L));
+  }
+
+}
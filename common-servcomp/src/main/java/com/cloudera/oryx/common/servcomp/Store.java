@@ -306,6 +306,31 @@ public final class Store {
     }
   }
 
+  /**
+   * Moves, or renames, a file.
+   *
+   * @param fromKey file to move
+   * @param toKey new location of the file, which must not already exist
+   * @throws IOException if the file can't be moved
+   */
+  public void move(String fromKey, String toKey) throws IOException {
+    Preconditions.checkNotNull(fromKey);
+    Preconditions.checkNotNull(toKey);
+    Path fromPath = Namespaces.toPath(fromKey);
+    Path toPath = Namespaces.toPath(toKey);
+    makeParentDirs(toPath);
+    boolean success;
+    try {
+      success = fs.rename(fromPath, toPath);
+    } catch (AccessControlException ace) {
+      log.error("Permissions problem; is {} writable in HDFS?", toPath);
+      throw ace;
+    }
+    if (!success) {
+      throw new IOException("Can't move " + fromPath + " to " + toPath);
+    }
+  }
+
   /**
    * Creates a 0-length file.
    *
@@ -0,0 +1,715 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.common.collection;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+
+import com.cloudera.oryx.common.iterator.LongPrimitiveIterator;
+
+/**
+ * <p>A thread-safe map from {@code long} keys to {@code float[]} vectors which all have the same dimension,
+ * for many concurrent readers and fewer writers. Readers never lock or wait.</p>
+ *
+ * <p>Most vectors live in an immutable {@link LongFloatArrayMap}, the "base". Writes go instead to a concurrent
+ * "delta" map, whose vectors and removals take precedence over the base. {@link #merge()} builds a new base
+ * that includes the delta, and publishes it. Writers wait only while a merge starts and finishes.
+ * The new base is a {@link LongFloatArrayMap#copyOnWrite()} copy of the old one, so a merge copies only the
+ * blocks of rows that the delta changes, not the whole base. Each row of the base has a bit that notes whether
+ * it has been overridden in the delta, so that scans of the base can cheaply skip it.</p>
+ *
+ * <p>Vectors returned by this class may be shared, and must not be modified.</p>
+ *
+ * @author Sean Owen
+ * @see ConcurrentLongObjectMap
+ */
+public final class ConcurrentLongFloatArrayMap {
+
+  /** Marks a removed key in a delta. */
+  private static final float[] REMOVED = new float[0];
+
+  private volatile Snapshot snapshot;
+  private volatile int dimension;
+  private final AtomicInteger size;
+  /** Writers share this lock; it is only held exclusively to swap in a new {@link Snapshot}. */
+  private final ReadWriteLock updateLock;
+  private final Lock mergeLock;
+
+  public ConcurrentLongFloatArrayMap() {
+    this.snapshot = new Snapshot(new LongFloatArrayMap(), new ConcurrentHashMap<Long,float[]>());
+    this.size = new AtomicInteger();
+    this.updateLock = new ReentrantReadWriteLock();
+    this.mergeLock = new ReentrantLock();
+  }
+
+  /**
+   * @return dimension of vectors in this map, or 0 if not yet known because nothing has been put
+   */
+  public int getDimension() {
+    return dimension;
+  }
+
+  /**
+   * @return number of mappings set in this map
+   */
+  public int size() {
+    return size.get();
+  }
+
+  /**
+   * @return true iff there are no mappings
+   */
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * @param key key to look for
+   * @return true if there is a mapping for the key in this map
+   */
+  public boolean containsKey(long key) {
+    Snapshot s = snapshot;
+    float[] inDelta = s.getFromDeltas(key);
+    return inDelta == null ? s.base.containsKey(key) : inDelta != REMOVED;
+  }
+
+  /**
+   * @param key key to get value for
+   * @return vector associated with key or {@code null} if there is no such value. It must not be modified.
+   */
+  public float[] get(long key) {
+    Snapshot s = snapshot;
+    float[] inDelta = s.getFromDeltas(key);
+    if (inDelta == null) {
+      return s.base.get(key);
+    }
+    return inDelta == REMOVED ? null : inDelta;
+  }
+
+  /**
+   * Like {@link #get(long)}, but copies the vector into a given array.
+   *
+   * @param key key to get value for
+   * @param target array of length at least {@link #getDimension()} to copy the vector into
+   * @return true iff there was a vector for the key, and it was copied
+   */
+  public boolean get(long key, float[] target) {
+    Snapshot s = snapshot;
+    float[] inDelta = s.getFromDeltas(key);
+    if (inDelta == null) {
+      return s.base.get(key, target);
+    }
+    if (inDelta == REMOVED) {
+      return false;
+    }
+    System.arraycopy(inDelta, 0, target, 0, inDelta.length);
+    return true;
+  }
+
+  /**
+   * @param key key to map
+   * @param value vector that the key maps to; it is copied into this map
+   */
+  public void put(long key, float[] value) {
+    checkDimension(value);
+    final float[] copy = value.clone();
+    update(key, new Update() {
+      @Override
+      float[] apply(float[] current) {
+        return copy;
+      }
+    });
+  }
+
+  /**
+   * @param key key to map
+   * @param value vector that the key maps to, if it has no mapping; it is copied into this map
+   */
+  public void putIfAbsent(long key, float[] value) {
+    checkDimension(value);
+    final float[] copy = value.clone();
+    update(key, new Update() {
+      @Override
+      float[] apply(float[] current) {
+        return current == null ? copy : current;
+      }
+    });
+  }
+
+  /**
+   * Adds a vector to the vector for a given key. If no mapping exists for the key then the vector is
+   * set as a new value for the key. Concurrent increments to one key are not lost.
+   *
+   * @param key key whose vector should be incremented
+   * @param delta vector to add to the key's vector
+   * @return the key's vector before it was incremented, or {@code null} if there was none. It must not be modified.
+   */
+  public float[] increment(long key, final float[] delta) {
+    checkDimension(delta);
+    return update(key, new Update() {
+      @Override
+      float[] apply(float[] current) {
+        float[] result = delta.clone();
+        if (current != null) {
+          for (int i = 0; i < result.length; i++) {
+            result[i] += current[i];
+          }
+        }
+        return result;
+      }
+    });
+  }
+
+  /**
+   * @param key key for which mapping should be removed
+   * @return the key's vector before it was removed, or {@code null} if there was none. It must not be modified.
+   */
+  public float[] remove(long key) {
+    return update(key, new Update() {
+      @Override
+      float[] apply(float[] current) {
+        return null;
+      }
+    });
+  }
+
+  private void checkDimension(float[] value) {
+    Preconditions.checkNotNull(value);
+    if (dimension == 0) {
+      synchronized (this) {
+        if (dimension == 0) {
+          Preconditions.checkArgument(value.length > 0, "Empty vector");
+          dimension = value.length;
+        }
+      }
+    }
+    Preconditions.checkArgument(value.length == dimension,
+                                "Expected vector of dimension %s but was %s", dimension, value.length);
+  }
+
+  /**
+   * @return value for the key that the update was applied to
+   */
+  private float[] update(long key, Update update) {
+    Lock lock = updateLock.readLock();
+    lock.lock();
+    try {
+      Snapshot s = snapshot;
+      Long boxedKey = key;
+      while (true) {
+        float[] inDelta = s.delta.get(boxedKey);
+        float[] current = inDelta == null ? s.getUnderDelta(key) : inDelta;
+        if (current == REMOVED) {
+          current = null;
+        }
+        float[] next = update.apply(current);
+        if (next == current) {
+          return current;
+        }
+        float[] toStore = next == null ? REMOVED : next;
+        if (inDelta == null) {
+          // Mark first, so that scans may miss the key briefly, but never see it twice
+          s.markOverridden(key);
+          if (s.delta.putIfAbsent(boxedKey, toStore) != null) {
+            continue;
+          }
+        } else if (!s.delta.replace(boxedKey, inDelta, toStore)) {
+          continue;
+        }
+        if (current == null) {
+          size.incrementAndGet();
+        } else if (next == null) {
+          size.decrementAndGet();
+        }
+        return current;
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return number of updates made since the last merge
+   */
+  public int getDeltaSize() {
+    return snapshot.delta.size();
+  }
+
+  /**
+   * @return iterator over all entries in the map, which reflects updates made during iteration, or not.
+   *  It may reuse the entry and {@code float[]} it returns on each call to {@code next()}.
+   */
+  public Iterator<LongObjectMap.MapEntry<float[]>> entryIterator() {
+    Snapshot s = snapshot;
+    // Delta first, so that a key updated during iteration is never returned twice
+    return Iterators.concat(new DeltaIterator(s, null), new BaseIterator(s, 0, s.base.size(), null));
+  }
+
+  /**
+   * @param numPartitions number of parts into which to divide the bulk of the entries
+   * @return iterators which together iterate over all entries in the map, and may be used in parallel.
+   *  A key updated during iteration might be returned twice, or not at all. The iterators may reuse
+   *  the entry and {@code float[]} they return on each call to {@code next()}.
+   */
+  public Collection<Iterator<LongObjectMap.MapEntry<float[]>>> entryIterators(int numPartitions) {
+    return entryIterators(numPartitions, null);
+  }
+
+  /**
+   * Like {@link #entryIterators(int)}, but iterates over only entries whose keys are in a subset.
+   *
+   * @param numPartitions number of parts into which to divide the bulk of the entries
+   * @param subset keys to iterate over, built by {@link #subset(LongSet)}; {@code null} means all keys
+   * @return iterators which together iterate over all entries in the map whose keys are in {@code subset}
+   */
+  public Collection<Iterator<LongObjectMap.MapEntry<float[]>>> entryIterators(int numPartitions, KeySubset subset) {
+    Preconditions.checkArgument(numPartitions > 0, "numPartitions must be positive");
+    Snapshot s = snapshot;
+    Collection<Iterator<LongObjectMap.MapEntry<float[]>>> iterators =
+        Lists.newArrayListWithCapacity(numPartitions + 1);
+    iterators.add(new DeltaIterator(s, subset == null ? null : subset.keys));
+    int numRows = s.base.size();
+    for (int i = 0; i < numPartitions; i++) {
+      int fromRow = (int) ((long) numRows * i / numPartitions);
+      int toRow = (int) ((long) numRows * (i + 1) / numPartitions);
+      iterators.add(new BaseIterator(s, fromRow, toRow, subset));
+    }
+    return iterators;
+  }
+
+  /**
+   * @param keys keys to select. The set must not be modified afterwards.
+   * @return the keys, with a bitmap of the rows in the current base that hold them, for use with
+   *  {@link #entryIterators(int, KeySubset)}
+   */
+  public KeySubset subset(LongSet keys) {
+    LongFloatArrayMap base = snapshot.base;
+    int numRows = base.size();
+    BitSet rows = new BitSet(numRows);
+    if (keys.size() < numRows) {
+      LongPrimitiveIterator it = keys.iterator();
+      while (it.hasNext()) {
+        int row = base.rowOf(it.nextLong());
+        if (row >= 0) {
+          rows.set(row);
+        }
+      }
+    } else {
+      for (int row = 0; row < numRows; row++) {
+        if (keys.contains(base.keyAt(row))) {
+          rows.set(row);
+        }
+      }
+    }
+    return new KeySubset(keys, base, rows);
+  }
+
+  /**
+   * @param subset subset of keys of this map
+   * @return true iff the subset's bitmap was built against the current base. If not, iterating over it
+   *  still works but must check every key, and the subset should be rebuilt.
+   */
+  public boolean isCurrent(KeySubset subset) {
+    return subset.base == snapshot.base;
+  }
+
+  /**
+   * Builds a new base that includes all updates so far, and then makes it visible to readers.
+   * Only one merge happens at a time.
+   */
+  public void merge() {
+    mergeLock.lock();
+    try {
+      if (snapshot.delta.isEmpty()) {
+        return;
+      }
+      Snapshot merging = startMerge();
+      LongFloatArrayMap newBase = merging.base.copyOnWrite();
+      for (Map.Entry<Long,float[]> entry : merging.mergingDelta.entrySet()) {
+        float[] value = entry.getValue();
+        if (value == REMOVED) {
+          newBase.remove(entry.getKey());
+        } else {
+          newBase.put(entry.getKey(), value);
+        }
+      }
+      finishMerge(newBase);
+    } finally {
+      mergeLock.unlock();
+    }
+  }
+
+  /**
+   * Replaces the base with an entirely new one, like a newly loaded model. Updates made from here on still
+   * take precedence over it.
+   *
+   * @param newBase new vectors. This map will own it, and it should not be modified after this call.
+   * @param keepIDs keys whose current vector should be kept in the new base, if it has no mapping for them
+   */
+  public void replaceBase(LongFloatArrayMap newBase, LongSet keepIDs) {
+    Preconditions.checkNotNull(newBase);
+    mergeLock.lock();
+    try {
+      Snapshot merging = startMerge();
+      LongPrimitiveIterator it = keepIDs.iterator();
+      while (it.hasNext()) {
+        long id = it.nextLong();
+        if (!newBase.containsKey(id)) {
+          float[] value = merging.getUnderDelta(id);
+          // Can't keep vectors from a model with a different number of features
+          if (value != null && value != REMOVED &&
+              (newBase.getDimension() == 0 || newBase.getDimension() == value.length)) {
+            newBase.put(id, value);
+          }
+        }
+      }
+      finishMerge(newBase);
+    } finally {
+      mergeLock.unlock();
+    }
+  }
+
+  /**
+   * Sets aside the current delta to be merged, and starts a new empty one for further writes.
+   */
+  private Snapshot startMerge() {
+    Lock lock = updateLock.writeLock();
+    lock.lock();
+    try {
+      Snapshot current = snapshot;
+      ConcurrentMap<Long,float[]> toMerge = current.delta;
+      if (current.mergingDelta != null) {
+        // Left over from a merge that failed; merge it too
+        toMerge = new ConcurrentHashMap<Long,float[]>(current.mergingDelta);
+        toMerge.putAll(current.delta);
+      }
+      snapshot = new Snapshot(current.base, current.overridden, toMerge);
+      return snapshot;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void finishMerge(LongFloatArrayMap newBase) {
+    Lock lock = updateLock.writeLock();
+    lock.lock();
+    try {
+      ConcurrentMap<Long,float[]> delta = snapshot.delta;
+      int newDimension = newBase.getDimension();
+      if (newDimension > 0) {
+        dimension = newDimension;
+      }
+      Snapshot newSnapshot = new Snapshot(newBase, delta);
+      int newSize = newBase.size();
+      Iterator<Map.Entry<Long,float[]>> it = delta.entrySet().iterator();
+      while (it.hasNext()) {
+        Map.Entry<Long,float[]> entry = it.next();
+        long key = entry.getKey();
+        float[] value = entry.getValue();
+        if (value != REMOVED && value.length != dimension) {
+          it.remove();
+          continue;
+        }
+        boolean inBase = newBase.containsKey(key);
+        if (inBase) {
+          newSnapshot.markOverridden(key);
+        }
+        if (value == REMOVED) {
+          if (inBase) {
+            newSize--;
+          }
+        } else if (!inBase) {
+          newSize++;
+        }
+      }
+      size.set(newSize);
+      snapshot = newSnapshot;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private abstract static class Update {
+    /**
+     * @param current current vector for a key, or {@code null} if none. It must not be modified.
+     * @return new vector for the key, or {@code null} to remove it
+     */
+    abstract float[] apply(float[] current);
+  }
+
+  private static final class Snapshot {
+
+    private final LongFloatArrayMap base;
+    /** A bit for each row of base, which is set once its key is set or removed in a delta. */
+    private final AtomicLongArray overridden;
+    private final ConcurrentMap<Long,float[]> delta;
+    /** Previous delta, still in use while it's being merged into a new base; {@code null} otherwise */
+    private final ConcurrentMap<Long,float[]> mergingDelta;
+
+    private Snapshot(LongFloatArrayMap base, ConcurrentMap<Long,float[]> delta) {
+      this.base = base;
+      this.overridden = new AtomicLongArray((base.size() + 63) >>> 6);
+      this.delta = delta;
+      this.mergingDelta = null;
+    }
+
+    private Snapshot(LongFloatArrayMap base, AtomicLongArray overridden, ConcurrentMap<Long,float[]> mergingDelta) {
+      this.base = base;
+      this.overridden = overridden;
+      this.delta = new ConcurrentHashMap<Long,float[]>();
+      this.mergingDelta = mergingDelta;
+    }
+
+    /**
+     * @return vector from a delta, including {@link #REMOVED}, or {@code null} if the deltas don't have the key
+     */
+    float[] getFromDeltas(long key) {
+      if (!delta.isEmpty()) {
+        float[] value = delta.get(key);
+        if (value != null) {
+          return value;
+        }
+      }
+      return mergingDelta == null ? null : mergingDelta.get(key);
+    }
+
+    /**
+     * @return vector for the key, ignoring the current delta; may be {@link #REMOVED}
+     */
+    float[] getUnderDelta(long key) {
+      if (mergingDelta != null) {
+        float[] value = mergingDelta.get(key);
+        if (value != null) {
+          return value;
+        }
+      }
+      return base.get(key);
+    }
+
+    void markOverridden(long key) {
+      int row = base.rowOf(key);
+      if (row >= 0) {
+        int index = row >>> 6;
+        long bit = 1L << (row & 63);
+        long bits;
+        do {
+          bits = overridden.get(index);
+        } while ((bits & bit) == 0 && !overridden.compareAndSet(index, bits, bits | bit));
+      }
+    }
+
+    boolean isOverridden(int row) {
+      return (overridden.get(row >>> 6) & (1L << (row & 63))) != 0;
+    }
+
+  }
+
+  /**
+   * A set of keys of a {@link ConcurrentLongFloatArrayMap}, plus a bitmap of the rows of one base that hold them.
+   * Iteration over the subset uses the bitmap to skip other rows of that base without reading them.
+   * After a merge, it falls back to checking each key of the new base against the set.
+   */
+  public static final class KeySubset {
+
+    private final LongSet keys;
+    private final LongFloatArrayMap base;
+    private final BitSet rows;
+
+    private KeySubset(LongSet keys, LongFloatArrayMap base, BitSet rows) {
+      this.keys = keys;
+      this.base = base;
+      this.rows = rows;
+    }
+
+    /**
+     * @return keys in the subset
+     */
+    public LongSet getKeys() {
+      return keys;
+    }
+
+  }
+
+  /**
+   * Iterates over rows of the base, skipping those that have been overridden by a delta,
+   * or are not in a given subset.
+   */
+  private static final class BaseIterator implements Iterator<LongObjectMap.MapEntry<float[]>> {
+
+    private final Snapshot snapshot;
+    private int position;
+    private final int end;
+    /** Rows to iterate over, or {@code null} for all */
+    private final BitSet rows;
+    /** Keys to iterate over, when there is no bitmap of rows; {@code null} for all */
+    private final LongSet keys;
+    private final MutableEntry entry;
+
+    private BaseIterator(Snapshot snapshot, int fromRow, int toRow, KeySubset subset) {
+      this.snapshot = snapshot;
+      position = fromRow;
+      end = toRow;
+      if (subset == null) {
+        rows = null;
+        keys = null;
+      } else if (subset.base == snapshot.base) {
+        rows = subset.rows;
+        keys = null;
+      } else {
+        rows = null;
+        keys = subset.keys;
+      }
+      entry = new MutableEntry();
+      entry.value = new float[snapshot.base.getDimension()];
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (position < end) {
+        if (rows != null) {
+          int nextRow = rows.nextSetBit(position);
+          if (nextRow < 0 || nextRow >= end) {
+            position = end;
+            break;
+          }
+          position = nextRow;
+        }
+        if (!snapshot.isOverridden(position) &&
+            (keys == null || keys.contains(snapshot.base.keyAt(position)))) {
+          break;
+        }
+        position++;
+      }
+      return position < end;
+    }
+
+    @Override
+    public LongObjectMap.MapEntry<float[]> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      int row = position++;
+      LongFloatArrayMap base = snapshot.base;
+      entry.key = base.keyAt(row);
+      base.copyRow(row, entry.value);
+      return entry;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+  }
+
+  /**
+   * Iterates over the current delta, and then what's left of the delta being merged, if any,
+   * optionally only over some keys.
+   */
+  private static final class DeltaIterator implements Iterator<LongObjectMap.MapEntry<float[]>> {
+
+    private final Snapshot snapshot;
+    private final Iterator<Map.Entry<Long,float[]>> deltaIterator;
+    private final Iterator<Map.Entry<Long,float[]>> mergingDeltaIterator;
+    /** Keys to iterate over, or {@code null} for all */
+    private final LongSet keys;
+    private final MutableEntry entry;
+    private Map.Entry<Long,float[]> next;
+
+    private DeltaIterator(Snapshot snapshot, LongSet keys) {
+      this.snapshot = snapshot;
+      this.keys = keys;
+      deltaIterator = snapshot.delta.entrySet().iterator();
+      mergingDeltaIterator = snapshot.mergingDelta == null ? null : snapshot.mergingDelta.entrySet().iterator();
+      entry = new MutableEntry();
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (next == null) {
+        if (deltaIterator.hasNext()) {
+          Map.Entry<Long,float[]> candidate = deltaIterator.next();
+          if (candidate.getValue() != REMOVED && isSelected(candidate)) {
+            next = candidate;
+          }
+        } else if (mergingDeltaIterator != null && mergingDeltaIterator.hasNext()) {
+          Map.Entry<Long,float[]> candidate = mergingDeltaIterator.next();
+          if (candidate.getValue() != REMOVED &&
+              !snapshot.delta.containsKey(candidate.getKey()) &&
+              isSelected(candidate)) {
+            next = candidate;
+          }
+        } else {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private boolean isSelected(Map.Entry<Long,float[]> candidate) {
+      return keys == null || keys.contains(candidate.getKey());
+    }
+
+    @Override
+    public LongObjectMap.MapEntry<float[]> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      entry.key = next.getKey();
+      entry.value = next.getValue();
+      next = null;
+      return entry;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+  }
+
+  private static final class MutableEntry implements LongObjectMap.MapEntry<float[]> {
+
+    private long key;
+    private float[] value;
+
+    @Override
+    public long getKey() {
+      return key;
+    }
+
+    @Override
+    public float[] getValue() {
+      return value;
+    }
+
+  }
+
+}
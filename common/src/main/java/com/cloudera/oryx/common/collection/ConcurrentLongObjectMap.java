@@ -0,0 +1,384 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.common.collection;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.google.common.base.Preconditions;
+
+import com.cloudera.oryx.common.iterator.LongPrimitiveIterator;
+
+/**
+ * <p>A thread-safe map from {@code long} keys to values, for many concurrent readers and fewer writers.
+ * Readers never lock or wait.</p>
+ *
+ * <p>Most mappings live in an immutable {@link LongObjectMap}, the "base". Writes go instead to a concurrent
+ * "delta" map, whose mappings and removals take precedence over the base. {@link #merge()} builds a new base
+ * that includes the delta, and publishes it. Writers wait only while a merge starts and finishes.</p>
+ *
+ * <p>Values are not copied, and should be treated as immutable once put. Updates are made by
+ * replacing a value with a modified copy, with {@link #replace(long, Object, Object)}.</p>
+ *
+ * @author Sean Owen
+ * @see ConcurrentLongFloatArrayMap
+ */
+public final class ConcurrentLongObjectMap<V> {
+
+  /** Marks a removed key in a delta. */
+  private static final Object REMOVED = new Object();
+
+  private volatile Snapshot<V> snapshot;
+  /** Writers share this lock; it is only held exclusively to swap in a new {@link Snapshot}. */
+  private final ReadWriteLock updateLock;
+  private final Lock mergeLock;
+
+  public ConcurrentLongObjectMap() {
+    this.snapshot = new Snapshot<V>(new LongObjectMap<V>(), null);
+    this.updateLock = new ReentrantReadWriteLock();
+    this.mergeLock = new ReentrantLock();
+  }
+
+  /**
+   * @param key key to get value for
+   * @return value associated with key or {@code null} if there is no such value
+   */
+  public V get(long key) {
+    return snapshot.get(key);
+  }
+
+  /**
+   * @param key key to look for
+   * @return true if there is a mapping for the key in this map
+   */
+  public boolean containsKey(long key) {
+    return get(key) != null;
+  }
+
+  /**
+   * @param key key to map
+   * @param value value that the key maps to
+   * @return true iff there was no mapping for the key already, and so {@code value} was mapped
+   */
+  public boolean putIfAbsent(long key, V value) {
+    Preconditions.checkNotNull(value);
+    return compareAndSet(key, null, value);
+  }
+
+  /**
+   * @param key key to map
+   * @param expected value that the key must map to currently, compared by reference
+   * @param value new value for the key
+   * @return true iff the key mapped to {@code expected}, and so was updated
+   */
+  public boolean replace(long key, V expected, V value) {
+    Preconditions.checkNotNull(expected);
+    Preconditions.checkNotNull(value);
+    return compareAndSet(key, expected, value);
+  }
+
+  /**
+   * @param key key for which mapping should be removed
+   * @param expected value that the key must map to currently, compared by reference
+   * @return true iff the key mapped to {@code expected}, and so was removed
+   */
+  public boolean remove(long key, V expected) {
+    Preconditions.checkNotNull(expected);
+    return compareAndSet(key, expected, null);
+  }
+
+  private boolean compareAndSet(long key, V expected, V value) {
+    Object toStore = value == null ? REMOVED : value;
+    Lock lock = updateLock.readLock();
+    lock.lock();
+    try {
+      Snapshot<V> s = snapshot;
+      Long boxedKey = key;
+      Object inDelta = s.delta.get(boxedKey);
+      if (inDelta != null) {
+        Object current = inDelta == REMOVED ? null : inDelta;
+        return current == expected && s.delta.replace(boxedKey, inDelta, toStore);
+      }
+      return s.getUnderDelta(key) == expected && s.delta.putIfAbsent(boxedKey, toStore) == null;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return number of updates made since the last merge
+   */
+  public int getDeltaSize() {
+    return snapshot.delta.size();
+  }
+
+  /**
+   * @return iterator over all entries in the map. It reflects updates made during iteration, or not.
+   */
+  public Iterator<LongObjectMap.MapEntry<V>> entryIterator() {
+    return new EntryIterator<V>(snapshot);
+  }
+
+  /**
+   * Builds a new base that includes all updates so far, and then makes it visible to readers.
+   * Only one merge happens at a time.
+   */
+  public void merge() {
+    mergeLock.lock();
+    try {
+      if (snapshot.delta.isEmpty()) {
+        return;
+      }
+      Snapshot<V> merging = startMerge();
+      LongObjectMap<V> newBase = merging.base.clone();
+      for (Map.Entry<Long,Object> entry : merging.mergingDelta.entrySet()) {
+        Object value = entry.getValue();
+        if (value == REMOVED) {
+          newBase.remove(entry.getKey());
+        } else {
+          @SuppressWarnings("unchecked")
+          V v = (V) value;
+          newBase.put(entry.getKey(), v);
+        }
+      }
+      finishMerge(newBase);
+    } finally {
+      mergeLock.unlock();
+    }
+  }
+
+  /**
+   * Replaces the base with an entirely new one, like a newly loaded model. Updates made from here on still
+   * take precedence over it.
+   *
+   * @param newBase new mappings. This map will own it, and it should not be modified after this call.
+   * @param keepIDs keys whose current value should be kept in the new base, if it has no mapping for them
+   */
+  public void replaceBase(LongObjectMap<V> newBase, LongSet keepIDs) {
+    Preconditions.checkNotNull(newBase);
+    mergeLock.lock();
+    try {
+      Snapshot<V> merging = startMerge();
+      LongPrimitiveIterator it = keepIDs.iterator();
+      while (it.hasNext()) {
+        long id = it.nextLong();
+        if (!newBase.containsKey(id)) {
+          V value = merging.getUnderDelta(id);
+          if (value != null) {
+            newBase.put(id, value);
+          }
+        }
+      }
+      finishMerge(newBase);
+    } finally {
+      mergeLock.unlock();
+    }
+  }
+
+  /**
+   * Sets aside the current delta to be merged, and starts a new empty one for further writes.
+   */
+  private Snapshot<V> startMerge() {
+    Lock lock = updateLock.writeLock();
+    lock.lock();
+    try {
+      Snapshot<V> current = snapshot;
+      ConcurrentMap<Long,Object> toMerge = current.delta;
+      if (current.mergingDelta != null) {
+        // Left over from a merge that failed; merge it too
+        toMerge = new ConcurrentHashMap<Long,Object>(current.mergingDelta);
+        toMerge.putAll(current.delta);
+      }
+      snapshot = new Snapshot<V>(current.base, toMerge);
+      return snapshot;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void finishMerge(LongObjectMap<V> newBase) {
+    Lock lock = updateLock.writeLock();
+    lock.lock();
+    try {
+      snapshot = new Snapshot<V>(newBase, snapshot.delta, null);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static final class Snapshot<V> {
+
+    private final LongObjectMap<V> base;
+    private final ConcurrentMap<Long,Object> delta;
+    /** Previous delta, still in use while it's being merged into a new base; {@code null} otherwise */
+    private final ConcurrentMap<Long,Object> mergingDelta;
+
+    private Snapshot(LongObjectMap<V> base, ConcurrentMap<Long,Object> mergingDelta) {
+      this(base, new ConcurrentHashMap<Long,Object>(), mergingDelta);
+    }
+
+    private Snapshot(LongObjectMap<V> base,
+                     ConcurrentMap<Long,Object> delta,
+                     ConcurrentMap<Long,Object> mergingDelta) {
+      this.base = base;
+      this.delta = delta;
+      this.mergingDelta = mergingDelta;
+    }
+
+    V get(long key) {
+      if (!delta.isEmpty()) {
+        Object value = delta.get(key);
+        if (value != null) {
+          return value == REMOVED ? null : cast(value);
+        }
+      }
+      return getUnderDelta(key);
+    }
+
+    /**
+     * @return value for the key, ignoring the current delta
+     */
+    V getUnderDelta(long key) {
+      if (mergingDelta != null) {
+        Object value = mergingDelta.get(key);
+        if (value != null) {
+          return value == REMOVED ? null : cast(value);
+        }
+      }
+      return base.get(key);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V cast(Object value) {
+      return (V) value;
+    }
+
+  }
+
+  /**
+   * Iterates over the current delta, then what's left of the delta being merged, if any, and then what's left
+   * of the base.
+   */
+  private static final class EntryIterator<V> implements Iterator<LongObjectMap.MapEntry<V>> {
+
+    private final Snapshot<V> snapshot;
+    private final Iterator<Map.Entry<Long,Object>> deltaIterator;
+    private final Iterator<Map.Entry<Long,Object>> mergingDeltaIterator;
+    private final Iterator<LongObjectMap.MapEntry<V>> baseIterator;
+    private final MutableEntry<V> entry;
+    private boolean hasNext;
+    private long nextKey;
+    private V nextValue;
+
+    private EntryIterator(Snapshot<V> snapshot) {
+      this.snapshot = snapshot;
+      deltaIterator = snapshot.delta.entrySet().iterator();
+      mergingDeltaIterator = snapshot.mergingDelta == null ? null : snapshot.mergingDelta.entrySet().iterator();
+      baseIterator = snapshot.base.entrySet().iterator();
+      entry = new MutableEntry<V>();
+      hasNext = findNext();
+    }
+
+    private boolean findNext() {
+      while (deltaIterator.hasNext()) {
+        Map.Entry<Long,Object> next = deltaIterator.next();
+        if (next.getValue() != REMOVED) {
+          setNext(next.getKey(), snapshot.cast(next.getValue()));
+          return true;
+        }
+      }
+      if (mergingDeltaIterator != null) {
+        while (mergingDeltaIterator.hasNext()) {
+          Map.Entry<Long,Object> next = mergingDeltaIterator.next();
+          if (next.getValue() != REMOVED && !snapshot.delta.containsKey(next.getKey())) {
+            setNext(next.getKey(), snapshot.cast(next.getValue()));
+            return true;
+          }
+        }
+      }
+      while (baseIterator.hasNext()) {
+        LongObjectMap.MapEntry<V> next = baseIterator.next();
+        long key = next.getKey();
+        if (!isInDelta(key)) {
+          setNext(key, next.getValue());
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private void setNext(long key, V value) {
+      nextKey = key;
+      nextValue = value;
+    }
+
+    private boolean isInDelta(long key) {
+      return (!snapshot.delta.isEmpty() && snapshot.delta.containsKey(key)) ||
+          (snapshot.mergingDelta != null && snapshot.mergingDelta.containsKey(key));
+    }
+
+    @Override
+    public boolean hasNext() {
+      return hasNext;
+    }
+
+    @Override
+    public LongObjectMap.MapEntry<V> next() {
+      if (!hasNext) {
+        throw new NoSuchElementException();
+      }
+      entry.set(nextKey, nextValue);
+      hasNext = findNext();
+      return entry;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+  }
+
+  private static final class MutableEntry<V> implements LongObjectMap.MapEntry<V> {
+
+    private long key;
+    private V value;
+
+    void set(long key, V value) {
+      this.key = key;
+      this.value = value;
+    }
+
+    @Override
+    public long getKey() {
+      return key;
+    }
+
+    @Override
+    public V getValue() {
+      return value;
+    }
+
+  }
+
+}
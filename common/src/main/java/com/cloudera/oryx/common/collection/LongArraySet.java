@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.common.collection;
+
+import java.util.Arrays;
+
+import org.apache.commons.math3.util.FastMath;
+
+import com.cloudera.oryx.common.iterator.LongPrimitiveIterator;
+
+/**
+ * <p>An immutable set of {@code long} values, stored as a sorted array. It takes 8 bytes per value, which is
+ * much less than a {@link LongSet} for small sets, and may be read by many threads without locking.
+ * Membership is tested by binary search.</p>
+ *
+ * <p>Adding or removing a value makes a new set with {@link #with(long)} or {@link #without(long)}, which
+ * takes time proportional to the size of the set.</p>
+ *
+ * @author Sean Owen
+ */
+public final class LongArraySet {
+
+  public static final LongArraySet EMPTY = new LongArraySet(new long[0]);
+
+  private final long[] values;
+
+  private LongArraySet(long[] sortedDistinctValues) {
+    this.values = sortedDistinctValues;
+  }
+
+  /**
+   * @param values values in the set, in any order, possibly repeated. These are copied.
+   * @return set of the values
+   */
+  public static LongArraySet of(long... values) {
+    if (values.length == 0) {
+      return EMPTY;
+    }
+    long[] sorted = values.clone();
+    Arrays.sort(sorted);
+    int size = 1;
+    for (int i = 1; i < sorted.length; i++) {
+      if (sorted[i] != sorted[size - 1]) {
+        sorted[size++] = sorted[i];
+      }
+    }
+    return new LongArraySet(size == sorted.length ? sorted : Arrays.copyOf(sorted, size));
+  }
+
+  /**
+   * @param set values in the set
+   * @return set of the values
+   */
+  public static LongArraySet of(LongSet set) {
+    long[] values = new long[set.size()];
+    LongPrimitiveIterator it = set.iterator();
+    int i = 0;
+    while (it.hasNext()) {
+      values[i++] = it.nextLong();
+    }
+    return of(values);
+  }
+
+  /**
+   * @return number of values in the set
+   */
+  public int size() {
+    return values.length;
+  }
+
+  public boolean isEmpty() {
+    return values.length == 0;
+  }
+
+  /**
+   * @param index index of value in sorted order, from 0 to {@link #size()} - 1
+   * @return value at that index
+   */
+  public long get(int index) {
+    return values[index];
+  }
+
+  /**
+   * @param value value to look for
+   * @return true iff the value is in the set
+   */
+  public boolean contains(long value) {
+    return Arrays.binarySearch(values, value) >= 0;
+  }
+
+  /**
+   * @param value value to add
+   * @return set with the given value added, or this set if it already contained the value
+   */
+  public LongArraySet with(long value) {
+    int index = Arrays.binarySearch(values, value);
+    if (index >= 0) {
+      return this;
+    }
+    int insertAt = -index - 1;
+    long[] newValues = new long[values.length + 1];
+    System.arraycopy(values, 0, newValues, 0, insertAt);
+    newValues[insertAt] = value;
+    System.arraycopy(values, insertAt, newValues, insertAt + 1, values.length - insertAt);
+    return new LongArraySet(newValues);
+  }
+
+  /**
+   * @param value value to remove
+   * @return set with the given value removed, or this set if it did not contain the value
+   */
+  public LongArraySet without(long value) {
+    int index = Arrays.binarySearch(values, value);
+    if (index < 0) {
+      return this;
+    }
+    if (values.length == 1) {
+      return EMPTY;
+    }
+    long[] newValues = new long[values.length - 1];
+    System.arraycopy(values, 0, newValues, 0, index);
+    System.arraycopy(values, index + 1, newValues, index, newValues.length - index);
+    return new LongArraySet(newValues);
+  }
+
+  /**
+   * @param other another set
+   * @return set of values in both this set and the other set
+   */
+  public LongArraySet intersect(LongArraySet other) {
+    long[] a = values;
+    long[] b = other.values;
+    long[] both = new long[FastMath.min(a.length, b.length)];
+    int size = 0;
+    int i = 0;
+    int j = 0;
+    // Merge the two sorted arrays
+    while (i < a.length && j < b.length) {
+      long ai = a[i];
+      long bj = b[j];
+      if (ai < bj) {
+        i++;
+      } else if (ai > bj) {
+        j++;
+      } else {
+        both[size++] = ai;
+        i++;
+        j++;
+      }
+    }
+    if (size == a.length) {
+      return this;
+    }
+    if (size == b.length) {
+      return other;
+    }
+    return size == 0 ? EMPTY : new LongArraySet(Arrays.copyOf(both, size));
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof LongArraySet && Arrays.equals(values, ((LongArraySet) o).values);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(values);
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(values);
+  }
+
+}
@@ -0,0 +1,701 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.common.collection;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+import org.apache.commons.math3.util.FastMath;
+
+import com.cloudera.oryx.common.iterator.AbstractLongPrimitiveIterator;
+import com.cloudera.oryx.common.iterator.LongPrimitiveIterator;
+import com.cloudera.oryx.common.random.RandomUtils;
+
+/**
+ * <p>A map from {@code long} keys to {@code float[]} vectors which all have the same dimension, like the
+ * rows of a feature matrix. Unlike a {@link LongObjectMap} of {@code float[]}, vectors are not stored as
+ * separate objects. They are packed, row after row, into large blocks of {@code float}, and keys are mapped to
+ * rows with a primitive hash index. This saves an object header and reference per vector, and lets a scan over
+ * all vectors read memory sequentially.</p>
+ *
+ * <p>Vectors are copied in by {@link #put(long, float[])} and copied out by {@link #get(long)}; changing an array
+ * after it has been put or returned does not affect the map. Entry iterators reuse one entry and one
+ * {@code float[]} for every value, so a value is only valid until the next call to {@code next()}.</p>
+ *
+ * <p>Removing a key moves the last row into its place, so rows remain packed, but are not kept in any
+ * particular order.</p>
+ *
+ * <p>{@link #copyOnWrite()} makes a copy that shares rows and the index with this map. Each map copies a
+ * block of rows, or a chunk of the index, only when it first modifies it. Blocks and chunks are small, so
+ * that a copy which changes a few rows costs little more than those rows.</p>
+ *
+ * <p>This class is not thread-safe.</p>
+ *
+ * @author Sean Owen
+ */
+public final class LongFloatArrayMap implements Cloneable {
+
+  private static final double LOAD_FACTOR = 1.25;
+  private static final int MAX_SIZE = (int) (RandomUtils.MAX_INT_SMALLER_TWIN_PRIME / LOAD_FACTOR);
+
+  /** Dummy object used to represent a key that has been removed. */
+  private static final long REMOVED = Long.MAX_VALUE;
+  private static final long KEY_NULL = Long.MIN_VALUE;
+
+  /** Rows are stored in blocks of 2^BLOCK_SHIFT rows, so that no one array need be huge. */
+  private static final int BLOCK_SHIFT = 6;
+  private static final int ROWS_PER_BLOCK = 1 << BLOCK_SHIFT;
+  private static final int BLOCK_MASK = ROWS_PER_BLOCK - 1;
+  private static final int MIN_BLOCK_ROWS = 8;
+  /** Slots of the hash index are likewise stored in chunks of 2^CHUNK_SHIFT slots. */
+  private static final int CHUNK_SHIFT = 9;
+  private static final int SLOTS_PER_CHUNK = 1 << CHUNK_SHIFT;
+  private static final int CHUNK_MASK = SLOTS_PER_CHUNK - 1;
+
+  /** Issues a distinct owner to each map, and again to both maps after a {@link #copyOnWrite()}. */
+  private static final AtomicInteger OWNERS = new AtomicInteger();
+
+  private int dimension;
+  /** Blocks and chunks marked with this owner may be modified in place; others may be shared. */
+  private int owner;
+  // Hash index from key to row, in chunks
+  private long[][] keys;
+  private int[][] rows;
+  private int[] chunkOwners;
+  private int hashSize;
+  private int numSlotsUsed;
+  // Rows, in blocks
+  private long[][] rowKeys;
+  private float[][] rowValues;
+  private int[] blockOwners;
+  private int numRows;
+  private final int initialBlockRows;
+
+  /**
+   * Creates a new {@code LongFloatArrayMap} with default capacity, whose dimension is set by the first
+   * vector that is put.
+   */
+  public LongFloatArrayMap() {
+    this(0, 2);
+  }
+
+  /**
+   * @param dimension dimension of all vectors in this map, or 0 to set it from the first vector that is put
+   * @param initialCapacity initial capacity
+   */
+  public LongFloatArrayMap(int dimension, int initialCapacity) {
+    Preconditions.checkArgument(dimension >= 0, "dimension must be at least 0");
+    Preconditions.checkArgument(initialCapacity >= 0, "initialCapacity must be at least 0");
+    Preconditions.checkArgument(initialCapacity < MAX_SIZE, "initialCapacity must be less than " + MAX_SIZE);
+    this.dimension = dimension;
+    owner = OWNERS.incrementAndGet();
+    newIndex(RandomUtils.nextTwinPrime((int) (LOAD_FACTOR * initialCapacity) + 1));
+    initialBlockRows = FastMath.max(MIN_BLOCK_ROWS, FastMath.min(ROWS_PER_BLOCK, initialCapacity));
+    newBlocks(1 + (initialCapacity >>> BLOCK_SHIFT));
+  }
+
+  private void newIndex(int newHashSize) {
+    int numChunks = (newHashSize + CHUNK_MASK) >>> CHUNK_SHIFT;
+    keys = new long[numChunks][];
+    rows = new int[numChunks][];
+    chunkOwners = new int[numChunks];
+    for (int chunk = 0; chunk < numChunks; chunk++) {
+      int chunkSlots = FastMath.min(SLOTS_PER_CHUNK, newHashSize - (chunk << CHUNK_SHIFT));
+      keys[chunk] = new long[chunkSlots];
+      Arrays.fill(keys[chunk], KEY_NULL);
+      rows[chunk] = new int[chunkSlots];
+      chunkOwners[chunk] = owner;
+    }
+    hashSize = newHashSize;
+    numSlotsUsed = 0;
+  }
+
+  private void newBlocks(int numBlocks) {
+    rowKeys = new long[numBlocks][];
+    rowValues = new float[numBlocks][];
+    blockOwners = new int[numBlocks];
+  }
+
+  private long keyInSlot(int index) {
+    return keys[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+  }
+
+  private void setSlot(int index, long key, int row) {
+    int chunk = index >>> CHUNK_SHIFT;
+    if (chunkOwners[chunk] != owner) {
+      keys[chunk] = keys[chunk].clone();
+      rows[chunk] = rows[chunk].clone();
+      chunkOwners[chunk] = owner;
+    }
+    keys[chunk][index & CHUNK_MASK] = key;
+    rows[chunk][index & CHUNK_MASK] = row;
+  }
+
+  /**
+   * Makes sure that a block of rows is not shared with a copy of this map, before modifying it.
+   */
+  private void ownBlock(int block) {
+    if (blockOwners[block] != owner) {
+      rowKeys[block] = rowKeys[block].clone();
+      rowValues[block] = rowValues[block].clone();
+      blockOwners[block] = owner;
+    }
+  }
+
+  /**
+   * @see #findForAdd(long)
+   */
+  private int find(long key) {
+    int theHashCode = (int) key & 0x7FFFFFFF; // make sure it's positive
+    int hashSize = this.hashSize;
+    int jump = 1 + theHashCode % (hashSize - 2);
+    int index = theHashCode % hashSize;
+    long currentKey = keyInSlot(index);
+    while (currentKey != KEY_NULL && key != currentKey) {
+      index -= index < jump ? jump - hashSize : jump;
+      currentKey = keyInSlot(index);
+    }
+    return index;
+  }
+
+  /**
+   * @see #find(long)
+   */
+  private int findForAdd(long key) {
+    int theHashCode = (int) key & 0x7FFFFFFF; // make sure it's positive
+    int hashSize = this.hashSize;
+    int jump = 1 + theHashCode % (hashSize - 2);
+    int index = theHashCode % hashSize;
+    long currentKey = keyInSlot(index);
+    while (currentKey != KEY_NULL && currentKey != REMOVED && key != currentKey) {
+      index -= index < jump ? jump - hashSize : jump;
+      currentKey = keyInSlot(index);
+    }
+    if (currentKey != REMOVED) {
+      return index;
+    }
+    // If we're adding, it's here, but, the key might have a value already later
+    int addIndex = index;
+    while (currentKey != KEY_NULL && key != currentKey) {
+      index -= index < jump ? jump - hashSize : jump;
+      currentKey = keyInSlot(index);
+    }
+    return key == currentKey ? index : addIndex;
+  }
+
+  /**
+   * @param key key to look up
+   * @return row currently holding the key's vector, or -1 if there is no mapping for the key
+   */
+  int rowOf(long key) {
+    if (key == KEY_NULL || key == REMOVED) {
+      return -1;
+    }
+    int index = find(key);
+    return keyInSlot(index) == KEY_NULL ? -1 : rows[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+  }
+
+  long keyAt(int row) {
+    return rowKeys[row >>> BLOCK_SHIFT][row & BLOCK_MASK];
+  }
+
+  /**
+   * @return dimension of vectors in this map, or 0 if not yet known because nothing has been put
+   */
+  public int getDimension() {
+    return dimension;
+  }
+
+  /**
+   * @return number of mappings set in this map
+   */
+  public int size() {
+    return numRows;
+  }
+
+  /**
+   * @return true iff there are no mappings
+   */
+  public boolean isEmpty() {
+    return numRows == 0;
+  }
+
+  /**
+   * @param key key to look for
+   * @return true if there is a mapping for the key in this map
+   */
+  public boolean containsKey(long key) {
+    return rowOf(key) >= 0;
+  }
+
+  /**
+   * @param key key to get value for
+   * @return a copy of the vector associated with key, or {@code null} if there is no such value
+   */
+  public float[] get(long key) {
+    int row = rowOf(key);
+    if (row < 0) {
+      return null;
+    }
+    float[] result = new float[dimension];
+    copyRow(row, result);
+    return result;
+  }
+
+  /**
+   * Like {@link #get(long)}, but copies the vector into a given array instead of allocating a new one.
+   *
+   * @param key key to get value for
+   * @param target array of length at least {@link #getDimension()} to copy the vector into
+   * @return true iff there was a vector for the key, and it was copied
+   */
+  public boolean get(long key, float[] target) {
+    int row = rowOf(key);
+    if (row < 0) {
+      return false;
+    }
+    copyRow(row, target);
+    return true;
+  }
+
+  void copyRow(int row, float[] target) {
+    System.arraycopy(rowValues[row >>> BLOCK_SHIFT], (row & BLOCK_MASK) * dimension, target, 0, dimension);
+  }
+
+  /**
+   * @param key key to map
+   * @param value vector that the key maps to; it is copied into this map
+   */
+  public void put(long key, float[] value) {
+    Preconditions.checkArgument(key != KEY_NULL && key != REMOVED);
+    checkDimension(value);
+    int row = rowOf(key);
+    if (row < 0) {
+      row = addRow(key);
+    }
+    int block = row >>> BLOCK_SHIFT;
+    ownBlock(block);
+    System.arraycopy(value, 0, rowValues[block], (row & BLOCK_MASK) * dimension, dimension);
+  }
+
+  /**
+   * Puts many vectors at once. This is faster than calling {@link #put(long, float[])} for each, since the
+   * index is grown at most once, and vectors for new keys are copied in runs of consecutive rows.
+   *
+   * @param keys keys to map
+   * @param values vectors that the keys map to, packed one after the other in the order of {@code keys};
+   *  they are copied into this map
+   */
+  public void putAll(long[] keys, float[] values) {
+    Preconditions.checkNotNull(keys);
+    Preconditions.checkNotNull(values);
+    int count = keys.length;
+    if (count == 0) {
+      return;
+    }
+    if (dimension == 0) {
+      Preconditions.checkArgument(values.length > 0 && values.length % count == 0,
+                                  "Can't divide %s values among %s keys", values.length, count);
+      dimension = values.length / count;
+    } else {
+      Preconditions.checkArgument(values.length == count * dimension,
+                                  "Expected %s values but was %s", count * dimension, values.length);
+    }
+
+    int newSize = numRows + count;
+    if (newSize * LOAD_FACTOR >= hashSize) {
+      Preconditions.checkArgument(newSize < MAX_SIZE, "Can't grow to %s", newSize);
+      rehash(RandomUtils.nextTwinPrime((int) (LOAD_FACTOR * FastMath.max(newSize, 2 * numRows)) + 1));
+    }
+
+    int[] keyRows = new int[count];
+    for (int i = 0; i < count; i++) {
+      long key = keys[i];
+      Preconditions.checkArgument(key != KEY_NULL && key != REMOVED);
+      int row = rowOf(key);
+      keyRows[i] = row < 0 ? addRow(key) : row;
+    }
+
+    int i = 0;
+    while (i < count) {
+      int row = keyRows[i];
+      int block = row >>> BLOCK_SHIFT;
+      // Extend the run while following keys are in following rows of the same block
+      int end = i + 1;
+      while (end < count && keyRows[end] == row + (end - i) && (keyRows[end] >>> BLOCK_SHIFT) == block) {
+        end++;
+      }
+      ownBlock(block);
+      System.arraycopy(values, i * dimension, rowValues[block], (row & BLOCK_MASK) * dimension, (end - i) * dimension);
+      i = end;
+    }
+  }
+
+  /**
+   * Adds a vector to the vector for a given key, in place. If no mapping exists for the key then the vector is
+   * set as a new value for the key.
+   *
+   * @param key key whose vector should be incremented
+   * @param delta vector to add to the key's vector
+   */
+  public void increment(long key, float[] delta) {
+    Preconditions.checkArgument(key != KEY_NULL && key != REMOVED);
+    int row = rowOf(key);
+    if (row < 0) {
+      put(key, delta);
+    } else {
+      checkDimension(delta);
+      ownBlock(row >>> BLOCK_SHIFT);
+      float[] block = rowValues[row >>> BLOCK_SHIFT];
+      int offset = (row & BLOCK_MASK) * dimension;
+      for (int i = 0; i < dimension; i++) {
+        block[offset + i] += delta[i];
+      }
+    }
+  }
+
+  private void checkDimension(float[] value) {
+    Preconditions.checkNotNull(value);
+    if (dimension == 0) {
+      Preconditions.checkArgument(value.length > 0, "Empty vector");
+      dimension = value.length;
+    } else {
+      Preconditions.checkArgument(value.length == dimension,
+                                  "Expected vector of dimension %s but was %s", dimension, value.length);
+    }
+  }
+
+  private int addRow(long key) {
+    // If many slots are used, let's clear it up
+    if (numSlotsUsed * LOAD_FACTOR >= hashSize) {
+      // If over half the slots used are actual entries, let's grow
+      if (numRows * LOAD_FACTOR >= numSlotsUsed) {
+        Preconditions.checkState(hashSize * LOAD_FACTOR < RandomUtils.MAX_INT_SMALLER_TWIN_PRIME,
+                                 "Can't grow any more");
+        rehash(RandomUtils.nextTwinPrime((int) (LOAD_FACTOR * hashSize) + 1));
+      } else {
+        // Otherwise just rehash to clear REMOVED entries and don't grow
+        rehash();
+      }
+    }
+    int row = numRows;
+    ensureRowCapacity(row);
+    ownBlock(row >>> BLOCK_SHIFT);
+    rowKeys[row >>> BLOCK_SHIFT][row & BLOCK_MASK] = key;
+    index(key, row);
+    numRows++;
+    return row;
+  }
+
+  private void index(long key, int row) {
+    int index = findForAdd(key);
+    if (keyInSlot(index) == KEY_NULL) {
+      numSlotsUsed++;
+    }
+    setSlot(index, key, row);
+  }
+
+  private void ensureRowCapacity(int row) {
+    int block = row >>> BLOCK_SHIFT;
+    if (block >= rowKeys.length) {
+      int newLength = FastMath.max(block + 1, 2 * rowKeys.length);
+      rowKeys = Arrays.copyOf(rowKeys, newLength);
+      rowValues = Arrays.copyOf(rowValues, newLength);
+      blockOwners = Arrays.copyOf(blockOwners, newLength);
+    }
+    long[] blockKeys = rowKeys[block];
+    if (blockKeys == null) {
+      // Only the first block starts small; others will be filled soon enough
+      int blockRows = block == 0 ? initialBlockRows : ROWS_PER_BLOCK;
+      rowKeys[block] = new long[blockRows];
+      rowValues[block] = new float[blockRows * dimension];
+      blockOwners[block] = owner;
+    } else {
+      int offsetInBlock = row & BLOCK_MASK;
+      if (offsetInBlock >= blockKeys.length) {
+        int blockRows = FastMath.min(ROWS_PER_BLOCK, 2 * blockKeys.length);
+        rowKeys[block] = Arrays.copyOf(blockKeys, blockRows);
+        rowValues[block] = Arrays.copyOf(rowValues[block], blockRows * dimension);
+        blockOwners[block] = owner;
+      }
+    }
+  }
+
+  /**
+   * @param key key for which mapping should be removed
+   */
+  public void remove(long key) {
+    int row = rowOf(key);
+    if (row >= 0) {
+      removeRow(row);
+    }
+  }
+
+  private void removeRow(int row) {
+    setSlot(find(keyAt(row)), REMOVED, -1);
+    int lastRow = numRows - 1;
+    if (row != lastRow) {
+      // Move last row into the gap
+      long lastKey = keyAt(lastRow);
+      ownBlock(row >>> BLOCK_SHIFT);
+      System.arraycopy(rowValues[lastRow >>> BLOCK_SHIFT], (lastRow & BLOCK_MASK) * dimension,
+                       rowValues[row >>> BLOCK_SHIFT], (row & BLOCK_MASK) * dimension,
+                       dimension);
+      rowKeys[row >>> BLOCK_SHIFT][row & BLOCK_MASK] = lastKey;
+      setSlot(find(lastKey), lastKey, row);
+    }
+    numRows--;
+  }
+
+  /**
+   * Removes all mappings. The dimension of this map is not reset.
+   */
+  public void clear() {
+    numRows = 0;
+    newIndex(hashSize);
+    newBlocks(1);
+  }
+
+  /**
+   * Optimizes internal storage of keys by removing spaces held by previously removed keys.
+   */
+  public void rehash() {
+    rehash(RandomUtils.nextTwinPrime((int) (LOAD_FACTOR * numRows) + 1));
+  }
+
+  private void rehash(int newHashSize) {
+    newIndex(newHashSize);
+    for (int row = 0; row < numRows; row++) {
+      index(keyAt(row), row);
+    }
+  }
+
+  /**
+   * @return iterator over keys in the map. Its {@code remove()} method is supported.
+   */
+  public LongPrimitiveIterator keySetIterator() {
+    return new KeyIterator();
+  }
+
+  /**
+   * @return iterator over all entries in the map, in row order
+   * @see #entryIterator(int, int)
+   */
+  public Iterator<LongObjectMap.MapEntry<float[]>> entryIterator() {
+    return new EntryIterator(0, numRows);
+  }
+
+  /**
+   * Iterates over a range of rows in the map. The rows {@code 0} to {@code size()-1} together hold all
+   * entries, so several ranges can be used to divide up a scan over all entries. Row numbers are only
+   * meaningful until the map is next modified.
+   *
+   * @param fromRow first row to iterate over, inclusive
+   * @param toRow last row to iterate over, exclusive
+   * @return iterator over entries in the given rows. The entry and {@code float[]} it returns are reused
+   *  on each call to {@code next()}.
+   */
+  public Iterator<LongObjectMap.MapEntry<float[]>> entryIterator(int fromRow, int toRow) {
+    Preconditions.checkArgument(fromRow >= 0 && fromRow <= toRow && toRow <= numRows,
+                                "Bad row range: %s to %s", fromRow, toRow);
+    return new EntryIterator(fromRow, toRow);
+  }
+
+  /**
+   * @return a copy of this map which initially shares all of its storage with this map. Either map copies
+   *  a block of rows or chunk of the index the first time it modifies it, so making the copy and changing
+   *  a few keys in it takes time and memory proportional to the number of blocks, not rows.
+   */
+  public LongFloatArrayMap copyOnWrite() {
+    LongFloatArrayMap copy = shallowClone();
+    copy.owner = OWNERS.incrementAndGet();
+    // This map must no longer modify what it now shares either
+    owner = OWNERS.incrementAndGet();
+    return copy;
+  }
+
+  /**
+   * @return number of blocks of rows and chunks of the index that this map does not share with a copy
+   */
+  int countOwned() {
+    int count = 0;
+    for (int i = 0; i < blockOwners.length; i++) {
+      if (rowKeys[i] != null && blockOwners[i] == owner) {
+        count++;
+      }
+    }
+    for (int chunkOwner : chunkOwners) {
+      if (chunkOwner == owner) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public LongFloatArrayMap clone() {
+    LongFloatArrayMap clone = shallowClone();
+    clone.owner = OWNERS.incrementAndGet();
+    for (int i = 0; i < keys.length; i++) {
+      clone.keys[i] = keys[i].clone();
+      clone.rows[i] = rows[i].clone();
+      clone.chunkOwners[i] = clone.owner;
+    }
+    for (int i = 0; i < rowKeys.length; i++) {
+      if (rowKeys[i] != null) {
+        clone.rowKeys[i] = rowKeys[i].clone();
+        clone.rowValues[i] = rowValues[i].clone();
+        clone.blockOwners[i] = clone.owner;
+      }
+    }
+    return clone;
+  }
+
+  /**
+   * @return copy of this map that has its own arrays of chunks and blocks, but shares the chunks and blocks
+   */
+  private LongFloatArrayMap shallowClone() {
+    LongFloatArrayMap clone;
+    try {
+      clone = (LongFloatArrayMap) super.clone();
+    } catch (CloneNotSupportedException cnse) {
+      throw new AssertionError(cnse);
+    }
+    clone.keys = keys.clone();
+    clone.rows = rows.clone();
+    clone.chunkOwners = chunkOwners.clone();
+    clone.rowKeys = rowKeys.clone();
+    clone.rowValues = rowValues.clone();
+    clone.blockOwners = blockOwners.clone();
+    return clone;
+  }
+
+  @Override
+  public String toString() {
+    if (isEmpty()) {
+      return "{}";
+    }
+    StringBuilder result = new StringBuilder();
+    result.append('{');
+    float[] value = new float[dimension];
+    for (int row = 0; row < numRows; row++) {
+      copyRow(row, value);
+      result.append(keyAt(row)).append('=').append(Arrays.toString(value)).append(',');
+    }
+    result.setCharAt(result.length() - 1, '}');
+    return result.toString();
+  }
+
+  private final class KeyIterator extends AbstractLongPrimitiveIterator {
+
+    private int position;
+    private int lastNext = -1;
+
+    @Override
+    public boolean hasNext() {
+      return position < numRows;
+    }
+
+    @Override
+    public long nextLong() {
+      if (position >= numRows) {
+        throw new NoSuchElementException();
+      }
+      lastNext = position;
+      return keyAt(position++);
+    }
+
+    @Override
+    public void remove() {
+      Preconditions.checkState(lastNext >= 0 && lastNext < numRows);
+      removeRow(lastNext);
+      // Last row moved into lastNext, which hasn't been seen yet
+      position = lastNext;
+      lastNext = -1;
+    }
+
+    @Override
+    public void skip(int n) {
+      position += n;
+    }
+
+  }
+
+  private final class EntryIterator implements Iterator<LongObjectMap.MapEntry<float[]>> {
+
+    private int position;
+    private final int end;
+    private final MutableEntry entry;
+
+    private EntryIterator(int fromRow, int toRow) {
+      position = fromRow;
+      end = toRow;
+      entry = new MutableEntry(new float[dimension]);
+    }
+
+    @Override
+    public boolean hasNext() {
+      return position < end;
+    }
+
+    @Override
+    public LongObjectMap.MapEntry<float[]> next() {
+      if (position >= end) {
+        throw new NoSuchElementException();
+      }
+      int row = position++;
+      entry.key = keyAt(row);
+      copyRow(row, entry.value);
+      return entry;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+  }
+
+  private static final class MutableEntry implements LongObjectMap.MapEntry<float[]> {
+
+    private long key;
+    private final float[] value;
+
+    private MutableEntry(float[] value) {
+      this.value = value;
+    }
+
+    @Override
+    public long getKey() {
+      return key;
+    }
+
+    @Override
+    public float[] getValue() {
+      return value;
+    }
+
+    @Override
+    public String toString() {
+      return key + "=" + Arrays.toString(value);
+    }
+
+  }
+
+}
@@ -70,7 +70,7 @@ public final class DelimitedDataUtils {
       if (i > 0) {
         record.append(delim);
       }
-      record.append(doEncode(columns[i].toString(), delim));
+      appendEncoded(record, columns[i].toString(), delim);
     }
     return record.toString();
   }
@@ -89,7 +89,7 @@ public final class DelimitedDataUtils {
       if (i > 0) {
         record.append(delim);
       }
-      record.append(doEncode(columns[i], delim));
+      appendEncoded(record, columns[i], delim);
     }
     return record.toString();
   }
@@ -111,11 +111,41 @@ public final class DelimitedDataUtils {
       } else {
         record.append(delim);
       }
-      record.append(doEncode(column.toString(), delim));
+      appendEncoded(record, column.toString(), delim);
     }
     return record.toString();
   }
 
+  /**
+   * Appends one value to a delimited record that is being built, quoting it as needed. This lets callers
+   * write many records with one reused buffer. Delimiters between values are up to the caller.
+   *
+   * @param record record to append to
+   * @param column value to append
+   */
+  public static void appendEncoded(StringBuilder record, CharSequence column) {
+    appendEncoded(record, column, DELIMITER);
+  }
+
+  public static void appendEncoded(StringBuilder record, CharSequence column, char delim) {
+    if (needsEncoding(column, delim)) {
+      record.append(doEncode(column, delim));
+    } else {
+      // Usual case, and needs no copy
+      record.append(column);
+    }
+  }
+
+  private static boolean needsEncoding(CharSequence input, char delim) {
+    for (int i = 0; i < input.length(); i++) {
+      char c = input.charAt(i);
+      if (c == delim || c == QUOTE || c == '\r' || c == '\n') {
+        return true;
+      }
+    }
+    return false;
+  }
+
   private static CharSequence doEncode(CharSequence input, char delim) {
 
     StringBuilder currentColumn = new StringBuilder(input.length());
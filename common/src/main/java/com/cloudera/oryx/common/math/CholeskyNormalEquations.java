@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.common.math;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.util.FastMath;
+
+/**
+ * <p>An implementation of {@link NormalEquations} that forms A explicitly and solves it exactly. A is
+ * stored densely, by row, but only its upper triangle is read or written. Outer products are
+ * not applied one at a time; a block of them is queued and then applied in one pass over A, so each
+ * row of A is brought into cache once per block rather than once per vector. The system is solved by
+ * Cholesky decomposition, in place.</p>
+ *
+ * <p>This takes time proportional to the cube of the dimension for each row, which dominates when
+ * the dimension is large. {@link ConjugateGradientNormalEquations} may be faster then.</p>
+ *
+ * @author Sean Owen
+ */
+public final class CholeskyNormalEquations implements NormalEquations {
+
+  /** Number of outer products to queue before applying them to A. */
+  private static final int BLOCK_SIZE = 8;
+
+  private final int dimension;
+  /** dimension x dimension, by row; only elements on or above the diagonal are used */
+  private final double[] A;
+  private final double[] b;
+  private final double[] diagonal;
+  /** Queued vectors, one after the other, each multiplied by its weight */
+  private final double[] blockWeighted;
+  /** Queued vectors, one after the other */
+  private final double[] blockVectors;
+  private int blockSize;
+
+  /**
+   * @param dimension dimension of the system; number of features
+   */
+  public CholeskyNormalEquations(int dimension) {
+    Preconditions.checkArgument(dimension > 0, "dimension must be positive: %s", dimension);
+    this.dimension = dimension;
+    A = new double[dimension * dimension];
+    b = new double[dimension];
+    diagonal = new double[dimension];
+    blockWeighted = new double[BLOCK_SIZE * dimension];
+    blockVectors = new double[BLOCK_SIZE * dimension];
+  }
+
+  @Override
+  public int getDimension() {
+    return dimension;
+  }
+
+  @Override
+  public void reset(RealMatrix initial) {
+    blockSize = 0;
+    Arrays.fill(b, 0.0);
+    if (initial == null) {
+      Arrays.fill(A, 0.0);
+      return;
+    }
+    Preconditions.checkArgument(initial.getRowDimension() == dimension && initial.isSquare(),
+                                "Expected %s x %s matrix", dimension, dimension);
+    if (initial instanceof Array2DRowRealMatrix) {
+      double[][] data = MatrixUtils.accessMatrixDataDirectly(initial);
+      for (int row = 0; row < dimension; row++) {
+        System.arraycopy(data[row], row, A, row * dimension + row, dimension - row);
+      }
+    } else {
+      for (int row = 0; row < dimension; row++) {
+        int offset = row * dimension;
+        for (int col = row; col < dimension; col++) {
+          A[offset + col] = initial.getEntry(row, col);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void addOuterProduct(float[] v, double weight) {
+    Preconditions.checkArgument(v.length == dimension,
+                                "Expected vector of dimension %s but was %s", dimension, v.length);
+    if (weight == 0.0) {
+      return;
+    }
+    int offset = blockSize * dimension;
+    for (int i = 0; i < dimension; i++) {
+      double value = v[i];
+      blockVectors[offset + i] = value;
+      blockWeighted[offset + i] = weight * value;
+    }
+    if (++blockSize == BLOCK_SIZE) {
+      flush();
+    }
+  }
+
+  @Override
+  public void addToB(float[] v, double weight) {
+    Preconditions.checkArgument(v.length == dimension,
+                                "Expected vector of dimension %s but was %s", dimension, v.length);
+    for (int i = 0; i < dimension; i++) {
+      b[i] += weight * v[i];
+    }
+  }
+
+  @Override
+  public void addToDiagonal(double value) {
+    for (int i = 0; i < dimension; i++) {
+      A[i * dimension + i] += value;
+    }
+  }
+
+  @Override
+  public void add(NormalEquations other) {
+    CholeskyNormalEquations otherCholesky = (CholeskyNormalEquations) other;
+    Preconditions.checkArgument(otherCholesky.dimension == dimension,
+                                "Expected dimension %s but was %s", dimension, otherCholesky.dimension);
+    flush();
+    otherCholesky.flush();
+    double[] otherA = otherCholesky.A;
+    for (int row = 0; row < dimension; row++) {
+      int rowOffset = row * dimension;
+      for (int col = row; col < dimension; col++) {
+        A[rowOffset + col] += otherA[rowOffset + col];
+      }
+    }
+    double[] otherB = otherCholesky.b;
+    for (int i = 0; i < dimension; i++) {
+      b[i] += otherB[i];
+    }
+  }
+
+  /**
+   * Applies queued outer products to the upper triangle of A.
+   */
+  private void flush() {
+    int dimension = this.dimension;
+    int blockSize = this.blockSize;
+    for (int row = 0; row < dimension; row++) {
+      int rowOffset = row * dimension;
+      for (int k = 0; k < blockSize; k++) {
+        int vectorOffset = k * dimension;
+        double rowValue = blockWeighted[vectorOffset + row];
+        if (rowValue != 0.0) {
+          for (int col = row; col < dimension; col++) {
+            A[rowOffset + col] += rowValue * blockVectors[vectorOffset + col];
+          }
+        }
+      }
+    }
+    this.blockSize = 0;
+  }
+
+  /**
+   * Solves the system exactly; {@code start} is ignored. This overwrites A and b.
+   */
+  @Override
+  public float[] solve(float[] start) {
+    flush();
+    int dimension = this.dimension;
+
+    // Cholesky decomposition A = U' * U, computing U a row at a time over the upper triangle of A
+    for (int i = 0; i < dimension; i++) {
+      diagonal[i] = A[i * dimension + i];
+    }
+    for (int i = 0; i < dimension; i++) {
+      int iOffset = i * dimension;
+      double pivot = A[iOffset + i];
+      if (!(pivot > LinearSystemSolver.SINGULARITY_THRESHOLD * diagonal[i])) {
+        throw new SingularMatrixSolverException(i, "Apparent rank: " + i);
+      }
+      double uii = FastMath.sqrt(pivot);
+      A[iOffset + i] = uii;
+      for (int j = i + 1; j < dimension; j++) {
+        A[iOffset + j] /= uii;
+      }
+      for (int k = i + 1; k < dimension; k++) {
+        double uik = A[iOffset + k];
+        if (uik != 0.0) {
+          int kOffset = k * dimension;
+          for (int j = k; j < dimension; j++) {
+            A[kOffset + j] -= uik * A[iOffset + j];
+          }
+        }
+      }
+    }
+
+    // Solve U' * y = b, leaving y in b
+    for (int i = 0; i < dimension; i++) {
+      int iOffset = i * dimension;
+      double yi = b[i] / A[iOffset + i];
+      b[i] = yi;
+      for (int j = i + 1; j < dimension; j++) {
+        b[j] -= A[iOffset + j] * yi;
+      }
+    }
+
+    // Solve U * x = y
+    float[] x = new float[dimension];
+    for (int i = dimension - 1; i >= 0; i--) {
+      int iOffset = i * dimension;
+      double sum = b[i];
+      for (int j = i + 1; j < dimension; j++) {
+        sum -= A[iOffset + j] * b[j];
+      }
+      double xi = sum / A[iOffset + i];
+      b[i] = xi;
+      x[i] = (float) xi;
+    }
+    return x;
+  }
+
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.common.math;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.RealMatrix;
+
+/**
+ * <p>An implementation of {@link NormalEquations} that never forms A. It instead takes a few steps of
+ * the conjugate gradient method, starting from an approximate solution, like the row's value in the
+ * previous iteration of ALS. Each step needs only the product of A and a vector, which is computed from
+ * the initial matrix (like Y' * Y), the vectors added as outer products, and the diagonal. This takes time
+ * proportional to the square of the dimension, plus the number of outer products times the dimension, per
+ * step, rather than the cube of the dimension needed to solve exactly.</p>
+ *
+ * <p>The result is only approximate, but since ALS itself iterates, and each row starts from its last
+ * value, a few steps per iteration are usually enough.</p>
+ *
+ * @author Sean Owen
+ */
+public final class ConjugateGradientNormalEquations implements NormalEquations {
+
+  /** Stop early once the squared norm of the residual is this small. */
+  private static final double RESIDUAL_THRESHOLD = 1.0e-12;
+
+  private final int dimension;
+  private final int steps;
+  private RealMatrix initial;
+  private double[][] initialData;
+  private double diagonal;
+  private float[][] vectors;
+  private double[] weights;
+  private int numVectors;
+  private final double[] b;
+  private final double[] x;
+  private final double[] r;
+  private final double[] p;
+  private final double[] Ap;
+
+  /**
+   * @param dimension dimension of the system; number of features
+   * @param steps maximum number of conjugate gradient steps to take in each {@link #solve(float[])}
+   */
+  public ConjugateGradientNormalEquations(int dimension, int steps) {
+    Preconditions.checkArgument(dimension > 0, "dimension must be positive: %s", dimension);
+    Preconditions.checkArgument(steps > 0, "steps must be positive: %s", steps);
+    this.dimension = dimension;
+    this.steps = steps;
+    vectors = new float[16][];
+    weights = new double[16];
+    b = new double[dimension];
+    x = new double[dimension];
+    r = new double[dimension];
+    p = new double[dimension];
+    Ap = new double[dimension];
+  }
+
+  @Override
+  public int getDimension() {
+    return dimension;
+  }
+
+  @Override
+  public void reset(RealMatrix initial) {
+    if (initial != this.initial) {
+      if (initial != null) {
+        Preconditions.checkArgument(initial.getRowDimension() == dimension && initial.isSquare(),
+                                    "Expected %s x %s matrix", dimension, dimension);
+        // Usually the same matrix is used for many rows, so access or copy its data just once
+        initialData = initial instanceof Array2DRowRealMatrix ?
+            MatrixUtils.accessMatrixDataDirectly(initial) : initial.getData();
+      } else {
+        initialData = null;
+      }
+      this.initial = initial;
+    }
+    diagonal = 0.0;
+    // Don't hold on to vectors after they're used
+    Arrays.fill(vectors, 0, numVectors, null);
+    numVectors = 0;
+    Arrays.fill(b, 0.0);
+  }
+
+  @Override
+  public void addOuterProduct(float[] v, double weight) {
+    Preconditions.checkArgument(v.length == dimension,
+                                "Expected vector of dimension %s but was %s", dimension, v.length);
+    if (weight == 0.0) {
+      return;
+    }
+    if (numVectors == vectors.length) {
+      vectors = Arrays.copyOf(vectors, 2 * numVectors);
+      weights = Arrays.copyOf(weights, 2 * numVectors);
+    }
+    vectors[numVectors] = v;
+    weights[numVectors] = weight;
+    numVectors++;
+  }
+
+  @Override
+  public void addToB(float[] v, double weight) {
+    Preconditions.checkArgument(v.length == dimension,
+                                "Expected vector of dimension %s but was %s", dimension, v.length);
+    for (int i = 0; i < dimension; i++) {
+      b[i] += weight * v[i];
+    }
+  }
+
+  @Override
+  public void addToDiagonal(double value) {
+    diagonal += value;
+  }
+
+  @Override
+  public void add(NormalEquations other) {
+    ConjugateGradientNormalEquations otherCG = (ConjugateGradientNormalEquations) other;
+    Preconditions.checkArgument(otherCG.dimension == dimension,
+                                "Expected dimension %s but was %s", dimension, otherCG.dimension);
+    Preconditions.checkArgument(otherCG.initial == null, "Other equations must start from 0");
+    for (int n = 0; n < otherCG.numVectors; n++) {
+      addOuterProduct(otherCG.vectors[n], otherCG.weights[n]);
+    }
+    for (int i = 0; i < dimension; i++) {
+      b[i] += otherCG.b[i];
+    }
+    diagonal += otherCG.diagonal;
+  }
+
+  /**
+   * Takes up to the configured number of conjugate gradient steps from {@code start}, or from 0 if it is
+   * {@code null} or of the wrong dimension. This overwrites b.
+   */
+  @Override
+  public float[] solve(float[] start) {
+    int dimension = this.dimension;
+    if (start == null || start.length != dimension) {
+      Arrays.fill(x, 0.0);
+    } else {
+      for (int i = 0; i < dimension; i++) {
+        x[i] = start[i];
+      }
+    }
+
+    // r = b - A * x; p = r
+    multiplyA(x, Ap);
+    double rr = 0.0;
+    for (int i = 0; i < dimension; i++) {
+      double ri = b[i] - Ap[i];
+      r[i] = ri;
+      p[i] = ri;
+      rr += ri * ri;
+    }
+
+    for (int step = 0; step < steps && rr > RESIDUAL_THRESHOLD; step++) {
+      multiplyA(p, Ap);
+      double pAp = 0.0;
+      for (int i = 0; i < dimension; i++) {
+        pAp += p[i] * Ap[i];
+      }
+      if (!(pAp > 0.0)) {
+        // Only happens when p is effectively 0, or A is not positive definite; either way, stop
+        break;
+      }
+      double alpha = rr / pAp;
+      double newRR = 0.0;
+      for (int i = 0; i < dimension; i++) {
+        x[i] += alpha * p[i];
+        double ri = r[i] - alpha * Ap[i];
+        r[i] = ri;
+        newRR += ri * ri;
+      }
+      double beta = newRR / rr;
+      for (int i = 0; i < dimension; i++) {
+        p[i] = r[i] + beta * p[i];
+      }
+      rr = newRR;
+    }
+
+    float[] result = new float[dimension];
+    for (int i = 0; i < dimension; i++) {
+      result[i] = (float) x[i];
+    }
+    return result;
+  }
+
+  /**
+   * Computes A * v into {@code result}.
+   */
+  private void multiplyA(double[] v, double[] result) {
+    int dimension = this.dimension;
+    if (initialData == null) {
+      Arrays.fill(result, 0.0);
+    } else {
+      for (int i = 0; i < dimension; i++) {
+        double[] row = initialData[i];
+        double sum = 0.0;
+        for (int j = 0; j < dimension; j++) {
+          sum += row[j] * v[j];
+        }
+        result[i] = sum;
+      }
+    }
+    for (int i = 0; i < dimension; i++) {
+      result[i] += diagonal * v[i];
+    }
+    // Sum of weight * u * (u' * v) over vectors u
+    for (int n = 0; n < numVectors; n++) {
+      float[] u = vectors[n];
+      double dot = 0.0;
+      for (int i = 0; i < dimension; i++) {
+        dot += u[i] * v[i];
+      }
+      dot *= weights[n];
+      for (int i = 0; i < dimension; i++) {
+        result[i] += dot * u[i];
+      }
+    }
+  }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.common.math;
+
+import com.google.common.base.Preconditions;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Maintains M' * M for a tall, skinny matrix M whose rows change over time, along with a {@link Solver}
+ * for it. A change to one row is applied as a rank-one downdate and update, which takes time proportional to
+ * the square of the number of columns, and not to the number of rows.</p>
+ *
+ * <p>The {@link Solver} is not updated on every change. It's recomputed from the current M' * M once
+ * enough changes have accumulated; until then {@link #getSolver()} returns the previous one.</p>
+ *
+ * @author Sean Owen
+ */
+public final class IncrementalGramian {
+
+  private static final Logger log = LoggerFactory.getLogger(IncrementalGramian.class);
+
+  private final double[][] MTM;
+  private final int updatesBetweenRefresh;
+  private int updatesSinceRefresh;
+  private volatile Solver solver;
+
+  /**
+   * @param MTM initial value of M' * M
+   * @param updatesBetweenRefresh number of updates after which the {@link Solver} is recomputed
+   */
+  public IncrementalGramian(RealMatrix MTM, int updatesBetweenRefresh) {
+    Preconditions.checkArgument(MTM.isSquare(), "Not square");
+    Preconditions.checkArgument(updatesBetweenRefresh > 0, "updatesBetweenRefresh must be positive");
+    this.MTM = MTM.getData();
+    this.updatesBetweenRefresh = updatesBetweenRefresh;
+    this.solver = MatrixUtils.getSolver(MTM);
+  }
+
+  /**
+   * @return {@link Solver} for M' * M, as of the last refresh
+   */
+  public Solver getSolver() {
+    return solver;
+  }
+
+  /**
+   * Records that a row of M has changed.
+   *
+   * @param oldRow previous value of the row, or {@code null} if it was added
+   * @param newRow new value of the row, or {@code null} if it was removed
+   */
+  public void update(float[] oldRow, float[] newRow) {
+    if (oldRow == null && newRow == null) {
+      return;
+    }
+    double[][] toSolve = null;
+    synchronized (MTM) {
+      if (oldRow != null) {
+        addOuterProduct(-1.0, oldRow);
+      }
+      if (newRow != null) {
+        addOuterProduct(1.0, newRow);
+      }
+      if (++updatesSinceRefresh >= updatesBetweenRefresh) {
+        updatesSinceRefresh = 0;
+        toSolve = new double[MTM.length][];
+        for (int i = 0; i < toSolve.length; i++) {
+          toSolve[i] = MTM[i].clone();
+        }
+      }
+    }
+    if (toSolve != null) {
+      // Solve outside the lock; this is the only part that depends on more than the square of dimension
+      try {
+        solver = MatrixUtils.getSolver(new Array2DRowRealMatrix(toSolve, false));
+      } catch (SolverException se) {
+        log.warn("Could not refresh solver; keeping previous one", se);
+      }
+    }
+  }
+
+  private void addOuterProduct(double sign, float[] row) {
+    int dimension = MTM.length;
+    Preconditions.checkArgument(row.length == dimension,
+                                "Expected vector of dimension %s but was %s", dimension, row.length);
+    for (int i = 0; i < dimension; i++) {
+      double[] MTMRow = MTM[i];
+      double rowValue = sign * row[i];
+      for (int j = 0; j < dimension; j++) {
+        MTMRow[j] += rowValue * row[j];
+      }
+    }
+  }
+
+}
@@ -16,12 +16,14 @@
 package com.cloudera.oryx.common.math;
 
 import java.lang.reflect.Field;
+import java.util.Iterator;
 
 import com.google.common.base.Preconditions;
 import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.linear.RealMatrix;
 
 import com.cloudera.oryx.common.ClassUtils;
+import com.cloudera.oryx.common.collection.ConcurrentLongFloatArrayMap;
 import com.cloudera.oryx.common.collection.LongFloatMap;
 import com.cloudera.oryx.common.collection.LongObjectMap;
 
@@ -164,4 +166,28 @@ public final class MatrixUtils {
     return result;
   }
 
+  /**
+   * @param M tall, skinny matrix
+   * @return MT * M as a dense matrix
+   */
+  public static RealMatrix transposeTimesSelf(ConcurrentLongFloatArrayMap M) {
+    if (M == null || M.isEmpty()) {
+      return null;
+    }
+    int dimension = M.getDimension();
+    double[][] resultData = new double[dimension][dimension];
+    Iterator<LongObjectMap.MapEntry<float[]>> it = M.entryIterator();
+    while (it.hasNext()) {
+      float[] vector = it.next().getValue();
+      for (int row = 0; row < dimension; row++) {
+        double[] resultRow = resultData[row];
+        float rowValue = vector[row];
+        for (int col = 0; col < dimension; col++) {
+          resultRow[col] += rowValue * vector[col];
+        }
+      }
+    }
+    return new Array2DRowRealMatrix(resultData, false);
+  }
+
 }
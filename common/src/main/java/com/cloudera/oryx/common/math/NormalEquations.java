@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.common.math;
+
+import org.apache.commons.math3.linear.RealMatrix;
+
+/**
+ * <p>Builds and solves a symmetric, positive definite system A * x = b, as in the normal equations
+ * that ALS solves for each row: A = Y' * Cu * Y + lambda * I. Storage is reused across calls to
+ * {@link #reset(RealMatrix)}, so one instance should be kept per thread and reused for many rows.</p>
+ *
+ * <p>Implementations are not thread-safe.</p>
+ *
+ * @author Sean Owen
+ * @see CholeskyNormalEquations
+ * @see ConjugateGradientNormalEquations
+ */
+public interface NormalEquations {
+
+  int getDimension();
+
+  /**
+   * Starts a new system.
+   *
+   * @param initial initial value of A, like Y' * Y, or {@code null} to start from 0. It must not change
+   *  until the system is solved.
+   */
+  void reset(RealMatrix initial);
+
+  /**
+   * Adds weight * v * v' to A. {@code v} must not change until the system is solved.
+   */
+  void addOuterProduct(float[] v, double weight);
+
+  /**
+   * Adds weight * v to b.
+   */
+  void addToB(float[] v, double weight);
+
+  /**
+   * Adds value to each element on the diagonal of A, as in adding lambda * I.
+   */
+  void addToDiagonal(double value);
+
+  /**
+   * Adds the A and b built by another instance of the same type, like one that built part of the same system
+   * on another thread. That instance must have been {@link #reset(RealMatrix)} to start from 0, and must not be
+   * used again until it is reset.
+   */
+  void add(NormalEquations other);
+
+  /**
+   * Solves the system built so far. The instance must be {@link #reset(RealMatrix)} before it
+   * is used again.
+   *
+   * @param start approximate solution, like this row's value from the previous iteration, that
+   *  iterative implementations start from. May be {@code null}, and is not modified.
+   * @return x such that A * x = b, or approximately so
+   * @throws SingularMatrixSolverException if A is not positive definite, or nearly singular
+   */
+  float[] solve(float[] start);
+
+}
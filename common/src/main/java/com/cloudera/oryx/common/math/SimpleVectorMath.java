@@ -38,6 +38,40 @@ public final class SimpleVectorMath {
     return dot;
   }
 
+  /**
+   * Computes the dot product of one vector with each of a block of vectors at once. The block stores the
+   * vectors one after the other, which keeps the loop over them tight and free of indirection.
+   *
+   * @param block {@code numVectors} vectors of the same length as {@code y}, stored consecutively
+   * @param numVectors number of vectors in {@code block} to use
+   * @param y vector to take dot product with
+   * @param dots receives the {@code numVectors} dot products
+   */
+  public static void dots(float[] block, int numVectors, float[] y, double[] dots) {
+    int length = y.length;
+    int unrolledLength = length & ~0x03;
+    int offset = 0;
+    for (int v = 0; v < numVectors; v++) {
+      // Several independent sums allow the products to be computed in parallel
+      double dot0 = 0.0;
+      double dot1 = 0.0;
+      double dot2 = 0.0;
+      double dot3 = 0.0;
+      int i = 0;
+      for (; i < unrolledLength; i += 4) {
+        dot0 += block[offset + i] * y[i];
+        dot1 += block[offset + i + 1] * y[i + 1];
+        dot2 += block[offset + i + 2] * y[i + 2];
+        dot3 += block[offset + i + 3] * y[i + 3];
+      }
+      for (; i < length; i++) {
+        dot0 += block[offset + i] * y[i];
+      }
+      dots[v] = (dot0 + dot1) + (dot2 + dot3);
+      offset += length;
+    }
+  }
+
   /**
    * @return the L2 norm of vector x
    */
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.common.collection;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import com.cloudera.oryx.common.OryxTest;
+import com.cloudera.oryx.common.parallel.ExecutorUtils;
+
+/**
+ * Tests {@link ConcurrentLongFloatArrayMap}.
+ *
+ * @author Sean Owen
+ */
+public final class ConcurrentLongFloatArrayMapTest extends OryxTest {
+
+  @Test
+  public void testPutAndGet() {
+    ConcurrentLongFloatArrayMap map = new ConcurrentLongFloatArrayMap();
+    assertNull(map.get(1L));
+    assertEquals(0, map.getDimension());
+    float[] value = {1.0f, -2.0f};
+    map.put(1L, value);
+    value[0] = 3.0f;
+    assertEquals(2, map.getDimension());
+    assertEquals(1, map.size());
+    assertArrayEquals(new float[] {1.0f, -2.0f}, map.get(1L));
+    float[] target = new float[2];
+    assertTrue(map.get(1L, target));
+    assertArrayEquals(new float[] {1.0f, -2.0f}, target);
+    assertFalse(map.get(2L, target));
+    map.putIfAbsent(1L, new float[] {5.0f, 5.0f});
+    assertArrayEquals(new float[] {1.0f, -2.0f}, map.get(1L));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWrongDimension() {
+    ConcurrentLongFloatArrayMap map = new ConcurrentLongFloatArrayMap();
+    map.put(1L, new float[3]);
+    map.put(2L, new float[2]);
+  }
+
+  @Test
+  public void testUpdatesOverBase() {
+    ConcurrentLongFloatArrayMap map = buildTestMap();
+    map.increment(1L, new float[] {1.0f});
+    map.remove(2L);
+    map.put(4L, new float[] {4.0f});
+    assertEquals(3, map.size());
+    assertEquals(3, map.getDeltaSize());
+    assertArrayEquals(new float[] {2.0f}, map.get(1L));
+    assertNull(map.get(2L));
+    assertFalse(map.containsKey(2L));
+    assertArrayEquals(new float[] {3.0f}, map.get(3L));
+    checkEntries(map.entryIterator(), new long[] {1L, 3L, 4L});
+
+    map.merge();
+    assertEquals(0, map.getDeltaSize());
+    assertEquals(3, map.size());
+    assertArrayEquals(new float[] {2.0f}, map.get(1L));
+    assertNull(map.get(2L));
+    checkEntries(map.entryIterator(), new long[] {1L, 3L, 4L});
+  }
+
+  @Test
+  public void testReplaceBase() {
+    ConcurrentLongFloatArrayMap map = buildTestMap();
+    map.put(4L, new float[] {4.0f});
+    LongFloatArrayMap newBase = new LongFloatArrayMap();
+    newBase.put(1L, new float[] {10.0f});
+    newBase.put(5L, new float[] {50.0f});
+    LongSet keep = new LongSet();
+    keep.add(3L);
+    map.replaceBase(newBase, keep);
+    assertArrayEquals(new float[] {10.0f}, map.get(1L));
+    assertNull(map.get(2L));
+    assertArrayEquals(new float[] {3.0f}, map.get(3L));
+    assertNull(map.get(4L));
+    assertArrayEquals(new float[] {50.0f}, map.get(5L));
+    assertEquals(3, map.size());
+    map.put(6L, new float[] {6.0f});
+    checkEntries(map.entryIterator(), new long[] {1L, 3L, 5L, 6L});
+  }
+
+  @Test
+  public void testPartitions() {
+    ConcurrentLongFloatArrayMap map = new ConcurrentLongFloatArrayMap();
+    for (long i = 0; i < 1000; i++) {
+      map.put(i, new float[] {i});
+    }
+    map.merge();
+    map.remove(10L);
+    map.put(2000L, new float[] {2000.0f});
+    LongSet seen = new LongSet();
+    Collection<Iterator<LongObjectMap.MapEntry<float[]>>> iterators = map.entryIterators(3);
+    assertEquals(4, iterators.size());
+    for (Iterator<LongObjectMap.MapEntry<float[]>> it : iterators) {
+      while (it.hasNext()) {
+        LongObjectMap.MapEntry<float[]> entry = it.next();
+        assertEquals((float) entry.getKey(), entry.getValue()[0]);
+        assertTrue(seen.add(entry.getKey()));
+      }
+    }
+    assertEquals(1000, seen.size());
+    assertFalse(seen.contains(10L));
+    assertTrue(seen.contains(2000L));
+  }
+
+  @Test
+  public void testSubset() {
+    ConcurrentLongFloatArrayMap map = new ConcurrentLongFloatArrayMap();
+    for (long i = 0; i < 1000; i++) {
+      map.put(i, new float[] {i});
+    }
+    map.merge();
+    LongSet keys = new LongSet();
+    for (long i = 0; i < 2000; i += 10) {
+      keys.add(i);
+    }
+    ConcurrentLongFloatArrayMap.KeySubset subset = map.subset(keys);
+    assertTrue(map.isCurrent(subset));
+    map.remove(10L);
+    map.put(1010L, new float[] {1010.0f});
+    map.put(1011L, new float[] {1011.0f});
+    checkSubset(map.entryIterators(3, subset));
+
+    map.merge();
+    assertFalse(map.isCurrent(subset));
+    checkSubset(map.entryIterators(3, subset));
+    checkSubset(map.entryIterators(3, map.subset(keys)));
+  }
+
+  private static void checkSubset(Collection<Iterator<LongObjectMap.MapEntry<float[]>>> iterators) {
+    LongSet seen = new LongSet();
+    for (Iterator<LongObjectMap.MapEntry<float[]>> it : iterators) {
+      while (it.hasNext()) {
+        LongObjectMap.MapEntry<float[]> entry = it.next();
+        assertEquals((float) entry.getKey(), entry.getValue()[0]);
+        assertEquals(0L, entry.getKey() % 10L);
+        assertTrue(seen.add(entry.getKey()));
+      }
+    }
+    assertEquals(100, seen.size());
+    assertFalse(seen.contains(10L));
+    assertTrue(seen.contains(1010L));
+  }
+
+  @Test
+  public void testConcurrentIncrement() throws Exception {
+    final ConcurrentLongFloatArrayMap map = new ConcurrentLongFloatArrayMap();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      Collection<Future<Object>> futures = Lists.newArrayList();
+      for (int i = 0; i < 4; i++) {
+        futures.add(executor.submit(new Callable<Object>() {
+          @Override
+          public Void call() {
+            for (int j = 0; j < 10000; j++) {
+              map.increment(j % 100, new float[] {1.0f});
+              if (j % 1000 == 0) {
+                map.merge();
+              }
+            }
+            return null;
+          }
+        }));
+      }
+      ExecutorUtils.checkExceptions(futures);
+    } finally {
+      ExecutorUtils.shutdownNowAndAwait(executor);
+    }
+    assertEquals(100, map.size());
+    for (long i = 0; i < 100; i++) {
+      assertArrayEquals(new float[] {400.0f}, map.get(i));
+    }
+  }
+
+  private static void checkEntries(Iterator<LongObjectMap.MapEntry<float[]>> it, long[] expectedKeys) {
+    LongSet seen = new LongSet();
+    while (it.hasNext()) {
+      assertTrue(seen.add(it.next().getKey()));
+    }
+    assertEquals(expectedKeys.length, seen.size());
+    for (long key : expectedKeys) {
+      assertTrue(seen.contains(key));
+    }
+  }
+
+  private static ConcurrentLongFloatArrayMap buildTestMap() {
+    LongFloatArrayMap base = new LongFloatArrayMap();
+    base.put(1L, new float[] {1.0f});
+    base.put(2L, new float[] {2.0f});
+    base.put(3L, new float[] {3.0f});
+    ConcurrentLongFloatArrayMap map = new ConcurrentLongFloatArrayMap();
+    map.replaceBase(base, new LongSet());
+    return map;
+  }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.common.collection;
+
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import com.cloudera.oryx.common.OryxTest;
+
+/**
+ * Tests {@link ConcurrentLongObjectMap}.
+ *
+ * @author Sean Owen
+ */
+public final class ConcurrentLongObjectMapTest extends OryxTest {
+
+  @Test
+  public void testCompareAndSet() {
+    ConcurrentLongObjectMap<String> map = new ConcurrentLongObjectMap<String>();
+    assertNull(map.get(1L));
+    assertTrue(map.putIfAbsent(1L, "foo"));
+    assertFalse(map.putIfAbsent(1L, "bar"));
+    String foo = map.get(1L);
+    assertEquals("foo", foo);
+    assertFalse(map.replace(1L, "baz", "bar"));
+    assertTrue(map.replace(1L, foo, "bar"));
+    assertEquals("bar", map.get(1L));
+    assertFalse(map.remove(1L, foo));
+    assertTrue(map.remove(1L, map.get(1L)));
+    assertFalse(map.containsKey(1L));
+  }
+
+  @Test
+  public void testMerge() {
+    ConcurrentLongObjectMap<String> map = new ConcurrentLongObjectMap<String>();
+    map.putIfAbsent(1L, "one");
+    map.putIfAbsent(2L, "two");
+    map.merge();
+    assertEquals(0, map.getDeltaSize());
+    map.remove(1L, map.get(1L));
+    map.putIfAbsent(3L, "three");
+    assertEquals(2, map.getDeltaSize());
+    checkEntries(map, new long[] {2L, 3L});
+    map.merge();
+    assertNull(map.get(1L));
+    assertEquals("two", map.get(2L));
+    assertEquals("three", map.get(3L));
+    checkEntries(map, new long[] {2L, 3L});
+  }
+
+  @Test
+  public void testReplaceBase() {
+    ConcurrentLongObjectMap<String> map = new ConcurrentLongObjectMap<String>();
+    map.putIfAbsent(1L, "one");
+    map.putIfAbsent(2L, "two");
+    LongObjectMap<String> newBase = new LongObjectMap<String>();
+    newBase.put(1L, "uno");
+    newBase.put(3L, "tres");
+    LongSet keep = new LongSet();
+    keep.add(2L);
+    map.replaceBase(newBase, keep);
+    assertEquals("uno", map.get(1L));
+    assertEquals("two", map.get(2L));
+    assertEquals("tres", map.get(3L));
+    checkEntries(map, new long[] {1L, 2L, 3L});
+  }
+
+  private static void checkEntries(ConcurrentLongObjectMap<String> map, long[] expectedKeys) {
+    LongSet seen = new LongSet();
+    Iterator<LongObjectMap.MapEntry<String>> it = map.entryIterator();
+    while (it.hasNext()) {
+      LongObjectMap.MapEntry<String> entry = it.next();
+      assertEquals(map.get(entry.getKey()), entry.getValue());
+      assertTrue(seen.add(entry.getKey()));
+    }
+    assertEquals(expectedKeys.length, seen.size());
+    for (long key : expectedKeys) {
+      assertTrue(seen.contains(key));
+    }
+  }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.common.collection;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.junit.Test;
+
+import com.cloudera.oryx.common.OryxTest;
+import com.cloudera.oryx.common.random.RandomManager;
+
+/**
+ * Tests {@link LongArraySet}.
+ *
+ * @author Sean Owen
+ */
+public final class LongArraySetTest extends OryxTest {
+
+  @Test
+  public void testOf() {
+    LongArraySet set = LongArraySet.of(5L, -1L, 3L, 5L, -1L);
+    assertEquals(3, set.size());
+    assertEquals(-1L, set.get(0));
+    assertEquals(3L, set.get(1));
+    assertEquals(5L, set.get(2));
+    assertTrue(set.contains(3L));
+    assertFalse(set.contains(4L));
+    assertSame(LongArraySet.EMPTY, LongArraySet.of());
+    assertTrue(LongArraySet.EMPTY.isEmpty());
+  }
+
+  @Test
+  public void testWithWithout() {
+    LongArraySet set = LongArraySet.of(1L, 3L);
+    LongArraySet with = set.with(2L);
+    assertEquals(LongArraySet.of(1L, 2L, 3L), with);
+    assertEquals(2, set.size());
+    assertSame(with, with.with(3L));
+    assertEquals(LongArraySet.of(1L, 2L), with.without(3L));
+    assertSame(with, with.without(4L));
+    assertSame(LongArraySet.EMPTY, LongArraySet.of(1L).without(1L));
+  }
+
+  @Test
+  public void testIntersect() {
+    LongArraySet a = LongArraySet.of(1L, 2L, 4L, 8L);
+    assertEquals(LongArraySet.of(2L, 8L), a.intersect(LongArraySet.of(2L, 3L, 8L)));
+    assertTrue(a.intersect(LongArraySet.of(3L, 5L)).isEmpty());
+    assertSame(a, a.intersect(a));
+  }
+
+  @Test
+  public void testVersusLongSet() {
+    RandomGenerator random = RandomManager.getRandom();
+    LongSet expected = new LongSet();
+    LongArraySet actual = LongArraySet.EMPTY;
+    for (int i = 0; i < 10000; i++) {
+      long value = random.nextInt(1000);
+      if (random.nextBoolean()) {
+        expected.add(value);
+        actual = actual.with(value);
+      } else {
+        expected.remove(value);
+        actual = actual.without(value);
+      }
+    }
+    assertEquals(expected.size(), actual.size());
+    assertEquals(LongArraySet.of(expected), actual);
+    for (int i = 1; i < actual.size(); i++) {
+      assertTrue(actual.get(i - 1) < actual.get(i));
+    }
+  }
+
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.common.collection;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.junit.Test;
+
+import com.cloudera.oryx.common.OryxTest;
+import com.cloudera.oryx.common.iterator.LongPrimitiveIterator;
+import com.cloudera.oryx.common.random.RandomManager;
+
+/**
+ * Tests {@link LongFloatArrayMap}.
+ *
+ * @author Sean Owen
+ */
+public final class LongFloatArrayMapTest extends OryxTest {
+
+  @Test
+  public void testPutAndGet() {
+    LongFloatArrayMap map = new LongFloatArrayMap();
+    assertNull(map.get(500000L));
+    assertEquals(0, map.getDimension());
+    float[] value = {1.0f, -2.0f};
+    map.put(500000L, value);
+    assertEquals(2, map.getDimension());
+    value[0] = 3.0f;
+    assertArrayEquals(new float[] {1.0f, -2.0f}, map.get(500000L));
+    float[] target = new float[2];
+    assertTrue(map.get(500000L, target));
+    assertArrayEquals(new float[] {1.0f, -2.0f}, target);
+    assertFalse(map.get(1L, target));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWrongDimension() {
+    LongFloatArrayMap map = new LongFloatArrayMap(3, 10);
+    map.put(1L, new float[2]);
+  }
+
+  @Test
+  public void testIncrement() {
+    LongFloatArrayMap map = new LongFloatArrayMap();
+    map.increment(1L, new float[] {1.0f, 2.0f});
+    map.increment(1L, new float[] {0.5f, -1.0f});
+    assertArrayEquals(new float[] {1.5f, 1.0f}, map.get(1L));
+  }
+
+  @Test
+  public void testPutAll() {
+    LongFloatArrayMap map = new LongFloatArrayMap();
+    map.put(3L, new float[] {0.0f, 0.0f});
+    LongFloatArrayMap copy = map.copyOnWrite();
+
+    // Spans several blocks of rows, and includes an existing key and a repeated key
+    int count = 1000;
+    long[] keys = new long[count];
+    float[] values = new float[2 * count];
+    for (int i = 0; i < count; i++) {
+      keys[i] = i;
+      values[2 * i] = i;
+      values[2 * i + 1] = -i;
+    }
+    keys[count - 1] = 10L;
+    copy.putAll(keys, values);
+
+    assertEquals(count - 1, copy.size());
+    for (long i = 0; i < count - 1; i++) {
+      float[] expected = i == 10L ? new float[] {count - 1, -(count - 1)} : new float[] {i, -i};
+      assertArrayEquals(expected, copy.get(i));
+    }
+    assertEquals(1, map.size());
+    assertArrayEquals(new float[] {0.0f, 0.0f}, map.get(3L));
+
+    LongFloatArrayMap fresh = new LongFloatArrayMap();
+    fresh.putAll(new long[] {1L, 2L}, new float[] {1.0f, 2.0f, 3.0f, 4.0f});
+    assertEquals(2, fresh.getDimension());
+    assertArrayEquals(new float[] {3.0f, 4.0f}, fresh.get(2L));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPutAllWrongDimension() {
+    LongFloatArrayMap map = new LongFloatArrayMap(3, 10);
+    map.putAll(new long[] {1L, 2L}, new float[4]);
+  }
+
+  @Test
+  public void testRemove() {
+    LongFloatArrayMap map = buildTestMap();
+    map.remove(500000L);
+    assertEquals(2, map.size());
+    assertNull(map.get(500000L));
+    assertArrayEquals(new float[] {3.0f}, map.get(47L));
+    assertArrayEquals(new float[] {5.0f}, map.get(2L));
+    map.remove(47L);
+    map.remove(2L);
+    assertTrue(map.isEmpty());
+    assertFalse(map.containsKey(2L));
+  }
+
+  @Test
+  public void testClear() {
+    LongFloatArrayMap map = buildTestMap();
+    map.clear();
+    assertEquals(0, map.size());
+    assertTrue(map.isEmpty());
+    assertNull(map.get(500000L));
+    map.put(1L, new float[] {1.0f});
+    assertArrayEquals(new float[] {1.0f}, map.get(1L));
+  }
+
+  @Test
+  public void testContains() {
+    LongFloatArrayMap map = buildTestMap();
+    assertTrue(map.containsKey(500000L));
+    assertTrue(map.containsKey(47L));
+    assertTrue(map.containsKey(2L));
+    assertFalse(map.containsKey(999));
+  }
+
+  @Test
+  public void testRehash() {
+    LongFloatArrayMap map = buildTestMap();
+    map.remove(500000L);
+    map.rehash();
+    assertNull(map.get(500000L));
+    assertArrayEquals(new float[] {3.0f}, map.get(47L));
+  }
+
+  @Test
+  public void testKeyIteratorRemove() {
+    LongFloatArrayMap map = new LongFloatArrayMap();
+    for (long i = 0; i < 10000; i++) {
+      map.put(i, new float[] {i});
+    }
+    LongPrimitiveIterator it = map.keySetIterator();
+    int seen = 0;
+    while (it.hasNext()) {
+      long key = it.nextLong();
+      seen++;
+      if (key % 2 == 0) {
+        it.remove();
+      }
+    }
+    assertEquals(10000, seen);
+    assertEquals(5000, map.size());
+    for (long i = 0; i < 10000; i++) {
+      if (i % 2 == 0) {
+        assertFalse(map.containsKey(i));
+      } else {
+        assertArrayEquals(new float[] {i}, map.get(i));
+      }
+    }
+  }
+
+  @Test
+  public void testEntryIterator() {
+    LongFloatArrayMap map = new LongFloatArrayMap(2, 0);
+    for (long i = 0; i < 10000; i++) {
+      map.put(i, new float[] {i, -i});
+    }
+    LongSet seen = new LongSet();
+    int middle = map.size() / 3;
+    checkEntries(map.entryIterator(0, middle), seen);
+    checkEntries(map.entryIterator(middle, map.size()), seen);
+    assertEquals(10000, seen.size());
+  }
+
+  @Test
+  public void testCopyOnWrite() {
+    LongFloatArrayMap original = new LongFloatArrayMap(2, 0);
+    for (long i = 0; i < 100000; i++) {
+      original.put(i, new float[] {i, -i});
+    }
+    int allStorage = original.countOwned();
+    LongFloatArrayMap copy = original.copyOnWrite();
+    assertEquals(0, copy.countOwned());
+    assertEquals(0, original.countOwned());
+
+    for (long i = 0; i < 10; i++) {
+      copy.put(i * 1000, new float[] {0.0f, 0.0f});
+      copy.remove(i * 1000 + 1);
+      copy.put(-i - 1, new float[] {1.0f, 1.0f});
+    }
+    // Each change touches at most two blocks of rows and two chunks of the index
+    assertTrue(copy.countOwned() <= 30 * 4);
+    assertTrue(copy.countOwned() < allStorage / 10);
+
+    for (long i = 0; i < 10; i++) {
+      assertArrayEquals(new float[] {0.0f, 0.0f}, copy.get(i * 1000));
+      assertFalse(copy.containsKey(i * 1000 + 1));
+      assertArrayEquals(new float[] {1.0f, 1.0f}, copy.get(-i - 1));
+      assertArrayEquals(new float[] {i * 1000, -i * 1000}, original.get(i * 1000));
+      assertArrayEquals(new float[] {i * 1000 + 1, -(i * 1000 + 1)}, original.get(i * 1000 + 1));
+      assertFalse(original.containsKey(-i - 1));
+    }
+    assertEquals(100000, original.size());
+    assertEquals(100000, copy.size());
+
+    // Changing the original afterwards doesn't affect the copy either
+    original.put(5L, new float[] {-1.0f, -1.0f});
+    assertArrayEquals(new float[] {5.0f, -5.0f}, copy.get(5L));
+  }
+
+  @Test
+  public void testVersusHashMap() {
+    LongFloatArrayMap actual = new LongFloatArrayMap();
+    Map<Long,Float> expected = Maps.newHashMap();
+    RandomGenerator r = RandomManager.getRandom();
+    for (int i = 0; i < 1000000; i++) {
+      double d = r.nextDouble();
+      Long key = (long) r.nextInt(100);
+      if (d < 0.4) {
+        Number expectedValue = expected.get(key);
+        float[] actualValue = actual.get(key);
+        if (expectedValue == null) {
+          assertNull(actualValue);
+        } else {
+          assertEquals(expectedValue.floatValue(), actualValue[0]);
+        }
+      } else {
+        if (d < 0.7) {
+          float value = r.nextFloat();
+          expected.put(key, value);
+          actual.put(key, new float[] {value});
+        } else {
+          expected.remove(key);
+          actual.remove(key);
+        }
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.isEmpty(), actual.isEmpty());
+      }
+    }
+  }
+
+  private static void checkEntries(Iterator<LongObjectMap.MapEntry<float[]>> it, LongSet seen) {
+    while (it.hasNext()) {
+      LongObjectMap.MapEntry<float[]> entry = it.next();
+      long key = entry.getKey();
+      assertArrayEquals(new float[] {key, -key}, entry.getValue());
+      assertTrue(seen.add(key));
+    }
+  }
+
+  private static LongFloatArrayMap buildTestMap() {
+    LongFloatArrayMap map = new LongFloatArrayMap();
+    map.put(500000L, new float[] {2.0f});
+    map.put(47L, new float[] {3.0f});
+    map.put(2L, new float[] {5.0f});
+    return map;
+  }
+
+}
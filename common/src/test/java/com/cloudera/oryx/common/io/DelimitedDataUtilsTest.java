@@ -45,6 +45,17 @@ public final class DelimitedDataUtilsTest extends OryxTest {
     assertEquals("foo,\"bar\"\"bing\"", DelimitedDataUtils.encode("foo", "bar\"bing"));
   }
 
+  @Test
+  public void testAppendEncoded() {
+    StringBuilder record = new StringBuilder("x,");
+    DelimitedDataUtils.appendEncoded(record, "foo");
+    record.append(',');
+    DelimitedDataUtils.appendEncoded(record, "bar\"bing");
+    record.append(',');
+    DelimitedDataUtils.appendEncoded(record, "a\r\nb");
+    assertEquals("x,foo,\"bar\"\"bing\",\"a\nb\"", record.toString());
+  }
+
   @Test
   public void testDecode() {
     assertArrayEquals(new String[0], DelimitedDataUtils.decode(""));
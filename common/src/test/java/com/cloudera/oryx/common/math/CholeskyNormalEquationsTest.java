@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+
+package com.cloudera.oryx.common.math;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.junit.Test;
+
+import com.cloudera.oryx.common.OryxTest;
+import com.cloudera.oryx.common.random.RandomManager;
+
+/**
+ * Tests {@link CholeskyNormalEquations}.
+ *
+ * @author Sean Owen
+ */
+public final class CholeskyNormalEquationsTest extends OryxTest {
+
+  @Test
+  public void testSolve() {
+    RandomGenerator random = RandomManager.getRandom();
+    int dimension = 13;
+    CholeskyNormalEquations equations = new CholeskyNormalEquations(dimension);
+    // Twice, to check that reset() clears all state
+    for (int trial = 0; trial < 2; trial++) {
+      RealMatrix initial = new Array2DRowRealMatrix(dimension, dimension);
+      for (int i = 0; i < dimension; i++) {
+        initial.setEntry(i, i, 1.0);
+      }
+      RealMatrix expectedA = initial.copy();
+      double[] expectedB = new double[dimension];
+      equations.reset(initial);
+      // Enough vectors to fill several blocks and a partial one
+      for (int n = 0; n < 29; n++) {
+        float[] v = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+          v[i] = (float) random.nextGaussian();
+        }
+        double weight = random.nextDouble();
+        equations.addOuterProduct(v, weight);
+        equations.addToB(v, 1.0 + weight);
+        for (int i = 0; i < dimension; i++) {
+          for (int j = 0; j < dimension; j++) {
+            expectedA.addToEntry(i, j, weight * v[i] * v[j]);
+          }
+          expectedB[i] += (1.0 + weight) * v[i];
+        }
+      }
+      equations.addToDiagonal(0.5);
+      for (int i = 0; i < dimension; i++) {
+        expectedA.addToEntry(i, i, 0.5);
+      }
+      float[] expected = MatrixUtils.getSolver(expectedA).solveDToF(expectedB);
+      float[] actual = equations.solve(null);
+      assertEquals(dimension, actual.length);
+      for (int i = 0; i < dimension; i++) {
+        assertEquals(expected[i], actual[i], 1.0e-4f);
+      }
+    }
+  }
+
+  @Test
+  public void testFromZero() {
+    CholeskyNormalEquations equations = new CholeskyNormalEquations(2);
+    equations.reset(null);
+    equations.addOuterProduct(new float[] {1.0f, 0.0f}, 2.0);
+    equations.addOuterProduct(new float[] {1.0f, 1.0f}, 1.0);
+    equations.addToB(new float[] {3.0f, 1.0f}, 1.0);
+    // A = [[3,1],[1,1]], b = [3,1]
+    assertArrayEquals(new float[] {1.0f, 0.0f}, equations.solve(null));
+  }
+
+  @Test
+  public void testAdd() {
+    // Building parts of the system separately and adding them should solve the same as building it whole
+    CholeskyNormalEquations whole = new CholeskyNormalEquations(2);
+    CholeskyNormalEquations part1 = new CholeskyNormalEquations(2);
+    CholeskyNormalEquations part2 = new CholeskyNormalEquations(2);
+    RealMatrix initial = new Array2DRowRealMatrix(new double[][] {{1.0, 0.5}, {0.5, 2.0}});
+    whole.reset(initial);
+    part1.reset(null);
+    part2.reset(null);
+    float[][] vectors = {{1.0f, 0.0f}, {1.0f, 1.0f}, {-2.0f, 0.5f}};
+    for (int i = 0; i < vectors.length; i++) {
+      whole.addOuterProduct(vectors[i], i + 1.0);
+      whole.addToB(vectors[i], 1.0);
+      CholeskyNormalEquations part = i % 2 == 0 ? part1 : part2;
+      part.addOuterProduct(vectors[i], i + 1.0);
+      part.addToB(vectors[i], 1.0);
+    }
+    CholeskyNormalEquations sum = new CholeskyNormalEquations(2);
+    sum.reset(initial);
+    sum.add(part1);
+    sum.add(part2);
+    assertArrayEquals(whole.solve(null), sum.solve(null));
+  }
+
+  @Test(expected = SingularMatrixSolverException.class)
+  public void testSingular() {
+    CholeskyNormalEquations equations = new CholeskyNormalEquations(3);
+    equations.reset(null);
+    equations.addOuterProduct(new float[] {1.0f, 2.0f, 3.0f}, 1.0);
+    equations.addOuterProduct(new float[] {2.0f, 4.0f, 6.0f}, 1.0);
+    equations.addToB(new float[] {1.0f, 1.0f, 1.0f}, 1.0);
+    equations.solve(null);
+  }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+
+package com.cloudera.oryx.common.math;
+
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.util.FastMath;
+import org.junit.Test;
+
+import com.cloudera.oryx.common.OryxTest;
+import com.cloudera.oryx.common.collection.LongObjectMap;
+import com.cloudera.oryx.common.random.RandomManager;
+
+/**
+ * Tests {@link ConjugateGradientNormalEquations}.
+ *
+ * @author Sean Owen
+ */
+public final class ConjugateGradientNormalEquationsTest extends OryxTest {
+
+  private static final int DIMENSION = 10;
+
+  @Test
+  public void testConverges() {
+    // With as many steps as dimensions, conjugate gradient should find the exact solution from anywhere
+    NormalEquations exact = new CholeskyNormalEquations(DIMENSION);
+    NormalEquations cg = new ConjugateGradientNormalEquations(DIMENSION, 2 * DIMENSION);
+    RandomGenerator random = RandomManager.getRandom();
+    RealMatrix YTY = MatrixUtils.transposeTimesSelf(randomMatrix(random, 20));
+    float[] start = randomVector(random);
+    // Twice, to check that reset() clears all state
+    for (int trial = 0; trial < 2; trial++) {
+      exact.reset(YTY);
+      cg.reset(YTY);
+      buildRandom(random, exact, cg);
+      float[] expected = exact.solve(null);
+      float[] actual = cg.solve(start);
+      for (int i = 0; i < DIMENSION; i++) {
+        assertEquals(expected[i], actual[i], 1.0e-4f);
+      }
+    }
+  }
+
+  @Test
+  public void testImproves() {
+    // A few steps should get closer to the solution, and starting at it should stay there
+    NormalEquations exact = new CholeskyNormalEquations(DIMENSION);
+    NormalEquations cg = new ConjugateGradientNormalEquations(DIMENSION, 2);
+    RandomGenerator random = RandomManager.getRandom();
+    exact.reset(null);
+    cg.reset(null);
+    buildRandom(random, exact, cg);
+    float[] expected = exact.solve(null);
+    float[] start = randomVector(random);
+    float[] actual = cg.solve(start);
+    assertTrue(distance(expected, actual) < distance(expected, start));
+    float[] again = cg.solve(expected);
+    for (int i = 0; i < DIMENSION; i++) {
+      assertEquals(expected[i], again[i], 1.0e-4f);
+    }
+  }
+
+  @Test
+  public void testAdd() {
+    // Building parts of the system separately and adding them should solve the same as building it whole
+    NormalEquations whole = new ConjugateGradientNormalEquations(DIMENSION, 3);
+    NormalEquations part1 = new ConjugateGradientNormalEquations(DIMENSION, 3);
+    NormalEquations part2 = new ConjugateGradientNormalEquations(DIMENSION, 3);
+    RandomGenerator random = RandomManager.getRandom();
+    RealMatrix YTY = MatrixUtils.transposeTimesSelf(randomMatrix(random, 20));
+    whole.reset(YTY);
+    part1.reset(null);
+    part2.reset(null);
+    for (int n = 0; n < 15; n++) {
+      float[] v = randomVector(random);
+      double weight = random.nextDouble();
+      whole.addOuterProduct(v, weight);
+      whole.addToB(v, 1.0 + weight);
+      NormalEquations part = n % 2 == 0 ? part1 : part2;
+      part.addOuterProduct(v, weight);
+      part.addToB(v, 1.0 + weight);
+    }
+    whole.addToDiagonal(0.5);
+    part2.addToDiagonal(0.5);
+    NormalEquations sum = new ConjugateGradientNormalEquations(DIMENSION, 3);
+    sum.reset(YTY);
+    sum.add(part1);
+    sum.add(part2);
+    float[] start = randomVector(random);
+    float[] expected = whole.solve(start);
+    float[] actual = sum.solve(start);
+    for (int i = 0; i < DIMENSION; i++) {
+      assertEquals(expected[i], actual[i], 1.0e-4f);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testAddNonZeroInitial() {
+    RandomGenerator random = RandomManager.getRandom();
+    NormalEquations part = new ConjugateGradientNormalEquations(DIMENSION, 3);
+    part.reset(MatrixUtils.transposeTimesSelf(randomMatrix(random, 20)));
+    NormalEquations sum = new ConjugateGradientNormalEquations(DIMENSION, 3);
+    sum.reset(null);
+    sum.add(part);
+  }
+
+  private static void buildRandom(RandomGenerator random, NormalEquations... allEquations) {
+    for (int n = 0; n < 15; n++) {
+      float[] v = randomVector(random);
+      double weight = random.nextDouble();
+      for (NormalEquations equations : allEquations) {
+        equations.addOuterProduct(v, weight);
+        equations.addToB(v, 1.0 + weight);
+      }
+    }
+    for (NormalEquations equations : allEquations) {
+      equations.addToDiagonal(0.5);
+    }
+  }
+
+  private static LongObjectMap<float[]> randomMatrix(RandomGenerator random, int rows) {
+    LongObjectMap<float[]> M = new LongObjectMap<float[]>();
+    for (long row = 0; row < rows; row++) {
+      M.put(row, randomVector(random));
+    }
+    return M;
+  }
+
+  private static float[] randomVector(RandomGenerator random) {
+    float[] v = new float[DIMENSION];
+    for (int i = 0; i < DIMENSION; i++) {
+      v[i] = (float) random.nextGaussian();
+    }
+    return v;
+  }
+
+  private static double distance(float[] a, float[] b) {
+    double sum = 0.0;
+    for (int i = 0; i < a.length; i++) {
+      double diff = a[i] - b[i];
+      sum += diff * diff;
+    }
+    return FastMath.sqrt(sum);
+  }
+
+}
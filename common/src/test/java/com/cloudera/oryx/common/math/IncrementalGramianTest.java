@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2013, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.oryx.common.math;
+
+import org.junit.Test;
+
+import com.cloudera.oryx.common.OryxTest;
+import com.cloudera.oryx.common.collection.LongObjectMap;
+
+/**
+ * Tests {@link IncrementalGramian}.
+ *
+ * @author Sean Owen
+ */
+public final class IncrementalGramianTest extends OryxTest {
+
+  @Test
+  public void testUpdate() {
+    LongObjectMap<float[]> M = new LongObjectMap<float[]>();
+    M.put(1L, new float[] {4.0f, -1.0f, -5.0f});
+    M.put(2L, new float[] {2.0f, 0.0f, 3.0f});
+    M.put(3L, new float[] {1.0f, 2.0f, 0.0f});
+    IncrementalGramian gramian = new IncrementalGramian(MatrixUtils.transposeTimesSelf(M), 2);
+    Solver initialSolver = gramian.getSolver();
+
+    float[] newRow = {-1.0f, 3.0f, 2.0f};
+    gramian.update(M.get(3L), newRow);
+    M.put(3L, newRow);
+    assertSame(initialSolver, gramian.getSolver());
+
+    float[] addedRow = {0.0f, 1.0f, 1.0f};
+    gramian.update(null, addedRow);
+    M.put(4L, addedRow);
+    assertNotSame(initialSolver, gramian.getSolver());
+
+    assertSameSolutions(MatrixUtils.getSolver(MatrixUtils.transposeTimesSelf(M)),
+                        gramian.getSolver(),
+                        new float[] {1.0f, -2.0f, 0.5f});
+  }
+
+  @Test
+  public void testRemove() {
+    LongObjectMap<float[]> M = new LongObjectMap<float[]>();
+    M.put(1L, new float[] {4.0f, -1.0f});
+    M.put(2L, new float[] {2.0f, 3.0f});
+    M.put(3L, new float[] {1.0f, 2.0f});
+    IncrementalGramian gramian = new IncrementalGramian(MatrixUtils.transposeTimesSelf(M), 1);
+    gramian.update(M.remove(2L), null);
+    assertSameSolutions(MatrixUtils.getSolver(MatrixUtils.transposeTimesSelf(M)),
+                        gramian.getSolver(),
+                        new float[] {1.0f, -2.0f});
+  }
+
+  private static void assertSameSolutions(Solver expected, Solver actual, float[] b) {
+    assertArrayEquals(expected.solveFToD(b), actual.solveFToD(b));
+  }
+
+}
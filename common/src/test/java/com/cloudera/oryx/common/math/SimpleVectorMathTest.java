@@ -33,6 +33,19 @@ public final class SimpleVectorMathTest extends OryxTest {
     assertEquals(-5.25, SimpleVectorMath.dot(VEC1, VEC2));
   }
 
+  @Test
+  public void testDots() {
+    float[] block = {-1.0f, 2.5f, 3.0f, 1.5f, -1.5f, 0.0f, 0.0f, 0.0f, 0.0f};
+    double[] dots = new double[3];
+    SimpleVectorMath.dots(block, 2, VEC2, dots);
+    assertEquals(SimpleVectorMath.dot(VEC1, VEC2), dots[0]);
+    assertEquals(SimpleVectorMath.dot(VEC2, VEC2), dots[1]);
+    assertEquals(0.0, dots[2]);
+    float[] longVec = {1.0f, 2.0f, 3.0f, 4.0f, 5.0f, 6.0f, 7.0f};
+    SimpleVectorMath.dots(longVec, 1, longVec, dots);
+    assertEquals(SimpleVectorMath.dot(longVec, longVec), dots[0]);
+  }
+
   @Test
   public void testNorm() {
     assertEquals(4.03112887414928, SimpleVectorMath.norm(VEC1));
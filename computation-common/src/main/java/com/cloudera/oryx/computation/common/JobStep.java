@@ -47,6 +47,7 @@ import org.apache.hadoop.mapreduce.JobID;
 import org.apache.hadoop.mapreduce.JobStatus;
 import org.apache.hadoop.mapreduce.MRJobConfig;
 import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.TaskType;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
@@ -237,6 +238,20 @@ public abstract class JobStep extends Configured implements Tool, HasState {
     // do nothing
   }
 
+  /**
+   * @return number of map tasks in the job that this step ran, or 0 if it didn't run a job
+   */
+  protected final int getNumMapTasks() throws IOException {
+    if (exec == null) {
+      return 0;
+    }
+    try {
+      return exec.getJobs().get(0).getJob().getTaskReports(TaskType.MAP).length;
+    } catch (InterruptedException ie) {
+      throw new IOException(ie);
+    }
+  }
+
   protected boolean isHighMemoryStep() {
     return false;
   }
@@ -22,7 +22,6 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.Writer;
 
 import com.cloudera.oryx.common.io.IOUtils;
 import com.cloudera.oryx.common.servcomp.Namespaces;
@@ -80,12 +79,8 @@ public final class KMeansGenerationManager extends GenerationManager {
     currentGeneration = new Generation((ClusteringModel) pmmlModel.getModels().get(0));
   }
 
-  public synchronized void append(CharSequence example) throws IOException {
-    Writer appender = getAppender();
-    if (appender != null) {
-      appender.append(example + "\n");
-    }
-    decrementCountdownToUpload();
+  public void append(CharSequence example) throws IOException {
+    appendLine(example + "\n");
   }
 
 }
@@ -23,7 +23,6 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.Writer;
 import java.util.Map;
 
 import com.cloudera.oryx.common.io.IOUtils;
@@ -53,12 +52,8 @@ public final class RDFGenerationManager extends GenerationManager {
     return currentModel;
   }
 
-  public synchronized void append(CharSequence example) throws IOException {
-    Writer appender = getAppender();
-    if (appender != null) {
-      appender.append(example + "\n");
-    }
-    decrementCountdownToUpload();
+  public void append(CharSequence example) throws IOException {
+    appendLine(example + "\n");
   }
 
   @Override
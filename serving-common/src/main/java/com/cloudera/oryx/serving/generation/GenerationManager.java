@@ -24,9 +24,12 @@ import org.slf4j.LoggerFactory;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.Writer;
 import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.Semaphore;
@@ -54,12 +57,22 @@ public abstract class GenerationManager implements Closeable {
 
   private final String instanceDir;
   private final ScheduledExecutorService executorService;
+  /** Guards the appender and related state below, separately from any lock that subclasses use. */
+  private final Object appendLock;
   private long writeGeneration;
   private Writer appender;
   private final File appendTempDir;
   private File appenderTempFile;
   private final long writesBetweenUpload;
   private long countdownToUpload;
+  /** Lines appended but not yet written. Many threads append, and one at a time writes them in batches. */
+  private final Queue<CharSequence> appendQueue;
+  /** One permit per line that may still be queued; appends wait for one when the queue is full. */
+  private final Semaphore appendQueuePermits;
+  private final int appendQueueSize;
+  private final long appendMaxLatencyMS;
+  /** Set once {@link #close()} starts; lines appended after that are written by the appending thread. */
+  private volatile boolean closed;
   private final Semaphore refreshSemaphore;
 
   protected GenerationManager(File appendTempDir) throws IOException {
@@ -70,12 +83,36 @@ public abstract class GenerationManager implements Closeable {
     this.appendTempDir = appendTempDir;
     writesBetweenUpload = config.getLong("model.writes-between-upload");
     countdownToUpload = writesBetweenUpload;
+    appendQueueSize = config.getInt("model.append.queue-size");
+    Preconditions.checkArgument(appendQueueSize > 0, "queue-size must be positive: %s", appendQueueSize);
+    appendMaxLatencyMS = config.getLong("model.append.max-latency-ms");
+    appendQueue = new ConcurrentLinkedQueue<CharSequence>();
+    appendQueuePermits = new Semaphore(appendQueueSize);
 
+    appendLock = new Object();
     writeGeneration = NO_GENERATION;
 
-    executorService = Executors.newScheduledThreadPool(3, new ThreadFactoryBuilder().setDaemon(true).build());
+    executorService = Executors.newScheduledThreadPool(4, new ThreadFactoryBuilder().setDaemon(true).build());
     refreshSemaphore = new Semaphore(1);
 
+    executorService.scheduleWithFixedDelay(new Runnable() {
+      private boolean warnedNoAppender;
+      @Override
+      public void run() {
+        try {
+          if (writeQueuedLines()) {
+            warnedNoAppender = false;
+          } else if (!warnedNoAppender) {
+            // Normal until there's a write generation; lines stay queued until then
+            log.warn("No file to append to yet; {} lines queued", appendQueue.size());
+            warnedNoAppender = true;
+          }
+        } catch (Throwable t) {
+          log.error("Exception while writing appended lines; will retry", t);
+        }
+      }
+    }, appendMaxLatencyMS, appendMaxLatencyMS, TimeUnit.MILLISECONDS);
+
     executorService.scheduleWithFixedDelay(new Runnable() {
       @Override
       public void run() {
@@ -104,11 +141,71 @@ public abstract class GenerationManager implements Closeable {
     }, 0, 7, TimeUnit.MINUTES); // Should be mutually prime with delay set above
   }
 
-  protected final synchronized Writer getAppender() {
-    return appender;
+  /**
+   * Appends a line to the data that will be sent to the Computation Layer. It is queued, and written
+   * shortly after by another thread. This waits only if the queue is full.
+   *
+   * @param line line to append, including terminating newline
+   * @throws IOException if interrupted while waiting for space in the queue, or if the line can't be
+   *  written because this has been closed
+   */
+  protected final void appendLine(CharSequence line) throws IOException {
+    try {
+      while (!appendQueuePermits.tryAcquire(appendMaxLatencyMS, TimeUnit.MILLISECONDS)) {
+        if (closed) {
+          throw new IOException("Closed while waiting to append");
+        }
+      }
+    } catch (InterruptedException ignored) {
+      throw new InterruptedIOException("Interrupted while waiting to append");
+    }
+    appendQueue.add(line);
+    if (closed && !writeQueuedLines()) {
+      // close() may already have written out the queue, so write this line here or fail
+      throw new IOException("Closed with no file to append to");
+    }
+  }
+
+  /**
+   * Writes lines queued so far in batches, taking the appender lock once per batch. A line is only
+   * removed from the queue once it has been written; if writing fails, it stays queued to be retried.
+   *
+   * @return {@code false} if lines are queued but there is no appender to write them to yet, in which
+   *  case they stay queued; {@code true} otherwise
+   * @throws IOException if a line can't be written
+   */
+  private boolean writeQueuedLines() throws IOException {
+    while (!appendQueue.isEmpty()) {
+      synchronized (appendLock) {
+        if (appender == null) {
+          return false;
+        }
+        int written = 0;
+        try {
+          CharSequence line;
+          while (written < appendQueueSize && (line = appendQueue.peek()) != null) {
+            appender.append(line);
+            // Only one thread at a time holds the lock and removes lines, so this is the line just written
+            appendQueue.poll();
+            appendQueuePermits.release();
+            written++;
+          }
+        } catch (IOException ioe) {
+          // Roll to a new file at the next opportunity, rather than keep failing on this one
+          countdownToUpload = 0;
+          throw ioe;
+        } finally {
+          countdownToUpload -= written;
+        }
+      }
+    }
+    return true;
   }
 
-  private synchronized void closeAppender() {
+  /**
+   * Must be called while holding {@link #appendLock}.
+   */
+  private void closeAppender() {
     if (appender != null) {
 
       if (writeGeneration < 0L) {
@@ -201,25 +298,24 @@ public abstract class GenerationManager implements Closeable {
     }
   }
 
-  protected final synchronized void decrementCountdownToUpload() {
-    countdownToUpload--;
-  }
-
-  private synchronized void maybeRollAppender() throws IOException {
+  private void maybeRollAppender() throws IOException {
+    // Listing generations can be slow, so don't block appends meanwhile
     long newMostRecentGeneration = getMostRecentGeneration();
-    if (newMostRecentGeneration > writeGeneration || countdownToUpload <= 0) {
-      countdownToUpload = writesBetweenUpload;
-      // Close and write into *current* write generation first -- but only if it exists
-      if (writeGeneration >= 0L) {
-        closeAppender();
-        writeGeneration = newMostRecentGeneration;
-      } else {
-        writeGeneration = newMostRecentGeneration;
-        closeAppender();
+    synchronized (appendLock) {
+      if (newMostRecentGeneration > writeGeneration || countdownToUpload <= 0) {
+        countdownToUpload = writesBetweenUpload;
+        // Close and write into *current* write generation first -- but only if it exists
+        if (writeGeneration >= 0L) {
+          closeAppender();
+          writeGeneration = newMostRecentGeneration;
+        } else {
+          writeGeneration = newMostRecentGeneration;
+          closeAppender();
+        }
+        appenderTempFile = File.createTempFile("oryx-append-", ".csv.gz", appendTempDir);
+        // A small buffer is needed here, but GZIPOutputStream already provides a substantial native buffer
+        appender = IOUtils.buildGZIPWriter(appenderTempFile);
       }
-      appenderTempFile = File.createTempFile("oryx-append-", ".csv.gz", appendTempDir);
-      // A small buffer is needed here, but GZIPOutputStream already provides a substantial native buffer
-      appender = IOUtils.buildGZIPWriter(appenderTempFile);
     }
   }
 
@@ -234,19 +330,32 @@ public abstract class GenerationManager implements Closeable {
   }
 
   @Override
-  public final synchronized void close() {
+  public final void close() {
+    closed = true;
     ExecutorUtils.shutdownAndAwait(executorService); // Let others complete
-    closeAppender();
+    try {
+      if (!writeQueuedLines()) {
+        log.error("No file to append to; {} lines not written", appendQueue.size());
+      }
+    } catch (IOException e) {
+      log.error("Exception while writing appended lines; {} lines not written", appendQueue.size(), e);
+    }
+    synchronized (appendLock) {
+      closeAppender();
+    }
   }
 
   /**
    * Triggers a refresh of the object's internal state, which particularly includes rebuilding or reloading
    * a matrix model.
    */
-  public final synchronized void refresh() {
+  public final void refresh() {
     try {
-      if (appender != null) {
-        appender.flush();
+      writeQueuedLines();
+      synchronized (appendLock) {
+        if (appender != null) {
+          appender.flush();
+        }
       }
     } catch (IOException e) {
       log.warn("Exception while flushing", e);